@@ -0,0 +1,289 @@
+package com.qxy.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/7 9:30
+ * @Introduction: 把日志事件编码为ECS(Elastic Common Schema)格式的单行json,以\n结尾,logstash使用json_lines codec
+ * <p>
+ * 1、字段与ecs-logging-java一致: @timestamp、log.level、message、ecs.version、service.name、event.dataset、
+ * process.thread.name、log.logger、host.hostname,MDC作为顶层字段,异常写入error.type/error.message/error.stack_trace;
+ * 与这些字段同名的MDC键加上"mdc."前缀输出,不会产生重复的键
+ * 2、直接按UTF-8写入每个线程复用的字节缓冲区,不经过String拼接和Charset编码器;@timestamp按秒缓存前缀
+ * <p>
+ * 线程安全,可以同时用于多个appender;缓冲区按线程共用,不随encoder实例增加
+ */
+public class EcsJsonEncoder extends EncoderBase<ILoggingEvent> {
+    public static final String ECS_VERSION = "1.2.0";
+    private static final DateTimeFormatter SECOND_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.").withZone(ZoneOffset.UTC);
+    /**
+     * 超过这个大小的缓冲区不留给线程复用,避免一次大异常栈长期占用内存
+     */
+    private static final int MAX_REUSED_BUFFER = 64 * 1024;
+    /**
+     * 编码器自己输出的字段,MDC中的同名键加前缀
+     */
+    static final Set<String> RESERVED_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "@timestamp", "log.level", "message", "ecs.version", "service.name", "event.dataset",
+            "process.thread.name", "log.logger", "host.hostname", "error.type", "error.message", "error.stack_trace")));
+    static final String MDC_PREFIX = "mdc.";
+
+    /**
+     * 所有encoder实例共用,每个线程一个
+     */
+    private static final ThreadLocal<JsonBuffer> BUFFERS = ThreadLocal.withInitial(JsonBuffer::new);
+    private String serviceName;
+    private String eventDataset;
+    private boolean includeMdc = true;
+    private boolean includeStackTrace = true;
+    private byte[] staticFields = new byte[0];
+
+    @Override
+    public void start() {
+        //每个事件都相同的字段预先编码
+        JsonBuffer fields = new JsonBuffer();
+        fields.field("ecs.version", ECS_VERSION);
+        if (serviceName != null && !serviceName.isEmpty()) {
+            fields.field("service.name", serviceName);
+            fields.field("event.dataset", eventDataset != null ? eventDataset : serviceName + ".log");
+        } else if (eventDataset != null) {
+            fields.field("event.dataset", eventDataset);
+        }
+        String hostname = getContext() != null ? getContext().getProperty(CoreConstants.HOSTNAME_KEY) : null;
+        if (hostname != null) {
+            fields.field("host.hostname", hostname);
+        }
+        staticFields = fields.toByteArray();
+        super.start();
+    }
+
+    @Override
+    public byte[] headerBytes() {
+        return null;
+    }
+
+    @Override
+    public byte[] encode(ILoggingEvent event) {
+        JsonBuffer out = BUFFERS.get();
+        if (out.inUse) {
+            //编码时格式化消息又记录了日志(参数的toString中打日志),本线程的缓冲区正在使用,这次用临时的
+            JsonBuffer temporary = new JsonBuffer();
+            write(temporary, event);
+            return temporary.toByteArray();
+        }
+        out.inUse = true;
+        try {
+            out.reset();
+            write(out, event);
+            return out.toByteArray();
+        } finally {
+            out.inUse = false;
+            if (out.capacity() > MAX_REUSED_BUFFER) {
+                BUFFERS.remove();
+            }
+        }
+    }
+
+    private void write(JsonBuffer out, ILoggingEvent event) {
+        out.raw('{');
+        out.timestamp(event.getTimeStamp());
+        out.field("log.level", event.getLevel().toString());
+        out.field("message", event.getFormattedMessage());
+        out.raw(staticFields, 0, staticFields.length);
+        out.field("process.thread.name", event.getThreadName());
+        out.field("log.logger", event.getLoggerName());
+        if (includeMdc) {
+            for (Map.Entry<String, String> entry : event.getMDCPropertyMap().entrySet()) {
+                String key = entry.getKey();
+                out.field(RESERVED_FIELDS.contains(key) ? MDC_PREFIX + key : key, entry.getValue());
+            }
+        }
+        IThrowableProxy throwable = event.getThrowableProxy();
+        if (throwable != null) {
+            out.field("error.type", throwable.getClassName());
+            out.field("error.message", throwable.getMessage());
+            if (includeStackTrace) {
+                out.field("error.stack_trace", ThrowableProxyUtil.asString(throwable));
+            }
+        }
+        out.raw('}');
+        out.raw('\n');
+    }
+
+    @Override
+    public byte[] footerBytes() {
+        return null;
+    }
+
+    /**
+     * 服务名,对应service.name,默认不输出
+     */
+    public void setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * 对应event.dataset,默认是serviceName.log
+     */
+    public void setEventDataset(String eventDataset) {
+        this.eventDataset = eventDataset;
+    }
+
+    public void setIncludeMdc(boolean includeMdc) {
+        this.includeMdc = includeMdc;
+    }
+
+    public void setIncludeStackTrace(boolean includeStackTrace) {
+        this.includeStackTrace = includeStackTrace;
+    }
+
+    /**
+     * UTF-8 json缓冲区,一个线程一个
+     */
+    static class JsonBuffer {
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+        private boolean inUse;
+        private byte[] buf = new byte[1024];
+        private int size;
+        private long cachedSecond = Long.MIN_VALUE;
+        private byte[] cachedPrefix;
+
+        void reset() {
+            size = 0;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+
+        void raw(char c) {
+            ensure(1);
+            buf[size++] = (byte) c;
+        }
+
+        void raw(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, size, length);
+            size += length;
+        }
+
+        /**
+         * "@timestamp":"2023-04-07T01:30:00.123Z",第一个字段
+         */
+        void timestamp(long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            if (second != cachedSecond) {
+                cachedPrefix = ("\"@timestamp\":\"" + SECOND_FORMAT.format(Instant.ofEpochSecond(second)))
+                        .getBytes(StandardCharsets.US_ASCII);
+                cachedSecond = second;
+            }
+            raw(cachedPrefix, 0, cachedPrefix.length);
+            int ms = (int) Math.floorMod(millis, 1000);
+            ensure(5);
+            buf[size++] = (byte) ('0' + ms / 100);
+            buf[size++] = (byte) ('0' + ms / 10 % 10);
+            buf[size++] = (byte) ('0' + ms % 10);
+            buf[size++] = 'Z';
+            buf[size++] = '"';
+        }
+
+        /**
+         * ,"name":"value",value为null时不输出;@timestamp总是第一个字段,其余字段都以逗号开头
+         */
+        void field(String name, String value) {
+            if (value == null) {
+                return;
+            }
+            raw(',');
+            string(name);
+            raw(':');
+            string(value);
+        }
+
+        private void string(String value) {
+            int length = value.length();
+            //最坏情况每个字符6字节(\\u00XX)
+            ensure(length * 6 + 2);
+            buf[size++] = '"';
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    if (c >= 0x20 && c != '"' && c != '\\') {
+                        buf[size++] = (byte) c;
+                    } else {
+                        escape(c);
+                    }
+                } else if (c < 0x800) {
+                    buf[size++] = (byte) (0xc0 | (c >> 6));
+                    buf[size++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buf[size++] = (byte) (0xf0 | (codePoint >> 18));
+                    buf[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buf[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buf[size++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    //不成对的代理字符
+                    buf[size++] = '?';
+                } else {
+                    buf[size++] = (byte) (0xe0 | (c >> 12));
+                    buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[size++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            buf[size++] = '"';
+        }
+
+        private void escape(char c) {
+            buf[size++] = '\\';
+            switch (c) {
+                case '"':
+                case '\\':
+                    buf[size++] = (byte) c;
+                    break;
+                case '\n':
+                    buf[size++] = 'n';
+                    break;
+                case '\r':
+                    buf[size++] = 'r';
+                    break;
+                case '\t':
+                    buf[size++] = 't';
+                    break;
+                default:
+                    buf[size++] = 'u';
+                    buf[size++] = '0';
+                    buf[size++] = '0';
+                    buf[size++] = HEX[c >> 4];
+                    buf[size++] = HEX[c & 0xf];
+            }
+        }
+    }
+}
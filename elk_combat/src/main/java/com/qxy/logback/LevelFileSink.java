@@ -0,0 +1,276 @@
+package com.qxy.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.core.rolling.helper.FileFilterUtil;
+import ch.qos.logback.core.rolling.helper.FileNamePattern;
+import ch.qos.logback.core.rolling.helper.RollingCalendar;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.util.FileSize;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/8 9:30
+ * @Introduction: LevelRoutingAppender中一个级别的日志文件,只由appender的写线程访问
+ * <p>
+ * 1、写入先进入直接内存缓冲区,缓冲区满或队列空闲时一次写入FileChannel,不调用force(fsync)
+ * 2、滚动规则与TimeBasedRollingPolicy + SizeAndTimeBasedFNATP一致: fileNamePattern中的%d为归档周期,
+ * %i为同一周期内按maxFileSize切分的序号,maxHistory为保留的周期数
+ */
+public class LevelFileSink extends ContextAwareBase {
+    /**
+     * 清理归档时向前检查的周期数,与logback的TimeBasedArchiveRemover相同
+     */
+    private static final int CLEAN_PERIODS = 32;
+
+    private String level;
+    private String file;
+    private String fileNamePattern;
+    private FileSize maxFileSize;
+    private int maxHistory;
+
+    private Level routedLevel;
+    private FileNamePattern archivePattern;
+    private RollingCalendar calendar;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long size;
+    private long periodTime;
+    private long nextPeriod = Long.MAX_VALUE;
+    private int index;
+
+    /**
+     * 检查配置
+     *
+     * @return 配置有误时返回false,错误已写入状态
+     */
+    boolean validate() {
+        routedLevel = level != null ? Level.toLevel(level, null) : null;
+        if (routedLevel == null) {
+            addError("level is required for sink " + file + ", got " + level);
+            return false;
+        }
+        if (file == null) {
+            addError("file is required for the " + level + " sink");
+            return false;
+        }
+        if (fileNamePattern == null) {
+            if (maxFileSize != null || maxHistory > 0) {
+                addWarn("maxFileSize and maxHistory are ignored without fileNamePattern, " + file + " is never rolled");
+            }
+            //没有归档文件名时不能按大小滚动
+            maxFileSize = null;
+            return true;
+        }
+        archivePattern = new FileNamePattern(fileNamePattern, getContext());
+        if (archivePattern.getPrimaryDateTokenConverter() == null) {
+            addError("fileNamePattern " + fileNamePattern + " has no %d token");
+            return false;
+        }
+        if (maxFileSize != null && !archivePattern.hasIntegerTokenCOnverter()) {
+            addError("fileNamePattern " + fileNamePattern + " needs an %i token when maxFileSize is set");
+            return false;
+        }
+        calendar = new RollingCalendar(archivePattern.getPrimaryDateTokenConverter().getDatePattern());
+        return true;
+    }
+
+    /**
+     * 打开文件,已存在时追加;当前周期取文件的最后修改时间
+     */
+    void open(int bufferSize) throws IOException {
+        File target = new File(file);
+        createParent(target);
+        channel = new FileOutputStream(target, true).getChannel();
+        size = channel.size();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        if (calendar != null) {
+            periodTime = target.exists() && size > 0 ? target.lastModified() : System.currentTimeMillis();
+            nextPeriod = calendar.getNextTriggeringDate(new Date(periodTime)).getTime();
+            index = nextIndex(periodTime);
+        }
+    }
+
+    /**
+     * @param time 事件时间,用于按周期滚动
+     */
+    void write(byte[] bytes, long time) throws IOException {
+        if (!channel.isOpen()) {
+            //上一次滚动失败
+            buffer.clear();
+            open(buffer.capacity());
+        }
+        if (time >= nextPeriod) {
+            roll(time);
+        } else if (maxFileSize != null && size > 0 && size + bytes.length > maxFileSize.getSize()) {
+            roll(periodTime);
+        }
+        if (bytes.length > buffer.remaining()) {
+            flush();
+            if (bytes.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes));
+                size += bytes.length;
+                return;
+            }
+        }
+        buffer.put(bytes);
+        size += bytes.length;
+    }
+
+    /**
+     * 缓冲区写入文件
+     */
+    void flush() throws IOException {
+        if (buffer == null || buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    boolean isDirty() {
+        return buffer != null && buffer.position() > 0;
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    /**
+     * 当前文件改名为归档文件,打开新文件
+     *
+     * @param time 新文件所在周期内的时间
+     */
+    private void roll(long time) throws IOException {
+        flush();
+        channel.close();
+        boolean newPeriod = time >= nextPeriod;
+        //已有同名归档(其他进程或重启前写入的)时跳到下一个未使用的%i,不覆盖
+        index = Math.max(index, nextIndex(periodTime));
+        String archive = archivePattern.convertMultipleArguments(new Date(periodTime), index);
+        File archiveFile = new File(archive);
+        createParent(archiveFile);
+        if (archiveFile.exists() || !new File(file).renameTo(archiveFile)) {
+            throw new IOException("failed to rename " + file + " to " + archive);
+        }
+        if (newPeriod) {
+            periodTime = time;
+            nextPeriod = calendar.getNextTriggeringDate(new Date(time)).getTime();
+            index = nextIndex(time);
+            clean(time);
+        } else {
+            index++;
+        }
+        channel = new FileOutputStream(file, false).getChannel();
+        size = 0;
+    }
+
+    /**
+     * 使用java.io.File而不是nio的Path: 与RollingFileAppender一致,路径中有系统编码不支持的字符时也能创建
+     */
+    private static void createParent(File target) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("failed to create directory " + parent);
+        }
+    }
+
+    /**
+     * 周期内下一个未使用的%i序号(重启后接着已有的归档编号)
+     */
+    private int nextIndex(long time) {
+        if (!archivePattern.hasIntegerTokenCOnverter()) {
+            return 0;
+        }
+        int next = 0;
+        while (new File(archivePattern.convertMultipleArguments(new Date(time), next)).exists()) {
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * 删除超过maxHistory个周期的归档
+     */
+    private void clean(long now) {
+        if (maxHistory <= 0) {
+            return;
+        }
+        Date current = new Date(now);
+        for (int offset = maxHistory + 1; offset <= maxHistory + CLEAN_PERIODS; offset++) {
+            Date expired = calendar.getEndOfNextNthPeriod(current, -offset);
+            File directory = new File(archivePattern.convertMultipleArguments(expired, 0)).getAbsoluteFile().getParentFile();
+            String regex = FileFilterUtil.afterLastSlash(archivePattern.toRegexForFixedDate(expired));
+            File[] expiredFiles = directory == null ? null : directory.listFiles((dir, name) -> name.matches(regex));
+            if (expiredFiles == null) {
+                continue;
+            }
+            for (File expiredFile : expiredFiles) {
+                if (!expiredFile.delete()) {
+                    addWarn("failed to delete expired archive " + expiredFile);
+                }
+            }
+        }
+    }
+
+    void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            addError("failed to close " + file, e);
+        }
+        channel = null;
+    }
+
+    Level getRoutedLevel() {
+        return routedLevel;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * 写入这个文件的级别,只匹配这一个级别
+     */
+    public void setLevel(String level) {
+        this.level = level;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * 归档文件名,例如 logs/info-%d{yyyy-MM-dd}.%i.log;不设置时不滚动
+     */
+    public void setFileNamePattern(String fileNamePattern) {
+        this.fileNamePattern = fileNamePattern;
+    }
+
+    public void setMaxFileSize(FileSize maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setMaxHistory(int maxHistory) {
+        this.maxHistory = maxHistory;
+    }
+}
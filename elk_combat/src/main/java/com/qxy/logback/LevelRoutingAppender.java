@@ -0,0 +1,317 @@
+package com.qxy.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/8 9:30
+ * @Introduction: 按级别写文件的appender,代替每个级别一个RollingFileAppender + LevelFilter
+ * <p>
+ * 1、每个事件只按级别查一次表,找到唯一的LevelFileSink,没有对应sink的级别直接忽略,不经过过滤器链
+ * 2、调用线程只编码并放入环形队列,所有sink共用一个写线程,文件写入、滚动都在写线程中完成
+ * 3、队列满时policy=block(默认)等待写线程,policy=drop丢弃并计数
+ * 4、写入时的异常(包括RuntimeException)只丢弃当前事件;写线程意外退出后appender停止,之后的事件丢弃并计数,
+ * 调用线程不会在block策略下一直等待
+ * <p>
+ * 配置:
+ * <pre>
+ * &lt;appender name="FILE" class="com.qxy.logback.LevelRoutingAppender"&gt;
+ *     &lt;encoder&gt;&lt;pattern&gt;...&lt;/pattern&gt;&lt;/encoder&gt;
+ *     &lt;sink&gt;
+ *         &lt;level&gt;info&lt;/level&gt;
+ *         &lt;file&gt;logs/info.log&lt;/file&gt;
+ *         &lt;fileNamePattern&gt;logs/info-%d{yyyy-MM-dd}.%i.log&lt;/fileNamePattern&gt;
+ *         &lt;maxFileSize&gt;100MB&lt;/maxFileSize&gt;
+ *         &lt;maxHistory&gt;15&lt;/maxHistory&gt;
+ *     &lt;/sink&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class LevelRoutingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    /**
+     * Level.toInt()/10000: TRACE=0 DEBUG=1 INFO=2 WARN=3 ERROR=4
+     */
+    private static final int LEVELS = 5;
+
+    private final List<LevelFileSink> sinks = new ArrayList<>();
+    private Encoder<ILoggingEvent> encoder;
+    private int ringBufferSize = 8192;
+    private int bufferSize = 64 * 1024;
+    private String policy = "block";
+    private long flushTimeout = 5000;
+
+    private final LevelFileSink[] routes = new LevelFileSink[LEVELS];
+    private RingBuffer<Entry> ring;
+    private boolean block;
+    private Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean writerRunning;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    /**
+     * 只由写线程使用
+     */
+    private boolean failing;
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (encoder == null) {
+            addError("no encoder set for the appender named [" + name + "]");
+            return;
+        }
+        if (!"drop".equalsIgnoreCase(policy) && !"block".equalsIgnoreCase(policy)) {
+            addError("policy must be drop or block, got " + policy);
+            return;
+        }
+        if (sinks.isEmpty()) {
+            addError("no sink configured for the appender named [" + name + "]");
+            return;
+        }
+        for (LevelFileSink sink : sinks) {
+            if (sink.getContext() == null) {
+                sink.setContext(getContext());
+            }
+            if (!sink.validate()) {
+                return;
+            }
+            int slot = slot(sink.getRoutedLevel());
+            if (routes[slot] != null) {
+                addError("level " + sink.getRoutedLevel() + " is routed to both " + routes[slot].getFile() + " and " + sink.getFile());
+                return;
+            }
+            routes[slot] = sink;
+        }
+        for (LevelFileSink sink : sinks) {
+            try {
+                sink.open(bufferSize);
+            } catch (IOException | RuntimeException e) {
+                addError("failed to open " + sink.getFile(), e);
+                sinks.forEach(LevelFileSink::close);
+                return;
+            }
+        }
+        block = "block".equalsIgnoreCase(policy);
+        ring = new RingBuffer<>(ringBufferSize);
+        writer = new Thread(this::write, "level-routing-appender-" + getName());
+        writer.setDaemon(true);
+        writerRunning = true;
+        super.start();
+        writer.start();
+    }
+
+    private static int slot(Level level) {
+        return Math.min(LEVELS - 1, Math.max(0, level.toInt() / Level.DEBUG_INT));
+    }
+
+    /**
+     * 调用线程: 查表、编码、入队
+     */
+    @Override
+    protected void append(ILoggingEvent event) {
+        LevelFileSink sink = routes[slot(event.getLevel())];
+        if (sink == null) {
+            return;
+        }
+        Entry entry;
+        try {
+            entry = new Entry(sink, encoder.encode(event), event.getTimeStamp());
+        } catch (RuntimeException e) {
+            dropped.increment();
+            addError("failed to encode event", e);
+            return;
+        }
+        if (!writerRunning) {
+            dropped.increment();
+            return;
+        }
+        if (!ring.offer(entry)) {
+            if (!block) {
+                dropped.increment();
+                return;
+            }
+            do {
+                wakeWriter();
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                if (!isStarted() || !writerRunning || Thread.currentThread().isInterrupted()) {
+                    dropped.increment();
+                    return;
+                }
+            } while (!ring.offer(entry));
+        }
+        wakeWriter();
+    }
+
+    private void wakeWriter() {
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * 写线程: 写入各sink的缓冲区,队列为空时把缓冲区写入文件
+     */
+    private void write() {
+        boolean finished = false;
+        try {
+            while (true) {
+                Entry entry = ring.poll();
+                if (entry == null) {
+                    flushAll();
+                    if (!isStarted()) {
+                        finished = true;
+                        return;
+                    }
+                    writerParked = true;
+                    if (ring.isEmpty() && isStarted()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    writerParked = false;
+                    continue;
+                }
+                try {
+                    entry.sink.write(entry.bytes, entry.time);
+                    failing = false;
+                } catch (IOException | RuntimeException e) {
+                    failed(entry.sink, e);
+                    dropped.increment();
+                }
+            }
+        } finally {
+            if (!finished) {
+                //Error等使写线程意外退出: 先停止appender再放开调用线程,调用线程不再等待队列
+                addError("writer of the appender named [" + name + "] exited unexpectedly, the appender is stopped");
+                super.stop();
+            }
+            writerRunning = false;
+            sinks.forEach(LevelFileSink::close);
+        }
+    }
+
+    private void flushAll() {
+        for (LevelFileSink sink : sinks) {
+            if (sink.isDirty()) {
+                try {
+                    sink.flush();
+                } catch (IOException | RuntimeException e) {
+                    failed(sink, e);
+                }
+            }
+        }
+    }
+
+    private void failed(LevelFileSink sink, Exception e) {
+        writeFailures.increment();
+        if (!failing) {
+            //连续失败只记录第一次
+            addError("failed to write " + sink.getFile(), e);
+            failing = true;
+        }
+    }
+
+    /**
+     * 等待写线程写完队列中的事件,最长flushTimeout
+     */
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        LockSupport.unpark(writer);
+        try {
+            writer.join(flushTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            addWarn("writer did not finish within " + flushTimeout + "ms, " + ring.size() + " events may be lost");
+        }
+    }
+
+    /**
+     * @return 队列中等待写入的事件数
+     */
+    public int getQueueDepth() {
+        return ring == null ? 0 : ring.size();
+    }
+
+    /**
+     * @return 队列满(drop策略)或写入失败而丢弃的事件数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWriteFailures() {
+        return writeFailures.sum();
+    }
+
+    /**
+     * 每个级别一个sink,xml中的&lt;sink&gt;
+     */
+    public void addSink(LevelFileSink sink) {
+        sinks.add(sink);
+    }
+
+    public void setEncoder(Encoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * 环形队列容量,向上取整为2的幂
+     */
+    public void setRingBufferSize(int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+    }
+
+    /**
+     * 每个sink的写缓冲区大小
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 队列满时: block(默认)等待写线程,drop丢弃
+     */
+    public void setPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * 关闭时等待剩余事件写入的最长时间(毫秒)
+     */
+    public void setFlushTimeout(long flushTimeout) {
+        this.flushTimeout = flushTimeout;
+    }
+
+    /**
+     * 队列中的一个事件: 目标sink和编码后的字节
+     */
+    private static final class Entry {
+        final LevelFileSink sink;
+        final byte[] bytes;
+        final long time;
+
+        Entry(LevelFileSink sink, byte[] bytes, long time) {
+            this.sink = sink;
+            this.bytes = bytes;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.qxy.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/7 9:30
+ * @Introduction: 异步批量发送到logstash的appender,调用线程只做json编码和一次无锁入队,不写文件、不做网络I/O
+ * <p>
+ * 1、调用线程用encoder(默认EcsJsonEncoder)把事件编码为一行json,放入环形队列RingBuffer
+ * 2、队列满时按policy处理: drop直接丢弃并计数(默认),block等待发送线程腾出空间
+ * 3、一个后台线程批量取出事件: tcp每批最多batchBytes字节一次写入;udp每个数据报最多maxDatagram字节,装尽量多的事件
+ * 4、tcp断开后每隔reconnectDelay重连,当前批次重试(可能重复);udp发送失败的批次丢弃
+ * 5、关闭时最多等待flushTimeout把队列中剩余的事件发出
+ * 6、计数器通过JMX导出(com.qxy.logback:type=LogstashAppender,name=appender名称)
+ * <p>
+ * logstash端配置: input { tcp { port => 5000 codec => json_lines } } 或 input { udp { port => 5000 codec => json_lines } }
+ */
+public class LogstashAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements LogstashAppenderMXBean {
+    public static final String OBJECT_NAME_PREFIX = "com.qxy.logback:type=LogstashAppender,name=";
+    /**
+     * udp单个数据报的上限
+     */
+    private static final int MAX_UDP_PAYLOAD = 65507;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private String host = "127.0.0.1";
+    private int port = 5000;
+    private String protocol = "tcp";
+    private int ringBufferSize = 8192;
+    private int batchBytes = 64 * 1024;
+    private int maxDatagram = 1472;
+    private String policy = "drop";
+    private int connectTimeout = 5000;
+    private long reconnectDelay = 5000;
+    private long flushTimeout = 5000;
+    private Encoder<ILoggingEvent> encoder;
+
+    private RingBuffer<byte[]> ring;
+    private boolean block;
+    private boolean udp;
+    private Thread sender;
+    private volatile boolean senderParked;
+    private volatile long stopDeadline;
+    private ObjectName objectName;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private volatile boolean connected;
+    /**
+     * 只由发送线程使用
+     */
+    private boolean failing;
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (!"tcp".equalsIgnoreCase(protocol) && !"udp".equalsIgnoreCase(protocol)) {
+            addError("protocol must be tcp or udp, got " + protocol);
+            return;
+        }
+        if (!"drop".equalsIgnoreCase(policy) && !"block".equalsIgnoreCase(policy)) {
+            addError("policy must be drop or block, got " + policy);
+            return;
+        }
+        if (port <= 0 || host == null) {
+            addError("host and port are required");
+            return;
+        }
+        if (encoder == null) {
+            EcsJsonEncoder ecs = new EcsJsonEncoder();
+            ecs.setContext(getContext());
+            ecs.start();
+            encoder = ecs;
+        }
+        udp = "udp".equalsIgnoreCase(protocol);
+        block = "block".equalsIgnoreCase(policy);
+        ring = new RingBuffer<>(ringBufferSize);
+        sender = new Thread(this::send, "logstash-appender-" + getName());
+        sender.setDaemon(true);
+        super.start();
+        sender.start();
+        registerMBean();
+        addInfo("sending to " + protocol + "://" + host + ":" + port + ", ring buffer " + ring.capacity() + ", policy " + policy);
+    }
+
+    /**
+     * 调用线程: 编码、入队,队列满时按policy丢弃或等待
+     */
+    @Override
+    protected void append(ILoggingEvent event) {
+        byte[] bytes;
+        try {
+            bytes = encoder.encode(event);
+        } catch (RuntimeException e) {
+            dropped.increment();
+            addError("failed to encode event", e);
+            return;
+        }
+        if (!ring.offer(bytes)) {
+            if (!block) {
+                dropped.increment();
+                return;
+            }
+            blocked.increment();
+            do {
+                wakeSender();
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                if (!isStarted() || Thread.currentThread().isInterrupted()) {
+                    dropped.increment();
+                    return;
+                }
+            } while (!ring.offer(bytes));
+        }
+        appended.increment();
+        wakeSender();
+    }
+
+    private void wakeSender() {
+        if (senderParked) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    /**
+     * 发送线程: 取出事件攒成批次发送,队列为空时发出不满的批次
+     */
+    private void send() {
+        Transport transport = udp ? new UdpTransport() : new TcpTransport();
+        byte[] batch = new byte[udp ? Math.min(maxDatagram, MAX_UDP_PAYLOAD) : batchBytes];
+        int size = 0;
+        int count = 0;
+        try {
+            while (true) {
+                byte[] event = ring.poll();
+                if (event == null) {
+                    if (count > 0) {
+                        flush(transport, batch, size, count);
+                        size = 0;
+                        count = 0;
+                        continue;
+                    }
+                    if (!isStarted()) {
+                        return;
+                    }
+                    senderParked = true;
+                    if (ring.isEmpty() && isStarted()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    senderParked = false;
+                    continue;
+                }
+                if (count > 0 && size + event.length > batch.length) {
+                    flush(transport, batch, size, count);
+                    size = 0;
+                    count = 0;
+                }
+                if (event.length > batch.length) {
+                    //单个事件超过一个批次,单独发送
+                    if (udp && event.length > MAX_UDP_PAYLOAD) {
+                        dropped.increment();
+                    } else {
+                        flush(transport, event, event.length, 1);
+                    }
+                    continue;
+                }
+                System.arraycopy(event, 0, batch, size, event.length);
+                size += event.length;
+                count++;
+            }
+        } finally {
+            transport.close();
+            connected = false;
+            //超过flushTimeout没有发出的事件
+            for (byte[] event; (event = ring.poll()) != null; ) {
+                dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * 发送一个批次;tcp失败时重连重试,直到成功或关闭超时
+     */
+    private void flush(Transport transport, byte[] bytes, int length, int count) {
+        while (true) {
+            try {
+                transport.send(bytes, length);
+                sent.add(count);
+                sentBytes.add(length);
+                failing = false;
+                return;
+            } catch (IOException e) {
+                sendFailures.increment();
+                transport.close();
+                connected = false;
+                if (!failing) {
+                    //连续失败只记录第一次
+                    addWarn("failed to send to " + protocol + "://" + host + ":" + port
+                            + (udp ? ", batch dropped" : ", retrying every " + reconnectDelay + "ms"), e);
+                    failing = true;
+                }
+                if (udp || stopExpired()) {
+                    dropped.add(count);
+                    return;
+                }
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectDelay);
+                for (long wait; (wait = deadline - System.nanoTime()) > 0 && !stopExpired(); ) {
+                    LockSupport.parkNanos(this, Math.min(wait, IDLE_PARK_NANOS));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 已关闭且超过flushTimeout
+     */
+    private boolean stopExpired() {
+        return !isStarted() && System.currentTimeMillis() >= stopDeadline;
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        stopDeadline = System.currentTimeMillis() + flushTimeout;
+        super.stop();
+        LockSupport.unpark(sender);
+        try {
+            sender.join(flushTimeout + connectTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        unregisterMBean();
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + getName());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            addWarn("mbean " + OBJECT_NAME_PREFIX + getName() + " already registered");
+        } catch (JMException | RuntimeException e) {
+            addWarn("could not register mbean for appender " + getName(), e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            addWarn("could not unregister mbean " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return ring == null ? 0 : ring.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return ring == null ? 0 : ring.capacity();
+    }
+
+    @Override
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    @Override
+    public long getSent() {
+        return sent.sum();
+    }
+
+    @Override
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    @Override
+    public long getSendFailures() {
+        return sendFailures.sum();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * tcp(默认)或udp
+     */
+    public void setProtocol(String protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * 环形队列容量,向上取整为2的幂
+     */
+    public void setRingBufferSize(int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+    }
+
+    /**
+     * tcp每批最多写入的字节数
+     */
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    /**
+     * udp数据报的最大字节数,默认1472(1500字节的MTU减去IP和UDP头)
+     */
+    public void setMaxDatagram(int maxDatagram) {
+        this.maxDatagram = maxDatagram;
+    }
+
+    /**
+     * 队列满时: drop(默认)丢弃,block等待
+     */
+    public void setPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * 关闭时等待剩余事件发出的最长时间(毫秒)
+     */
+    public void setFlushTimeout(long flushTimeout) {
+        this.flushTimeout = flushTimeout;
+    }
+
+    public void setEncoder(Encoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    private interface Transport {
+        void send(byte[] bytes, int length) throws IOException;
+
+        void close();
+    }
+
+    /**
+     * 连接在第一次发送时建立,失败后在下一次发送时重建
+     */
+    private class TcpTransport implements Transport {
+        private Socket socket;
+        private OutputStream out;
+        private boolean everConnected;
+
+        @Override
+        public void send(byte[] bytes, int length) throws IOException {
+            if (socket == null) {
+                Socket s = new Socket();
+                try {
+                    s.setTcpNoDelay(true);
+                    s.setKeepAlive(true);
+                    s.connect(new InetSocketAddress(host, port), connectTimeout);
+                    out = s.getOutputStream();
+                } catch (IOException e) {
+                    s.close();
+                    throw e;
+                }
+                socket = s;
+                if (everConnected) {
+                    reconnects.increment();
+                }
+                everConnected = true;
+                connected = true;
+            }
+            out.write(bytes, 0, length);
+        }
+
+        @Override
+        public void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //忽略
+                }
+                socket = null;
+                out = null;
+            }
+        }
+    }
+
+    private class UdpTransport implements Transport {
+        private DatagramSocket socket;
+        private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+
+        @Override
+        public void send(byte[] bytes, int length) throws IOException {
+            if (socket == null) {
+                DatagramSocket s = new DatagramSocket();
+                s.connect(new InetSocketAddress(host, port));
+                socket = s;
+                connected = true;
+            }
+            packet.setData(bytes, 0, length);
+            socket.send(packet);
+        }
+
+        @Override
+        public void close() {
+            if (socket != null) {
+                socket.close();
+                socket = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.qxy.logback;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/7 9:30
+ * @Introduction: LogstashAppender的JMX接口,注册为com.qxy.logback:type=LogstashAppender,name=appender名称
+ */
+public interface LogstashAppenderMXBean {
+
+    /**
+     * @return 环形队列中等待发送的事件数
+     */
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    /**
+     * @return 进入队列的事件数
+     */
+    long getAppended();
+
+    /**
+     * @return 队列满(drop策略)或关闭时未发出而丢弃的事件数
+     */
+    long getDropped();
+
+    /**
+     * @return block策略下队列满、调用线程需要等待的次数
+     */
+    long getBlocked();
+
+    /**
+     * @return 已写入连接的事件数
+     */
+    long getSent();
+
+    long getSentBytes();
+
+    /**
+     * @return 发送失败的批次数
+     */
+    long getSendFailures();
+
+    long getReconnects();
+
+    boolean isConnected();
+}
@@ -0,0 +1,173 @@
+package com.qxy.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.filter.LevelFilter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.SizeAndTimeBasedFNATP;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.util.FileSize;
+import com.qxy.logback.LevelFileSink;
+import com.qxy.logback.LevelRoutingAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/8 9:30
+ * @Introduction: logback-spring.xml按级别写文件的吞吐量(事件/秒),4个线程同时写日志
+ * <p>
+ * levelFilters: 原来的配置,4个RollingFileAppender各带一个LevelFilter,每个事件经过4个appender;
+ * levelRouting: 一个LevelRoutingAppender,按级别直接找到文件,共用一个写线程。
+ * 级别比例 debug:info:warn:error = 2:5:2:1,文件写在临时目录,每次测量结束后删除
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LevelRoutingBenchmark {
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} [%thread] %-5level %logger{50} - %msg%n";
+    private static final String[] LEVELS = {"debug", "info", "warn", "error"};
+
+    @Param({"levelFilters", "levelRouting"})
+    private String config;
+
+    private LoggerContext context;
+    private Logger logger;
+    private Path dir;
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("level-routing");
+        context = new LoggerContext();
+        logger = context.getLogger("com.qxy.benchmark.LevelRoutingBenchmark");
+        logger.setLevel(ch.qos.logback.classic.Level.DEBUG);
+        logger.setAdditive(false);
+        if ("levelFilters".equals(config)) {
+            for (String level : LEVELS) {
+                logger.addAppender(rollingFileAppender(level));
+            }
+        } else {
+            logger.addAppender(levelRoutingAppender());
+        }
+    }
+
+    private RollingFileAppender<ILoggingEvent> rollingFileAppender(String level) {
+        RollingFileAppender<ILoggingEvent> appender = new RollingFileAppender<>();
+        appender.setContext(context);
+        appender.setName(level.toUpperCase() + "_FILE");
+        appender.setFile(dir.resolve(level + ".log").toString());
+        appender.setEncoder(encoder());
+
+        TimeBasedRollingPolicy<ILoggingEvent> policy = new TimeBasedRollingPolicy<>();
+        policy.setContext(context);
+        policy.setParent(appender);
+        policy.setFileNamePattern(dir.resolve(level + "-%d{yyyy-MM-dd}.%i.log").toString());
+        policy.setMaxHistory(15);
+        SizeAndTimeBasedFNATP<ILoggingEvent> triggering = new SizeAndTimeBasedFNATP<>();
+        triggering.setContext(context);
+        triggering.setMaxFileSize(FileSize.valueOf("100MB"));
+        policy.setTimeBasedFileNamingAndTriggeringPolicy(triggering);
+        policy.start();
+        appender.setRollingPolicy(policy);
+
+        LevelFilter filter = new LevelFilter();
+        filter.setLevel(ch.qos.logback.classic.Level.toLevel(level));
+        filter.setOnMatch(FilterReply.ACCEPT);
+        filter.setOnMismatch(FilterReply.DENY);
+        filter.start();
+        appender.addFilter(filter);
+        appender.start();
+        return appender;
+    }
+
+    private LevelRoutingAppender levelRoutingAppender() {
+        LevelRoutingAppender appender = new LevelRoutingAppender();
+        appender.setContext(context);
+        appender.setName("FILE");
+        appender.setEncoder(encoder());
+        for (String level : LEVELS) {
+            LevelFileSink sink = new LevelFileSink();
+            sink.setLevel(level);
+            sink.setFile(dir.resolve(level + ".log").toString());
+            sink.setFileNamePattern(dir.resolve(level + "-%d{yyyy-MM-dd}.%i.log").toString());
+            sink.setMaxFileSize(FileSize.valueOf("100MB"));
+            sink.setMaxHistory(15);
+            appender.addSink(sink);
+        }
+        appender.start();
+        return appender;
+    }
+
+    private PatternLayoutEncoder encoder() {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+        return encoder;
+    }
+
+    @Benchmark
+    public void log(Counter counter) {
+        int i = counter.next++ % 10;
+        if (i < 2) {
+            logger.debug("handled request {} in {} ms", counter.next, i);
+        } else if (i < 7) {
+            logger.info("handled request {} in {} ms", counter.next, i);
+        } else if (i < 9) {
+            logger.warn("slow request {} took {} ms", counter.next, i);
+        } else {
+            logger.error("request {} failed after {} ms", counter.next, i);
+        }
+    }
+
+    /**
+     * 停止appender(写完队列中的事件)后删除临时目录
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.stop();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LevelRoutingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,190 @@
+package com.qxy.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/27 10:00
+ * @Introduction: 各模块应用冷启动耗时,对比qxy.elasticsearch.startup的三种模式
+ * <p>
+ * 每次测量都在新的JVM中进行(SingleShotTime + Fork),包含类加载和TLS初始化;
+ * startup只到容器启动完成,startupAndFirstUse再取出客户端,即批处理任务真正能发出第一个请求的时间。
+ * 启动过程不连接es,不需要启动集群
+ * <p>
+ * 各模块的启动类都是com.qxy.ElasticsearchApplication,不能放在同一个classpath中:
+ * main方法先用 mvn dependency:build-classpath 解析各模块自己的运行时依赖,写到 {module}/target/startup-classpath.txt,
+ * 每个模块用 {module}/target/classes 加上这些依赖创建独立的类加载器启动。
+ * 放在最后构建的elk_combat中,运行前先在根目录执行 mvn install -DskipTests(各模块解析到的es_common来自本地仓库)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class StartupBenchmark {
+    private static final String APPLICATION = "com.qxy.ElasticsearchApplication";
+    private static final String CLASSPATH_FILE = "target/startup-classpath.txt";
+    private static final String[] MODULES = {"es_document", "es_search", "es_index", "es_group", "elk_combat"};
+
+    @Param({"es_document", "es_search", "es_index", "es_group", "elk_combat"})
+    private String module;
+
+    @Param({"eager", "lazy", "background"})
+    private String startup;
+
+    private ClassLoader loader;
+    private Closeable context;
+
+    @Setup(Level.Trial)
+    public void createLoader() throws IOException, URISyntaxException {
+        File moduleDir = new File(root(), module);
+        File moduleClasses = new File(moduleDir, "target/classes");
+        if (!new File(moduleClasses, APPLICATION.replace('.', '/') + ".class").isFile()) {
+            throw new IllegalStateException(moduleClasses + " has no " + APPLICATION + ", run mvn install -DskipTests first");
+        }
+        File classpath = new File(moduleDir, CLASSPATH_FILE);
+        if (!classpath.isFile()) {
+            throw new IllegalStateException(classpath + " not found, run StartupBenchmark.main to resolve it");
+        }
+        List<URL> urls = new ArrayList<>();
+        urls.add(moduleClasses.toURI().toURL());
+        String entries = new String(Files.readAllBytes(classpath.toPath()), StandardCharsets.UTF_8).trim();
+        for (String entry : entries.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                urls.add(toUrl(new File(entry)));
+            }
+        }
+        //父加载器是系统类加载器的父加载器,应用类和依赖都由这个加载器加载,与单独运行模块一致
+        loader = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    /**
+     * @return 项目根目录: elk_combat/target/test-classes 向上三级
+     */
+    private static File root() throws URISyntaxException {
+        File testClasses = new File(StartupBenchmark.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        return testClasses.getParentFile().getParentFile().getParentFile();
+    }
+
+    /**
+     * 由maven解析各模块的运行时依赖,每个模块写到自己的 target/startup-classpath.txt(相对路径按模块目录解析)
+     */
+    private static void resolveClasspaths(List<String> modules) throws IOException, InterruptedException, URISyntaxException {
+        boolean windows = System.getProperty("os.name").startsWith("Windows");
+        List<String> command = new ArrayList<>(Arrays.asList(windows ? "mvn.cmd" : "mvn", "-q", "-B",
+                "-pl", String.join(",", modules),
+                "dependency:build-classpath",
+                "-DincludeScope=runtime",
+                "-Dmdep.outputFile=" + CLASSPATH_FILE));
+        //例如 -Dstartup.mavenArgs=-o 离线解析
+        String mavenArgs = System.getProperty("startup.mavenArgs");
+        if (mavenArgs != null && !mavenArgs.trim().isEmpty()) {
+            command.addAll(Arrays.asList(mavenArgs.trim().split("\\s+")));
+        }
+        Process process = new ProcessBuilder(command).directory(root()).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("failed to resolve module classpaths: " + String.join(" ", command));
+        }
+    }
+
+    private static URL toUrl(File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(file.toString(), e);
+        }
+    }
+
+    @Benchmark
+    public Object startup() throws Exception {
+        context = start();
+        return context;
+    }
+
+    @Benchmark
+    public Object startupAndFirstUse() throws Exception {
+        context = start();
+        return context.getClass().getMethod("getBean", Class.class)
+                .invoke(context, loader.loadClass("org.elasticsearch.client.RestHighLevelClient"));
+    }
+
+    /**
+     * 与 new SpringApplicationBuilder(ElasticsearchApplication.class).web(NONE).properties(...).run() 相同,
+     * spring的类来自独立的类加载器,只能反射调用
+     */
+    private Closeable start() throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        //组件扫描和spring.factories通过线程上下文类加载器查找
+        thread.setContextClassLoader(loader);
+        try {
+            Class<?> builderClass = loader.loadClass("org.springframework.boot.builder.SpringApplicationBuilder");
+            Object builder = builderClass.getConstructor(Class[].class)
+                    .newInstance((Object) new Class<?>[]{loader.loadClass(APPLICATION)});
+            Class<?> webType = loader.loadClass("org.springframework.boot.WebApplicationType");
+            builderClass.getMethod("web", webType).invoke(builder, webType.getField("NONE").get(null));
+            builderClass.getMethod("properties", String[].class).invoke(builder, (Object) new String[]{
+                    "qxy.elasticsearch.startup=" + startup,
+                    "spring.main.banner-mode=off",
+                    "logging.level.root=warn"});
+            return (Closeable) builderClass.getMethod("run", String[].class).invoke(builder, (Object) new String[0]);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        context.close();
+    }
+
+    /**
+     * 参数 -p module=es_search 只测一个模块
+     */
+    public static void main(String[] args) throws RunnerException, IOException, InterruptedException, URISyntaxException {
+        OptionsBuilder options = new OptionsBuilder();
+        options.include(StartupBenchmark.class.getSimpleName());
+        List<String> modules = Arrays.asList(MODULES);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("-p".equals(args[i]) && args[i + 1].contains("=")) {
+                String[] param = args[i + 1].split("=", 2);
+                options.param(param[0], param[1].split(","));
+                if ("module".equals(param[0])) {
+                    modules = Arrays.asList(param[1].split(","));
+                }
+            }
+        }
+        resolveClasspaths(modules);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,108 @@
+package com.qxy.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/10 10:30
+ * @Introduction: EcsJsonEncoder的MDC同名字段和线程缓冲区的复用
+ */
+class EcsJsonEncoderTest {
+    private final LoggerContext context = new LoggerContext();
+    private final Logger logger = context.getLogger("com.qxy.test");
+
+    @AfterEach
+    void tearDown() {
+        context.stop();
+        MDC.clear();
+    }
+
+    private EcsJsonEncoder encoder(String serviceName) {
+        EcsJsonEncoder encoder = new EcsJsonEncoder();
+        encoder.setContext(context);
+        encoder.setServiceName(serviceName);
+        encoder.start();
+        return encoder;
+    }
+
+    private LoggingEvent event(String message, Object... args) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.INFO, message, null, args);
+        //MDC在第一次读取时复制
+        event.getMDCPropertyMap();
+        return event;
+    }
+
+    private static String json(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 与编码器字段同名的MDC键加前缀,每个键只出现一次
+     */
+    @Test
+    void mdcKeysCollidingWithEcsFieldsArePrefixed() {
+        MDC.put("message", "from mdc");
+        MDC.put("service.name", "other");
+        MDC.put("trace.id", "abc123");
+        String line = json(encoder("elk_combat").encode(event("hello")));
+
+        Map<String, Object> fields = JsonPath.parse(line).read("$");
+        assertThat(fields).containsEntry("message", "hello")
+                .containsEntry("service.name", "elk_combat")
+                .containsEntry("mdc.message", "from mdc")
+                .containsEntry("mdc.service.name", "other")
+                .containsEntry("trace.id", "abc123");
+        assertThat(line.split("\"message\":", -1)).hasSize(2);
+    }
+
+    /**
+     * 多个encoder实例在同一个线程上交替编码,结果互不影响
+     */
+    @Test
+    void encodersOnOneThreadShareTheBuffer() {
+        EcsJsonEncoder first = encoder("first");
+        EcsJsonEncoder second = encoder("second");
+        for (int i = 0; i < 100; i++) {
+            DocumentContext a = JsonPath.parse(json(first.encode(event("a {}", i))));
+            DocumentContext b = JsonPath.parse(json(second.encode(event("b {}", i))));
+            assertThat(a.<String>read("$['service.name']")).isEqualTo("first");
+            assertThat(a.<String>read("$['message']")).isEqualTo("a " + i);
+            assertThat(b.<String>read("$['service.name']")).isEqualTo("second");
+            assertThat(b.<String>read("$['message']")).isEqualTo("b " + i);
+        }
+    }
+
+    /**
+     * 格式化消息时又编码了另一个事件(参数的toString中打日志),外层事件不被覆盖
+     */
+    @Test
+    void nestedEncodeDoesNotOverwriteTheOuterEvent() {
+        EcsJsonEncoder encoder = encoder("elk_combat");
+        String[] nested = new String[1];
+        Object argument = new Object() {
+            @Override
+            public String toString() {
+                nested[0] = json(encoder.encode(event("inner")));
+                return "argument";
+            }
+        };
+        String outer = json(encoder.encode(event("outer {}", argument)));
+
+        assertThat(JsonPath.parse(outer).<String>read("$['message']")).isEqualTo("outer argument");
+        assertThat(JsonPath.parse(nested[0]).<String>read("$['message']")).isEqualTo("inner");
+        assertThat(outer).endsWith("}\n");
+    }
+}
@@ -0,0 +1,314 @@
+package com.qxy.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.util.FileSize;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/8 9:30
+ * @Introduction: LevelRoutingAppender的测试: 每个级别只写一个文件、按大小滚动、多线程block策略不丢日志、写入异常、xml配置
+ */
+class LevelRoutingAppenderTest {
+    private final LoggerContext context = new LoggerContext();
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void tearDown() {
+        context.stop();
+    }
+
+    private LevelRoutingAppender appender(String policy, int ringBufferSize, FileSize maxFileSize, String... levels) {
+        List<LevelFileSink> sinks = new ArrayList<>();
+        for (String level : levels) {
+            LevelFileSink sink = new LevelFileSink();
+            sink.setLevel(level);
+            sink.setFile(dir.resolve(level + ".log").toString());
+            if (maxFileSize != null) {
+                sink.setFileNamePattern(dir.resolve(level + "-%d{yyyy-MM-dd}.%i.log").toString());
+                sink.setMaxFileSize(maxFileSize);
+                sink.setMaxHistory(15);
+            }
+            sinks.add(sink);
+        }
+        return appender(policy, ringBufferSize, sinks.toArray(new LevelFileSink[0]));
+    }
+
+    private LevelRoutingAppender appender(String policy, int ringBufferSize, LevelFileSink... sinks) {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%-5level %msg%n");
+        encoder.start();
+        LevelRoutingAppender appender = new LevelRoutingAppender();
+        appender.setContext(context);
+        appender.setName("FILE");
+        appender.setEncoder(encoder);
+        appender.setPolicy(policy);
+        appender.setRingBufferSize(ringBufferSize);
+        for (LevelFileSink sink : sinks) {
+            appender.addSink(sink);
+        }
+        appender.start();
+        assertThat(appender.isStarted()).isTrue();
+        return appender;
+    }
+
+    private Logger logger(LevelRoutingAppender appender) {
+        Logger logger = context.getLogger("com.qxy.test");
+        logger.setLevel(Level.TRACE);
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        return logger;
+    }
+
+    private List<String> lines(String name) throws IOException {
+        return Files.readAllLines(dir.resolve(name), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void eachEventIsWrittenToExactlyOneLevelFile() throws Exception {
+        LevelRoutingAppender appender = appender("block", 8192, null, "debug", "info", "warn", "error");
+        Logger logger = logger(appender);
+        for (int i = 0; i < 100; i++) {
+            logger.trace("trace {}", i);
+            logger.debug("debug {}", i);
+            logger.info("info {}", i);
+            logger.warn("warn {}", i);
+            logger.error("error {}", i);
+        }
+        appender.stop();
+
+        for (String level : new String[]{"debug", "info", "warn", "error"}) {
+            List<String> lines = lines(level + ".log");
+            assertThat(lines).hasSize(100);
+            assertThat(lines).allMatch(line -> line.startsWith(level.toUpperCase()));
+            assertThat(lines.get(99)).endsWith(level + " 99");
+        }
+        //没有trace的sink
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.map(path -> path.getFileName().toString()).collect(Collectors.toList()))
+                    .containsExactlyInAnyOrder("debug.log", "info.log", "warn.log", "error.log");
+        }
+        assertThat(appender.getDropped()).isZero();
+    }
+
+    @Test
+    void rollsBySizeWithinTheSamePeriod() throws Exception {
+        LevelRoutingAppender appender = appender("block", 8192, FileSize.valueOf("10KB"), "info");
+        Logger logger = logger(appender);
+        for (int i = 0; i < 2000; i++) {
+            logger.info("event {}", i);
+        }
+        appender.stop();
+
+        List<Path> archives;
+        try (Stream<Path> files = Files.list(dir)) {
+            archives = files.filter(path -> path.getFileName().toString().startsWith("info-")).sorted().collect(Collectors.toList());
+        }
+        assertThat(archives).isNotEmpty();
+        long total = lines("info.log").size();
+        for (Path archive : archives) {
+            assertThat(Files.size(archive)).isLessThanOrEqualTo(10 * 1024);
+            total += Files.readAllLines(archive).size();
+        }
+        assertThat(total).isEqualTo(2000);
+    }
+
+    /**
+     * 进入新周期和按大小滚动时都跳过已存在的归档,不覆盖
+     */
+    @Test
+    void rollingNeverOverwritesExistingArchives() throws Exception {
+        long today = System.currentTimeMillis();
+        long tomorrow = today + TimeUnit.DAYS.toMillis(1);
+        SimpleDateFormat day = new SimpleDateFormat("yyyy-MM-dd");
+        Path kept = dir.resolve("info-" + day.format(new Date(tomorrow)) + ".0.log");
+        Files.write(kept, "kept\n".getBytes(StandardCharsets.UTF_8));
+
+        LevelFileSink sink = new LevelFileSink();
+        sink.setContext(context);
+        sink.setLevel("info");
+        sink.setFile(dir.resolve("info.log").toString());
+        sink.setFileNamePattern(dir.resolve("info-%d{yyyy-MM-dd}.%i.log").toString());
+        sink.setMaxFileSize(FileSize.valueOf("100"));
+        assertThat(sink.validate()).isTrue();
+        sink.open(1024);
+        byte[] line = "0123456789012345678901234567890123456789\n".getBytes(StandardCharsets.UTF_8);
+        sink.write(line, today);
+        //新周期: 今天的文件归档为.0,明天从.1开始
+        sink.write(line, tomorrow);
+        sink.write(line, tomorrow);
+        //按大小滚动: 归档为明天的.1
+        sink.write(line, tomorrow);
+        sink.close();
+
+        assertThat(lines("info-" + day.format(new Date(today)) + ".0.log")).hasSize(1);
+        assertThat(Files.readAllLines(kept)).containsExactly("kept");
+        assertThat(lines("info-" + day.format(new Date(tomorrow)) + ".1.log")).hasSize(2);
+        assertThat(lines("info.log")).hasSize(1);
+    }
+
+    @Test
+    void blockPolicyKeepsEveryEventFromConcurrentThreads() throws Exception {
+        LevelRoutingAppender appender = appender("block", 16, null, "info", "error");
+        Logger logger = logger(appender);
+        int threads = 4;
+        int perThread = 20_000;
+        ExecutorService producers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(producers.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    if (i % 10 == 0) {
+                        logger.error("thread {} event {}", thread, i);
+                    } else {
+                        logger.info("thread {} event {}", thread, i);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        producers.shutdown();
+        appender.stop();
+
+        assertThat(appender.getDropped()).isZero();
+        assertThat(lines("error.log")).hasSize(threads * perThread / 10);
+        assertThat(lines("info.log")).hasSize(threads * perThread / 10 * 9);
+    }
+
+    /**
+     * 没有fileNamePattern时忽略maxFileSize,超过大小也继续写同一个文件
+     */
+    @Test
+    void maxFileSizeWithoutPatternNeverRolls() throws Exception {
+        LevelFileSink sink = new LevelFileSink();
+        sink.setLevel("info");
+        sink.setFile(dir.resolve("unrolled.log").toString());
+        sink.setMaxFileSize(FileSize.valueOf("1KB"));
+        LevelRoutingAppender unrolled = appender("block", 16, sink);
+        Logger logger = logger(unrolled);
+        for (int i = 0; i < 500; i++) {
+            logger.info("event {}", i);
+        }
+        unrolled.stop();
+
+        assertThat(unrolled.getDropped()).isZero();
+        assertThat(unrolled.getWriteFailures()).isZero();
+        assertThat(lines("unrolled.log")).hasSize(500);
+    }
+
+    /**
+     * sink抛出RuntimeException时只丢弃当前事件,写线程继续写后面的事件
+     */
+    @Test
+    void runtimeExceptionFromSinkDropsOnlyThatEvent() throws Exception {
+        LevelFileSink sink = new LevelFileSink() {
+            @Override
+            void write(byte[] bytes, long time) throws IOException {
+                if (new String(bytes, StandardCharsets.UTF_8).contains("poison")) {
+                    throw new IllegalStateException("poison");
+                }
+                super.write(bytes, time);
+            }
+        };
+        sink.setLevel("info");
+        sink.setFile(dir.resolve("info.log").toString());
+        LevelRoutingAppender appender = appender("block", 16, sink);
+        Logger logger = logger(appender);
+        for (int i = 0; i < 100; i++) {
+            logger.info(i == 50 ? "poison" : "event {}", i);
+        }
+        appender.stop();
+
+        assertThat(appender.getDropped()).isEqualTo(1);
+        assertThat(appender.getWriteFailures()).isEqualTo(1);
+        assertThat(lines("info.log")).hasSize(99).doesNotContain("INFO  poison");
+    }
+
+    /**
+     * 写线程因Error退出后appender停止,block策略下调用线程不会一直等待
+     */
+    @Test
+    void writerExitStopsTheAppenderInsteadOfBlockingCallers() throws Exception {
+        LevelFileSink sink = new LevelFileSink() {
+            @Override
+            void write(byte[] bytes, long time) {
+                throw new AssertionError("writer killed");
+            }
+        };
+        sink.setLevel("info");
+        sink.setFile(dir.resolve("info.log").toString());
+        LevelRoutingAppender appender = appender("block", 4, sink);
+        Logger logger = logger(appender);
+        ExecutorService producer = Executors.newSingleThreadExecutor();
+        Future<?> logged = producer.submit(() -> {
+            for (int i = 0; i < 1000; i++) {
+                logger.info("event {}", i);
+            }
+        });
+        logged.get(10, TimeUnit.SECONDS);
+        producer.shutdown();
+
+        //停止后logback不再调用append
+        assertThat(appender.isStarted()).isFalse();
+        assertThat(context.getStatusManager().getCopyOfStatusList())
+                .anyMatch(status -> status.getMessage().contains("exited unexpectedly"));
+    }
+
+    @Test
+    void configuredFromXml() throws Exception {
+        String xml = "<configuration>"
+                + "<appender name=\"FILE\" class=\"com.qxy.logback.LevelRoutingAppender\">"
+                + "<encoder><pattern>%level %msg%n</pattern></encoder>"
+                + "<sink><level>info</level><file>" + dir.resolve("info.log") + "</file>"
+                + "<fileNamePattern>" + dir.resolve("info-%d{yyyy-MM-dd}.%i.log") + "</fileNamePattern>"
+                + "<maxFileSize>100MB</maxFileSize><maxHistory>15</maxHistory></sink>"
+                + "<sink><level>error</level><file>" + dir.resolve("error.log") + "</file></sink>"
+                + "</appender>"
+                + "<root level=\"info\"><appender-ref ref=\"FILE\"/></root>"
+                + "</configuration>";
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        configurator.doConfigure(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        LevelRoutingAppender appender = (LevelRoutingAppender) context.getLogger(Logger.ROOT_LOGGER_NAME).getAppender("FILE");
+        assertThat(appender.isStarted()).isTrue();
+
+        Logger logger = context.getLogger("com.qxy.test");
+        logger.info("hello");
+        logger.warn("no warn sink");
+        logger.error("failed");
+        appender.stop();
+
+        assertThat(lines("info.log")).containsExactly("INFO hello");
+        assertThat(lines("error.log")).containsExactly("ERROR failed");
+    }
+}
@@ -0,0 +1,218 @@
+package com.qxy.logback;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/7 9:30
+ * @Introduction: LogstashAppender的测试,本机的tcp/udp端口代替logstash,收到的每一行按json解析
+ */
+class LogstashAppenderTest {
+    private final LoggerContext context = new LoggerContext();
+    private LogstashAppender appender;
+
+    @AfterEach
+    void tearDown() {
+        if (appender != null) {
+            appender.stop();
+        }
+        context.stop();
+        MDC.clear();
+    }
+
+    private Logger start(String protocol, int port, String policy, int ringBufferSize) {
+        EcsJsonEncoder encoder = new EcsJsonEncoder();
+        encoder.setContext(context);
+        encoder.setServiceName("elk_combat");
+        encoder.start();
+        appender = new LogstashAppender();
+        appender.setContext(context);
+        appender.setName("test-" + protocol + "-" + policy);
+        appender.setProtocol(protocol);
+        appender.setPort(port);
+        appender.setPolicy(policy);
+        appender.setRingBufferSize(ringBufferSize);
+        appender.setReconnectDelay(50);
+        appender.setFlushTimeout(2000);
+        appender.setEncoder(encoder);
+        appender.start();
+        assertThat(appender.isStarted()).isTrue();
+        Logger logger = context.getLogger("com.qxy.test");
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        return logger;
+    }
+
+    @Test
+    void tcpSendsOneEcsJsonObjectPerLine() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            ExecutorService receiver = Executors.newSingleThreadExecutor();
+            Future<List<String>> lines = receiver.submit(() -> readLines(server));
+            Logger logger = start("tcp", server.getLocalPort(), "drop", 8192);
+
+            MDC.put("trace.id", "abc123");
+            logger.info("中文 \"quoted\" line\tone");
+            MDC.clear();
+            for (int i = 0; i < 2000; i++) {
+                logger.info("event {}", i);
+            }
+            logger.error("failed", new IllegalStateException("boom"));
+            appender.stop();
+
+            List<String> received = lines.get(10, TimeUnit.SECONDS);
+            receiver.shutdown();
+            assertThat(received).hasSize(2002);
+            assertThat(appender.getSent()).isEqualTo(2002);
+            assertThat(appender.getDropped()).isZero();
+
+            DocumentContext first = JsonPath.parse(received.get(0));
+            assertThat(first.<String>read("$['message']")).isEqualTo("中文 \"quoted\" line\tone");
+            assertThat(first.<String>read("$['log.level']")).isEqualTo("INFO");
+            assertThat(first.<String>read("$['log.logger']")).isEqualTo("com.qxy.test");
+            assertThat(first.<String>read("$['service.name']")).isEqualTo("elk_combat");
+            assertThat(first.<String>read("$['event.dataset']")).isEqualTo("elk_combat.log");
+            assertThat(first.<String>read("$['ecs.version']")).isEqualTo(EcsJsonEncoder.ECS_VERSION);
+            assertThat(first.<String>read("$['trace.id']")).isEqualTo("abc123");
+            assertThat(first.<String>read("$['@timestamp']")).matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}Z");
+            for (int i = 0; i < 2000; i++) {
+                assertThat(JsonPath.parse(received.get(i + 1)).<String>read("$['message']")).isEqualTo("event " + i);
+            }
+            DocumentContext error = JsonPath.parse(received.get(2001));
+            assertThat(error.<String>read("$['error.type']")).isEqualTo(IllegalStateException.class.getName());
+            assertThat(error.<String>read("$['error.message']")).isEqualTo("boom");
+            assertThat(error.<String>read("$['error.stack_trace']")).contains("LogstashAppenderTest");
+        }
+    }
+
+    @Test
+    void dropPolicyNeverBlocksWhenLogstashIsDown() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+        Logger logger = start("tcp", port, "drop", 16);
+        long begin = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            logger.info("event {}", i);
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        assertThat(appender.getAppended() + appender.getDropped()).isEqualTo(100_000);
+        assertThat(appender.getDropped()).isPositive();
+        assertThat(appender.getQueueDepth()).isLessThanOrEqualTo(appender.getQueueCapacity());
+        assertThat(appender.getSent()).isZero();
+        assertThat(appender.isConnected()).isFalse();
+        //没有连接时调用线程不等待重连
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(elapsed)).isLessThan(5);
+    }
+
+    @Test
+    void blockPolicyDeliversEveryEvent() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            ExecutorService receiver = Executors.newSingleThreadExecutor();
+            Future<List<String>> lines = receiver.submit(() -> readLines(server));
+            Logger logger = start("tcp", server.getLocalPort(), "block", 16);
+
+            int threads = 4;
+            int perThread = 20_000;
+            ExecutorService producers = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(producers.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        logger.info("thread {} event {}", thread, i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            producers.shutdown();
+            appender.stop();
+
+            List<String> received = lines.get(10, TimeUnit.SECONDS);
+            receiver.shutdown();
+            assertThat(received).hasSize(threads * perThread);
+            assertThat(appender.getDropped()).isZero();
+            assertThat(appender.getSent()).isEqualTo(threads * perThread);
+        }
+    }
+
+    @Test
+    void udpPacksSeveralEventsPerDatagram() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            socket.setReceiveBufferSize(1 << 20);
+            socket.setSoTimeout(2000);
+            Logger logger = start("udp", socket.getLocalPort(), "drop", 8192);
+            for (int i = 0; i < 500; i++) {
+                logger.info("event {}", i);
+            }
+            appender.stop();
+
+            List<String> received = new ArrayList<>();
+            int datagrams = 0;
+            byte[] buffer = new byte[65536];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                while (received.size() < 500) {
+                    socket.receive(packet);
+                    datagrams++;
+                    assertThat(packet.getLength()).isLessThanOrEqualTo(1472);
+                    String payload = new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8);
+                    //每个数据报只包含完整的行
+                    assertThat(payload).endsWith("\n");
+                    Collections.addAll(received, payload.split("\n"));
+                }
+            } catch (SocketTimeoutException e) {
+                //本机udp也可能丢包,按已收到的检查
+            }
+            assertThat(appender.getSent()).isEqualTo(500);
+            assertThat(received).isNotEmpty();
+            assertThat(datagrams).isLessThan(received.size());
+            for (String line : received) {
+                assertThat(JsonPath.parse(line).<String>read("$['message']")).startsWith("event ");
+            }
+        }
+    }
+
+    /**
+     * 接受一个连接,读到对端关闭为止
+     */
+    private static List<String> readLines(ServerSocket server) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (Socket socket = server.accept();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,124 @@
+package com.qxy.common.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.elasticsearch.client.RequestOptions;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/10 14:30
+ * @Introduction: 可以取消的异步请求。7.3的xxxAsync方法不返回Cancellable,这里按请求头找到底层的http请求并中止
+ * <p>
+ * 1、newRequest登记一个id,返回的选项带X-Opaque-Id请求头(es的任务和慢日志中也能看到这个id)
+ * 2、注册到HttpAsyncClient上的拦截器在发送前记下原始请求;HttpAsyncClient把交换处理器设置为请求的Cancellable,
+ * abort()会中止交换、关闭连接,回调按"取消"结束,不会把节点标记为失败
+ * 3、取消时还没有租借到连接的请求,在拿到连接、经过拦截器时中止
+ */
+public class CancellableRequests {
+    static final String HEADER = "X-Opaque-Id";
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Cancellable> requests = new ConcurrentHashMap<>();
+
+    /**
+     * @param prefix  id的前缀,例如 warmup-default
+     * @param options 请求原本使用的选项
+     * @return 使用完后调用done()注销
+     */
+    public Cancellable newRequest(String prefix, RequestOptions options) {
+        String id = prefix + "-" + sequence.incrementAndGet();
+        RequestOptions.Builder builder = options.toBuilder();
+        builder.addHeader(HEADER, id);
+        Cancellable cancellable = new Cancellable(id, builder.build());
+        requests.put(id, cancellable);
+        return cancellable;
+    }
+
+    public HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            Header header = request.getFirstHeader(HEADER);
+            Cancellable cancellable = header == null ? null : requests.get(header.getValue());
+            if (cancellable == null) {
+                return;
+            }
+            HttpRequestWrapper wrapper = request instanceof HttpRequestWrapper ? (HttpRequestWrapper) request : null;
+            if (wrapper != null && wrapper.getOriginal() instanceof HttpUriRequest) {
+                cancellable.sent((HttpUriRequest) wrapper.getOriginal());
+            }
+        };
+    }
+
+    /**
+     * @return 登记了还没有注销的请求数
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * 一个登记的请求;节点失败重试时会换成新的http请求,取消的总是最近发出的一个
+     */
+    public final class Cancellable {
+        private final String id;
+        private final RequestOptions options;
+        private volatile HttpUriRequest request;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+
+        private Cancellable(String id, RequestOptions options) {
+            this.id = id;
+            this.options = options;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return 发送请求时使用的选项
+         */
+        public RequestOptions getOptions() {
+            return options;
+        }
+
+        private void sent(HttpUriRequest request) {
+            this.request = request;
+            //先写request再读cancelled,cancel()先写cancelled再读request,并发时至少有一边会中止
+            if (cancelled) {
+                request.abort();
+            }
+        }
+
+        /**
+         * 中止请求,监听器以"request was cancelled"失败结束;已经done()的请求不受影响
+         */
+        public void cancel() {
+            if (done) {
+                return;
+            }
+            cancelled = true;
+            HttpUriRequest current = request;
+            if (current != null) {
+                current.abort();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 请求已经完成(在监听器中调用)或不再需要取消,注销
+         */
+        public void done() {
+            done = true;
+            requests.remove(id);
+        }
+    }
+}
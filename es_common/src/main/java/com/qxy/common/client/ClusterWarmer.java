@@ -0,0 +1,280 @@
+package com.qxy.common.client;
+
+import com.qxy.common.config.ClusterProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.pool.PoolStats;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/28 9:40
+ * @Introduction: 集群预热和健康检查
+ * <p>
+ * 1、预先建立连接: 直接从连接池租借每个节点的连接再归还,连接池中就有了建好的空闲连接(https时握手在归还前开始)
+ * 2、代表性查询: 每轮对每个节点的连接数并发执行一次全部查询,请求会分散到池中的各个连接上;超时时中止还没有完成的查询
+ * 3、批量请求: 删除不存在的文档,走完整的批量请求/响应流程但不写入数据
+ * 4、健康检查: 定期补齐过期关闭的空闲连接,并发送HEAD /,节点延迟同时计入NodeLatencyTracker
+ */
+@Slf4j
+public class ClusterWarmer implements Closeable {
+    private final ElasticsearchCluster cluster;
+    private final ClusterProperties properties;
+    private final ClusterProperties.Warmup config;
+
+    private final LongAdder pingCount = new LongAdder();
+    private final LongAdder pingFailureCount = new LongAdder();
+    private volatile boolean healthy = true;
+    private ScheduledExecutorService pingExecutor;
+
+    public ClusterWarmer(ElasticsearchCluster cluster, ClusterProperties properties) {
+        this.cluster = cluster;
+        this.properties = properties;
+        this.config = properties.getWarmup();
+    }
+
+    /**
+     * 预热,阻塞到完成或超时
+     *
+     * @return 预热结果,出错时记录第一个错误而不抛出
+     */
+    public WarmupResult warmup() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getTimeout());
+        WarmupResult result = new WarmupResult(cluster.getName());
+        try {
+            openConnections(result, deadline);
+            if (result.connections == 0 && !result.isSuccessful()) {
+                //一个连接都建立不了,不再执行请求
+                result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                log.warn("elasticsearch cluster [{}] warm-up failed: {}", cluster.getName(), result);
+                return result;
+            }
+            for (int round = 0; round < config.getRounds() && System.nanoTime() < deadline; round++) {
+                runSearches(result, deadline);
+                runBulk(result);
+            }
+            if (System.nanoTime() >= deadline) {
+                result.fail(new TimeoutException("warm-up did not finish within " + config.getTimeout() + " ms"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.fail(e);
+        }
+        result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("elasticsearch cluster [{}] warmed up: {}", cluster.getName(), result);
+        return result;
+    }
+
+    /**
+     * 每个节点补齐到connections个连接(空闲+使用中)
+     *
+     * @return 本次新建立的连接数
+     */
+    int openConnections(WarmupResult result, long deadline) throws InterruptedException {
+        LeaseTimingConnectionManager connectionManager = cluster.getConnectionManager();
+        List<Node> nodes = cluster.getClient().getLowLevelClient().getNodes();
+        int perNode = Math.min(Math.min(config.getConnections(), properties.getMaxConnPerRoute()),
+                properties.getMaxConnTotal() / Math.max(1, nodes.size()));
+
+        List<HttpRoute> routes = new ArrayList<>();
+        List<Future<NHttpClientConnection>> futures = new ArrayList<>();
+        for (Node node : nodes) {
+            HttpRoute route = route(node.getHost());
+            PoolStats stats = connectionManager.getStats(route);
+            for (int i = stats.getAvailable() + stats.getLeased(); i < perNode; i++) {
+                routes.add(route);
+                futures.add(connectionManager.requestConnection(route, null, properties.getConnectTimeout(),
+                        properties.getConnectionRequestTimeout(), TimeUnit.MILLISECONDS, null));
+            }
+        }
+
+        //全部租借到之后再归还,否则连接池会把刚归还的连接再租借出去
+        List<NHttpClientConnection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<NHttpClientConnection> future = futures.get(i);
+                try {
+                    NHttpClientConnection connection = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    connections.add(connection);
+                    //标记路由已建立,归还后连接可以复用;https时在这里开始TLS握手
+                    HttpClientContext context = HttpClientContext.create();
+                    connectionManager.startRoute(connection, routes.get(i), context);
+                    connectionManager.routeComplete(connection, routes.get(i), context);
+                } catch (ExecutionException | IOException e) {
+                    result.fail(e instanceof ExecutionException ? e.getCause() : e);
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    result.fail(e);
+                }
+            }
+        } finally {
+            for (NHttpClientConnection connection : connections) {
+                connectionManager.releaseConnection(connection, null, properties.getKeepAlive(), TimeUnit.MILLISECONDS);
+            }
+        }
+        result.connections += connections.size();
+        return connections.size();
+    }
+
+    private void runSearches(WarmupResult result, long deadline) throws InterruptedException {
+        if (config.getSearches().isEmpty()) {
+            return;
+        }
+        int parallelism = Math.max(1, config.getConnections()) * cluster.getClient().getLowLevelClient().getNodes().size();
+        CountDownLatch latch = new CountDownLatch(parallelism * config.getSearches().size());
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        List<CancellableRequests.Cancellable> searches = new ArrayList<>();
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                for (ClusterProperties.Warmup.Search search : config.getSearches()) {
+                    SearchRequest request = new SearchRequest(search.getIndex()).source(new SearchSourceBuilder()
+                            .query(QueryBuilders.wrapperQuery(search.getQuery()))
+                            .size(search.getSize()));
+                    CancellableRequests.Cancellable cancellable = cluster.getCancellableRequests()
+                            .newRequest("warmup-" + cluster.getName(), cluster.getRequestOptions());
+                    searches.add(cancellable);
+                    cluster.getClient().searchAsync(request, cancellable.getOptions(), new ActionListener<SearchResponse>() {
+                        @Override
+                        public void onResponse(SearchResponse response) {
+                            cancellable.done();
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            cancellable.done();
+                            failed.incrementAndGet();
+                            error.compareAndSet(null, e);
+                            latch.countDown();
+                        }
+                    });
+                }
+            }
+            //超时由warmup()按截止时间统一记录
+            latch.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            int finished = parallelism * config.getSearches().size() - (int) latch.getCount();
+            result.searches += finished - failed.get();
+            result.searchFailures += failed.get();
+            if (error.get() != null) {
+                result.fail(error.get());
+            }
+        } finally {
+            //超时或被中断时中止还没有完成的查询,释放它们占用的连接,不让预热请求继续压在慢集群上
+            for (CancellableRequests.Cancellable search : searches) {
+                search.cancel();
+                search.done();
+            }
+        }
+    }
+
+    private void runBulk(WarmupResult result) {
+        if (config.getBulkIndex() == null || config.getBulkIndex().isEmpty() || config.getBulkActions() <= 0) {
+            return;
+        }
+        BulkRequest request = new BulkRequest();
+        for (int i = 0; i < config.getBulkActions(); i++) {
+            request.add(new DeleteRequest(config.getBulkIndex(), "_warmup_" + i));
+        }
+        try {
+            //每一项的not_found/index_not_found是预期的结果,只有请求本身失败才算失败
+            cluster.getClient().bulk(request, cluster.getRequestOptions());
+            result.bulks++;
+        } catch (IOException | RuntimeException e) {
+            result.bulkFailures++;
+            result.fail(e);
+        }
+    }
+
+    /**
+     * 开始定期健康检查,pingInterval小于等于0时不开启
+     */
+    public synchronized void startPing() {
+        if (config.getPingInterval() <= 0 || pingExecutor != null) {
+            return;
+        }
+        pingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "es-" + cluster.getName() + "-ping");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pingExecutor.scheduleWithFixedDelay(this::ping, config.getPingInterval(), config.getPingInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    void ping() {
+        pingCount.increment();
+        try {
+            //空闲超过keepAlive的连接已经过期,关闭后重新建立
+            cluster.getConnectionManager().closeExpiredConnections();
+            WarmupResult result = new WarmupResult(cluster.getName());
+            openConnections(result, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getConnectTimeout()));
+            cluster.getClient().getLowLevelClient().performRequest(new Request("HEAD", "/"));
+            if (!healthy) {
+                log.info("elasticsearch cluster [{}] is reachable again", cluster.getName());
+            }
+            healthy = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            pingFailureCount.increment();
+            if (healthy) {
+                log.warn("elasticsearch cluster [{}] health ping failed", cluster.getName(), e);
+            }
+            healthy = false;
+        }
+    }
+
+    private static HttpRoute route(HttpHost host) {
+        //与客户端的路由规划一致,否则预先建立的连接不会被请求复用
+        return new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+    }
+
+    /**
+     * @return 最近一次健康检查是否成功,还没有检查时为true
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public long getPingCount() {
+        return pingCount.sum();
+    }
+
+    public long getPingFailureCount() {
+        return pingFailureCount.sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pingExecutor != null) {
+            pingExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.qxy.common.client;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/31 9:30
+ * @Introduction: 合并并发的相同请求(single-flight): 一个请求在执行时,相同的get/search请求等待并共享它的结果,不再重复发送
+ * <p>
+ * 1、get的key: 索引、type、id、routing、preference、realtime、refresh、版本、stored_fields和_source过滤
+ * 2、search的key: 索引、type、routing、preference、searchType、indicesOptions、requestCache、
+ * allowPartialSearchResults、batchedReduceSize、ccsMinimizeRoundtrips、maxConcurrentShardRequests、
+ * preFilterShardSize和source JSON,即SearchRequest除scroll外的全部参数;scroll请求不合并
+ * 3、只合并同时在执行的请求,请求完成后立即移除,不是缓存;执行失败时每个等待方得到自己的异常,cause是原异常
+ * 4、每个调用方得到自己的响应对象: 发出请求的调用方得到原对象,有等待方时在返回前生成一份ResponseSnapshot,
+ * 等待方各自从快照解析,修改_source Map或聚合不会影响其他调用方
+ * 5、合并的请求可能共享一个在本线程写入之前就已经发出的请求的结果;需要读到自己刚写入的数据时直接使用RestHighLevelClient
+ */
+public class CoalescingClient {
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+
+    private final Map<String, Flight<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder getExecuted = new LongAdder();
+    private final LongAdder getCoalesced = new LongAdder();
+    private final LongAdder searchExecuted = new LongAdder();
+    private final LongAdder searchCoalesced = new LongAdder();
+
+    private CoalescingClient(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * 与RestHighLevelClient.get相同,相同的请求正在执行时等待它的结果
+     */
+    public GetResponse get(GetRequest request) throws IOException {
+        return execute("get|" + key(request), () -> client.get(request, options), ResponseSnapshot::of,
+                getExecuted, getCoalesced);
+    }
+
+    /**
+     * 与RestHighLevelClient.search相同,相同的请求正在执行时等待它的结果
+     */
+    public SearchResponse search(SearchRequest request) throws IOException {
+        if (request.scroll() != null) {
+            return client.search(request, options);
+        }
+        return execute("search|" + key(request), () -> client.search(request, options), ResponseSnapshot::of,
+                searchExecuted, searchCoalesced);
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * 一个正在执行的请求;closed之后不再接受等待方,之后到达的相同请求重新执行
+     */
+    private static class Flight<T> {
+        private final CompletableFuture<ResponseSnapshot<T>> future = new CompletableFuture<>();
+        private int waiters;
+        private boolean closed;
+
+        private synchronized boolean join() {
+            if (closed) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * @return 是否有等待方
+         */
+        private synchronized boolean close() {
+            closed = true;
+            return waiters > 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T execute(String key, Call<T> call, Function<T, ResponseSnapshot<T>> snapshot,
+                          LongAdder executed, LongAdder coalesced) throws IOException {
+        Flight<T> flight = new Flight<>();
+        Flight<T> existing;
+        while ((existing = (Flight<T>) inFlight.putIfAbsent(key, flight)) != null) {
+            if (existing.join()) {
+                coalesced.increment();
+                return await(existing.future).copy();
+            }
+            //已经完成,close之前已从inFlight移除,重新放入即可
+        }
+        executed.increment();
+        T result;
+        try {
+            result = call.call();
+        } catch (IOException | RuntimeException | Error e) {
+            inFlight.remove(key, flight);
+            flight.close();
+            flight.future.completeExceptionally(e);
+            throw e;
+        }
+        //先移除再完成,之后到达的请求重新执行而不是拿到已经完成的结果
+        inFlight.remove(key, flight);
+        try {
+            //快照在返回前生成,此时调用方还没有机会修改result
+            flight.future.complete(flight.close() ? snapshot.apply(result) : null);
+        } catch (RuntimeException e) {
+            flight.future.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a coalesced request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw copy((IOException) cause, IOException::new);
+            }
+            if (cause instanceof RuntimeException) {
+                throw copy((RuntimeException) cause, ElasticsearchException::new);
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * 为一个等待方包装原异常: 调用栈是等待方自己的,多个等待方不会同时修改同一个异常对象(addSuppressed等)。
+     * 与ForkJoinTask相同,按原异常的类型用(String, Throwable)构造器创建,调用方按类型的catch不受影响;
+     * 没有这个构造器时用fallback包装
+     */
+    @SuppressWarnings("unchecked")
+    static <E extends Exception> E copy(E e, BiFunction<String, Throwable, ? extends E> fallback) {
+        if (e instanceof ElasticsearchStatusException) {
+            ElasticsearchStatusException status = (ElasticsearchStatusException) e;
+            return (E) new ElasticsearchStatusException(status.getMessage(), status.status(), status);
+        }
+        try {
+            return (E) e.getClass().getConstructor(String.class, Throwable.class).newInstance(e.getMessage(), e);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            return fallback.apply(e.getMessage(), e);
+        }
+    }
+
+    private static String key(GetRequest request) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(request.index()).append('|')
+                .append(request.type()).append('|')
+                .append(request.id()).append('|')
+                .append(request.routing()).append('|')
+                .append(request.preference()).append('|')
+                .append(request.realtime()).append('|')
+                .append(request.refresh()).append('|')
+                .append(request.version()).append('|')
+                .append(request.versionType()).append('|')
+                .append(Arrays.toString(request.storedFields())).append('|');
+        FetchSourceContext source = request.fetchSourceContext();
+        if (source != null) {
+            key.append(source.fetchSource())
+                    .append(Arrays.toString(source.includes()))
+                    .append(Arrays.toString(source.excludes()));
+        }
+        return key.toString();
+    }
+
+    private static String key(SearchRequest request) {
+        StringBuilder key = new StringBuilder(256);
+        key.append(request.indices().length == 0 ? "_all" : String.join(",", request.indices())).append('|')
+                .append(request.routing()).append('|')
+                .append(request.preference()).append('|')
+                .append(request.searchType()).append('|')
+                .append(request.indicesOptions()).append('|')
+                .append(request.requestCache()).append('|')
+                .append(Arrays.toString(request.types())).append('|')
+                .append(request.allowPartialSearchResults()).append('|')
+                .append(request.getBatchedReduceSize()).append('|')
+                .append(request.isCcsMinimizeRoundtrips()).append('|')
+                .append(request.getMaxConcurrentShardRequests()).append('|')
+                .append(request.getPreFilterShardSize()).append('|');
+        if (request.source() != null) {
+            key.append(Strings.toString(request.source()));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return 实际发送的get请求数
+     */
+    public long getGetExecuted() {
+        return getExecuted.sum();
+    }
+
+    /**
+     * @return 共享了其他请求结果、没有发送的get请求数
+     */
+    public long getGetCoalesced() {
+        return getCoalesced.sum();
+    }
+
+    public long getSearchExecuted() {
+        return searchExecuted.sum();
+    }
+
+    public long getSearchCoalesced() {
+        return searchCoalesced.sum();
+    }
+
+    /**
+     * @return 节省的请求数
+     */
+    public long getSaved() {
+        return getCoalesced.sum() + searchCoalesced.sum();
+    }
+
+    /**
+     * @return 当前正在执行的不同请求数
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescingClient{getExecuted=" + getGetExecuted() + ", getCoalesced=" + getGetCoalesced()
+                + ", searchExecuted=" + getSearchExecuted() + ", searchCoalesced=" + getSearchCoalesced()
+                + ", inFlight=" + getInFlight() + '}';
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder options(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public CoalescingClient build() {
+            return new CoalescingClient(this);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.qxy.common.client;
+
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/18 10:12
+ * @Introduction: 连接池统计: 租借等待时间 + 连接池当前状态,用于根据数据调整连接池大小
+ */
+public class ConnectionPoolStats {
+    private final LongAdder leaseCount = new LongAdder();
+    private final LongAdder leaseFailureCount = new LongAdder();
+    private final LongAdder leaseWaitNanos = new LongAdder();
+    private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+
+    /**
+     * 每次租借(成功或失败)的等待时间,交给ElasticsearchMetrics记录分布
+     */
+    private final LongConsumer leaseListener;
+
+    private volatile PoolingNHttpClientConnectionManager connectionManager;
+
+    public ConnectionPoolStats() {
+        this(waitNanos -> {
+        });
+    }
+
+    public ConnectionPoolStats(LongConsumer leaseListener) {
+        this.leaseListener = leaseListener;
+    }
+
+    void bind(PoolingNHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    void recordLease(long waitNanos) {
+        leaseCount.increment();
+        leaseWaitNanos.add(waitNanos);
+        maxLeaseWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        leaseListener.accept(waitNanos);
+    }
+
+    void recordLeaseFailure(long waitNanos) {
+        leaseFailureCount.increment();
+        leaseWaitNanos.add(waitNanos);
+        maxLeaseWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        leaseListener.accept(waitNanos);
+    }
+
+    /**
+     * @return 成功租借到连接的次数
+     */
+    public long getLeaseCount() {
+        return leaseCount.sum();
+    }
+
+    /**
+     * @return 租借超时或失败的次数,持续大于0说明连接池过小或connectionRequestTimeout过短
+     */
+    public long getLeaseFailureCount() {
+        return leaseFailureCount.sum();
+    }
+
+    /**
+     * @return 平均租借等待时间(毫秒)
+     */
+    public double getAvgLeaseWaitMillis() {
+        long count = leaseCount.sum() + leaseFailureCount.sum();
+        return count == 0 ? 0 : (double) leaseWaitNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return 最大租借等待时间(毫秒)
+     */
+    public double getMaxLeaseWaitMillis() {
+        return (double) maxLeaseWaitNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return 连接池当前状态(已租借/等待中/空闲/上限),客户端未创建时返回null
+     */
+    public PoolStats getPoolStats() {
+        PoolingNHttpClientConnectionManager manager = connectionManager;
+        return manager == null ? null : manager.getTotalStats();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStats{" +
+                "leaseCount=" + getLeaseCount() +
+                ", leaseFailureCount=" + getLeaseFailureCount() +
+                ", avgLeaseWaitMillis=" + getAvgLeaseWaitMillis() +
+                ", maxLeaseWaitMillis=" + getMaxLeaseWaitMillis() +
+                ", pool=" + getPoolStats() +
+                '}';
+    }
+}
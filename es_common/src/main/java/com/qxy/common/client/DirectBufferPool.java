@@ -0,0 +1,114 @@
+package com.qxy.common.client;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/3 9:30
+ * @Introduction: 固定大小的堆外缓冲块池,请求体和响应体按块存放,用完归还,大响应不再在堆上分配和扩容
+ * <p>
+ * 1、池中最多保留maxPooledBytes,超过时归还的块直接丢弃,由GC回收堆外内存
+ * 2、后进先出,最近归还的块更可能还在CPU缓存中
+ * 3、没有归还的块(例如低级客户端的调用方没有读取或关闭响应体)不会泄漏,只是不能复用
+ */
+public class DirectBufferPool {
+    private final int chunkSize;
+    private final long maxPooledBytes;
+    private final Deque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param chunkSize      每块的字节数
+     * @param maxPooledBytes 池中最多保留的字节数
+     */
+    public DirectBufferPool(int chunkSize, long maxPooledBytes) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @return 已清空的块,position为0,limit为chunkSize
+     */
+    public ByteBuffer acquire() {
+        acquired.increment();
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-chunkSize);
+            buffer.clear();
+            return buffer;
+        }
+        allocated.increment();
+        return ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    /**
+     * 归还一个由acquire得到的块,归还后调用方不能再使用它
+     */
+    public void release(ByteBuffer buffer) {
+        released.increment();
+        if (buffer.capacity() != chunkSize || !buffer.isDirect()
+                || pooledBytes.addAndGet(chunkSize) > maxPooledBytes) {
+            if (buffer.capacity() == chunkSize && buffer.isDirect()) {
+                pooledBytes.addAndGet(-chunkSize);
+            }
+            dropped.increment();
+            return;
+        }
+        free.offerFirst(buffer);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return 池中空闲的字节数
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return 已借出未归还的块数
+     */
+    public long getOutstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * @return 新分配的块数,acquired与它的差即复用的次数
+     */
+    public long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * @return 池满时丢弃的块数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectBufferPool{chunkSize=" + chunkSize + ", pooledBytes=" + getPooledBytes()
+                + ", outstanding=" + getOutstanding() + ", acquired=" + getAcquired()
+                + ", allocated=" + getAllocated() + ", dropped=" + getDropped() + '}';
+    }
+}
@@ -0,0 +1,207 @@
+package com.qxy.common.client;
+
+import com.qxy.common.config.ClusterProperties;
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+
+import javax.net.ssl.SSLContext;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/26 9:30
+ * @Introduction: 按集群配置创建客户端: 自定义连接池、节点延迟采集与选择、请求指标、可选的嗅探、响应压缩和池化的响应缓冲
+ */
+@Slf4j
+public final class ElasticsearchClientFactory {
+    /**
+     * 与默认的HeapBufferedResponseConsumerFactory一致:100MB,buffer.limit为该值且没有开启压缩和池化时使用RequestOptions.DEFAULT
+     */
+    private static final int DEFAULT_BUFFER_LIMIT = 100 * 1024 * 1024;
+
+    private ElasticsearchClientFactory() {
+    }
+
+    /**
+     * @param name       集群名称,用于I/O线程名和日志
+     * @param properties 集群配置
+     * @return 集群的客户端及附属组件
+     * @throws IOReactorException 创建I/O reactor失败
+     */
+    public static ElasticsearchCluster create(String name, ClusterProperties properties) throws IOReactorException {
+        return create(name, properties, new ElasticsearchMetrics());
+    }
+
+    /**
+     * @param metrics 应用内共用的客户端指标,集群的请求和连接池等待时间记录到其中
+     */
+    public static ElasticsearchCluster create(String name, ClusterProperties properties, ElasticsearchMetrics metrics)
+            throws IOReactorException {
+        HttpHost[] httpHosts = parseHosts(name, properties);
+
+        ConnectionPoolStats connectionPoolStats = new ConnectionPoolStats(waitNanos -> metrics.recordPoolWait(name, waitNanos));
+        //失败按一次socketTimeout计
+        NodeLatencyTracker nodeLatencyTracker = new NodeLatencyTracker(properties.getSelector().getEwmaAlpha(),
+                properties.getSocketTimeout());
+        NodeFailureListener nodeFailureListener = new NodeFailureListener(nodeLatencyTracker);
+        //自定义连接管理器,记录每次租借连接的等待时间
+        LeaseTimingConnectionManager connectionManager = createConnectionManager(name, properties, connectionPoolStats);
+        CancellableRequests cancellableRequests = new CancellableRequests();
+        long keepAlive = properties.getKeepAlive();
+        RestClientBuilder builder = RestClient.builder(httpHosts)
+                .setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
+                        .setConnectTimeout(properties.getConnectTimeout())
+                        .setSocketTimeout(properties.getSocketTimeout())
+                        .setConnectionRequestTimeout(properties.getConnectionRequestTimeout()))
+                //按节点延迟选择节点,跳过只有master角色的节点
+                .setNodeSelector(new LatencyAwareNodeSelector(nodeLatencyTracker,
+                        properties.getSelector().getSlowFactor(), properties.getSelector().getExploreRatio()))
+                .setFailureListener(nodeFailureListener)
+                .setHttpClientConfigCallback(httpClientBuilder -> {
+                    //设置了连接管理器后,builder上的maxConnTotal/maxConnPerRoute不再生效,以连接管理器为准
+                    httpClientBuilder.setConnectionManager(connectionManager);
+                    //采集每个节点的响应延迟
+                    httpClientBuilder.addInterceptorFirst(nodeLatencyTracker.requestInterceptor());
+                    httpClientBuilder.addInterceptorLast(nodeLatencyTracker.responseInterceptor());
+                    //按集群、操作、索引记录延迟、大小和错误
+                    httpClientBuilder.addInterceptorLast(metrics.requestInterceptor(name));
+                    httpClientBuilder.addInterceptorLast(metrics.responseInterceptor());
+                    //记下登记过的请求,用于取消
+                    httpClientBuilder.addInterceptorLast(cancellableRequests.requestInterceptor());
+                    if (keepAlive > 0) {
+                        httpClientBuilder.setKeepAliveStrategy((response, context) -> keepAlive);
+                    }
+                    return httpClientBuilder;
+                });
+        RestHighLevelClient client = new RestHighLevelClient(builder);
+
+        //节点嗅探,定期和节点失败时刷新客户端的节点列表
+        Sniffer sniffer = null;
+        if (properties.getSniff().isEnabled()) {
+            sniffer = Sniffer.builder(client.getLowLevelClient())
+                    .setSniffIntervalMillis(properties.getSniff().getInterval())
+                    .setSniffAfterFailureDelayMillis(properties.getSniff().getAfterFailureDelay())
+                    .build();
+            nodeFailureListener.setSniffer(sniffer);
+        }
+        log.info("elasticsearch cluster [{}] created: hosts {}, maxConnTotal {}, maxConnPerRoute {}, sniff {}",
+                name, properties.getHostList(), properties.getMaxConnTotal(), properties.getMaxConnPerRoute(),
+                properties.getSniff().isEnabled());
+        ClusterProperties.Buffer buffer = properties.getBuffer();
+        DirectBufferPool bufferPool = buffer.isPooled()
+                ? new DirectBufferPool(buffer.getChunkSize(), buffer.getMaxPooledBytes())
+                : null;
+        return new ElasticsearchCluster(name, client, requestOptions(properties, bufferPool), connectionPoolStats,
+                nodeLatencyTracker, sniffer, connectionManager, metrics, bufferPool, cancellableRequests);
+    }
+
+    /**
+     * 只校验配置,不创建客户端;延迟创建客户端时用于启动时尽早发现配置错误
+     *
+     * @throws IllegalArgumentException 没有配置hostList或格式错误
+     */
+    public static void validate(String name, ClusterProperties properties) {
+        parseHosts(name, properties);
+    }
+
+    private static HttpHost[] parseHosts(String name, ClusterProperties properties) {
+        if (properties.getHostList() == null || properties.getHostList().trim().isEmpty()) {
+            throw new IllegalArgumentException("hostList of elasticsearch cluster [" + name + "] is required");
+        }
+        //可能有多个host,使用逗号分割
+        String[] hostArray = properties.getHostList().split(",");
+        //一个host对应一个HttpHost
+        HttpHost[] httpHosts = new HttpHost[hostArray.length];
+        for (int i = 0; i < httpHosts.length; i++) {
+            //将hostList的格式拆解: ip:host -> ip host
+            String[] split = hostArray[i].trim().split(":");
+            if (split.length != 2) {
+                throw new IllegalArgumentException("invalid host [" + hostArray[i] + "] of elasticsearch cluster [" + name
+                        + "], expected ip:port");
+            }
+            String ip = split[0];
+            int port = Integer.parseInt(split[1]);
+            httpHosts[i] = new HttpHost(ip, port);
+        }
+        return httpHosts;
+    }
+
+    /**
+     * 请求选项: 开启压缩时附带Accept-Encoding请求头并在客户端解压响应;按buffer配置选择接收响应体的方式和上限
+     *
+     * @param bufferPool 没有开启池化时为null
+     */
+    private static RequestOptions requestOptions(ClusterProperties properties, DirectBufferPool bufferPool) {
+        int bufferLimit = properties.getBuffer().getLimit();
+        if (!properties.isCompression() && bufferPool == null && bufferLimit == DEFAULT_BUFFER_LIMIT) {
+            return RequestOptions.DEFAULT;
+        }
+        RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
+        if (properties.isCompression()) {
+            builder.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+        if (bufferPool != null) {
+            builder.setHttpAsyncResponseConsumerFactory(new PooledResponseConsumerFactory(bufferPool, bufferLimit,
+                    properties.getBuffer().isStreaming(), properties.isCompression()));
+        } else if (properties.isCompression()) {
+            builder.setHttpAsyncResponseConsumerFactory(new GzipResponseConsumerFactory(bufferLimit));
+        } else {
+            builder.setHttpAsyncResponseConsumerFactory(
+                    new HttpAsyncResponseConsumerFactory.HeapBufferedResponseConsumerFactory(bufferLimit));
+        }
+        return builder.build();
+    }
+
+    private static LeaseTimingConnectionManager createConnectionManager(String name, ClusterProperties properties,
+                                                                        ConnectionPoolStats connectionPoolStats) throws IOReactorException {
+        IOReactorConfig.Builder ioReactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(properties.getConnectTimeout())
+                .setSoTimeout(properties.getSocketTimeout())
+                .setSoKeepAlive(true);
+        if (properties.getIoThreadCount() > 0) {
+            ioReactorConfig.setIoThreadCount(properties.getIoThreadCount());
+        }
+        //替换了默认的连接管理器,需要自行注册http和https的会话策略;
+        //https使用JVM默认的SSLContext,RestClientBuilder本来就会初始化它,
+        //SSLIOSessionStrategy.getDefaultStrategy()会再初始化一个新的TLS上下文,冷启动多花约0.5秒
+        Registry<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", new SSLIOSessionStrategy(defaultSslContext(), SSLIOSessionStrategy.getDefaultHostnameVerifier()))
+                .build();
+        //I/O线程名带上集群名,多个集群时便于区分
+        AtomicInteger index = new AtomicInteger();
+        ThreadFactory threadFactory = r -> new Thread(r, "es-" + name + "-io-" + index.incrementAndGet());
+        LeaseTimingConnectionManager connectionManager = new LeaseTimingConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig.build(), threadFactory), registry, connectionPoolStats);
+        connectionManager.setMaxTotal(properties.getMaxConnTotal());
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxConnPerRoute());
+        connectionPoolStats.bind(connectionManager);
+        return connectionManager;
+    }
+
+    private static SSLContext defaultSslContext() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("could not create the default ssl context", e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.qxy.common.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/26 9:30
+ * @Introduction: 全部集群的客户端,按名称获取;每个集群在应用内只有一个客户端(一个连接池)
+ * <p>
+ * 客户端按StartupMode创建: 立即创建、第一次获取时创建或在后台线程创建;
+ * 同一个集群并发获取时只创建一次,其他线程等待创建完成
+ */
+@Slf4j
+public class ElasticsearchClients implements Closeable {
+    /**
+     * 默认集群的名称,对应qxy.elasticsearch顶层的配置
+     */
+    public static final String DEFAULT = "default";
+
+    private final Map<String, ClusterSlot> clusters;
+    private final StartupMode startupMode;
+    private volatile boolean closed;
+
+    /**
+     * @param clusters 已经创建好的集群
+     */
+    public ElasticsearchClients(Map<String, ElasticsearchCluster> clusters) {
+        this(created(clusters), StartupMode.EAGER);
+    }
+
+    /**
+     * @param factories   每个集群的创建方法,必须包含默认集群
+     * @param startupMode 创建时机
+     * @throws IllegalStateException EAGER时有集群创建失败,已经创建的集群会被关闭
+     */
+    public ElasticsearchClients(Map<String, Callable<ElasticsearchCluster>> factories, StartupMode startupMode) {
+        if (!factories.containsKey(DEFAULT)) {
+            throw new IllegalArgumentException("default cluster is required");
+        }
+        Map<String, ClusterSlot> slots = new LinkedHashMap<>();
+        for (Map.Entry<String, Callable<ElasticsearchCluster>> entry : factories.entrySet()) {
+            slots.put(entry.getKey(), new ClusterSlot(entry.getKey(), entry.getValue()));
+        }
+        this.clusters = Collections.unmodifiableMap(slots);
+        this.startupMode = startupMode;
+
+        if (startupMode == StartupMode.EAGER) {
+            try {
+                for (ClusterSlot slot : clusters.values()) {
+                    slot.get();
+                }
+            } catch (RuntimeException e) {
+                //已经创建的客户端持有I/O线程,需要关闭
+                close();
+                throw e;
+            }
+        } else if (startupMode == StartupMode.BACKGROUND) {
+            Thread thread = new Thread(this::createAll, "es-startup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static Map<String, Callable<ElasticsearchCluster>> created(Map<String, ElasticsearchCluster> clusters) {
+        Map<String, Callable<ElasticsearchCluster>> factories = new LinkedHashMap<>();
+        for (Map.Entry<String, ElasticsearchCluster> entry : clusters.entrySet()) {
+            ElasticsearchCluster cluster = entry.getValue();
+            factories.put(entry.getKey(), () -> cluster);
+        }
+        return factories;
+    }
+
+    /**
+     * 后台创建失败时只记录日志,获取该集群时再抛出
+     */
+    private void createAll() {
+        long start = System.nanoTime();
+        for (ClusterSlot slot : clusters.values()) {
+            try {
+                slot.get();
+            } catch (RuntimeException e) {
+                if (!closed) {
+                    log.warn("failed to create elasticsearch cluster [{}] in background", slot.name, e);
+                }
+            }
+        }
+        log.info("elasticsearch clusters {} created in background in {} ms", clusters.keySet(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * @param name 集群名称
+     * @return 集群,还没有创建时在当前线程创建(或等待后台线程创建完成)
+     * @throws IllegalArgumentException 没有该集群
+     * @throws IllegalStateException    集群创建失败或已经关闭
+     */
+    public ElasticsearchCluster getCluster(String name) {
+        ClusterSlot slot = clusters.get(name);
+        if (slot == null) {
+            throw new IllegalArgumentException("unknown elasticsearch cluster [" + name + "], configured: " + clusters.keySet());
+        }
+        return slot.get();
+    }
+
+    public RestHighLevelClient getClient(String name) {
+        return getCluster(name).getClient();
+    }
+
+    public ElasticsearchCluster getDefault() {
+        return getCluster(DEFAULT);
+    }
+
+    public Set<String> getNames() {
+        return clusters.keySet();
+    }
+
+    public StartupMode getStartupMode() {
+        return startupMode;
+    }
+
+    /**
+     * @param name 集群名称
+     * @return 该集群的客户端是否已经创建,不会触发创建
+     */
+    public boolean isCreated(String name) {
+        ClusterSlot slot = clusters.get(name);
+        return slot != null && slot.isCreated();
+    }
+
+    /**
+     * 正在创建的集群等待创建完成后关闭,还没有创建的不再创建
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (ClusterSlot slot : clusters.values()) {
+            try {
+                slot.close();
+            } catch (IOException e) {
+                log.warn("failed to close elasticsearch cluster [{}]", slot.name, e);
+            }
+        }
+    }
+
+    private static final class ClusterSlot {
+        private final String name;
+        private final Callable<ElasticsearchCluster> factory;
+        private ElasticsearchCluster cluster;
+        private RuntimeException failure;
+        private boolean closed;
+
+        ClusterSlot(String name, Callable<ElasticsearchCluster> factory) {
+            this.name = name;
+            this.factory = factory;
+        }
+
+        synchronized ElasticsearchCluster get() {
+            if (closed) {
+                throw new IllegalStateException("elasticsearch cluster [" + name + "] is closed");
+            }
+            if (cluster == null && failure == null) {
+                try {
+                    cluster = factory.call();
+                } catch (RuntimeException e) {
+                    failure = e;
+                } catch (Exception e) {
+                    failure = new IllegalStateException("failed to create elasticsearch cluster [" + name + "]", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return cluster;
+        }
+
+        synchronized boolean isCreated() {
+            return cluster != null;
+        }
+
+        synchronized void close() throws IOException {
+            closed = true;
+            if (cluster != null) {
+                cluster.close();
+            }
+        }
+    }
+}
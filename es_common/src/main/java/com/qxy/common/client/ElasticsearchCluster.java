@@ -0,0 +1,114 @@
+package com.qxy.common.client;
+
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/26 9:30
+ * @Introduction: 一个集群的客户端及其附属组件
+ */
+public class ElasticsearchCluster implements Closeable {
+    private final String name;
+    private final RestHighLevelClient client;
+    private final RequestOptions requestOptions;
+    private final ConnectionPoolStats connectionPoolStats;
+    private final NodeLatencyTracker nodeLatencyTracker;
+    private final Sniffer sniffer;
+    private final LeaseTimingConnectionManager connectionManager;
+    private final ElasticsearchMetrics metrics;
+    private final DirectBufferPool bufferPool;
+    private final CancellableRequests cancellableRequests;
+
+    ElasticsearchCluster(String name, RestHighLevelClient client, RequestOptions requestOptions,
+                         ConnectionPoolStats connectionPoolStats, NodeLatencyTracker nodeLatencyTracker, Sniffer sniffer,
+                         LeaseTimingConnectionManager connectionManager, ElasticsearchMetrics metrics,
+                         DirectBufferPool bufferPool, CancellableRequests cancellableRequests) {
+        this.name = name;
+        this.client = client;
+        this.requestOptions = requestOptions;
+        this.connectionPoolStats = connectionPoolStats;
+        this.nodeLatencyTracker = nodeLatencyTracker;
+        this.sniffer = sniffer;
+        this.connectionManager = connectionManager;
+        this.metrics = metrics;
+        this.bufferPool = bufferPool;
+        this.cancellableRequests = cancellableRequests;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RestHighLevelClient getClient() {
+        return client;
+    }
+
+    /**
+     * 开启压缩时附带Accept-Encoding请求头并在客户端解压响应,开启池化时用池化的堆外块接收响应体
+     */
+    public RequestOptions getRequestOptions() {
+        return requestOptions;
+    }
+
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return connectionPoolStats;
+    }
+
+    public NodeLatencyTracker getNodeLatencyTracker() {
+        return nodeLatencyTracker;
+    }
+
+    /**
+     * @return 没有开启嗅探时为null
+     */
+    public Sniffer getSniffer() {
+        return sniffer;
+    }
+
+    /**
+     * 客户端指标,由http拦截器和MeteredClient记录
+     */
+    public ElasticsearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 接收响应体的堆外缓冲池,也可以用于PooledRequestEntity
+     *
+     * @return 没有开启buffer.pooled时为null
+     */
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * 登记后可以取消的异步请求,例如超时的预热查询
+     */
+    public CancellableRequests getCancellableRequests() {
+        return cancellableRequests;
+    }
+
+    /**
+     * 客户端的连接池,用于预先建立连接
+     */
+    LeaseTimingConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * 先停止嗅探再关闭客户端
+     */
+    @Override
+    public void close() throws IOException {
+        if (sniffer != null) {
+            sniffer.close();
+        }
+        client.close();
+    }
+}
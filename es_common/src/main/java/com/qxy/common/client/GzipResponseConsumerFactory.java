@@ -0,0 +1,48 @@
+package com.qxy.common.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.HeapBufferedAsyncResponseConsumer;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/18 16:05
+ * @Introduction: 7.3.0的低级客户端不会解压响应,配合Accept-Encoding: gzip请求头使用,在缓冲完响应后解压
+ */
+public class GzipResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+    private final int bufferLimit;
+
+    public GzipResponseConsumerFactory(int bufferLimit) {
+        this.bufferLimit = bufferLimit;
+    }
+
+    @Override
+    public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+        return new HeapBufferedAsyncResponseConsumer(bufferLimit) {
+            @Override
+            protected HttpResponse buildResult(HttpContext context) throws Exception {
+                return decompress(super.buildResult(context));
+            }
+        };
+    }
+
+    /**
+     * 响应体是gzip编码时替换为解压的响应体,PooledResponseConsumerFactory也使用
+     */
+    static HttpResponse decompress(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        Header encoding = entity == null ? null : entity.getContentEncoding();
+        if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+            response.setEntity(new GzipDecompressingEntity(entity));
+            response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+            response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        }
+        return response;
+    }
+}
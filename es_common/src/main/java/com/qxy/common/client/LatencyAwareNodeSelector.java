@@ -0,0 +1,80 @@
+package com.qxy.common.client;
+
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/25 10:30
+ * @Introduction: 按EWMA延迟选择节点,跳过只有master角色的节点
+ * <p>
+ * NodeSelector只能删除候选节点不能排序,所以去掉延迟超过最快节点slowFactor倍的节点,剩余节点由RestClient轮询;
+ * 还没有样本的节点(刚嗅探到的新节点)保留;
+ * 以exploreRatio的概率不过滤,让被过滤的节点也有机会更新延迟,恢复后重新参与轮询
+ */
+public class LatencyAwareNodeSelector implements NodeSelector {
+    private final NodeLatencyTracker tracker;
+    private final double slowFactor;
+    private final double exploreRatio;
+
+    public LatencyAwareNodeSelector(NodeLatencyTracker tracker, double slowFactor, double exploreRatio) {
+        this.tracker = tracker;
+        this.slowFactor = slowFactor;
+        this.exploreRatio = exploreRatio;
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        //1、跳过只有master角色的节点,全部是master时保留(单节点或测试集群)
+        boolean hasNonMaster = false;
+        for (Node node : nodes) {
+            if (!isDedicatedMaster(node)) {
+                hasNonMaster = true;
+                break;
+            }
+        }
+        if (hasNonMaster) {
+            for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+                if (isDedicatedMaster(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        //2、去掉明显慢的节点
+        if (ThreadLocalRandom.current().nextDouble() < exploreRatio) {
+            return;
+        }
+        double fastest = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            double latency = tracker.getLatencyMillis(node.getHost());
+            if (!Double.isNaN(latency)) {
+                fastest = Math.min(fastest, latency);
+            }
+        }
+        if (fastest == Double.MAX_VALUE) {
+            return;
+        }
+        double threshold = fastest * slowFactor;
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            double latency = tracker.getLatencyMillis(iterator.next().getHost());
+            if (latency > threshold) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static boolean isDedicatedMaster(Node node) {
+        //没有嗅探过的节点不知道角色
+        return node.getRoles() != null && node.getRoles().isMasterEligible()
+                && !node.getRoles().isData() && !node.getRoles().isIngest();
+    }
+
+    @Override
+    public String toString() {
+        return "LATENCY_AWARE(slowFactor=" + slowFactor + ")";
+    }
+}
@@ -0,0 +1,61 @@
+package com.qxy.common.client;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/18 10:12
+ * @Introduction: 记录连接租借等待时间的连接管理器
+ */
+public class LeaseTimingConnectionManager extends PoolingNHttpClientConnectionManager {
+    private final ConnectionPoolStats stats;
+
+    public LeaseTimingConnectionManager(ConnectingIOReactor ioReactor,
+                                        Registry<SchemeIOSessionStrategy> registry,
+                                        ConnectionPoolStats stats) {
+        super(ioReactor, registry);
+        this.stats = stats;
+    }
+
+    @Override
+    public Future<NHttpClientConnection> requestConnection(HttpRoute route, Object state,
+                                                           long connectTimeout, long leaseTimeout, TimeUnit tunit,
+                                                           FutureCallback<NHttpClientConnection> callback) {
+        long start = System.nanoTime();
+        //包装回调:连接可用(或超时、失败)时记录从发起租借到拿到连接的耗时
+        return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit,
+                new FutureCallback<NHttpClientConnection>() {
+                    @Override
+                    public void completed(NHttpClientConnection result) {
+                        stats.recordLease(System.nanoTime() - start);
+                        if (callback != null) {
+                            callback.completed(result);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        stats.recordLeaseFailure(System.nanoTime() - start);
+                        if (callback != null) {
+                            callback.failed(ex);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        if (callback != null) {
+                            callback.cancelled();
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,37 @@
+package com.qxy.common.client;
+
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.sniff.Sniffer;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/25 10:30
+ * @Introduction: 节点请求失败时记一次惩罚延迟;开启嗅探时立即重新嗅探节点列表(与SniffOnFailureListener一致)
+ * <p>
+ * RestClient只能设置一个FailureListener,而SniffOnFailureListener在没有设置Sniffer时会抛异常,所以合并为一个
+ */
+public class NodeFailureListener extends RestClient.FailureListener {
+    private final NodeLatencyTracker tracker;
+    private volatile Sniffer sniffer;
+
+    public NodeFailureListener(NodeLatencyTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * 客户端创建后才能创建Sniffer,所以在之后设置
+     */
+    public void setSniffer(Sniffer sniffer) {
+        this.sniffer = sniffer;
+    }
+
+    @Override
+    public void onFailure(Node node) {
+        tracker.penalize(node.getHost());
+        Sniffer sniffer = this.sniffer;
+        if (sniffer != null) {
+            sniffer.sniffOnFailure();
+        }
+    }
+}
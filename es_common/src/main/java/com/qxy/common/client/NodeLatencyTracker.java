@@ -0,0 +1,95 @@
+package com.qxy.common.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/25 10:30
+ * @Introduction: 记录每个节点的响应延迟(指数加权移动平均,EWMA),供LatencyAwareNodeSelector选择节点
+ * <p>
+ * 延迟为发出请求到收到响应头的时间,由注册到HttpAsyncClient上的拦截器采集;请求失败时按penalty记一次延迟
+ */
+public class NodeLatencyTracker {
+    private static final String START_ATTRIBUTE = "qxy.request.start";
+
+    private final double alpha;
+    private final long penaltyNanos;
+    /**
+     * EWMA(纳秒),以double的bit保存在AtomicLong中,CAS更新
+     */
+    private final Map<HttpHost, AtomicLong> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * @param alpha         新样本的权重,越大对延迟变化越敏感
+     * @param penaltyMillis 请求失败时记录的延迟
+     */
+    public NodeLatencyTracker(double alpha, long penaltyMillis) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        this.alpha = alpha;
+        this.penaltyNanos = penaltyMillis * 1_000_000;
+    }
+
+    public HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> context.setAttribute(START_ATTRIBUTE, System.nanoTime());
+    }
+
+    public HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> {
+            Object start = context.getAttribute(START_ATTRIBUTE);
+            HttpHost host = HttpClientContext.adapt(context).getTargetHost();
+            if (start != null && host != null) {
+                record(host, System.nanoTime() - (Long) start);
+            }
+        };
+    }
+
+    public void record(HttpHost host, long nanos) {
+        AtomicLong latency = latencies.computeIfAbsent(host, k -> new AtomicLong(Double.doubleToLongBits(Double.NaN)));
+        while (true) {
+            long bits = latency.get();
+            double old = Double.longBitsToDouble(bits);
+            double updated = Double.isNaN(old) ? nanos : alpha * nanos + (1 - alpha) * old;
+            if (latency.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 请求失败(连接失败、超时、5xx)
+     */
+    public void penalize(HttpHost host) {
+        record(host, penaltyNanos);
+    }
+
+    /**
+     * @return 节点的EWMA延迟(毫秒),没有样本时为NaN
+     */
+    public double getLatencyMillis(HttpHost host) {
+        AtomicLong latency = latencies.get(host);
+        return latency == null ? Double.NaN : Double.longBitsToDouble(latency.get()) / 1_000_000;
+    }
+
+    /**
+     * @return 全部节点的EWMA延迟(毫秒)
+     */
+    public Map<HttpHost, Double> getLatencies() {
+        Map<HttpHost, Double> result = new ConcurrentHashMap<>();
+        latencies.forEach((host, latency) -> {
+            double value = Double.longBitsToDouble(latency.get());
+            if (!Double.isNaN(value)) {
+                result.put(host, value / 1_000_000);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,176 @@
+package com.qxy.common.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/3 9:30
+ * @Introduction: 一段由池化堆外块组成的字节序列,写入方顺序写入,读取方通过只读视图读取,用完一次性归还
+ */
+final class PooledChunks {
+    private final DirectBufferPool pool;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final AtomicBoolean released = new AtomicBoolean();
+    private long length;
+
+    PooledChunks(DirectBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return 还有剩余空间的当前块,写满时从池中借一个新块
+     */
+    ByteBuffer writable() {
+        ensureNotReleased();
+        ByteBuffer last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (last == null || !last.hasRemaining()) {
+            last = pool.acquire();
+            chunks.add(last);
+        }
+        return last;
+    }
+
+    void written(int bytes) {
+        length += bytes;
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return 每块已写入部分的只读视图,各视图的position互不影响
+     */
+    ByteBuffer[] views() {
+        ensureNotReleased();
+        ByteBuffer[] views = new ByteBuffer[chunks.size()];
+        for (int i = 0; i < views.length; i++) {
+            ByteBuffer view = chunks.get(i).asReadOnlyBuffer();
+            view.flip();
+            views[i] = view;
+        }
+        return views;
+    }
+
+    byte[] toByteArray() {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("content of " + length + " bytes does not fit in a byte array");
+        }
+        byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        for (ByteBuffer view : views()) {
+            int n = view.remaining();
+            view.get(bytes, offset, n);
+            offset += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param releaseOnEnd 读到末尾或关闭时归还全部块,用于只读一次的响应体
+     */
+    InputStream inputStream(boolean releaseOnEnd) {
+        return new ChunksInputStream(views(), releaseOnEnd ? this : null);
+    }
+
+    /**
+     * 归还全部块,重复调用无效
+     */
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+            chunks.clear();
+        }
+    }
+
+    boolean isReleased() {
+        return released.get();
+    }
+
+    private void ensureNotReleased() {
+        if (released.get()) {
+            throw new IllegalStateException("pooled buffers have already been released");
+        }
+    }
+
+    private static final class ChunksInputStream extends InputStream {
+        private final ByteBuffer[] views;
+        private final PooledChunks owner;
+        private int current;
+
+        private ChunksInputStream(ByteBuffer[] views, PooledChunks owner) {
+            this.views = views;
+            this.owner = owner;
+        }
+
+        /**
+         * @return 还有数据的块,没有时为null并归还
+         */
+        private ByteBuffer next() {
+            while (current < views.length) {
+                if (views[current].hasRemaining()) {
+                    return views[current];
+                }
+                current++;
+            }
+            close();
+            return null;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer view = next();
+            return view == null ? -1 : view.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer view = next();
+            if (view == null) {
+                return -1;
+            }
+            int n = Math.min(len, view.remaining());
+            view.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            ByteBuffer view;
+            while (skipped < n && (view = next()) != null) {
+                int step = (int) Math.min(n - skipped, view.remaining());
+                view.position(view.position() + step);
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            long available = 0;
+            for (int i = current; i < views.length; i++) {
+                available += views[i].remaining();
+            }
+            return (int) Math.min(Integer.MAX_VALUE, available);
+        }
+
+        @Override
+        public void close() {
+            current = views.length;
+            if (owner != null) {
+                owner.release();
+            }
+        }
+    }
+}
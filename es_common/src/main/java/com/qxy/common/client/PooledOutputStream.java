@@ -0,0 +1,66 @@
+package com.qxy.common.client;
+
+import org.apache.http.entity.ContentType;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/3 9:30
+ * @Introduction: 写入池化堆外块的输出流,写完后转换为请求体;不转换时需要调用release()归还
+ */
+public class PooledOutputStream extends OutputStream {
+    private final PooledChunks chunks;
+    private boolean converted;
+
+    public PooledOutputStream(DirectBufferPool pool) {
+        this.chunks = new PooledChunks(pool);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureWritable();
+        chunks.writable().put((byte) b);
+        chunks.written(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureWritable();
+        while (len > 0) {
+            ByteBuffer chunk = chunks.writable();
+            int n = Math.min(len, chunk.remaining());
+            chunk.put(b, off, n);
+            chunks.written(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * @return 已写入的字节数
+     */
+    public long size() {
+        return chunks.length();
+    }
+
+    /**
+     * 转换为请求体,块的所有权交给请求体,之后不能再写入
+     */
+    public PooledRequestEntity toEntity(ContentType contentType) {
+        ensureWritable();
+        converted = true;
+        return new PooledRequestEntity(chunks, contentType);
+    }
+
+    public void release() {
+        chunks.release();
+    }
+
+    private void ensureWritable() {
+        if (converted) {
+            throw new IllegalStateException("stream has already been converted to an entity");
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.qxy.common.client;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/3 9:30
+ * @Introduction: 内容在池化堆外块中的请求体,用于低级客户端的Request.setEntity
+ * <p>
+ * 1、异步客户端直接把堆外块写入socket,不经过堆上的中转缓冲
+ * 2、可重复发送: 客户端每次发送(包括换节点重试)结束后调用close(),只是回到开头
+ * 3、块在release()时归还,必须在请求完成(performRequest返回或回调执行)之后调用:
+ * <pre>
+ * PooledRequestEntity entity = PooledRequestEntity.json(pool, searchSourceBuilder);
+ * try {
+ *     request.setEntity(entity);
+ *     client.getLowLevelClient().performRequest(request);
+ * } finally {
+ *     entity.release();
+ * }
+ * </pre>
+ * 7.3的RestHighLevelClient在内部把请求序列化为堆上的字节数组,不能替换,池化请求体只适用于自行构造的低级请求
+ */
+public class PooledRequestEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+    private final PooledChunks chunks;
+    private ByteBuffer[] views;
+    private int current;
+
+    PooledRequestEntity(PooledChunks chunks, ContentType contentType) {
+        this.chunks = chunks;
+        setContentType(contentType.toString());
+    }
+
+    /**
+     * 把SearchSourceBuilder等对象直接序列化到池化块中
+     */
+    public static PooledRequestEntity json(DirectBufferPool pool, ToXContentObject content) throws IOException {
+        PooledOutputStream out = new PooledOutputStream(pool);
+        try (XContentBuilder builder = XContentFactory.jsonBuilder(out)) {
+            content.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        }
+        return out.toEntity(ContentType.APPLICATION_JSON);
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+        if (views == null) {
+            views = chunks.views();
+            current = 0;
+        }
+        while (current < views.length) {
+            ByteBuffer view = views[current];
+            encoder.write(view);
+            if (view.hasRemaining()) {
+                //socket缓冲区已满,等待下次可写
+                return;
+            }
+            current++;
+        }
+        encoder.complete();
+    }
+
+    /**
+     * 一次发送结束,下次从头发送;不归还块
+     */
+    @Override
+    public void close() {
+        views = null;
+    }
+
+    /**
+     * 归还块,之后不能再发送或读取
+     */
+    public void release() {
+        chunks.release();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return chunks.length();
+    }
+
+    @Override
+    public InputStream getContent() {
+        return chunks.inputStream(false);
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = getContent()) {
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                outStream.write(buffer, 0, n);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,186 @@
+package com.qxy.common.client;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/3 9:30
+ * @Introduction: 用池化的堆外块接收响应体,替代默认的HeapBufferedResponseConsumerFactory
+ * <p>
+ * 默认实现把响应体读入堆上按需扩容的字节数组,100MB的聚合/导出响应会经过多次扩容复制,产生大量大对象;
+ * 这里响应体按块读入池中的堆外缓冲,块大小固定,不扩容
+ * <p>
+ * 1、streaming为true时响应体直接从堆外块读取,解析器读到末尾或关闭流时归还(RestHighLevelClient解析后会关闭);
+ * 低级客户端的调用方需要读完或关闭响应体,否则块不能复用
+ * 2、streaming为false时在I/O线程上复制为一个大小正好的字节数组并立即归还,响应体可以重复读取
+ * 3、bufferLimit是单个响应的上限,超过时与默认实现一样抛出ContentTooLongException;
+ * 不同请求可以用withBufferLimit得到共用同一个池的工厂,放到各自的RequestOptions中
+ * 4、decompress为true时解压gzip编码的响应体,与GzipResponseConsumerFactory一致
+ */
+public class PooledResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+    private final DirectBufferPool pool;
+    private final int bufferLimit;
+    private final boolean streaming;
+    private final boolean decompress;
+
+    public PooledResponseConsumerFactory(DirectBufferPool pool, int bufferLimit, boolean streaming, boolean decompress) {
+        this.pool = pool;
+        this.bufferLimit = bufferLimit;
+        this.streaming = streaming;
+        this.decompress = decompress;
+    }
+
+    /**
+     * @return 使用同一个池、只有单个响应上限不同的工厂
+     */
+    public PooledResponseConsumerFactory withBufferLimit(int bufferLimit) {
+        return new PooledResponseConsumerFactory(pool, bufferLimit, streaming, decompress);
+    }
+
+    public DirectBufferPool getPool() {
+        return pool;
+    }
+
+    public int getBufferLimit() {
+        return bufferLimit;
+    }
+
+    @Override
+    public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+        return new PooledAsyncResponseConsumer();
+    }
+
+    private class PooledAsyncResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+        private HttpResponse response;
+        private HttpEntity original;
+        private PooledChunks chunks;
+        /**
+         * 块的所有权交给了响应体
+         */
+        private boolean handedOff;
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            long length = entity.getContentLength();
+            if (length > bufferLimit) {
+                throw new ContentTooLongException("entity content is too long [" + length
+                        + "] for the configured buffer limit [" + bufferLimit + "]");
+            }
+            this.original = entity;
+            this.chunks = new PooledChunks(pool);
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            int n;
+            do {
+                ByteBuffer chunk = chunks.writable();
+                n = decoder.read(chunk);
+                if (n > 0) {
+                    chunks.written(n);
+                    if (chunks.length() > bufferLimit) {
+                        throw new ContentTooLongException("entity content is too long [" + chunks.length()
+                                + "] for the configured buffer limit [" + bufferLimit + "]");
+                    }
+                }
+            } while (n > 0);
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) {
+            if (chunks != null) {
+                AbstractHttpEntity entity;
+                if (streaming) {
+                    entity = new PooledResponseEntity(chunks);
+                    handedOff = true;
+                } else {
+                    entity = new ByteArrayEntity(chunks.toByteArray());
+                }
+                entity.setContentType(original.getContentType());
+                entity.setContentEncoding(original.getContentEncoding());
+                response.setEntity(entity);
+            }
+            return decompress ? GzipResponseConsumerFactory.decompress(response) : response;
+        }
+
+        /**
+         * 每个请求结束时都会调用,包括失败和取消;块已交给响应体时由响应体归还
+         */
+        @Override
+        protected void releaseResources() {
+            if (chunks != null && !handedOff) {
+                chunks.release();
+            }
+            chunks = null;
+            original = null;
+            response = null;
+        }
+    }
+
+    /**
+     * 只能读取一次的响应体,读到末尾或关闭时归还块
+     */
+    private static final class PooledResponseEntity extends AbstractHttpEntity {
+        private final PooledChunks chunks;
+        private boolean consumed;
+
+        private PooledResponseEntity(PooledChunks chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return chunks.length();
+        }
+
+        @Override
+        public synchronized InputStream getContent() {
+            if (consumed || chunks.isReleased()) {
+                throw new IllegalStateException("pooled response content has already been consumed");
+            }
+            consumed = true;
+            return chunks.inputStream(true);
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = getContent()) {
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    outStream.write(buffer, 0, n);
+                }
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return !consumed;
+        }
+    }
+}
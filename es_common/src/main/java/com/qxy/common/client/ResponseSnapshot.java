@@ -0,0 +1,101 @@
+package com.qxy.common.client;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/9 9:30
+ * @Introduction: 响应的不可变快照,用于把同一个结果交给多个调用方(缓存、合并请求)
+ * <p>
+ * 1、SearchResponse/GetResponse是可变对象: SearchHit、GetResult会缓存解析后的_source Map,
+ * 聚合的bucket列表也可以被修改,直接共享时一个调用方的修改其他调用方都能看到
+ * 2、快照保存响应的json(聚合和suggest带typed_keys),copy()每次按高级客户端相同的方式解析出一个新对象
+ */
+public final class ResponseSnapshot<T> {
+    /**
+     * 与RestHighLevelClient解析响应使用的相同: 内置的聚合、suggest解析器加上通过SPI提供的
+     */
+    private static final NamedXContentRegistry REGISTRY = new NamedXContentRegistry(clientNamedXContents());
+    private static final ToXContent.Params TYPED_KEYS = new ToXContent.MapParams(Collections.singletonMap("typed_keys", "true"));
+
+    private final BytesReference json;
+    private final CheckedFunction<XContentParser, T, IOException> parser;
+
+    private ResponseSnapshot(BytesReference json, CheckedFunction<XContentParser, T, IOException> parser) {
+        this.json = json;
+        this.parser = parser;
+    }
+
+    public static ResponseSnapshot<SearchResponse> of(SearchResponse response) {
+        return new ResponseSnapshot<>(toJson(response), SearchResponse::fromXContent);
+    }
+
+    public static ResponseSnapshot<GetResponse> of(GetResponse response) {
+        return new ResponseSnapshot<>(toJson(response), GetResponse::fromXContent);
+    }
+
+    private static BytesReference toJson(ToXContentObject response) {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            response.toXContent(builder, TYPED_KEYS);
+            return BytesReference.bytes(builder);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to serialize " + response.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * @return 一个新解析出的响应,调用方可以随意修改
+     */
+    public T copy() {
+        try (XContentParser xContentParser = JsonXContent.jsonXContent.createParser(REGISTRY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json.streamInput())) {
+            return parser.apply(xContentParser);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to parse response snapshot", e);
+        }
+    }
+
+    /**
+     * @return json的字节数
+     */
+    public int length() {
+        return json.length();
+    }
+
+    /**
+     * RestHighLevelClient.getDefaultNamedXContents/getProvidedNamedXContents不是public,只在类加载时反射调用一次
+     */
+    @SuppressWarnings("unchecked")
+    private static List<NamedXContentRegistry.Entry> clientNamedXContents() {
+        List<NamedXContentRegistry.Entry> entries = new ArrayList<>();
+        try {
+            for (String name : new String[]{"getDefaultNamedXContents", "getProvidedNamedXContents"}) {
+                Method method = RestHighLevelClient.class.getDeclaredMethod(name);
+                method.setAccessible(true);
+                entries.addAll((List<NamedXContentRegistry.Entry>) method.invoke(null));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot read the named xcontents of RestHighLevelClient", e);
+        }
+        return entries;
+    }
+}
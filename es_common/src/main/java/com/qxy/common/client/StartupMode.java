@@ -0,0 +1,26 @@
+package com.qxy.common.client;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/27 10:00
+ * @Introduction: 客户端的创建时机
+ * <p>
+ * 创建客户端的主要耗时是第一次初始化TLS上下文和加载客户端的类(冷启动约1秒),与是否连得上集群无关
+ */
+public enum StartupMode {
+    /**
+     * 容器启动时创建全部集群的客户端,创建失败则启动失败
+     */
+    EAGER,
+
+    /**
+     * 第一次获取某个集群时才创建它的客户端;
+     * 直接注入RestHighLevelClient的bean创建时就会触发,批处理任务可以配合spring.main.lazy-initialization=true使用
+     */
+    LAZY,
+
+    /**
+     * 容器初始化时就在后台线程创建,与加载bean定义、创建其他bean并行;获取时如果还没创建完则等待
+     */
+    BACKGROUND
+}
@@ -0,0 +1,89 @@
+package com.qxy.common.client;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/28 9:40
+ * @Introduction: 一个集群的预热结果
+ */
+public class WarmupResult {
+    private final String cluster;
+    int connections;
+    int searches;
+    int searchFailures;
+    int bulks;
+    int bulkFailures;
+    long elapsedMillis;
+    private Throwable error;
+
+    WarmupResult(String cluster) {
+        this.cluster = cluster;
+    }
+
+    void fail(Throwable e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    /**
+     * @return 预先建立的连接数
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return 成功的查询数
+     */
+    public int getSearches() {
+        return searches;
+    }
+
+    public int getSearchFailures() {
+        return searchFailures;
+    }
+
+    /**
+     * @return 成功的批量请求数
+     */
+    public int getBulks() {
+        return bulks;
+    }
+
+    public int getBulkFailures() {
+        return bulkFailures;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return 第一个错误,没有出错时为null
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmupResult{" +
+                "cluster=" + cluster +
+                ", connections=" + connections +
+                ", searches=" + searches +
+                ", searchFailures=" + searchFailures +
+                ", bulks=" + bulks +
+                ", bulkFailures=" + bulkFailures +
+                ", elapsedMillis=" + elapsedMillis +
+                ", error=" + (error == null ? null : error.toString()) +
+                '}';
+    }
+}
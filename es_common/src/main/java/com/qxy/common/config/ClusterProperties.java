@@ -0,0 +1,187 @@
+package com.qxy.common.config;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/26 9:30
+ * @Introduction: 一个es集群的连接配置,默认值与各模块原来的ElasticsearchConfig一致
+ */
+@Data
+public class ClusterProperties {
+    /**
+     * 集群地址,多个用逗号分割: ip:port,ip:port
+     */
+    private String hostList;
+
+    /**
+     * 连接池总连接数,默认值30在批量写入+并发搜索时会排队等待租借连接
+     */
+    private int maxConnTotal = 100;
+
+    /**
+     * 每个host的最大连接数,默认值10
+     */
+    private int maxConnPerRoute = 50;
+
+    /**
+     * I/O dispatcher线程数,小于等于0时使用cpu核数
+     */
+    private int ioThreadCount = 0;
+
+    /**
+     * 空闲连接保活时间(毫秒),小于等于0时遵循服务端的Keep-Alive响应头
+     */
+    private long keepAlive = 60000;
+
+    private int connectTimeout = 1000;
+
+    private int socketTimeout = 30000;
+
+    /**
+     * 从连接池租借连接的最长等待时间(毫秒)
+     */
+    private int connectionRequestTimeout = 1000;
+
+    /**
+     * 是否接受gzip压缩的响应,只对使用容器中RequestOptions的请求生效;
+     * 7.3.0的低级客户端不支持压缩请求体
+     */
+    private boolean compression = false;
+
+    private Buffer buffer = new Buffer();
+
+    private Sniff sniff = new Sniff();
+
+    private Selector selector = new Selector();
+
+    private Warmup warmup = new Warmup();
+
+    @Data
+    public static class Buffer {
+        /**
+         * 单个响应体的最大字节数,只对使用容器中RequestOptions的请求生效;默认值与HeapBufferedResponseConsumerFactory一致
+         */
+        private int limit = 100 * 1024 * 1024;
+
+        /**
+         * 是否用池化的堆外块接收响应体(默认关闭,使用堆上的字节数组)
+         */
+        private boolean pooled = false;
+
+        /**
+         * 池化时每块的字节数
+         */
+        private int chunkSize = 64 * 1024;
+
+        /**
+         * 池中最多保留的字节数,超过的块用完后交给GC回收
+         */
+        private long maxPooledBytes = 32 * 1024 * 1024;
+
+        /**
+         * 池化时解析器是否直接从堆外块读取响应体;为false时先复制为一个字节数组,响应体可以重复读取
+         */
+        private boolean streaming = true;
+    }
+
+    @Data
+    public static class Sniff {
+        /**
+         * 是否定期从集群嗅探节点列表;嗅探得到的是节点的publish_address,需要客户端可达(容器部署时通常不可达)
+         */
+        private boolean enabled = false;
+
+        /**
+         * 嗅探间隔(毫秒)
+         */
+        private int interval = 300000;
+
+        /**
+         * 节点请求失败后立即嗅探一次,之后按该间隔(毫秒)再嗅探一次
+         */
+        private int afterFailureDelay = 60000;
+    }
+
+    @Data
+    public static class Selector {
+        /**
+         * 节点延迟EWMA中新样本的权重
+         */
+        private double ewmaAlpha = 0.3;
+
+        /**
+         * 延迟超过最快节点多少倍时不再选择该节点
+         */
+        private double slowFactor = 2.0;
+
+        /**
+         * 不过滤慢节点的请求比例,用于更新慢节点的延迟
+         */
+        private double exploreRatio = 0.05;
+    }
+
+    @Data
+    public static class Warmup {
+        /**
+         * 是否在应用就绪前预热: 预先建立连接,再执行若干轮代表性的查询和不写入数据的批量请求
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每个节点预先建立的连接数,不超过maxConnPerRoute;也是每轮并发的请求数
+         */
+        private int connections = 4;
+
+        /**
+         * 查询和批量请求执行的轮数,多执行几轮让请求/响应的序列化代码被JIT编译
+         */
+        private int rounds = 20;
+
+        /**
+         * 代表性的查询,为空时只预先建立连接
+         */
+        private List<Search> searches = new ArrayList<>();
+
+        /**
+         * 批量请求删除该索引中不存在的文档;删除操作不会自动创建索引,索引不存在时不写入任何数据。
+         * 为空时不执行批量请求
+         */
+        private String bulkIndex = "qxy-warmup";
+
+        /**
+         * 每个批量请求中的删除操作数
+         */
+        private int bulkActions = 10;
+
+        /**
+         * 预热的最长时间(毫秒),超时后不再继续
+         */
+        private long timeout = 30000;
+
+        /**
+         * 预热失败(连接失败或请求出错)时是否让应用启动失败;否则只记录日志
+         */
+        private boolean failOnError = false;
+
+        /**
+         * 健康检查间隔(毫秒),小于等于0时关闭;每次补齐空闲连接并发送一次HEAD /,与enabled无关
+         */
+        private long pingInterval = 0;
+
+        @Data
+        public static class Search {
+            private String index;
+
+            /**
+             * 查询条件(query部分的json),以wrapper查询发送
+             */
+            private String query = "{\"match_all\":{}}";
+
+            private int size = 10;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.qxy.common.config;
+
+import com.qxy.common.client.CoalescingClient;
+import com.qxy.common.client.ConnectionPoolStats;
+import com.qxy.common.client.ElasticsearchClientFactory;
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.client.ElasticsearchCluster;
+import com.qxy.common.client.NodeLatencyTracker;
+import com.qxy.common.metrics.ElasticsearchMeterBinder;
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import com.qxy.common.metrics.MeteredClient;
+import com.qxy.common.metrics.SlowQueryLog;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/26 9:30
+ * @Introduction: es客户端自动配置,替代各模块中重复的ElasticsearchConfig
+ * <p>
+ * 1、每个集群一个客户端,应用内共享同一个连接池
+ * 2、容器中的RestHighLevelClient、RequestOptions、ConnectionPoolStats、NodeLatencyTracker是默认集群的,
+ * 其他命名集群通过ElasticsearchClients按名称获取
+ * 3、各项都可以由应用自己声明同类型的bean覆盖
+ * 4、qxy.elasticsearch.startup控制客户端的创建时机,见StartupMode
+ * 5、qxy.elasticsearch.warmup开启后,应用就绪前预热连接池,见ElasticsearchWarmup
+ * 6、qxy.elasticsearch.metrics: 全部集群共用的客户端指标,通过JMX导出;有Micrometer时同时注册到MeterRegistry
+ * 7、qxy.elasticsearch.slowQuery: 慢查询日志和按查询指纹的统计,见SlowQueryLog
+ * 8、在spring-boot自带的ElasticsearchRestClientAutoConfiguration之前处理,它的RestHighLevelClient和Sniffer
+ * 都是@ConditionalOnMissingBean,会让位给这里的bean;不需要它时用spring.autoconfigure.exclude排除
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(RestHighLevelClient.class)
+@AutoConfigureBefore(name = "org.springframework.boot.autoconfigure.elasticsearch.ElasticsearchRestClientAutoConfiguration")
+@EnableConfigurationProperties(ElasticsearchProperties.class)
+public class ElasticsearchAutoConfiguration {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    public ElasticsearchClients elasticsearchClients(ElasticsearchProperties properties, ElasticsearchMetrics elasticsearchMetrics) {
+        return createClients(properties, elasticsearchMetrics);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    public ElasticsearchMetrics elasticsearchMetrics(ElasticsearchProperties properties) {
+        return createMetrics(properties);
+    }
+
+    /**
+     * ElasticsearchStartupInitializer在容器初始化时也用它提前创建
+     */
+    static ElasticsearchMetrics createMetrics(ElasticsearchProperties properties) {
+        ElasticsearchProperties.Metrics config = properties.getMetrics();
+        ElasticsearchProperties.SlowQuery slowQuery = properties.getSlowQuery();
+        SlowQueryLog slowQueryLog = slowQuery.isEnabled()
+                ? new SlowQueryLog(slowQuery.getThreshold(), slowQuery.getTopK(), slowQuery.getMaxSourceChars(),
+                        slowQuery.getQueueSize())
+                : null;
+        ElasticsearchMetrics metrics = new ElasticsearchMetrics(config.isEnabled(), config.getMaxKeys(), slowQueryLog);
+        if (config.isEnabled() && config.isJmx()) {
+            metrics.registerMBean();
+        }
+        return metrics;
+    }
+
+    /**
+     * 校验全部集群的配置后按startup创建;ElasticsearchStartupInitializer在容器初始化时也用它提前创建
+     */
+    static ElasticsearchClients createClients(ElasticsearchProperties properties, ElasticsearchMetrics metrics) {
+        //延迟创建时也在启动阶段发现配置错误
+        Map<String, Callable<ElasticsearchCluster>> factories = new LinkedHashMap<>();
+        for (Map.Entry<String, ClusterProperties> entry : clusterProperties(properties).entrySet()) {
+            String name = entry.getKey();
+            ClusterProperties cluster = entry.getValue();
+            ElasticsearchClientFactory.validate(name, cluster);
+            factories.put(name, () -> ElasticsearchClientFactory.create(name, cluster, metrics));
+        }
+        return new ElasticsearchClients(factories, properties.getStartup());
+    }
+
+    /**
+     * @return 按名称的全部集群配置,默认集群在最前
+     */
+    static Map<String, ClusterProperties> clusterProperties(ElasticsearchProperties properties) {
+        Map<String, ClusterProperties> clusterProperties = new LinkedHashMap<>();
+        clusterProperties.put(ElasticsearchClients.DEFAULT, properties);
+        for (Map.Entry<String, ClusterProperties> entry : properties.getClusters().entrySet()) {
+            if (ElasticsearchClients.DEFAULT.equals(entry.getKey())) {
+                throw new IllegalArgumentException("cluster name [default] is reserved for qxy.elasticsearch.*");
+            }
+            clusterProperties.put(entry.getKey(), entry.getValue());
+        }
+        return clusterProperties;
+    }
+
+    /**
+     * 各集群的预热和健康检查,qxy.elasticsearch.warmup.*
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    public ElasticsearchWarmup elasticsearchWarmup(ElasticsearchClients elasticsearchClients, ElasticsearchProperties properties) {
+        return new ElasticsearchWarmup(elasticsearchClients, clusterProperties(properties));
+    }
+
+    /**
+     * 默认集群的客户端,由ElasticsearchClients负责关闭;
+     * 这几个bean都是@Lazy的,startup=lazy时第一次注入才创建默认集群的客户端
+     */
+    @Bean(destroyMethod = "")
+    @Lazy
+    @Primary
+    @ConditionalOnMissingBean
+    public RestHighLevelClient restHighLevelClient(ElasticsearchClients elasticsearchClients) {
+        return elasticsearchClients.getDefault().getClient();
+    }
+
+    /**
+     * 默认集群的Sniffer,没有开启qxy.elasticsearch.sniff.enabled时为null(注入得到null,getBeansOfType中没有它);
+     * 声明这个bean是为了让spring-boot不对共享的客户端再创建一个不受sniff.enabled控制的Sniffer
+     */
+    @Bean(destroyMethod = "")
+    @Lazy
+    @ConditionalOnMissingBean
+    public Sniffer elasticsearchSniffer(ElasticsearchClients elasticsearchClients) {
+        return elasticsearchClients.getDefault().getSniffer();
+    }
+
+    @Bean
+    @Lazy
+    @Primary
+    @ConditionalOnMissingBean
+    public RequestOptions requestOptions(ElasticsearchClients elasticsearchClients) {
+        return elasticsearchClients.getDefault().getRequestOptions();
+    }
+
+    @Bean
+    @Lazy
+    @Primary
+    @ConditionalOnMissingBean
+    public ConnectionPoolStats connectionPoolStats(ElasticsearchClients elasticsearchClients) {
+        return elasticsearchClients.getDefault().getConnectionPoolStats();
+    }
+
+    @Bean
+    @Lazy
+    @Primary
+    @ConditionalOnMissingBean
+    public NodeLatencyTracker nodeLatencyTracker(ElasticsearchClients elasticsearchClients) {
+        return elasticsearchClients.getDefault().getNodeLatencyTracker();
+    }
+
+    /**
+     * 默认集群的记录指标的客户端门面,其他集群用new MeteredClient(elasticsearchClients.getCluster(name))
+     */
+    @Bean
+    @Lazy
+    @Primary
+    @ConditionalOnMissingBean
+    public MeteredClient meteredClient(ElasticsearchClients elasticsearchClients) {
+        return new MeteredClient(elasticsearchClients.getDefault());
+    }
+
+    /**
+     * 默认集群的合并并发相同请求的客户端,其他集群用CoalescingClient.builder(cluster.getClient())创建
+     */
+    @Bean
+    @Lazy
+    @Primary
+    @ConditionalOnMissingBean
+    public CoalescingClient coalescingClient(ElasticsearchClients elasticsearchClients) {
+        ElasticsearchCluster cluster = elasticsearchClients.getDefault();
+        return CoalescingClient.builder(cluster.getClient())
+                .options(cluster.getRequestOptions())
+                .build();
+    }
+
+    /**
+     * micrometer-core是可选依赖,只有应用引入时才加载这个配置
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterBinder.class)
+    static class ElasticsearchMeterBinderConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ElasticsearchMeterBinder elasticsearchMeterBinder(ElasticsearchMetrics elasticsearchMetrics) {
+            return new ElasticsearchMeterBinder(elasticsearchMetrics);
+        }
+    }
+}
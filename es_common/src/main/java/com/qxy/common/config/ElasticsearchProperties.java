@@ -0,0 +1,92 @@
+package com.qxy.common.config;
+
+import com.qxy.common.client.StartupMode;
+import com.qxy.common.metrics.SlowQueryLog;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/26 9:30
+ * @Introduction: qxy.elasticsearch配置,顶层的配置项是默认集群(default),clusters下是其他命名集群
+ * <p>
+ * 例如读写分离:
+ * <pre>
+ * qxy:
+ *   elasticsearch:
+ *     hostList: 10.0.0.1:9200        # 默认集群,写入
+ *     clusters:
+ *       read:
+ *         hostList: 10.0.1.1:9200    # 只读副本集群
+ *         maxConnTotal: 200
+ * </pre>
+ * 命名集群不继承默认集群的配置,没有配置的项使用ClusterProperties中的默认值
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@ConfigurationProperties(prefix = "qxy.elasticsearch")
+public class ElasticsearchProperties extends ClusterProperties {
+    /**
+     * 客户端的创建时机(对全部集群生效): eager启动时创建,lazy第一次使用时创建,background启动时在后台线程创建
+     */
+    private StartupMode startup = StartupMode.EAGER;
+
+    private Map<String, ClusterProperties> clusters = new LinkedHashMap<>();
+
+    /**
+     * 客户端指标(对全部集群生效)
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 慢查询日志和按查询指纹的统计(对全部集群生效),依赖metrics.enabled
+     */
+    private SlowQuery slowQuery = new SlowQuery();
+
+    @Data
+    public static class Metrics {
+        /**
+         * 关闭后不记录任何指标
+         */
+        private boolean enabled = true;
+
+        /**
+         * 是否注册MBean com.qxy.elasticsearch:type=ClientMetrics
+         */
+        private boolean jmx = true;
+
+        /**
+         * (集群, 操作, 索引)维度的上限,超过后新索引的指标记入_other
+         */
+        private int maxKeys = 1000;
+    }
+
+    @Data
+    public static class SlowQuery {
+        private boolean enabled = true;
+
+        /**
+         * 慢查询阈值(毫秒),请求延迟超过阈值时记录warn日志;小于0时只统计不记录日志
+         */
+        private long threshold = 1000;
+
+        /**
+         * 保留统计的查询指纹数
+         */
+        private int topK = 100;
+
+        /**
+         * 日志中请求体的最大长度
+         */
+        private int maxSourceChars = 2000;
+
+        /**
+         * 等待后台线程计算指纹的查询数上限,队列满时丢弃
+         */
+        private int queueSize = SlowQueryLog.DEFAULT_QUEUE_SIZE;
+    }
+}
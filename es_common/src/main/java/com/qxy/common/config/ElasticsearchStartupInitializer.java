@@ -0,0 +1,45 @@
+package com.qxy.common.config;
+
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.client.StartupMode;
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.DefaultSingletonBeanRegistry;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/27 10:00
+ * @Introduction: qxy.elasticsearch.startup=background时,在容器初始化阶段(加载bean定义之前)就开始在后台创建客户端
+ * <p>
+ * 创建好的ElasticsearchClients注册为单例bean,ElasticsearchAutoConfiguration中的同类型bean不再创建;
+ * 等到第一个bean注入客户端时,后台线程通常已经创建完成
+ */
+public class ElasticsearchStartupInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    static final String BEAN_NAME = "elasticsearchClients";
+    static final String METRICS_BEAN_NAME = "elasticsearchMetrics";
+
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        ElasticsearchProperties properties = Binder.get(context.getEnvironment())
+                .bind("qxy.elasticsearch", ElasticsearchProperties.class)
+                .orElse(null);
+        if (properties == null || properties.getStartup() != StartupMode.BACKGROUND) {
+            return;
+        }
+        ConfigurableListableBeanFactory beanFactory = context.getBeanFactory();
+        //关闭容器时关闭客户端,销毁方法要单独注册;刷新容器失败时也会销毁
+        if (!(beanFactory instanceof DefaultSingletonBeanRegistry)) {
+            return;
+        }
+        //客户端的拦截器引用指标,指标也要提前创建
+        ElasticsearchMetrics metrics = ElasticsearchAutoConfiguration.createMetrics(properties);
+        beanFactory.registerSingleton(METRICS_BEAN_NAME, metrics);
+        ((DefaultSingletonBeanRegistry) beanFactory).registerDisposableBean(METRICS_BEAN_NAME, metrics::close);
+        ElasticsearchClients clients = ElasticsearchAutoConfiguration.createClients(properties, metrics);
+        beanFactory.registerSingleton(BEAN_NAME, clients);
+        ((DefaultSingletonBeanRegistry) beanFactory).registerDisposableBean(BEAN_NAME, clients::close);
+    }
+}
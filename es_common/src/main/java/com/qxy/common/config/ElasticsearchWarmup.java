@@ -0,0 +1,82 @@
+package com.qxy.common.config;
+
+import com.qxy.common.client.ClusterWarmer;
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.client.WarmupResult;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/28 9:40
+ * @Introduction: 应用就绪前预热各集群,之后开始定期健康检查
+ * <p>
+ * spring-boot在全部ApplicationRunner执行完之后才发布ReadinessState.ACCEPTING_TRAFFIC,
+ * 预热作为最先执行的ApplicationRunner,完成前应用不会被判定为就绪(k8s的readiness探针、注册中心上线等)
+ */
+public class ElasticsearchWarmup implements ApplicationRunner, Ordered, Closeable {
+    private final ElasticsearchClients clients;
+    private final Map<String, ClusterProperties> clusterProperties;
+    private final Map<String, ClusterWarmer> warmers = new LinkedHashMap<>();
+
+    public ElasticsearchWarmup(ElasticsearchClients clients, Map<String, ClusterProperties> clusterProperties) {
+        this.clients = clients;
+        this.clusterProperties = clusterProperties;
+    }
+
+    /**
+     * 没有开启预热和健康检查的集群不会被创建,startup=lazy时仍然延迟创建
+     *
+     * @throws IllegalStateException 开启了failOnError的集群预热失败
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        for (Map.Entry<String, ClusterProperties> entry : clusterProperties.entrySet()) {
+            ClusterProperties.Warmup config = entry.getValue().getWarmup();
+            if (!config.isEnabled() && config.getPingInterval() <= 0) {
+                continue;
+            }
+            ClusterWarmer warmer = new ClusterWarmer(clients.getCluster(entry.getKey()), entry.getValue());
+            synchronized (warmers) {
+                warmers.put(entry.getKey(), warmer);
+            }
+            if (config.isEnabled()) {
+                WarmupResult result = warmer.warmup();
+                if (!result.isSuccessful() && config.isFailOnError()) {
+                    throw new IllegalStateException("warm-up of elasticsearch cluster [" + entry.getKey() + "] failed: "
+                            + result, result.getError());
+                }
+            }
+            warmer.startPing();
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    /**
+     * @return 开启了预热或健康检查的集群,用于查看健康状态
+     */
+    public Map<String, ClusterWarmer> getWarmers() {
+        synchronized (warmers) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(warmers));
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (warmers) {
+            for (ClusterWarmer warmer : warmers.values()) {
+                warmer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.qxy.common.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 把ElasticsearchMetrics注册到Micrometer,标签为cluster、operation、index
+ * <p>
+ * 1、es.client.requests: http请求的次数和总延迟,es.client.requests.percentile按phi标签给出p50/p90/p99
+ * 2、es.client.calls: MeteredClient调用的次数和总耗时,及p50/p99
+ * 3、es.client.took: 服务端took,及p50/p99
+ * 4、es.client.request.bytes、es.client.response.bytes、es.client.errors、es.client.shard.failures、es.client.bulk.item.failures
+ * 5、es.client.pool.wait: 连接池租借等待,标签只有cluster
+ * <p>
+ * 分位值由HdrHistogram计算,是启动(或reset)以来的累计值
+ */
+public class ElasticsearchMeterBinder implements MeterBinder {
+    private static final double[] REQUEST_PERCENTILES = {0.5, 0.9, 0.99};
+    private static final double[] PERCENTILES = {0.5, 0.99};
+
+    private final ElasticsearchMetrics metrics;
+
+    public ElasticsearchMeterBinder(ElasticsearchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        //已有的维度立即注册,之后出现的新维度在创建时注册
+        metrics.onOperation(operation -> bindOperation(registry, operation));
+        metrics.onPoolWait(poolWait -> bindPoolWait(registry, poolWait));
+    }
+
+    private static void bindOperation(MeterRegistry registry, OperationMetrics operation) {
+        OperationKey key = operation.getKey();
+        Tags tags = Tags.of("cluster", key.getCluster(), "operation", key.getOperation(), "index", key.getIndex());
+
+        FunctionTimer.builder("es.client.requests", operation, OperationMetrics::getRequestCount,
+                        OperationMetrics::getLatencyTotalMicros, TimeUnit.MICROSECONDS)
+                .tags(tags).description("http requests to elasticsearch, until the response head arrives")
+                .register(registry);
+        for (double percentile : REQUEST_PERCENTILES) {
+            percentile(registry, "es.client.requests.percentile", tags, percentile, operation,
+                    o -> o.getLatencyPercentileMicros(percentile * 100), TimeUnit.MICROSECONDS);
+        }
+
+        FunctionTimer.builder("es.client.calls", operation, OperationMetrics::getCallCount,
+                        OperationMetrics::getCallTotalMicros, TimeUnit.MICROSECONDS)
+                .tags(tags).description("calls through MeteredClient, including retries and response parsing")
+                .register(registry);
+        FunctionTimer.builder("es.client.took", operation, OperationMetrics::getTookCount,
+                        OperationMetrics::getTookTotalMillis, TimeUnit.MILLISECONDS)
+                .tags(tags).description("took reported by elasticsearch")
+                .register(registry);
+        for (double percentile : PERCENTILES) {
+            percentile(registry, "es.client.calls.percentile", tags, percentile, operation,
+                    o -> o.getCallPercentileMicros(percentile * 100), TimeUnit.MICROSECONDS);
+            percentile(registry, "es.client.took.percentile", tags, percentile, operation,
+                    o -> o.getTookPercentileMillis(percentile * 100), TimeUnit.MILLISECONDS);
+        }
+
+        counter(registry, "es.client.request.bytes", tags, operation, OperationMetrics::getRequestBytesTotal, "bytes");
+        counter(registry, "es.client.response.bytes", tags, operation, OperationMetrics::getResponseBytesTotal, "bytes");
+        counter(registry, "es.client.errors", tags, operation, OperationMetrics::getErrors, null);
+        counter(registry, "es.client.shard.failures", tags, operation, OperationMetrics::getShardFailures, null);
+        counter(registry, "es.client.bulk.item.failures", tags, operation, OperationMetrics::getBulkItemFailures, null);
+    }
+
+    private static void bindPoolWait(MeterRegistry registry, PoolWaitMetrics poolWait) {
+        Tags tags = Tags.of("cluster", poolWait.getCluster());
+        FunctionTimer.builder("es.client.pool.wait", poolWait, PoolWaitMetrics::getCount,
+                        PoolWaitMetrics::getTotalMicros, TimeUnit.MICROSECONDS)
+                .tags(tags).description("time waiting to lease a connection from the pool")
+                .register(registry);
+        for (double percentile : PERCENTILES) {
+            percentile(registry, "es.client.pool.wait.percentile", tags, percentile, poolWait,
+                    p -> p.getPercentileMicros(percentile * 100), TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private static <T> void percentile(MeterRegistry registry, String name, Tags tags, double percentile, T obj,
+                                       ToDoubleFunction<T> value, TimeUnit unit) {
+        TimeGauge.builder(name, obj, unit, value)
+                .tags(tags).tag("phi", String.valueOf(percentile))
+                .register(registry);
+    }
+
+    private static void counter(MeterRegistry registry, String name, Tags tags, OperationMetrics operation,
+                                ToDoubleFunction<OperationMetrics> value, String baseUnit) {
+        FunctionCounter.builder(name, operation, value)
+                .tags(tags).baseUnit(baseUnit)
+                .register(registry);
+    }
+}
@@ -0,0 +1,302 @@
+package com.qxy.common.metrics;
+
+import com.qxy.common.client.PooledRequestEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.RequestLine;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: es客户端指标,应用内全部集群共用一个实例
+ * <p>
+ * 1、http拦截器: 每次请求按(集群, 操作, 索引)记录延迟、请求/响应大小和错误,直接使用RestHighLevelClient也会记录
+ * 2、MeteredClient: 额外记录调用总耗时、服务端took、分片失败和批量请求中失败的项
+ * 3、连接池租借等待时间,按集群
+ * 4、读取: JMX(ElasticsearchMetricsMXBean)、Micrometer(ElasticsearchMeterBinder)或直接调用getOperations()
+ * 5、慢查询日志和按查询指纹的统计,见SlowQueryLog
+ * <p>
+ * 维度数超过maxKeys后,新的(集群, 操作)组合的索引记为_other,避免按日期滚动的索引使维度无限增长
+ */
+@Slf4j
+public class ElasticsearchMetrics implements ElasticsearchMetricsMXBean, Closeable {
+    /**
+     * MeteredClient用这个请求头指定操作(如aggregation),请求拦截器读取后移除,不会发送到服务端
+     */
+    public static final String OPERATION_HEADER = "X-Qxy-Operation";
+    public static final String OTHER_INDEX = "_other";
+    public static final String OBJECT_NAME = "com.qxy.elasticsearch:type=ClientMetrics";
+    private static final String METRICS_ATTRIBUTE = "qxy.metrics.operation";
+    private static final String START_ATTRIBUTE = "qxy.metrics.start";
+    private static final String QUERY_ATTRIBUTE = "qxy.metrics.query";
+    private static final Object NO_QUERY_BODY = new Object();
+
+    private final boolean enabled;
+    private final int maxKeys;
+    private final SlowQueryLog slowQueryLog;
+    private final ConcurrentMap<OperationKey, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PoolWaitMetrics> poolWaits = new ConcurrentHashMap<>();
+    private final List<Consumer<OperationMetrics>> operationListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<PoolWaitMetrics>> poolWaitListeners = new CopyOnWriteArrayList<>();
+    private ObjectName objectName;
+
+    public ElasticsearchMetrics() {
+        this(true, 1000);
+    }
+
+    /**
+     * @param enabled 关闭时不记录任何指标,拦截器只移除X-Qxy-Operation请求头
+     * @param maxKeys (集群, 操作, 索引)维度的上限
+     */
+    public ElasticsearchMetrics(boolean enabled, int maxKeys) {
+        this(enabled, maxKeys, null);
+    }
+
+    /**
+     * @param slowQueryLog 慢查询日志,null时不记录
+     */
+    public ElasticsearchMetrics(boolean enabled, int maxKeys, SlowQueryLog slowQueryLog) {
+        this.enabled = enabled;
+        this.maxKeys = maxKeys;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return 没有开启慢查询日志时为null
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * @return 维度对应的指标,不存在时创建;超过maxKeys时返回该集群、操作的_other
+     */
+    public OperationMetrics operation(String cluster, String operation, String index) {
+        OperationKey key = new OperationKey(cluster, operation, index == null ? RequestClassifier.ALL : index);
+        OperationMetrics metrics = operations.get(key);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (operations.size() >= maxKeys) {
+            key = new OperationKey(cluster, operation, OTHER_INDEX);
+        }
+        boolean[] created = new boolean[1];
+        metrics = operations.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return new OperationMetrics(k);
+        });
+        if (created[0]) {
+            for (Consumer<OperationMetrics> listener : operationListeners) {
+                listener.accept(metrics);
+            }
+        }
+        return metrics;
+    }
+
+    public PoolWaitMetrics poolWait(String cluster) {
+        boolean[] created = new boolean[1];
+        PoolWaitMetrics metrics = poolWaits.computeIfAbsent(cluster, k -> {
+            created[0] = true;
+            return new PoolWaitMetrics(k);
+        });
+        if (created[0]) {
+            for (Consumer<PoolWaitMetrics> listener : poolWaitListeners) {
+                listener.accept(metrics);
+            }
+        }
+        return metrics;
+    }
+
+    public void recordPoolWait(String cluster, long nanos) {
+        if (enabled) {
+            poolWait(cluster).record(nanos);
+        }
+    }
+
+    /**
+     * 新的维度出现时回调,先回调已有的维度;用于把指标注册到Micrometer
+     */
+    public void onOperation(Consumer<OperationMetrics> listener) {
+        operationListeners.add(listener);
+        operations.values().forEach(listener);
+    }
+
+    public void onPoolWait(Consumer<PoolWaitMetrics> listener) {
+        poolWaitListeners.add(listener);
+        poolWaits.values().forEach(listener);
+    }
+
+    public Collection<OperationMetrics> getOperationMetrics() {
+        return operations.values();
+    }
+
+    /**
+     * 请求拦截器: 识别操作和索引,记录请求体大小和开始时间
+     */
+    public HttpRequestInterceptor requestInterceptor(String cluster) {
+        return (request, context) -> {
+            String operation = null;
+            Header header = request.getFirstHeader(OPERATION_HEADER);
+            if (header != null) {
+                operation = header.getValue();
+                request.removeHeaders(OPERATION_HEADER);
+            }
+            if (!enabled) {
+                return;
+            }
+            RequestLine requestLine = request.getRequestLine();
+            String[] classified = RequestClassifier.classify(requestLine.getMethod(), requestLine.getUri());
+            OperationMetrics metrics = operation(cluster, operation == null ? classified[0] : operation, classified[1]);
+            HttpEntity entity = null;
+            if (request instanceof HttpEntityEnclosingRequest) {
+                entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                if (entity != null) {
+                    metrics.recordRequestBytes(entity.getContentLength());
+                }
+            }
+            if (slowQueryLog != null && SlowQueryLog.isQuery(metrics.getKey().getOperation())
+                    && !(entity instanceof PooledRequestEntity)) {
+                //收到响应、知道延迟之后由慢查询日志的后台线程读取请求体;没有请求体(match_all)时记为空。
+                //池化请求体在请求完成后归还,不能在之后读取
+                context.setAttribute(QUERY_ATTRIBUTE, entity == null ? NO_QUERY_BODY : entity);
+            }
+            context.setAttribute(METRICS_ATTRIBUTE, metrics);
+            context.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        };
+    }
+
+    /**
+     * 响应拦截器: 收到响应头时记录延迟、响应体大小(Content-Length)和错误状态码;
+     * 运行在I/O reactor线程上,查询指纹只提交给慢查询日志的后台线程
+     */
+    public HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> {
+            Object metrics = context.getAttribute(METRICS_ATTRIBUTE);
+            Object start = context.getAttribute(START_ATTRIBUTE);
+            if (!(metrics instanceof OperationMetrics) || start == null) {
+                return;
+            }
+            OperationMetrics operationMetrics = (OperationMetrics) metrics;
+            long nanos = System.nanoTime() - (Long) start;
+            operationMetrics.recordLatency(nanos);
+            Object query = context.getAttribute(QUERY_ATTRIBUTE);
+            if (query != null) {
+                OperationKey key = operationMetrics.getKey();
+                slowQueryLog.submit(key.getCluster(), key.getOperation(), key.getIndex(),
+                        query == NO_QUERY_BODY ? null : (HttpEntity) query, nanos);
+            }
+            Header contentLength = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+            if (contentLength != null) {
+                try {
+                    operationMetrics.recordResponseBytes(Long.parseLong(contentLength.getValue().trim()));
+                } catch (NumberFormatException ignored) {
+                    //分块传输等没有有效长度的响应不记录大小
+                }
+            }
+            int status = response.getStatusLine().getStatusCode();
+            //get/exists不存在的文档是正常结果
+            if (status >= 400 && status != 404) {
+                operationMetrics.recordError();
+            }
+        };
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> result = new ArrayList<>();
+        for (OperationMetrics metrics : operations.values()) {
+            result.add(metrics.snapshot());
+        }
+        result.sort((a, b) -> Long.compare(b.getRequests() + b.getCalls(), a.getRequests() + a.getCalls()));
+        return result;
+    }
+
+    @Override
+    public List<PoolWaitStats> getPoolWaits() {
+        List<PoolWaitStats> result = new ArrayList<>();
+        for (PoolWaitMetrics metrics : poolWaits.values()) {
+            result.add(metrics.snapshot());
+        }
+        return result;
+    }
+
+    @Override
+    public List<QueryShapeStats> getQueryShapes() {
+        return slowQueryLog == null ? new ArrayList<>() : slowQueryLog.top(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String dumpQueryShapes(int limit) {
+        return slowQueryLog == null ? "slow query log is disabled" : slowQueryLog.dump(limit);
+    }
+
+    @Override
+    public void reset() {
+        operations.values().forEach(OperationMetrics::reset);
+        poolWaits.values().forEach(PoolWaitMetrics::reset);
+        if (slowQueryLog != null) {
+            slowQueryLog.reset();
+        }
+    }
+
+    /**
+     * 注册到平台MBeanServer;同名MBean已存在(如同一个jvm中有多个应用上下文)时跳过
+     */
+    public synchronized void registerMBean() {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            log.warn("mbean {} already registered, elasticsearch client metrics are not exported to jmx", OBJECT_NAME);
+        } catch (JMException e) {
+            log.warn("could not register mbean {}", OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * 注销MBean,停止慢查询日志的后台线程
+     */
+    @Override
+    public synchronized void close() {
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
+        }
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.debug("could not unregister mbean {}", objectName, e);
+        }
+        objectName = null;
+    }
+}
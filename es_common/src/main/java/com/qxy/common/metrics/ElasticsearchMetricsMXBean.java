@@ -0,0 +1,37 @@
+package com.qxy.common.metrics;
+
+import java.util.List;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 客户端指标的JMX接口,注册为com.qxy.elasticsearch:type=ClientMetrics
+ */
+public interface ElasticsearchMetricsMXBean {
+
+    /**
+     * @return 每个(集群, 操作, 索引)的指标快照
+     */
+    List<OperationStats> getOperations();
+
+    /**
+     * @return 每个集群的连接池租借等待时间
+     */
+    List<PoolWaitStats> getPoolWaits();
+
+    /**
+     * @return 按累计耗时从大到小的查询结构
+     */
+    List<QueryShapeStats> getQueryShapes();
+
+    /**
+     * @param limit 最多输出的行数
+     * @return 最差的查询结构的文本报表
+     */
+    String dumpQueryShapes(int limit);
+
+    /**
+     * 清空全部直方图、计数和查询指纹,例如压测前
+     */
+    void reset();
+}
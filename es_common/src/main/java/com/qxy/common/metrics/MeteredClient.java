@@ -0,0 +1,192 @@
+package com.qxy.common.metrics;
+
+import com.qxy.common.client.ElasticsearchCluster;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.core.CountResponse;
+
+import java.io.IOException;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 记录指标的客户端门面,使用集群的RequestOptions
+ * <p>
+ * 在http拦截器记录的延迟、大小之外,再记录调用总耗时、服务端took、分片失败数和批量请求中失败的项;
+ * 带聚合的查询记为aggregation操作,与普通查询分开统计。
+ * 没有提供的接口可以用execute(),或直接使用getClient()(只有http层的指标)
+ */
+public class MeteredClient {
+    private final ElasticsearchCluster cluster;
+    private final ElasticsearchMetrics metrics;
+    private final RequestOptions aggregationOptions;
+
+    public MeteredClient(ElasticsearchCluster cluster) {
+        this.cluster = cluster;
+        this.metrics = cluster.getMetrics();
+        RequestOptions.Builder builder = cluster.getRequestOptions().toBuilder();
+        builder.addHeader(ElasticsearchMetrics.OPERATION_HEADER, "aggregation");
+        this.aggregationOptions = builder.build();
+    }
+
+    /**
+     * 一次客户端调用
+     */
+    @FunctionalInterface
+    public interface ClientCall<T> {
+        T call(RestHighLevelClient client, RequestOptions options) throws IOException;
+    }
+
+    public RestHighLevelClient getClient() {
+        return cluster.getClient();
+    }
+
+    public ElasticsearchCluster getCluster() {
+        return cluster;
+    }
+
+    public GetResponse get(GetRequest request) throws IOException {
+        return execute("get", request.index(), RestHighLevelClient::get, request, cluster.getRequestOptions());
+    }
+
+    /**
+     * 7.3.0的客户端总是请求/_mget,索引记为_all
+     */
+    public MultiGetResponse mget(MultiGetRequest request) throws IOException {
+        return execute("mget", null, RestHighLevelClient::mget, request, cluster.getRequestOptions());
+    }
+
+    public IndexResponse index(IndexRequest request) throws IOException {
+        return execute("index", request.index(), RestHighLevelClient::index, request, cluster.getRequestOptions());
+    }
+
+    public UpdateResponse update(UpdateRequest request) throws IOException {
+        return execute("update", request.index(), RestHighLevelClient::update, request, cluster.getRequestOptions());
+    }
+
+    public DeleteResponse delete(DeleteRequest request) throws IOException {
+        return execute("delete", request.index(), RestHighLevelClient::delete, request, cluster.getRequestOptions());
+    }
+
+    /**
+     * 请求/_bulk,索引记为_all;记录took和失败的项数
+     */
+    public BulkResponse bulk(BulkRequest request) throws IOException {
+        OperationMetrics operation = metrics.operation(cluster.getName(), "bulk", null);
+        BulkResponse response = call(operation, (client, options) -> client.bulk(request, options), cluster.getRequestOptions());
+        if (metrics.isEnabled()) {
+            operation.recordTook(response.getTook().millis());
+            if (response.hasFailures()) {
+                int failures = 0;
+                for (BulkItemResponse item : response.getItems()) {
+                    if (item.isFailed()) {
+                        failures++;
+                    }
+                }
+                operation.recordBulkItemFailures(failures);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * 查询,带聚合时记为aggregation;记录took和失败的分片数
+     */
+    public SearchResponse search(SearchRequest request) throws IOException {
+        boolean aggregation = request.source() != null && request.source().aggregations() != null
+                && request.source().aggregations().count() > 0;
+        OperationMetrics operation = metrics.operation(cluster.getName(), aggregation ? "aggregation" : "search",
+                index(request.indices()));
+        SearchResponse response = call(operation, (client, options) -> client.search(request, options),
+                aggregation ? aggregationOptions : cluster.getRequestOptions());
+        recordSearch(operation, response);
+        return response;
+    }
+
+    public SearchResponse scroll(SearchScrollRequest request) throws IOException {
+        OperationMetrics operation = metrics.operation(cluster.getName(), "scroll", null);
+        SearchResponse response = call(operation, (client, options) -> client.scroll(request, options), cluster.getRequestOptions());
+        recordSearch(operation, response);
+        return response;
+    }
+
+    public CountResponse count(CountRequest request) throws IOException {
+        OperationMetrics operation = metrics.operation(cluster.getName(), "count", index(request.indices()));
+        CountResponse response = call(operation, (client, options) -> client.count(request, options), cluster.getRequestOptions());
+        if (metrics.isEnabled()) {
+            operation.recordShardFailures(response.getFailedShards());
+        }
+        return response;
+    }
+
+    /**
+     * 记录任意调用的总耗时和异常
+     *
+     * @param operation 操作名,与http层识别的操作一致时两者的指标在同一行,见RequestClassifier
+     * @param index     索引,null时为_all
+     */
+    public <T> T execute(String operation, String index, ClientCall<T> call) throws IOException {
+        return call(metrics.operation(cluster.getName(), operation, index), call, cluster.getRequestOptions());
+    }
+
+    private interface RequestCall<R, T> {
+        T call(RestHighLevelClient client, R request, RequestOptions options) throws IOException;
+    }
+
+    private <R, T> T execute(String operation, String index, RequestCall<R, T> call, R request,
+                             RequestOptions options) throws IOException {
+        return call(metrics.operation(cluster.getName(), operation, index),
+                (client, requestOptions) -> call.call(client, request, requestOptions), options);
+    }
+
+    private <T> T call(OperationMetrics operation, ClientCall<T> call, RequestOptions options) throws IOException {
+        if (!metrics.isEnabled()) {
+            return call.call(cluster.getClient(), options);
+        }
+        long start = System.nanoTime();
+        try {
+            return call.call(cluster.getClient(), options);
+        } catch (ElasticsearchStatusException e) {
+            //错误状态码已经由响应拦截器记录
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            //连接失败、超时等没有响应的错误
+            operation.recordError();
+            throw e;
+        } finally {
+            operation.recordCall(System.nanoTime() - start);
+        }
+    }
+
+    private void recordSearch(OperationMetrics operation, SearchResponse response) {
+        if (metrics.isEnabled()) {
+            operation.recordTook(response.getTook().millis());
+            operation.recordShardFailures(response.getFailedShards());
+        }
+    }
+
+    /**
+     * 与请求路径中的索引一致: 多个索引逗号分割,没有索引时为_all
+     */
+    private static String index(String[] indices) {
+        return indices == null || indices.length == 0 ? null : String.join(",", indices);
+    }
+}
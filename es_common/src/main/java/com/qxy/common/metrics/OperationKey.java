@@ -0,0 +1,60 @@
+package com.qxy.common.metrics;
+
+import java.util.Objects;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 指标的维度: 集群 + 操作 + 索引
+ */
+public final class OperationKey {
+    private final String cluster;
+    private final String operation;
+    private final String index;
+
+    public OperationKey(String cluster, String operation, String index) {
+        this.cluster = cluster;
+        this.operation = operation;
+        this.index = index;
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    /**
+     * @return search、aggregation、get、mget、index、update、delete、bulk、scroll、count、ping等,见RequestClassifier
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return 请求路径中的索引(多个时为逗号分割的原文),没有索引时为_all,超过维度上限后为_other
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OperationKey)) {
+            return false;
+        }
+        OperationKey that = (OperationKey) o;
+        return cluster.equals(that.cluster) && operation.equals(that.operation) && index.equals(that.index);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cluster, operation, index);
+    }
+
+    @Override
+    public String toString() {
+        return cluster + "/" + operation + "/" + index;
+    }
+}
@@ -0,0 +1,180 @@
+package com.qxy.common.metrics;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 一个(集群, 操作, 索引)的指标,直方图精度2位有效数字,时间以微秒记录
+ * <p>
+ * 1、latency: 一次http请求从发出到收到响应头的时间(重试时每次尝试各记一次)
+ * 2、call: MeteredClient的一次调用的总耗时,包含排队、重试、响应体的传输和解析
+ * 3、took: 服务端返回的took,与latency的差是网络、排队和序列化的开销
+ * 4、requestBytes/responseBytes: 请求体和响应体的大小(压缩时为压缩后的大小)
+ */
+public class OperationMetrics {
+    private final OperationKey key;
+
+    private final Histogram latency = new ConcurrentHistogram(2);
+    private final Histogram call = new ConcurrentHistogram(2);
+    private final Histogram took = new ConcurrentHistogram(2);
+    private final Histogram requestBytes = new ConcurrentHistogram(2);
+    private final Histogram responseBytes = new ConcurrentHistogram(2);
+
+    /**
+     * 直方图只能给出近似的总和,总和单独累加,供Micrometer的FunctionTimer/FunctionCounter使用
+     */
+    private final LongAdder latencyTotalMicros = new LongAdder();
+    private final LongAdder callTotalMicros = new LongAdder();
+    private final LongAdder tookTotalMillis = new LongAdder();
+    private final LongAdder requestBytesTotal = new LongAdder();
+    private final LongAdder responseBytesTotal = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder shardFailures = new LongAdder();
+    private final LongAdder bulkItemFailures = new LongAdder();
+
+    OperationMetrics(OperationKey key) {
+        this.key = key;
+    }
+
+    public OperationKey getKey() {
+        return key;
+    }
+
+    public void recordLatency(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        latency.recordValue(micros);
+        latencyTotalMicros.add(micros);
+    }
+
+    public void recordCall(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        call.recordValue(micros);
+        callTotalMicros.add(micros);
+    }
+
+    public void recordTook(long millis) {
+        if (millis >= 0) {
+            took.recordValue(millis);
+            tookTotalMillis.add(millis);
+        }
+    }
+
+    public void recordRequestBytes(long bytes) {
+        if (bytes >= 0) {
+            requestBytes.recordValue(bytes);
+            requestBytesTotal.add(bytes);
+        }
+    }
+
+    public void recordResponseBytes(long bytes) {
+        if (bytes >= 0) {
+            responseBytes.recordValue(bytes);
+            responseBytesTotal.add(bytes);
+        }
+    }
+
+    /**
+     * 请求失败: 连接/超时等异常,或4xx(404除外)、5xx响应
+     */
+    public void recordError() {
+        errors.increment();
+    }
+
+    public void recordShardFailures(int count) {
+        if (count > 0) {
+            shardFailures.add(count);
+        }
+    }
+
+    public void recordBulkItemFailures(int count) {
+        if (count > 0) {
+            bulkItemFailures.add(count);
+        }
+    }
+
+    public long getRequestCount() {
+        return latency.getTotalCount();
+    }
+
+    public long getCallCount() {
+        return call.getTotalCount();
+    }
+
+    public long getTookCount() {
+        return took.getTotalCount();
+    }
+
+    public double getLatencyTotalMicros() {
+        return latencyTotalMicros.sum();
+    }
+
+    public double getCallTotalMicros() {
+        return callTotalMicros.sum();
+    }
+
+    public double getTookTotalMillis() {
+        return tookTotalMillis.sum();
+    }
+
+    public double getRequestBytesTotal() {
+        return requestBytesTotal.sum();
+    }
+
+    public double getResponseBytesTotal() {
+        return responseBytesTotal.sum();
+    }
+
+    public double getErrors() {
+        return errors.sum();
+    }
+
+    public double getShardFailures() {
+        return shardFailures.sum();
+    }
+
+    public double getBulkItemFailures() {
+        return bulkItemFailures.sum();
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return 请求延迟的分位值(微秒),没有样本时为0
+     */
+    public long getLatencyPercentileMicros(double percentile) {
+        return latency.getValueAtPercentile(percentile);
+    }
+
+    public long getCallPercentileMicros(double percentile) {
+        return call.getValueAtPercentile(percentile);
+    }
+
+    public long getTookPercentileMillis(double percentile) {
+        return took.getValueAtPercentile(percentile);
+    }
+
+    public OperationStats snapshot() {
+        return new OperationStats(this, latency, call, took, requestBytes, responseBytes);
+    }
+
+    void reset() {
+        latency.reset();
+        call.reset();
+        took.reset();
+        requestBytes.reset();
+        responseBytes.reset();
+        latencyTotalMicros.reset();
+        callTotalMicros.reset();
+        tookTotalMillis.reset();
+        requestBytesTotal.reset();
+        responseBytesTotal.reset();
+        errors.reset();
+        shardFailures.reset();
+        bulkItemFailures.reset();
+    }
+}
@@ -0,0 +1,174 @@
+package com.qxy.common.metrics;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: OperationMetrics的快照,时间为毫秒,大小为字节;也是JMX中ClientMetrics.Operations的一行
+ */
+public class OperationStats {
+    private final String cluster;
+    private final String operation;
+    private final String index;
+    private final long requests;
+    private final long calls;
+    private final long errors;
+    private final long shardFailures;
+    private final long bulkItemFailures;
+    private final double latencyMean;
+    private final double latencyP50;
+    private final double latencyP90;
+    private final double latencyP99;
+    private final double latencyMax;
+    private final double callP50;
+    private final double callP99;
+    private final double tookMean;
+    private final double tookP50;
+    private final double tookP99;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final double responseBytesP99;
+
+    OperationStats(OperationMetrics metrics, Histogram latency, Histogram call, Histogram took,
+                   Histogram requestBytes, Histogram responseBytes) {
+        OperationKey key = metrics.getKey();
+        this.cluster = key.getCluster();
+        this.operation = key.getOperation();
+        this.index = key.getIndex();
+        this.requests = latency.getTotalCount();
+        this.calls = call.getTotalCount();
+        this.errors = (long) metrics.getErrors();
+        this.shardFailures = (long) metrics.getShardFailures();
+        this.bulkItemFailures = (long) metrics.getBulkItemFailures();
+        this.latencyMean = millis(latency.getMean());
+        this.latencyP50 = millis(latency.getValueAtPercentile(50));
+        this.latencyP90 = millis(latency.getValueAtPercentile(90));
+        this.latencyP99 = millis(latency.getValueAtPercentile(99));
+        this.latencyMax = millis(latency.getMaxValue());
+        this.callP50 = millis(call.getValueAtPercentile(50));
+        this.callP99 = millis(call.getValueAtPercentile(99));
+        this.tookMean = took.getTotalCount() == 0 ? 0 : took.getMean();
+        this.tookP50 = took.getValueAtPercentile(50);
+        this.tookP99 = took.getValueAtPercentile(99);
+        this.requestBytes = (long) metrics.getRequestBytesTotal();
+        this.responseBytes = (long) metrics.getResponseBytesTotal();
+        this.responseBytesP99 = responseBytes.getValueAtPercentile(99);
+    }
+
+    private static double millis(double micros) {
+        return Double.isNaN(micros) ? 0 : micros / 1000;
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * @return http请求数(重试时每次尝试各计一次)
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return 经MeteredClient的调用次数,直接使用RestHighLevelClient时为0
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getShardFailures() {
+        return shardFailures;
+    }
+
+    public long getBulkItemFailures() {
+        return bulkItemFailures;
+    }
+
+    public double getLatencyMean() {
+        return latencyMean;
+    }
+
+    public double getLatencyP50() {
+        return latencyP50;
+    }
+
+    public double getLatencyP90() {
+        return latencyP90;
+    }
+
+    public double getLatencyP99() {
+        return latencyP99;
+    }
+
+    public double getLatencyMax() {
+        return latencyMax;
+    }
+
+    public double getCallP50() {
+        return callP50;
+    }
+
+    public double getCallP99() {
+        return callP99;
+    }
+
+    /**
+     * @return 服务端took的平均值,与latencyMean的差是网络和客户端的开销
+     */
+    public double getTookMean() {
+        return tookMean;
+    }
+
+    public double getTookP50() {
+        return tookP50;
+    }
+
+    public double getTookP99() {
+        return tookP99;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public double getResponseBytesP99() {
+        return responseBytesP99;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationStats{" +
+                "key=" + cluster + "/" + operation + "/" + index +
+                ", requests=" + requests +
+                ", calls=" + calls +
+                ", errors=" + errors +
+                ", shardFailures=" + shardFailures +
+                ", bulkItemFailures=" + bulkItemFailures +
+                ", latencyP50=" + latencyP50 +
+                ", latencyP99=" + latencyP99 +
+                ", latencyMax=" + latencyMax +
+                ", tookP50=" + tookP50 +
+                ", tookP99=" + tookP99 +
+                ", requestBytes=" + requestBytes +
+                ", responseBytes=" + responseBytes +
+                '}';
+    }
+}
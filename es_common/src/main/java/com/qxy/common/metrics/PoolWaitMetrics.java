@@ -0,0 +1,54 @@
+package com.qxy.common.metrics;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 一个集群从连接池租借连接的等待时间分布(微秒),ConnectionPoolStats只有平均值和最大值
+ */
+public class PoolWaitMetrics {
+    private final String cluster;
+    private final Histogram wait = new ConcurrentHistogram(2);
+    private final LongAdder totalMicros = new LongAdder();
+
+    PoolWaitMetrics(String cluster) {
+        this.cluster = cluster;
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        wait.recordValue(micros);
+        totalMicros.add(micros);
+    }
+
+    public long getCount() {
+        return wait.getTotalCount();
+    }
+
+    public double getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    public long getPercentileMicros(double percentile) {
+        return wait.getValueAtPercentile(percentile);
+    }
+
+    public PoolWaitStats snapshot() {
+        return new PoolWaitStats(cluster, wait.getTotalCount(), wait.getValueAtPercentile(50) / 1000.0,
+                wait.getValueAtPercentile(99) / 1000.0, wait.getMaxValue() / 1000.0);
+    }
+
+    void reset() {
+        wait.reset();
+        totalMicros.reset();
+    }
+}
@@ -0,0 +1,53 @@
+package com.qxy.common.metrics;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: PoolWaitMetrics的快照,时间为毫秒
+ */
+public class PoolWaitStats {
+    private final String cluster;
+    private final long leases;
+    private final double p50;
+    private final double p99;
+    private final double max;
+
+    PoolWaitStats(String cluster, long leases, double p50, double p99, double max) {
+        this.cluster = cluster;
+        this.leases = leases;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    public long getLeases() {
+        return leases;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolWaitStats{" +
+                "cluster=" + cluster +
+                ", leases=" + leases +
+                ", p50=" + p50 +
+                ", p99=" + p99 +
+                ", max=" + max +
+                '}';
+    }
+}
@@ -0,0 +1,117 @@
+package com.qxy.common.metrics;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/30 9:30
+ * @Introduction: 查询的指纹: 保留请求体的结构和字段名,去掉全部字面量
+ * <p>
+ * 例如
+ * <pre>
+ * {"query":{"bool":{"must":[{"multi_match":{"query":"java程序员","fields":["name","description"]}}],
+ *  "filter":[{"range":{"price":{"gte":60,"lte":100}}}]}},"sort":[{"price":{"order":"desc"}}]}
+ * </pre>
+ * 归一化为
+ * <pre>
+ * {"query":{"bool":{"must":[{"multi_match":{"query":?,"fields":[?]}}],
+ *  "filter":[{"range":{"price":{"gte":?,"lte":?}}}]}},"sort":[{"price":{"order":?}}]}
+ * </pre>
+ * 只含字面量的数组折叠为[?],terms查询的值个数不同也是同一个指纹
+ */
+public final class QueryFingerprint {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String LITERAL = "?";
+
+    private QueryFingerprint() {
+    }
+
+    /**
+     * @param source 查询的json,如SearchSourceBuilder.toString()或请求体;null或空时为{}
+     * @return 归一化后的结构
+     * @throws IllegalArgumentException 不是合法的json
+     */
+    public static String normalize(byte[] source) {
+        if (source == null || source.length == 0) {
+            return "{}";
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(source)) {
+            StringBuilder shape = new StringBuilder(source.length);
+            if (parser.nextToken() == null) {
+                return "{}";
+            }
+            appendValue(parser, shape);
+            return shape.toString();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid query json: " + e.getMessage(), e);
+        }
+    }
+
+    public static String normalize(String source) {
+        return normalize(source == null ? null : source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return 指纹的短id(16位十六进制),用于日志中引用
+     */
+    public static String id(String key) {
+        //FNV-1a 64位
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return String.format("%016x", hash);
+    }
+
+    /**
+     * 当前token是一个值的开始,追加归一化后的值
+     *
+     * @return 值是否为字面量
+     */
+    private static boolean appendValue(JsonParser parser, StringBuilder shape) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            shape.append('{');
+            boolean first = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (!first) {
+                    shape.append(',');
+                }
+                first = false;
+                shape.append('"').append(parser.getCurrentName()).append("\":");
+                parser.nextToken();
+                appendValue(parser, shape);
+            }
+            shape.append('}');
+            return false;
+        }
+        if (token == JsonToken.START_ARRAY) {
+            int start = shape.length();
+            shape.append('[');
+            boolean literals = true;
+            boolean first = true;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (!first) {
+                    shape.append(',');
+                }
+                first = false;
+                literals &= appendValue(parser, shape);
+            }
+            if (literals && !first) {
+                shape.setLength(start);
+                shape.append('[').append(LITERAL).append(']');
+            } else {
+                shape.append(']');
+            }
+            return false;
+        }
+        shape.append(LITERAL);
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package com.qxy.common.metrics;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/30 9:30
+ * @Introduction: 一个查询结构(指纹)的统计快照,时间为毫秒;也是JMX中ClientMetrics.QueryShapes的一行
+ */
+public class QueryShapeStats {
+    private final String id;
+    private final String cluster;
+    private final String operation;
+    private final String index;
+    private final String shape;
+    private final long count;
+    private final long slowCount;
+    private final double totalMillis;
+    private final double errorMillis;
+    private final double p50;
+    private final double p99;
+    private final double max;
+    private final String slowestSource;
+
+    QueryShapeStats(String id, String cluster, String operation, String index, String shape, long count, long slowCount,
+                    double totalMillis, double errorMillis, double p50, double p99, double max, String slowestSource) {
+        this.id = id;
+        this.cluster = cluster;
+        this.operation = operation;
+        this.index = index;
+        this.shape = shape;
+        this.count = count;
+        this.slowCount = slowCount;
+        this.totalMillis = totalMillis;
+        this.errorMillis = errorMillis;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+        this.slowestSource = slowestSource;
+    }
+
+    /**
+     * @return 指纹id,与慢查询日志中的一致
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * @return 去掉字面量后的查询结构
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * @return 进入top-K之后的查询次数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getSlowCount() {
+        return slowCount;
+    }
+
+    /**
+     * @return 累计耗时,包含继承的errorMillis
+     */
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return 累计耗时可能高估的上限,0表示没有淘汰过其他指纹,累计耗时是准确的
+     */
+    public double getErrorMillis() {
+        return errorMillis;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return 最慢的一次慢查询的请求体(截断),没有慢查询时为null
+     */
+    public String getSlowestSource() {
+        return slowestSource;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryShapeStats{" +
+                "id=" + id +
+                ", key=" + cluster + "/" + operation + "/" + index +
+                ", count=" + count +
+                ", slowCount=" + slowCount +
+                ", totalMillis=" + totalMillis +
+                ", p50=" + p50 +
+                ", p99=" + p99 +
+                ", max=" + max +
+                ", shape=" + shape +
+                '}';
+    }
+}
@@ -0,0 +1,128 @@
+package com.qxy.common.metrics;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 根据http方法和路径识别请求的操作和索引,例如:
+ * <pre>
+ * POST /book/_search            -> search, book
+ * POST /_search/scroll          -> scroll, _all
+ * GET  /book/_doc/1             -> get, book
+ * PUT  /book/_doc/1             -> index, book
+ * POST /_bulk                   -> bulk, _all
+ * HEAD /                        -> ping, _all
+ * GET  /_cluster/health         -> admin, _all
+ * </pre>
+ * 请求体中才能区分的操作(如带聚合的查询)由MeteredClient通过请求头X-Qxy-Operation指定
+ */
+final class RequestClassifier {
+    static final String ALL = "_all";
+
+    /**
+     * 路径中的端点 -> 操作,没有列出的端点(_cluster、_cat、_mapping、_settings等)都归为admin
+     */
+    private static final Map<String, String> ENDPOINTS = new HashMap<>();
+
+    static {
+        ENDPOINTS.put("_search", "search");
+        ENDPOINTS.put("_msearch", "msearch");
+        ENDPOINTS.put("_count", "count");
+        ENDPOINTS.put("_mget", "mget");
+        ENDPOINTS.put("_bulk", "bulk");
+        ENDPOINTS.put("_update_by_query", "update_by_query");
+        ENDPOINTS.put("_delete_by_query", "delete_by_query");
+        ENDPOINTS.put("_refresh", "refresh");
+        ENDPOINTS.put("_analyze", "analyze");
+        ENDPOINTS.put("_update", "update");
+        ENDPOINTS.put("_create", "index");
+        ENDPOINTS.put("_source", "get");
+    }
+
+    private RequestClassifier() {
+    }
+
+    /**
+     * @param method http方法
+     * @param uri    请求行中的uri,可以带查询参数,也可以是绝对地址
+     * @return [操作, 索引]
+     */
+    static String[] classify(String method, String uri) {
+        String[] segments = segments(path(uri));
+        if (segments.length == 0) {
+            return new String[]{"HEAD".equals(method) ? "ping" : "info", ALL};
+        }
+        String first = segments[0];
+        if (first.startsWith("_")) {
+            if ("_search".equals(first) && segments.length > 1 && "scroll".equals(segments[1])) {
+                return new String[]{"DELETE".equals(method) ? "clear_scroll" : "scroll", ALL};
+            }
+            return new String[]{endpoint(first), ALL};
+        }
+        if (segments.length == 1) {
+            return new String[]{indexOperation(method), first};
+        }
+        String second = segments[1];
+        if ("_doc".equals(second) || !second.startsWith("_")) {
+            //7.x的_doc,以及旧的自定义type
+            return new String[]{documentOperation(method, segments.length), first};
+        }
+        return new String[]{endpoint(second), first};
+    }
+
+    private static String endpoint(String endpoint) {
+        return ENDPOINTS.getOrDefault(endpoint, "admin");
+    }
+
+    private static String indexOperation(String method) {
+        switch (method) {
+            case "PUT":
+                return "create_index";
+            case "DELETE":
+                return "delete_index";
+            case "HEAD":
+                return "exists_index";
+            default:
+                return "admin";
+        }
+    }
+
+    private static String documentOperation(String method, int segments) {
+        switch (method) {
+            case "GET":
+                return "get";
+            case "HEAD":
+                return "exists";
+            case "DELETE":
+                return "delete";
+            default:
+                //POST /index/_doc自动生成id,PUT/POST /index/_doc/id指定id
+                return segments <= 3 ? "index" : "admin";
+        }
+    }
+
+    private static String path(String uri) {
+        try {
+            String path = new URI(uri).getPath();
+            return path == null ? "" : path;
+        } catch (URISyntaxException e) {
+            int query = uri.indexOf('?');
+            return query < 0 ? uri : uri.substring(0, query);
+        }
+    }
+
+    private static String[] segments(String path) {
+        String trimmed = path;
+        while (trimmed.startsWith("/")) {
+            trimmed = trimmed.substring(1);
+        }
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/");
+    }
+}
@@ -0,0 +1,283 @@
+package com.qxy.common.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/30 9:30
+ * @Introduction: 慢查询日志和按查询指纹的统计
+ * <p>
+ * 1、每个查询(search、aggregation、count)按(集群, 操作, 索引, 指纹)累计次数和延迟分布
+ * 2、延迟超过threshold的查询以warn级别记录到这个类的日志,附带指纹id和截断后的原始请求体
+ * 3、指纹数量有上限(topK),用Space-Saving算法淘汰: 新指纹替换累计耗时最少的指纹,并继承它的累计耗时作为误差上限,
+ * 这样后出现的高频指纹不会因为累计得少而一直被淘汰
+ * 4、dump()按累计耗时输出最差的查询结构,也可以通过JMX的dumpQueryShapes调用
+ * <p>
+ * 延迟是http层的请求延迟(发出请求到收到响应头),直接使用RestHighLevelClient的查询也会记录。
+ * http拦截器运行在I/O reactor线程上,只通过submit()把请求体和延迟放入有界队列;
+ * 复制请求体、计算指纹、更新统计和写日志都在后台线程上进行,队列满时丢弃并计入getDropped()
+ */
+@Slf4j
+public class SlowQueryLog implements Closeable {
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+    /**
+     * 超过这个大小的请求体不计算指纹
+     */
+    static final int MAX_QUERY_BYTES = 1024 * 1024;
+
+    private final long thresholdMicros;
+    private final int topK;
+    private final int maxSourceChars;
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor worker;
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param thresholdMillis 慢查询阈值(毫秒),小于0时只统计不记录日志
+     * @param topK            保留的指纹数
+     * @param maxSourceChars  日志和样本中请求体的最大长度
+     */
+    public SlowQueryLog(long thresholdMillis, int topK, int maxSourceChars) {
+        this(thresholdMillis, topK, maxSourceChars, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param queueSize 等待后台线程处理的查询数上限
+     */
+    public SlowQueryLog(long thresholdMillis, int topK, int maxSourceChars, int queueSize) {
+        if (topK <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("topK and queueSize must be positive");
+        }
+        this.thresholdMicros = thresholdMillis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toMicros(thresholdMillis);
+        this.topK = topK;
+        this.maxSourceChars = maxSourceChars;
+        this.worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "es-slow-query-log");
+            thread.setDaemon(true);
+            return thread;
+        }, (r, executor) -> dropped.increment());
+    }
+
+    /**
+     * 指纹统计在这些操作上进行,其他操作的请求体不是查询
+     */
+    static boolean isQuery(String operation) {
+        return "search".equals(operation) || "aggregation".equals(operation) || "count".equals(operation);
+    }
+
+    /**
+     * 在后台线程上读取请求体并记录,调用方(I/O线程)不做任何解析;请求体必须在请求完成后仍可读取
+     *
+     * @param entity 请求体,没有请求体时为null;不可重复读取或超过1MB时不记录
+     * @param nanos  请求延迟
+     */
+    public void submit(String cluster, String operation, String index, HttpEntity entity, long nanos) {
+        if (entity != null && (!entity.isRepeatable() || entity.getContentLength() > MAX_QUERY_BYTES)) {
+            return;
+        }
+        worker.execute(() -> {
+            byte[] source = null;
+            if (entity != null) {
+                try {
+                    source = EntityUtils.toByteArray(entity);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+            record(cluster, operation, index, source, nanos);
+        });
+    }
+
+    /**
+     * 等待已经提交的查询处理完成,用于测试和导出前
+     *
+     * @return 超时前处理完成时为true
+     */
+    boolean awaitSubmitted(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        //丢弃的任务不计入taskCount
+        while (worker.getCompletedTaskCount() < worker.getTaskCount()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * 在调用线程上记录一次查询
+     *
+     * @param source 请求体,没有请求体时为null
+     * @param nanos  请求延迟
+     */
+    public void record(String cluster, String operation, String index, byte[] source, long nanos) {
+        String shape;
+        try {
+            shape = QueryFingerprint.normalize(source);
+        } catch (IllegalArgumentException e) {
+            shape = "<invalid>";
+        }
+        String key = cluster + '|' + operation + '|' + index + '|' + shape;
+        Shape stats = shapes.get(key);
+        if (stats == null) {
+            stats = add(key, cluster, operation, index, shape);
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        stats.record(micros);
+        if (micros >= thresholdMicros) {
+            stats.slow.increment();
+            String text = source == null ? "" : truncate(new String(source, StandardCharsets.UTF_8));
+            stats.sample(micros, text);
+            log.warn("slow query {}ms on cluster [{}] {} [{}], fingerprint {}: {}",
+                    micros / 1000, cluster, operation, index, stats.id, text);
+        }
+    }
+
+    private synchronized Shape add(String key, String cluster, String operation, String index, String shape) {
+        Shape stats = shapes.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        long inherited = 0;
+        if (shapes.size() >= topK) {
+            Shape min = null;
+            for (Shape candidate : shapes.values()) {
+                if (min == null || candidate.score() < min.score()) {
+                    min = candidate;
+                }
+            }
+            shapes.remove(min.key);
+            inherited = min.score();
+        }
+        stats = new Shape(key, cluster, operation, index, shape, inherited);
+        shapes.put(key, stats);
+        return stats;
+    }
+
+    private String truncate(String source) {
+        return source.length() <= maxSourceChars ? source : source.substring(0, maxSourceChars) + "...";
+    }
+
+    /**
+     * @param limit 最多返回的条数
+     * @return 按累计耗时从大到小的查询结构
+     */
+    public List<QueryShapeStats> top(int limit) {
+        List<QueryShapeStats> result = new ArrayList<>();
+        for (Shape shape : shapes.values()) {
+            result.add(shape.snapshot());
+        }
+        result.sort(Comparator.comparingDouble(QueryShapeStats::getTotalMillis).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * @return 按累计耗时排序的文本报表,每行一个查询结构
+     */
+    public String dump(int limit) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-16s %-10s %-12s %-20s %8s %6s %10s %9s %9s %9s  %s%n",
+                "fingerprint", "cluster", "operation", "index", "count", "slow", "totalMs", "p50Ms", "p99Ms", "maxMs", "shape"));
+        for (QueryShapeStats stats : top(limit)) {
+            report.append(String.format("%-16s %-10s %-12s %-20s %8d %6d %10.1f %9.2f %9.2f %9.2f  %s%n",
+                    stats.getId(), stats.getCluster(), stats.getOperation(), stats.getIndex(), stats.getCount(),
+                    stats.getSlowCount(), stats.getTotalMillis(), stats.getP50(), stats.getP99(), stats.getMax(),
+                    stats.getShape()));
+        }
+        return report.toString();
+    }
+
+    public int size() {
+        return shapes.size();
+    }
+
+    /**
+     * 后台队列已满而没有记录的查询数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 停止后台线程,队列中还没有处理的查询丢弃
+     */
+    @Override
+    public void close() {
+        worker.shutdownNow();
+    }
+
+    public void reset() {
+        shapes.clear();
+    }
+
+    private static final class Shape {
+        private final String key;
+        private final String id;
+        private final String cluster;
+        private final String operation;
+        private final String index;
+        private final String shape;
+        /**
+         * 继承自被淘汰指纹的累计耗时(微秒),即累计耗时可能高估的上限
+         */
+        private final long inheritedMicros;
+        private final Histogram latency = new ConcurrentHistogram(2);
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        private long slowestMicros = -1;
+        private String slowestSource;
+
+        Shape(String key, String cluster, String operation, String index, String shape, long inheritedMicros) {
+            this.key = key;
+            this.id = QueryFingerprint.id(key);
+            this.cluster = cluster;
+            this.operation = operation;
+            this.index = index;
+            this.shape = shape;
+            this.inheritedMicros = inheritedMicros;
+        }
+
+        void record(long micros) {
+            latency.recordValue(micros);
+            totalMicros.add(micros);
+        }
+
+        /**
+         * 保留最慢的一次的原始请求体,便于复现
+         */
+        synchronized void sample(long micros, String source) {
+            if (micros > slowestMicros) {
+                slowestMicros = micros;
+                slowestSource = source;
+            }
+        }
+
+        long score() {
+            return inheritedMicros + totalMicros.sum();
+        }
+
+        synchronized QueryShapeStats snapshot() {
+            return new QueryShapeStats(id, cluster, operation, index, shape, latency.getTotalCount(), slow.sum(),
+                    score() / 1000.0, inheritedMicros / 1000.0, latency.getValueAtPercentile(50) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0, latency.getMaxValue() / 1000.0, slowestSource);
+        }
+    }
+}
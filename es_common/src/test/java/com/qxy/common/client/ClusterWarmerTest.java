@@ -0,0 +1,217 @@
+package com.qxy.common.client;
+
+import com.qxy.common.config.ClusterProperties;
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/28 9:40
+ * @Introduction: 预热和健康检查测试,es由本地的桩服务器代替
+ */
+class ClusterWarmerTest {
+    private static final String SEARCH_RESPONSE = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}}";
+    private static final String BULK_RESPONSE = "{\"took\":1,\"errors\":true,\"items\":[{\"delete\":{\"_index\":\"qxy-warmup\","
+            + "\"_type\":\"_doc\",\"_id\":\"_warmup_0\",\"status\":404,\"error\":{\"type\":\"index_not_found_exception\","
+            + "\"reason\":\"no such index [qxy-warmup]\",\"index\":\"qxy-warmup\"}}}]}";
+
+    private static StubElasticsearch server;
+    /**
+     * 桩服务器看到的客户端端口,即实际发送过请求的连接
+     */
+    private static final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+    private static final Queue<String> requests = new ConcurrentLinkedQueue<>();
+
+    private ElasticsearchCluster cluster;
+    private ClusterWarmer warmer;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = StubElasticsearch.start(ClusterWarmerTest::handle);
+    }
+
+    private static StubResponse handle(StubRequest request) {
+        connections.add(request.getRemotePort());
+        requests.add(request.getMethod() + " " + request.getPath() + " " + request.getBodyAsString());
+        return StubResponse.json(request.getPath().endsWith("/_bulk") ? BULK_RESPONSE : SEARCH_RESPONSE);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    @BeforeEach
+    void reset() {
+        connections.clear();
+        requests.clear();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        if (warmer != null) {
+            warmer.close();
+        }
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    private static ClusterProperties properties(String hostList) {
+        ClusterProperties properties = new ClusterProperties();
+        properties.setHostList(hostList);
+        properties.getWarmup().setEnabled(true);
+        properties.getWarmup().setConnections(3);
+        properties.getWarmup().setRounds(2);
+        ClusterProperties.Warmup.Search search = new ClusterProperties.Warmup.Search();
+        search.setIndex("book");
+        search.setQuery("{\"match\":{\"name\":\"java\"}}");
+        properties.getWarmup().getSearches().add(search);
+        return properties;
+    }
+
+    private static String hostList() {
+        return server.getHostList();
+    }
+
+    private int idleConnections() {
+        HttpHost host = cluster.getClient().getLowLevelClient().getNodes().get(0).getHost();
+        return cluster.getConnectionManager().getStats(new HttpRoute(host)).getAvailable();
+    }
+
+    private int leasedConnections() {
+        HttpHost host = cluster.getClient().getLowLevelClient().getNodes().get(0).getHost();
+        return cluster.getConnectionManager().getStats(new HttpRoute(host)).getLeased();
+    }
+
+    /**
+     * 预先建立的连接留在池中,之后的查询和批量请求复用这些连接
+     */
+    @Test
+    void warmupOpensConnectionsAndRunsRequests() throws Exception {
+        ClusterProperties properties = properties(hostList());
+        cluster = ElasticsearchClientFactory.create("default", properties);
+        warmer = new ClusterWarmer(cluster, properties);
+
+        WarmupResult result = warmer.warmup();
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getError()).isNull();
+        assertThat(result.getCluster()).isEqualTo("default");
+        assertThat(result.getConnections()).isEqualTo(3);
+        //每轮对3个连接各发一次查询
+        assertThat(result.getSearches()).isEqualTo(6);
+        assertThat(result.getSearchFailures()).isZero();
+        assertThat(result.getBulks()).isEqualTo(2);
+        assertThat(result.getBulkFailures()).isZero();
+        assertThat(result.getElapsedMillis()).isBetween(0L, 10_000L);
+        assertThat(idleConnections()).isEqualTo(3);
+        assertThat(connections).hasSizeBetween(1, 3);
+        assertThat(requests).filteredOn(request -> request.startsWith("POST /book/_search")).hasSize(6)
+                .allMatch(request -> request.contains("\"wrapper\""));
+        assertThat(requests).filteredOn(request -> request.startsWith("POST /_bulk"))
+                .allMatch(request -> request.contains("{\"delete\":"));
+    }
+
+    /**
+     * 截止时间到了还没有响应的查询被中止,连接立即释放,不等到socketTimeout或服务端响应
+     */
+    @Test
+    void searchesStillRunningAtTheDeadlineAreCancelled() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Queue<String> opaqueIds = new ConcurrentLinkedQueue<>();
+        StubElasticsearch slow = StubElasticsearch.start(request -> {
+            if (request.getPath().endsWith("/_search")) {
+                opaqueIds.add(request.getHeaders().getFirst("X-Opaque-Id"));
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return handle(request);
+        });
+        try {
+            ClusterProperties properties = properties(slow.getHostList());
+            properties.getWarmup().setRounds(1);
+            properties.getWarmup().setTimeout(1000);
+            cluster = ElasticsearchClientFactory.create("default", properties);
+            warmer = new ClusterWarmer(cluster, properties);
+
+            WarmupResult result = warmer.warmup();
+            assertThat(result.isSuccessful()).isFalse();
+            assertThat(result.getError()).isInstanceOf(TimeoutException.class);
+            assertThat(result.getSearches()).isZero();
+            assertThat(leasedConnections()).isZero();
+            assertThat(cluster.getCancellableRequests().size()).isZero();
+            assertThat(opaqueIds).hasSize(3).allMatch(id -> id.startsWith("warmup-default-"));
+        } finally {
+            release.countDown();
+            slow.close();
+        }
+    }
+
+    @Test
+    void warmupReportsUnreachableCluster() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ClusterProperties properties = properties("127.0.0.1:" + port);
+        properties.getWarmup().setTimeout(3000);
+        cluster = ElasticsearchClientFactory.create("default", properties);
+        warmer = new ClusterWarmer(cluster, properties);
+
+        WarmupResult result = warmer.warmup();
+        assertThat(result.isSuccessful()).isFalse();
+        assertThat(result.getConnections()).isZero();
+        assertThat(result.getSearches()).isZero();
+    }
+
+    /**
+     * 健康检查补齐空闲连接并发送HEAD /
+     */
+    @Test
+    void pingKeepsPoolWarm() throws Exception {
+        ClusterProperties properties = properties(hostList());
+        properties.getWarmup().setConnections(2);
+        properties.getWarmup().setPingInterval(50);
+        cluster = ElasticsearchClientFactory.create("default", properties);
+        warmer = new ClusterWarmer(cluster, properties);
+
+        warmer.startPing();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (warmer.getPingCount() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(warmer.getPingCount()).isGreaterThanOrEqualTo(3);
+        assertThat(warmer.getPingFailureCount()).isZero();
+        assertThat(warmer.isHealthy()).isTrue();
+        //停止后等最后一次HEAD的连接归还
+        warmer.close();
+        Thread.sleep(200);
+        assertThat(idleConnections()).isEqualTo(2);
+        assertThat(requests).anyMatch(request -> request.startsWith("HEAD / "));
+    }
+}
@@ -0,0 +1,286 @@
+package com.qxy.common.client;
+
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/31 9:30
+ * @Introduction: 合并并发相同请求的测试,桩服务器在放行前挂起请求,保证请求同时在执行
+ */
+class CoalescingClientTest {
+    private static final String GET_RESPONSE = "{\"_index\":\"springboot\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,"
+            + "\"_seq_no\":0,\"_primary_term\":1,\"found\":true,\"_source\":{\"name\":\"jack\",\"age\":18}}";
+    private static final String SEARCH_RESPONSE = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":1,\"relation\":\"eq\"},\"max_score\":1.0,"
+            + "\"hits\":[{\"_index\":\"book\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"name\":\"java\"}}]},"
+            + "\"aggregations\":{\"sterms#tags\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,"
+            + "\"buckets\":[{\"key\":\"es\",\"doc_count\":1}]}}}";
+    private static final String ERROR_RESPONSE = "{\"error\":{\"type\":\"index_closed_exception\",\"reason\":\"closed\"},\"status\":400}";
+
+    private static StubElasticsearch server;
+    /**
+     * 桩服务器收到的请求数,按请求行+请求体
+     */
+    private static final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private static final AtomicInteger received = new AtomicInteger();
+    private static volatile CountDownLatch release;
+
+    private ElasticsearchCluster cluster;
+    private CoalescingClient client;
+    private ExecutorService executor;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = StubElasticsearch.start(CoalescingClientTest::handle);
+    }
+
+    private static StubResponse handle(StubRequest request) {
+        requests.computeIfAbsent(request.getMethod() + " " + request.getUri() + " " + request.getBodyAsString(),
+                k -> new AtomicInteger()).incrementAndGet();
+        received.incrementAndGet();
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String path = request.getPath();
+        if (path.startsWith("/closed/")) {
+            return StubResponse.json(400, ERROR_RESPONSE);
+        }
+        return StubResponse.json(path.endsWith("/_search") ? SEARCH_RESPONSE : GET_RESPONSE);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    @BeforeEach
+    void createClient() throws IOException {
+        requests.clear();
+        received.set(0);
+        release = new CountDownLatch(1);
+        cluster = ElasticsearchClientFactory.create("default", server.properties());
+        client = CoalescingClient.builder(cluster.getClient()).options(cluster.getRequestOptions()).build();
+        executor = Executors.newFixedThreadPool(32);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        release.countDown();
+        executor.shutdownNow();
+        cluster.close();
+    }
+
+    /**
+     * 提交calls,等到桩服务器收到expected个请求、其余调用都在等待后放行
+     */
+    private <T> List<T> runConcurrently(List<Callable<T>> calls, int expected) throws Exception {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> call : calls) {
+            futures.add(executor.submit(call));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        //让没有发出请求的调用都进入等待
+        Thread.sleep(200);
+        release.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    private static int distinctInstances(List<?> objects) {
+        Set<Object> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+        instances.addAll(objects);
+        return instances.size();
+    }
+
+    @Test
+    void concurrentIdenticalGetsShareOneRequest() throws Exception {
+        List<Callable<GetResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            calls.add(() -> client.get(new GetRequest("springboot", "1")));
+        }
+        List<GetResponse> responses = runConcurrently(calls, 1);
+
+        assertThat(received.get()).isEqualTo(1);
+        //每个调用方得到自己的对象,修改一个的_source不影响其他
+        assertThat(distinctInstances(responses)).isEqualTo(responses.size());
+        responses.get(0).getSource().put("name", "changed");
+        for (GetResponse response : responses.subList(1, responses.size())) {
+            assertThat(response.getSource()).containsEntry("name", "jack").containsEntry("age", 18);
+            assertThat(response.getVersion()).isEqualTo(1);
+        }
+        assertThat(client.getGetExecuted()).isEqualTo(1);
+        assertThat(client.getGetCoalesced()).isEqualTo(15);
+        assertThat(client.getSaved()).isEqualTo(15);
+        assertThat(client.getInFlight()).isZero();
+
+        //完成后不再合并
+        release = new CountDownLatch(0);
+        client.get(new GetRequest("springboot", "1"));
+        assertThat(received.get()).isEqualTo(2);
+    }
+
+    /**
+     * _source过滤不同、查询条件不同的请求分别执行
+     */
+    @Test
+    void differentRequestsAreNotCoalesced() throws Exception {
+        List<Callable<Object>> calls = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            calls.add(() -> client.get(new GetRequest("springboot", "1")));
+            calls.add(() -> client.get(new GetRequest("springboot", "1").fetchSourceContext(
+                    new FetchSourceContext(true, new String[]{"name"}, null))));
+            calls.add(() -> client.search(new SearchRequest("book").source(new SearchSourceBuilder()
+                    .query(QueryBuilders.matchQuery("description", "java程序员")))));
+            calls.add(() -> client.search(new SearchRequest("book").source(new SearchSourceBuilder()
+                    .query(QueryBuilders.matchQuery("description", "spring")))));
+        }
+        runConcurrently(calls, 4);
+
+        assertThat(received.get()).isEqualTo(4);
+        assertThat(requests.values()).allMatch(count -> count.get() == 1);
+        assertThat(client.getGetExecuted()).isEqualTo(2);
+        assertThat(client.getGetCoalesced()).isEqualTo(6);
+        assertThat(client.getSearchExecuted()).isEqualTo(2);
+        assertThat(client.getSearchCoalesced()).isEqualTo(6);
+    }
+
+    @Test
+    void coalescedSearchesGetIndependentCopies() throws Exception {
+        List<Callable<SearchResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            calls.add(() -> client.search(new SearchRequest("book").source(new SearchSourceBuilder()
+                    .query(QueryBuilders.matchAllQuery()))));
+        }
+        List<SearchResponse> responses = runConcurrently(calls, 1);
+
+        assertThat(received.get()).isEqualTo(1);
+        assertThat(client.getSearchCoalesced()).isEqualTo(7);
+        assertThat(distinctInstances(responses)).isEqualTo(responses.size());
+        responses.get(0).getHits().getAt(0).getSourceAsMap().put("name", "changed");
+        for (SearchResponse response : responses.subList(1, responses.size())) {
+            assertThat(response.getHits().getAt(0).getSourceAsMap()).containsEntry("name", "java");
+            Terms tags = response.getAggregations().get("tags");
+            assertThat(tags.getBuckets()).extracting(Terms.Bucket::getKeyAsString).containsExactly("es");
+        }
+    }
+
+    /**
+     * SearchRequest的参数不同时搜索结果可能不同,不能合并
+     */
+    @Test
+    void searchesDifferingInRequestParametersAreNotCoalesced() throws Exception {
+        List<Callable<Object>> calls = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            calls.add(() -> client.search(new SearchRequest("book")));
+            calls.add(() -> client.search(new SearchRequest("book").types("_doc")));
+            calls.add(() -> client.search(new SearchRequest("book").allowPartialSearchResults(false)));
+            calls.add(() -> client.search(new SearchRequest("book").preference("_local")));
+            calls.add(() -> client.search(new SearchRequest("book").routing("user1")));
+            calls.add(() -> client.search(new SearchRequest("book").requestCache(false)));
+            calls.add(() -> {
+                SearchRequest request = new SearchRequest("book");
+                request.setBatchedReduceSize(64);
+                return client.search(request);
+            });
+            calls.add(() -> {
+                SearchRequest request = new SearchRequest("book");
+                request.setCcsMinimizeRoundtrips(false);
+                return client.search(request);
+            });
+            calls.add(() -> {
+                SearchRequest request = new SearchRequest("book");
+                request.setMaxConcurrentShardRequests(2);
+                return client.search(request);
+            });
+            calls.add(() -> {
+                SearchRequest request = new SearchRequest("book");
+                request.setPreFilterShardSize(1);
+                return client.search(request);
+            });
+        }
+        runConcurrently(calls, 10);
+
+        assertThat(received.get()).isEqualTo(10);
+        assertThat(client.getSearchExecuted()).isEqualTo(10);
+        assertThat(client.getSearchCoalesced()).isEqualTo(10);
+    }
+
+    /**
+     * 等待方各自得到同类型的新异常,cause是发出请求的调用方得到的原异常
+     */
+    @Test
+    void failureIsWrappedForEachWaitingRequest() throws Exception {
+        List<Callable<Throwable>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            calls.add(() -> {
+                try {
+                    client.get(new GetRequest("closed", "1"));
+                    return null;
+                } catch (Exception e) {
+                    return e;
+                }
+            });
+        }
+        List<Throwable> errors = runConcurrently(calls, 1);
+
+        assertThat(received.get()).isEqualTo(1);
+        assertThat(errors).allMatch(e -> e instanceof ElasticsearchStatusException)
+                .allMatch(e -> ((ElasticsearchStatusException) e).status() == RestStatus.BAD_REQUEST);
+        assertThat(distinctInstances(errors)).isEqualTo(errors.size());
+        List<Throwable> wrapped = errors.stream().filter(e -> e.getCause() instanceof ElasticsearchStatusException)
+                .collect(Collectors.toList());
+        assertThat(wrapped).hasSize(7);
+        assertThat(errors).contains(wrapped.get(0).getCause());
+        assertThat(wrapped).allMatch(e -> e.getCause() == wrapped.get(0).getCause());
+        assertThat(client.getInFlight()).isZero();
+        release = new CountDownLatch(0);
+        assertThatThrownBy(() -> client.get(new GetRequest("closed", "1"))).isInstanceOf(ElasticsearchStatusException.class);
+        assertThat(received.get()).isEqualTo(2);
+    }
+}
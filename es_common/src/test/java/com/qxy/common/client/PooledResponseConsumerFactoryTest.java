@@ -0,0 +1,191 @@
+package com.qxy.common.client;
+
+import com.qxy.common.config.ClusterProperties;
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/3 9:30
+ * @Introduction: 池化的响应体和请求体测试,桩服务器返回约300KB的搜索结果
+ */
+class PooledResponseConsumerFactoryTest {
+    private static final int HITS = 1000;
+    private static final byte[] SEARCH_RESPONSE = searchResponse();
+
+    private static StubElasticsearch server;
+    private static final Queue<String> requests = new ConcurrentLinkedQueue<>();
+
+    private ElasticsearchCluster cluster;
+
+    private static byte[] searchResponse() {
+        StringBuilder json = new StringBuilder("{\"took\":1,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":" + HITS + ",\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":[");
+        for (int i = 0; i < HITS; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"_index\":\"book\",\"_type\":\"_doc\",\"_id\":\"").append(i)
+                    .append("\",\"_score\":1.0,\"_source\":{\"name\":\"java编程思想 第").append(i)
+                    .append("版\",\"description\":\"java语言是世界第一编程语言,在软件开发领域使用人数最多,")
+                    .append("适合初学者和有经验的程序员阅读\",\"price\":").append(i % 100).append("}}");
+        }
+        return json.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = StubElasticsearch.start(PooledResponseConsumerFactoryTest::handle);
+    }
+
+    private static StubResponse handle(StubRequest request) throws IOException {
+        requests.add(request.getBodyAsString());
+        String acceptEncoding = request.getHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            return StubResponse.of(SEARCH_RESPONSE);
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(SEARCH_RESPONSE);
+        }
+        return StubResponse.of(compressed.toByteArray()).header("Content-Encoding", "gzip");
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        requests.clear();
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    private ElasticsearchCluster create(boolean streaming, boolean compression) throws IOException {
+        ClusterProperties properties = server.properties();
+        properties.setCompression(compression);
+        properties.getBuffer().setPooled(true);
+        properties.getBuffer().setChunkSize(16 * 1024);
+        properties.getBuffer().setStreaming(streaming);
+        cluster = ElasticsearchClientFactory.create("default", properties);
+        return cluster;
+    }
+
+    private SearchResponse search(RequestOptions options) throws IOException {
+        return cluster.getClient().search(new SearchRequest("book"), options);
+    }
+
+    /**
+     * 解析完成后块全部归还,之后的响应复用同一批块
+     */
+    @Test
+    void streamingResponsesReuseChunks() throws Exception {
+        create(true, false);
+        DirectBufferPool pool = cluster.getBufferPool();
+        for (int i = 0; i < 20; i++) {
+            SearchResponse response = search(cluster.getRequestOptions());
+            assertThat(response.getHits().getHits()).hasSize(HITS);
+            assertThat(response.getHits().getAt(HITS - 1).getSourceAsMap()).containsEntry("price", 99);
+            assertThat(pool.getOutstanding()).isZero();
+        }
+        int chunksPerResponse = SEARCH_RESPONSE.length / pool.getChunkSize() + 1;
+        assertThat(pool.getAcquired()).isGreaterThanOrEqualTo(20L * (chunksPerResponse - 1));
+        assertThat(pool.getAllocated()).isLessThanOrEqualTo(chunksPerResponse);
+        assertThat(pool.getPooledBytes()).isEqualTo(pool.getAllocated() * pool.getChunkSize());
+
+        //低级客户端: 读完响应体即归还
+        Request request = new Request("GET", "/book/_search");
+        request.setOptions(cluster.getRequestOptions());
+        Response response = cluster.getClient().getLowLevelClient().performRequest(request);
+        assertThat(pool.getOutstanding()).isPositive();
+        assertThat(EntityUtils.toByteArray(response.getEntity())).isEqualTo(SEARCH_RESPONSE);
+        assertThat(pool.getOutstanding()).isZero();
+    }
+
+    @Test
+    void copyModeAndGzip() throws Exception {
+        create(false, true);
+        for (int i = 0; i < 3; i++) {
+            assertThat(search(cluster.getRequestOptions()).getHits().getHits()).hasSize(HITS);
+        }
+        assertThat(cluster.getBufferPool().getOutstanding()).isZero();
+        //复制模式的响应体可以重复读取
+        Request request = new Request("GET", "/book/_search");
+        request.setOptions(cluster.getRequestOptions());
+        Response response = cluster.getClient().getLowLevelClient().performRequest(request);
+        assertThat(response.getEntity().isRepeatable()).isTrue();
+        assertThat(EntityUtils.toByteArray(response.getEntity())).isEqualTo(SEARCH_RESPONSE);
+    }
+
+    /**
+     * 单个请求可以使用更小的上限,超过时失败并归还已读入的块
+     */
+    @Test
+    void perRequestBufferLimit() throws Exception {
+        create(true, false);
+        PooledResponseConsumerFactory factory = (PooledResponseConsumerFactory) cluster.getRequestOptions()
+                .getHttpAsyncResponseConsumerFactory();
+        assertThat(factory.getBufferLimit()).isEqualTo(100 * 1024 * 1024);
+        RequestOptions.Builder small = cluster.getRequestOptions().toBuilder();
+        small.setHttpAsyncResponseConsumerFactory(factory.withBufferLimit(64 * 1024));
+
+        assertThatThrownBy(() -> search(small.build()))
+                .hasRootCauseInstanceOf(ContentTooLongException.class);
+        assertThat(cluster.getBufferPool().getOutstanding()).isZero();
+        assertThat(search(cluster.getRequestOptions()).getHits().getHits()).hasSize(HITS);
+    }
+
+    @Test
+    void pooledRequestEntity() throws Exception {
+        create(true, false);
+        DirectBufferPool pool = cluster.getBufferPool();
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.matchQuery("description", "java程序员"))
+                .size(HITS);
+        PooledRequestEntity entity = PooledRequestEntity.json(pool, source);
+        try {
+            Request request = new Request("POST", "/book/_search");
+            request.setEntity(entity);
+            request.setOptions(cluster.getRequestOptions());
+            for (int i = 0; i < 2; i++) {
+                Response response = cluster.getClient().getLowLevelClient().performRequest(request);
+                EntityUtils.consume(response.getEntity());
+            }
+        } finally {
+            entity.release();
+        }
+        assertThat(requests).hasSize(2).allMatch(body -> body.equals(Strings.toString(source)));
+        assertThat(pool.getOutstanding()).isZero();
+        assertThatThrownBy(entity::getContent).isInstanceOf(IllegalStateException.class);
+    }
+}
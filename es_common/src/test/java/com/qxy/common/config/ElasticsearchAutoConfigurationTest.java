@@ -0,0 +1,311 @@
+package com.qxy.common.config;
+
+import com.qxy.common.client.ConnectionPoolStats;
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.client.StartupMode;
+import com.qxy.common.metrics.ElasticsearchMeterBinder;
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import com.qxy.common.metrics.MeteredClient;
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/26 9:30
+ * @Introduction: 自动配置测试,es由本地的桩服务器代替;断言完整自动配置的启动耗时和并发请求实际建立的连接数
+ */
+class ElasticsearchAutoConfigurationTest {
+    private static StubElasticsearch server;
+    private static String hostList;
+    /**
+     * 桩服务器看到的客户端端口,即实际建立的连接
+     */
+    private static final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(ElasticsearchAutoConfiguration.class))
+            .withPropertyValues("qxy.elasticsearch.hostList=" + hostList);
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = StubElasticsearch.start(request -> {
+            connections.add(request.getRemotePort());
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return StubResponse.json("{}");
+        });
+        hostList = server.getHostList();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    @BeforeEach
+    void resetConnections() {
+        connections.clear();
+    }
+
+    @Test
+    void createsDefaultAndNamedClusters() {
+        runner.withPropertyValues("qxy.elasticsearch.clusters.read.hostList=" + hostList,
+                "qxy.elasticsearch.clusters.read.maxConnTotal=20").run(context -> {
+            ElasticsearchClients clients = context.getBean(ElasticsearchClients.class);
+            assertThat(clients.getNames()).containsExactly(ElasticsearchClients.DEFAULT, "read");
+            //容器中的客户端是默认集群的,读集群是另一个客户端
+            assertThat(context.getBean(RestHighLevelClient.class)).isSameAs(clients.getClient(ElasticsearchClients.DEFAULT));
+            assertThat(clients.getClient("read")).isNotSameAs(clients.getClient(ElasticsearchClients.DEFAULT));
+            assertThat(context.getBean(RequestOptions.class)).isSameAs(RequestOptions.DEFAULT);
+            //没有开启嗅探: 只有让spring-boot退让的bean定义,没有Sniffer实例
+            assertThat(context.getBeansOfType(Sniffer.class)).isEmpty();
+        });
+    }
+
+    @Test
+    void metricsSharedByAllClustersAndBoundToMicrometer() throws Exception {
+        runner.withPropertyValues("qxy.elasticsearch.clusters.read.hostList=" + hostList).run(context -> {
+            ElasticsearchClients clients = context.getBean(ElasticsearchClients.class);
+            ElasticsearchMetrics metrics = context.getBean(ElasticsearchMetrics.class);
+            assertThat(clients.getCluster("read").getMetrics()).isSameAs(metrics);
+            assertThat(context.getBean(MeteredClient.class).getCluster()).isSameAs(clients.getDefault());
+            assertThat(context).hasSingleBean(ElasticsearchMeterBinder.class);
+            assertThat(ManagementFactory.getPlatformMBeanServer()
+                    .isRegistered(new ObjectName(ElasticsearchMetrics.OBJECT_NAME))).isTrue();
+        });
+        assertThat(ManagementFactory.getPlatformMBeanServer()
+                .isRegistered(new ObjectName(ElasticsearchMetrics.OBJECT_NAME))).isFalse();
+    }
+
+    @Test
+    void compressionAddsAcceptEncoding() {
+        runner.withPropertyValues("qxy.elasticsearch.compression=true").run(context ->
+                assertThat(context.getBean(RequestOptions.class).getHeaders())
+                        .anyMatch(header -> "Accept-Encoding".equals(header.getName())));
+    }
+
+    @Test
+    void backsOffWhenApplicationDefinesClient() {
+        runner.withUserConfiguration(CustomClientConfiguration.class).run(context -> {
+            assertThat(context).hasSingleBean(RestHighLevelClient.class);
+            assertThat(context.getBean(RestHighLevelClient.class))
+                    .isNotSameAs(context.getBean(ElasticsearchClients.class).getClient(ElasticsearchClients.DEFAULT));
+        });
+    }
+
+    @Test
+    void missingHostListFailsStartup() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ElasticsearchAutoConfiguration.class))
+                .run(context -> assertThat(context).hasFailed());
+    }
+
+    @Test
+    void lazyStartupCreatesClientOnFirstUse() {
+        runner.withPropertyValues("qxy.elasticsearch.startup=lazy",
+                "qxy.elasticsearch.clusters.read.hostList=" + hostList).run(context -> {
+            ElasticsearchClients clients = context.getBean(ElasticsearchClients.class);
+            assertThat(clients.getStartupMode()).isEqualTo(StartupMode.LAZY);
+            assertThat(clients.isCreated(ElasticsearchClients.DEFAULT)).isFalse();
+            //注入默认集群的客户端时才创建,命名集群仍然没有创建
+            assertThat(context.getBean(RestHighLevelClient.class)).isSameAs(clients.getClient(ElasticsearchClients.DEFAULT));
+            assertThat(clients.isCreated(ElasticsearchClients.DEFAULT)).isTrue();
+            assertThat(clients.isCreated("read")).isFalse();
+        });
+    }
+
+    @Test
+    void lazyStartupStillValidatesHostList() {
+        runner.withPropertyValues("qxy.elasticsearch.startup=lazy", "qxy.elasticsearch.clusters.read.hostList=localhost")
+                .run(context -> assertThat(context).hasFailed());
+    }
+
+    @Test
+    void backgroundStartupRegistersClientsBeforeRefresh() {
+        runner.withPropertyValues("qxy.elasticsearch.startup=background")
+                .withInitializer(new ElasticsearchStartupInitializer())
+                .run(context -> {
+                    assertThat(context).hasSingleBean(ElasticsearchClients.class);
+                    //由初始化器注册的单例,不是自动配置中的bean定义
+                    assertThat(context.getBeanFactory().containsBeanDefinition(ElasticsearchStartupInitializer.BEAN_NAME)).isFalse();
+                    ElasticsearchClients clients = context.getBean(ElasticsearchClients.class);
+                    assertThat(clients.getStartupMode()).isEqualTo(StartupMode.BACKGROUND);
+                    assertThat(context.getBean(RestHighLevelClient.class)).isSameAs(clients.getClient(ElasticsearchClients.DEFAULT));
+                });
+    }
+
+    /**
+     * 后台创建的客户端随容器关闭,之后不能再获取
+     */
+    @Test
+    void backgroundStartupClosesWithContext() {
+        ElasticsearchClients clients;
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("qxy.elasticsearch.hostList=" + hostList, "qxy.elasticsearch.startup=background")
+                .run()) {
+            clients = context.getBean(ElasticsearchClients.class);
+            assertThat(clients.getStartupMode()).isEqualTo(StartupMode.BACKGROUND);
+            //初始化器通过spring.factories注册
+            assertThat(context.getBeanFactory().containsBeanDefinition(ElasticsearchStartupInitializer.BEAN_NAME)).isFalse();
+            assertThat(clients.getDefault().getClient()).isSameAs(context.getBean(RestHighLevelClient.class));
+        }
+        assertThatThrownBy(clients::getDefault).isInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * 预热在ApplicationRunner中执行,开启failOnError时预热失败则启动失败
+     */
+    @Test
+    void warmupFailureFailsStartupWhenRequired() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("qxy.elasticsearch.hostList=127.0.0.1:" + port,
+                        "qxy.elasticsearch.warmup.enabled=true",
+                        "qxy.elasticsearch.warmup.failOnError=true",
+                        "qxy.elasticsearch.warmup.timeout=3000");
+        assertThatThrownBy(builder::run).hasStackTraceContaining("warm-up of elasticsearch cluster [default] failed");
+    }
+
+    @Test
+    void warmupRunsBeforeApplicationIsReady() {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("qxy.elasticsearch.hostList=" + hostList,
+                        "qxy.elasticsearch.warmup.enabled=true",
+                        "qxy.elasticsearch.warmup.connections=2",
+                        "qxy.elasticsearch.warmup.bulkIndex=",
+                        "qxy.elasticsearch.warmup.pingInterval=60000")
+                .run()) {
+            ElasticsearchWarmup warmup = context.getBean(ElasticsearchWarmup.class);
+            assertThat(warmup.getWarmers()).containsOnlyKeys(ElasticsearchClients.DEFAULT);
+            assertThat(context.getBean(ConnectionPoolStats.class).getPoolStats().getAvailable()).isEqualTo(2);
+            assertThat(context.getBean(ApplicationAvailability.class).getReadinessState())
+                    .isEqualTo(ReadinessState.ACCEPTING_TRAFFIC);
+        }
+    }
+
+    /**
+     * 完整的自动配置启动: spring-boot自带的es客户端配置在之后处理,它的客户端和Sniffer让位,不会对共享客户端创建Sniffer
+     */
+    @Test
+    void startupWithFullAutoConfiguration() {
+        long start = System.nanoTime();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("qxy.elasticsearch.hostList=" + hostList)
+                .run()) {
+            //不连接es、不创建Sniffer,启动在几秒内完成
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(10_000);
+            assertThat(context.getBeansOfType(RestHighLevelClient.class)).hasSize(1);
+            assertThat(context.getBeansOfType(Sniffer.class)).isEmpty();
+            assertThat(context.getBeanNamesForType(Sniffer.class)).containsExactly("elasticsearchSniffer");
+            //启动过程不建立连接
+            assertThat(connections).isEmpty();
+        }
+    }
+
+    /**
+     * 开启嗅探时容器中的Sniffer就是默认集群自己的
+     */
+    @Test
+    void snifferBeanIsTheDefaultClustersOwn() {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("qxy.elasticsearch.hostList=" + hostList, "qxy.elasticsearch.sniff.enabled=true")
+                .run()) {
+            ElasticsearchClients clients = context.getBean(ElasticsearchClients.class);
+            assertThat(context.getBeansOfType(Sniffer.class)).containsOnly(
+                    entry("elasticsearchSniffer", clients.getDefault().getSniffer()));
+        }
+    }
+
+    /**
+     * 并发请求共享同一个连接池,实际建立的连接数不超过maxConnPerRoute
+     */
+    @Test
+    void concurrentRequestsShareBoundedPool() {
+        //排队的请求要等前面的请求归还连接,放宽租借超时,避免机器慢时超时
+        runner.withPropertyValues("qxy.elasticsearch.maxConnPerRoute=4",
+                "qxy.elasticsearch.connectionRequestTimeout=30000").run(context -> {
+            RestClient client = context.getBean(RestHighLevelClient.class).getLowLevelClient();
+            int requests = 64;
+            CountDownLatch latch = new CountDownLatch(requests);
+            for (int i = 0; i < requests; i++) {
+                client.performRequestAsync(new Request("GET", "/"), new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertThat(latch.await(30, TimeUnit.SECONDS)).isTrue();
+            ConnectionPoolStats stats = context.getBean(ConnectionPoolStats.class);
+            assertThat(connections).hasSizeBetween(1, 4);
+            assertThat(stats.getLeaseCount()).isEqualTo(requests);
+            assertThat(stats.getLeaseFailureCount()).isZero();
+            //至少60个请求复用了已建立的连接,排队的请求等待过租借
+            assertThat(stats.getLeaseCount() - connections.size()).isGreaterThanOrEqualTo(requests - 4);
+            assertThat(stats.getMaxLeaseWaitMillis()).isGreaterThanOrEqualTo(stats.getAvgLeaseWaitMillis()).isPositive();
+        });
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @EnableAutoConfiguration
+    static class Application {
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    static class CustomClientConfiguration {
+        @Bean(destroyMethod = "close")
+        RestHighLevelClient customClient() {
+            return new RestHighLevelClient(RestClient.builder(HttpHost.create(hostList)));
+        }
+    }
+}
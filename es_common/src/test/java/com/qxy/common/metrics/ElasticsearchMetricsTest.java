@@ -0,0 +1,269 @@
+package com.qxy.common.metrics;
+
+import com.qxy.common.client.ElasticsearchClientFactory;
+import com.qxy.common.client.ElasticsearchCluster;
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/29 9:30
+ * @Introduction: 客户端指标测试,es由本地的桩服务器代替
+ */
+class ElasticsearchMetricsTest {
+    private static final byte[] SEARCH_RESPONSE = ("{\"took\":7,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":2,\"successful\":1,\"skipped\":0,\"failed\":1,\"failures\":[{\"shard\":1,\"index\":\"book\","
+            + "\"node\":\"n1\",\"reason\":{\"type\":\"node_not_connected_exception\",\"reason\":\"not connected\"}}]},"
+            + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}}")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BULK_RESPONSE = ("{\"took\":3,\"errors\":true,\"items\":["
+            + "{\"index\":{\"_index\":\"book\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\","
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}},"
+            + "{\"index\":{\"_index\":\"book\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":400,"
+            + "\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\"}}}]}")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_RESPONSE = ("{\"_index\":\"book\",\"_type\":\"_doc\",\"_id\":\"404\",\"found\":false}")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERROR_RESPONSE = ("{\"error\":{\"type\":\"search_phase_execution_exception\","
+            + "\"reason\":\"all shards failed\"},\"status\":503}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static StubElasticsearch server;
+    private static final Queue<String> headers = new ConcurrentLinkedQueue<>();
+
+    private ElasticsearchMetrics metrics;
+    private ElasticsearchCluster cluster;
+    private MeteredClient client;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = StubElasticsearch.start(ElasticsearchMetricsTest::handle);
+    }
+
+    private static StubResponse handle(StubRequest request) {
+        String path = request.getPath();
+        headers.addAll(request.getHeaders().keySet());
+        if (path.endsWith("/_bulk")) {
+            return StubResponse.of(BULK_RESPONSE);
+        }
+        if (path.startsWith("/book/_doc/")) {
+            return StubResponse.of(404, NOT_FOUND_RESPONSE);
+        }
+        if (path.startsWith("/broken/")) {
+            return StubResponse.of(503, ERROR_RESPONSE);
+        }
+        return StubResponse.of(SEARCH_RESPONSE);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    @BeforeEach
+    void createClient() throws IOException {
+        headers.clear();
+        metrics = new ElasticsearchMetrics(true, 1000);
+        cluster = ElasticsearchClientFactory.create("default", server.properties(), metrics);
+        client = new MeteredClient(cluster);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        cluster.close();
+        metrics.close();
+    }
+
+    private OperationStats stats(String operation, String index) {
+        return metrics.getOperations().stream()
+                .filter(stats -> stats.getOperation().equals(operation) && stats.getIndex().equals(index))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no metrics for " + operation + "/" + index + ": " + metrics.getOperations()));
+    }
+
+    @Test
+    void classifiesRequestsByPath() {
+        assertThat(RequestClassifier.classify("POST", "/book/_search?typed_keys=true")).containsExactly("search", "book");
+        assertThat(RequestClassifier.classify("POST", "/book,news/_search")).containsExactly("search", "book,news");
+        assertThat(RequestClassifier.classify("POST", "/_search/scroll")).containsExactly("scroll", "_all");
+        assertThat(RequestClassifier.classify("DELETE", "/_search/scroll")).containsExactly("clear_scroll", "_all");
+        assertThat(RequestClassifier.classify("GET", "/book/_doc/1")).containsExactly("get", "book");
+        assertThat(RequestClassifier.classify("PUT", "/book/_doc/1")).containsExactly("index", "book");
+        assertThat(RequestClassifier.classify("POST", "/book/_doc")).containsExactly("index", "book");
+        assertThat(RequestClassifier.classify("DELETE", "/book/_doc/1")).containsExactly("delete", "book");
+        assertThat(RequestClassifier.classify("POST", "/book/_update/1")).containsExactly("update", "book");
+        assertThat(RequestClassifier.classify("POST", "/_bulk")).containsExactly("bulk", "_all");
+        assertThat(RequestClassifier.classify("PUT", "/book")).containsExactly("create_index", "book");
+        assertThat(RequestClassifier.classify("GET", "/_cluster/health")).containsExactly("admin", "_all");
+        assertThat(RequestClassifier.classify("HEAD", "/")).containsExactly("ping", "_all");
+        assertThat(RequestClassifier.classify("GET", "http://127.0.0.1:9200/book/_count")).containsExactly("count", "book");
+    }
+
+    /**
+     * http层和门面的指标记在同一个(集群, 操作, 索引)上
+     */
+    @Test
+    void recordsLatencyTookAndFailures() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            client.search(new SearchRequest("book").source(new SearchSourceBuilder().query(QueryBuilders.matchAllQuery())));
+        }
+        client.search(new SearchRequest("book").source(new SearchSourceBuilder()
+                .aggregation(AggregationBuilders.terms("by_name").field("name"))));
+        client.bulk(new BulkRequest()
+                .add(new IndexRequest("book").id("1").source("{\"name\":\"java\"}", XContentType.JSON))
+                .add(new IndexRequest("book").id("2").source("{\"name\":1}", XContentType.JSON)));
+        assertThat(client.get(new GetRequest("book", "404")).isExists()).isFalse();
+
+        OperationStats search = stats("search", "book");
+        assertThat(search.getRequests()).isEqualTo(3);
+        assertThat(search.getCalls()).isEqualTo(3);
+        assertThat(search.getTookP50()).isEqualTo(7);
+        assertThat(search.getShardFailures()).isEqualTo(3);
+        assertThat(search.getRequestBytes()).isPositive();
+        assertThat(search.getResponseBytes()).isEqualTo(3L * SEARCH_RESPONSE.length);
+        assertThat(search.getLatencyP99()).isGreaterThan(0).isGreaterThanOrEqualTo(search.getLatencyP50());
+        assertThat(search.getCallP50()).isGreaterThanOrEqualTo(search.getLatencyP50());
+
+        //带聚合的查询单独统计,操作请求头不会发送到服务端
+        OperationStats aggregation = stats("aggregation", "book");
+        assertThat(aggregation.getRequests()).isEqualTo(1);
+        assertThat(aggregation.getCalls()).isEqualTo(1);
+        assertThat(headers).noneMatch(header -> header.equalsIgnoreCase(ElasticsearchMetrics.OPERATION_HEADER));
+
+        OperationStats bulk = stats("bulk", "_all");
+        assertThat(bulk.getBulkItemFailures()).isEqualTo(1);
+        assertThat(bulk.getTookP50()).isEqualTo(3);
+        assertThat(bulk.getErrors()).isZero();
+
+        //不存在的文档不算错误
+        OperationStats get = stats("get", "book");
+        assertThat(get.getRequests()).isEqualTo(1);
+        assertThat(get.getErrors()).isZero();
+
+        assertThat(metrics.getPoolWaits()).singleElement()
+                .satisfies(poolWait -> assertThat(poolWait.getLeases()).isEqualTo(6));
+
+        metrics.reset();
+        assertThat(stats("search", "book").getRequests()).isZero();
+    }
+
+    @Test
+    void recordsErrorResponses() {
+        assertThatThrownBy(() -> client.search(new SearchRequest("broken")))
+                .isInstanceOf(ElasticsearchStatusException.class);
+        OperationStats search = stats("search", "broken");
+        //错误只由响应拦截器记一次
+        assertThat(search.getErrors()).isEqualTo(1);
+        assertThat(search.getCalls()).isEqualTo(1);
+    }
+
+    /**
+     * 直接使用RestHighLevelClient的查询也按指纹统计
+     */
+    @Test
+    void fingerprintsQueriesFromHttpLayer() throws Exception {
+        SlowQueryLog slowQueryLog = new SlowQueryLog(0, 10, 2000);
+        ElasticsearchMetrics withSlowLog = new ElasticsearchMetrics(true, 1000, slowQueryLog);
+        try (ElasticsearchCluster slowLogCluster = ElasticsearchClientFactory.create("default", server.properties(), withSlowLog)) {
+            for (String text : new String[]{"java", "spring", "elasticsearch"}) {
+                slowLogCluster.getClient().search(new SearchRequest("book").source(new SearchSourceBuilder()
+                        .query(QueryBuilders.matchQuery("description", text))), cluster.getRequestOptions());
+            }
+            slowLogCluster.getClient().bulk(new BulkRequest()
+                    .add(new IndexRequest("book").id("1").source("{\"name\":\"java\"}", XContentType.JSON)),
+                    cluster.getRequestOptions());
+        }
+        //指纹在慢查询日志的后台线程上计算
+        assertThat(slowQueryLog.awaitSubmitted(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(withSlowLog.getQueryShapes()).singleElement().satisfies(shape -> {
+            assertThat(shape.getIndex()).isEqualTo("book");
+            assertThat(shape.getCount()).isEqualTo(3);
+            assertThat(shape.getSlowCount()).isEqualTo(3);
+            assertThat(shape.getShape()).contains("\"match\":{\"description\":{\"query\":?");
+        });
+        assertThat(withSlowLog.dumpQueryShapes(10)).contains("search", "book");
+        assertThat(slowQueryLog.getDropped()).isZero();
+        withSlowLog.close();
+    }
+
+    @Test
+    void limitsNumberOfKeys() {
+        ElasticsearchMetrics limited = new ElasticsearchMetrics(true, 2);
+        limited.operation("default", "search", "logs-2023.03.27");
+        limited.operation("default", "search", "logs-2023.03.28");
+        OperationMetrics overflow = limited.operation("default", "search", "logs-2023.03.29");
+        assertThat(overflow.getKey().getIndex()).isEqualTo(ElasticsearchMetrics.OTHER_INDEX);
+        assertThat(limited.operation("default", "search", "logs-2023.03.28").getKey().getIndex()).isEqualTo("logs-2023.03.28");
+    }
+
+    @Test
+    void bindsToMicrometer() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        //绑定前已有的维度和之后新出现的维度都会注册
+        client.search(new SearchRequest("book"));
+        new ElasticsearchMeterBinder(metrics).bindTo(registry);
+        client.search(new SearchRequest("news"));
+
+        for (String index : new String[]{"book", "news"}) {
+            FunctionTimer requests = registry.get("es.client.requests").tag("operation", "search").tag("index", index).functionTimer();
+            assertThat(requests.count()).isEqualTo(1);
+            assertThat(requests.totalTime(TimeUnit.MICROSECONDS)).isPositive();
+            assertThat(registry.get("es.client.took").tag("index", index).functionTimer().totalTime(TimeUnit.MILLISECONDS))
+                    .isEqualTo(7);
+            assertThat(registry.get("es.client.shard.failures").tag("index", index).functionCounter().count()).isEqualTo(1);
+        }
+        TimeGauge p99 = registry.get("es.client.requests.percentile").tag("index", "book").tag("phi", "0.99").timeGauge();
+        assertThat(p99.value(TimeUnit.MICROSECONDS)).isPositive();
+        assertThat(registry.get("es.client.pool.wait").tag("cluster", "default").functionTimer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void exportsToJmx() throws Exception {
+        client.search(new SearchRequest("book"));
+        metrics.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ElasticsearchMetrics.OBJECT_NAME);
+
+        CompositeData[] operations = (CompositeData[]) server.getAttribute(name, "Operations");
+        assertThat(operations).hasSize(1);
+        assertThat(operations[0].get("operation")).isEqualTo("search");
+        assertThat(operations[0].get("requests")).isEqualTo(1L);
+        server.invoke(name, "reset", null, null);
+        assertThat(metrics.getOperations()).singleElement()
+                .satisfies(stats -> assertThat(stats.getRequests()).isZero());
+
+        metrics.close();
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+}
@@ -0,0 +1,160 @@
+package com.qxy.common.metrics;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/30 9:30
+ * @Introduction: 查询指纹和慢查询统计测试
+ */
+class SlowQueryLogTest {
+
+    /**
+     * 与SearchManageTest.testSearchFilter/testSearchSort相同结构的查询
+     */
+    private static SearchSourceBuilder filterQuery(String text, int gte, int lte) {
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
+        boolQueryBuilder.must(QueryBuilders.multiMatchQuery(text, "name", "description"));
+        boolQueryBuilder.filter(QueryBuilders.rangeQuery("price").gte(gte).lte(lte));
+        return new SearchSourceBuilder().query(boolQueryBuilder).sort("price", SortOrder.DESC);
+    }
+
+    private static byte[] bytes(SearchSourceBuilder source) {
+        return source.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void fingerprintStripsLiterals() {
+        String shape = QueryFingerprint.normalize(filterQuery("java程序员", 60, 100).toString());
+        assertThat(shape).isEqualTo(QueryFingerprint.normalize(filterQuery("spring", 50, 90).toString()))
+                .doesNotContain("java", "60", "100", "desc")
+                .contains("\"multi_match\":{\"query\":?,\"fields\":[?]", "\"range\":{\"price\":{\"from\":?,\"to\":?");
+        //结构不同是不同的指纹
+        assertThat(shape).isNotEqualTo(QueryFingerprint.normalize(new SearchSourceBuilder()
+                .query(QueryBuilders.matchQuery("description", "java程序员")).toString()));
+        //只含字面量的数组折叠,长度不影响指纹
+        assertThat(QueryFingerprint.normalize("{\"query\":{\"terms\":{\"tag\":[\"a\",\"b\",\"c\"]}}}"))
+                .isEqualTo(QueryFingerprint.normalize("{\"query\":{\"terms\":{\"tag\":[\"d\"]}}}"))
+                .isEqualTo("{\"query\":{\"terms\":{\"tag\":[?]}}}");
+        assertThat(QueryFingerprint.normalize((byte[]) null)).isEqualTo("{}");
+    }
+
+    @Test
+    void aggregatesByFingerprintAndLogsSlowQueries() {
+        SlowQueryLog slowQueryLog = new SlowQueryLog(100, 10, 80);
+        for (int i = 0; i < 99; i++) {
+            slowQueryLog.record("default", "search", "book", bytes(filterQuery("java" + i, i, i + 10)),
+                    TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        slowQueryLog.record("default", "search", "book", bytes(filterQuery("slow", 0, 1)), TimeUnit.MILLISECONDS.toNanos(500));
+        slowQueryLog.record("default", "search", "book", null, TimeUnit.MILLISECONDS.toNanos(1));
+
+        List<QueryShapeStats> top = slowQueryLog.top(10);
+        assertThat(top).hasSize(2);
+        QueryShapeStats worst = top.get(0);
+        assertThat(worst.getCount()).isEqualTo(100);
+        assertThat(worst.getSlowCount()).isEqualTo(1);
+        assertThat(worst.getP50()).isBetween(9.9, 10.1);
+        assertThat(worst.getP99()).isBetween(9.9, 10.1);
+        assertThat(worst.getMax()).isBetween(495.0, 505.0);
+        assertThat(worst.getErrorMillis()).isZero();
+        //样本是最慢的一次,按maxSourceChars截断
+        assertThat(worst.getSlowestSource()).contains("slow").hasSize(83);
+        assertThat(top.get(1).getShape()).isEqualTo("{}");
+
+        String[] dump = slowQueryLog.dump(10).split("\n");
+        assertThat(dump).hasSize(3);
+        assertThat(dump[0].split("\\s+")).containsExactly("fingerprint", "cluster", "operation", "index", "count",
+                "slow", "totalMs", "p50Ms", "p99Ms", "maxMs", "shape");
+        //按累计耗时排序,每行: 指纹、集群、操作、索引、次数、慢查询次数、耗时和形状
+        String[] row = dump[1].split("\\s+", 11);
+        assertThat(row[0]).isEqualTo(worst.getId()).hasSize(16);
+        assertThat(row).startsWith(worst.getId(), "default", "search", "book", "100", "1");
+        assertThat(Double.parseDouble(row[6])).isEqualTo(worst.getTotalMillis(), within(0.1));
+        assertThat(Double.parseDouble(row[9])).isEqualTo(worst.getMax(), within(0.01));
+        assertThat(row[10]).isEqualTo(worst.getShape());
+        assertThat(dump[2].split("\\s+", 11)).startsWith(top.get(1).getId(), "default", "search", "book", "1", "0")
+                .endsWith("{}");
+    }
+
+    /**
+     * 超过topK时淘汰累计耗时最少的指纹,新指纹继承它的累计耗时
+     */
+    @Test
+    void keepsTopKByTotalTime() {
+        SlowQueryLog slowQueryLog = new SlowQueryLog(-1, 2, 100);
+        String a = "{\"query\":{\"match\":{\"name\":\"a\"}}}";
+        String b = "{\"query\":{\"term\":{\"name\":\"b\"}}}";
+        String c = "{\"query\":{\"prefix\":{\"name\":\"c\"}}}";
+        for (int i = 0; i < 3; i++) {
+            slowQueryLog.record("default", "search", "book", a.getBytes(StandardCharsets.UTF_8), TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        slowQueryLog.record("default", "search", "book", b.getBytes(StandardCharsets.UTF_8), TimeUnit.MILLISECONDS.toNanos(10));
+        slowQueryLog.record("default", "search", "book", c.getBytes(StandardCharsets.UTF_8), TimeUnit.MILLISECONDS.toNanos(5));
+
+        List<QueryShapeStats> top = slowQueryLog.top(10);
+        assertThat(top).extracting(QueryShapeStats::getShape)
+                .containsExactly(QueryFingerprint.normalize(a), QueryFingerprint.normalize(c));
+        assertThat(top.get(1).getErrorMillis()).isEqualTo(10.0);
+        assertThat(top.get(1).getTotalMillis()).isEqualTo(15.0);
+        assertThat(top.get(1).getSlowCount()).isZero();
+    }
+
+    /**
+     * 请求体在后台线程上读取;后台线程忙、队列满时丢弃并计数,提交方不等待
+     */
+    @Test
+    void submitRecordsOnBackgroundThreadAndDropsWhenQueueIsFull() throws Exception {
+        SlowQueryLog slowQueryLog = new SlowQueryLog(-1, 10, 100, 1);
+        String query = "{\"query\":{\"match\":{\"name\":\"a\"}}}";
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Set<String> readers = ConcurrentHashMap.newKeySet();
+        ByteArrayEntity blocking = new ByteArrayEntity(query.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public InputStream getContent() {
+                readers.add(Thread.currentThread().getName());
+                reading.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getContent();
+            }
+        };
+        try {
+            slowQueryLog.submit("default", "search", "book", blocking, TimeUnit.MILLISECONDS.toNanos(10));
+            assertThat(reading.await(10, TimeUnit.SECONDS)).isTrue();
+            slowQueryLog.submit("default", "search", "book", null, TimeUnit.MILLISECONDS.toNanos(10));
+            slowQueryLog.submit("default", "search", "book", null, TimeUnit.MILLISECONDS.toNanos(10));
+            assertThat(slowQueryLog.getDropped()).isEqualTo(1);
+            assertThat(slowQueryLog.size()).isZero();
+
+            release.countDown();
+            assertThat(slowQueryLog.awaitSubmitted(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(readers).containsExactly("es-slow-query-log");
+            assertThat(slowQueryLog.top(10)).extracting(QueryShapeStats::getShape)
+                    .containsExactlyInAnyOrder(QueryFingerprint.normalize(query), QueryFingerprint.normalize((byte[]) null));
+        } finally {
+            release.countDown();
+            slowQueryLog.close();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.qxy.common.stub;
+
+import com.qxy.common.config.ClusterProperties;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/10 9:30
+ * @Introduction: 各模块测试共用的es桩服务器,基于jdk自带的com.sun HttpServer,由Handler按请求返回固定的响应
+ * <p>
+ * 1、请求体在调用Handler前读完,Handler只处理StubRequest;响应默认为application/json,HEAD请求不写响应体
+ * 2、其他模块通过es_common的test-jar使用(test范围的依赖,type为test-jar)
+ * 3、关闭Nagle算法: 响应头和响应体分两次写出,否则每次请求都会多出约40ms的延迟确认
+ */
+public final class StubElasticsearch implements Closeable {
+    static {
+        //HttpServer的配置在类加载时读取,需要在创建第一个服务器之前设置
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private StubElasticsearch(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * 每个请求一个线程(缓存线程池),Handler可以阻塞
+     */
+    public static StubElasticsearch start(Handler handler) throws IOException {
+        return start(handler, Executors.newCachedThreadPool(), 0);
+    }
+
+    /**
+     * 固定线程数,用于基准测试: 连接积压队列加大到1024,避免高并发时拒绝连接
+     */
+    public static StubElasticsearch start(Handler handler, int threads) throws IOException {
+        return start(handler, Executors.newFixedThreadPool(threads), 1024);
+    }
+
+    private static StubElasticsearch start(Handler handler, ExecutorService executor, int backlog) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), backlog);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> handle(exchange, handler));
+        server.start();
+        return new StubElasticsearch(server, executor);
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            StubResponse response = handler.handle(new StubRequest(exchange, readBody(exchange)));
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            response.headers.forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(response.status, -1);
+            } else {
+                exchange.sendResponseHeaders(response.status, response.body.length);
+                exchange.getResponseBody().write(response.body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return ClusterProperties.hostList格式的地址
+     */
+    public String getHostList() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    /**
+     * @return 只设置了hostList的集群配置
+     */
+    public ClusterProperties properties() {
+        ClusterProperties properties = new ClusterProperties();
+        properties.setHostList(getHostList());
+        return properties;
+    }
+
+    /**
+     * @return 连接到桩服务器的默认配置客户端,由调用方关闭
+     */
+    public RestHighLevelClient newClient() {
+        return new RestHighLevelClient(RestClient.builder(new HttpHost("127.0.0.1", getPort())));
+    }
+
+    /**
+     * 停止服务器和它的线程池(固定线程池不是守护线程,不关闭时main结束后进程不会退出)
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        StubResponse handle(StubRequest request) throws IOException;
+    }
+
+    /**
+     * 一次请求,请求体已经读完
+     */
+    public static final class StubRequest {
+        private final HttpExchange exchange;
+        private final byte[] body;
+
+        private StubRequest(HttpExchange exchange, byte[] body) {
+            this.exchange = exchange;
+            this.body = body;
+        }
+
+        public String getMethod() {
+            return exchange.getRequestMethod();
+        }
+
+        /**
+         * @return 解码后的路径,例如 /book/_doc/1
+         */
+        public String getPath() {
+            return exchange.getRequestURI().getPath();
+        }
+
+        /**
+         * @return 查询字符串,没有时为null
+         */
+        public String getQuery() {
+            return exchange.getRequestURI().getQuery();
+        }
+
+        /**
+         * @return 路径加查询字符串
+         */
+        public String getUri() {
+            return exchange.getRequestURI().toString();
+        }
+
+        public Headers getHeaders() {
+            return exchange.getRequestHeaders();
+        }
+
+        /**
+         * @return 客户端的端口,同一个连接上的请求相同,用来统计连接数
+         */
+        public int getRemotePort() {
+            return exchange.getRemoteAddress().getPort();
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getBodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 桩服务器的响应,默认状态码200
+     */
+    public static final class StubResponse {
+        private final int status;
+        private final byte[] body;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+
+        private StubResponse(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public static StubResponse json(String body) {
+            return json(200, body);
+        }
+
+        public static StubResponse json(int status, String body) {
+            return new StubResponse(status, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public static StubResponse of(byte[] body) {
+            return of(200, body);
+        }
+
+        public static StubResponse of(int status, byte[] body) {
+            return new StubResponse(status, body);
+        }
+
+        public StubResponse header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+}
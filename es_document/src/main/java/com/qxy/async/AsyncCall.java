@@ -0,0 +1,15 @@
+package com.qxy.async;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.RequestOptions;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/23 9:40
+ * @Introduction: 一次异步调用,对应RestHighLevelClient的xxxAsync方法,例如
+ * (options, listener) -> client.getAsync(request, options, listener)
+ */
+@FunctionalInterface
+public interface AsyncCall<R> {
+    void execute(RequestOptions options, ActionListener<R> listener);
+}
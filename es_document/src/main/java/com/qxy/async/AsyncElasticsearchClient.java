@@ -0,0 +1,227 @@
+package com.qxy.async;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.CreateIndexResponse;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/23 9:40
+ * @Introduction: 返回CompletableFuture的异步客户端,替代匿名ActionListener + Thread.sleep的写法
+ * <p>
+ * 1、请求线程只负责发出请求,响应由I/O线程回调,不为每个请求占用一个线程
+ * 2、结果在callbackExecutor上完成,后续的thenApply/thenCompose不会跑在I/O线程上阻塞其他请求
+ * 3、超时或cancel后future立即结束;7.3的xxxAsync方法不返回Cancellable,底层请求会继续执行到socketTimeout
+ * 4、allOf把多个请求组合为一个future,任一失败时整体失败
+ */
+public class AsyncElasticsearchClient implements Closeable {
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final Executor callbackExecutor;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService timer;
+
+    private AsyncElasticsearchClient(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.callbackExecutor = builder.callbackExecutor;
+        this.timeoutMillis = builder.timeout.millis();
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "es-async-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //请求正常完成时取消超时任务,及时从队列中移除
+        timer.setRemoveOnCancelPolicy(true);
+        this.timer = timer;
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    public CompletableFuture<GetResponse> get(GetRequest request) {
+        return execute((options, listener) -> client.getAsync(request, options, listener));
+    }
+
+    public CompletableFuture<MultiGetResponse> mget(MultiGetRequest request) {
+        return execute((options, listener) -> client.mgetAsync(request, options, listener));
+    }
+
+    public CompletableFuture<Boolean> exists(GetRequest request) {
+        return execute((options, listener) -> client.existsAsync(request, options, listener));
+    }
+
+    public CompletableFuture<IndexResponse> index(IndexRequest request) {
+        return execute((options, listener) -> client.indexAsync(request, options, listener));
+    }
+
+    public CompletableFuture<UpdateResponse> update(UpdateRequest request) {
+        return execute((options, listener) -> client.updateAsync(request, options, listener));
+    }
+
+    public CompletableFuture<DeleteResponse> delete(DeleteRequest request) {
+        return execute((options, listener) -> client.deleteAsync(request, options, listener));
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        return execute((options, listener) -> client.searchAsync(request, options, listener));
+    }
+
+    public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        return execute((options, listener) -> client.bulkAsync(request, options, listener));
+    }
+
+    public CompletableFuture<CreateIndexResponse> createIndex(CreateIndexRequest request) {
+        return execute((options, listener) -> client.indices().createAsync(request, options, listener));
+    }
+
+    public CompletableFuture<AcknowledgedResponse> deleteIndex(DeleteIndexRequest request) {
+        return execute((options, listener) -> client.indices().deleteAsync(request, options, listener));
+    }
+
+    public CompletableFuture<Boolean> existsIndex(GetIndexRequest request) {
+        return execute((options, listener) -> client.indices().existsAsync(request, options, listener));
+    }
+
+    public CompletableFuture<RefreshResponse> refresh(RefreshRequest request) {
+        return execute((options, listener) -> client.indices().refreshAsync(request, options, listener));
+    }
+
+    /**
+     * 使用默认超时执行任意异步调用
+     */
+    public <R> CompletableFuture<R> execute(AsyncCall<R> call) {
+        return execute(call, timeoutMillis);
+    }
+
+    /**
+     * 执行任意异步调用
+     *
+     * @param call          异步调用
+     * @param timeoutMillis 超时时间,小于等于0表示不超时;超时后future以TimeoutException结束
+     */
+    public <R> CompletableFuture<R> execute(AsyncCall<R> call, long timeoutMillis) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timeout = timer.schedule(() -> future.completeExceptionally(
+                    new TimeoutException("elasticsearch request timed out after " + timeoutMillis + "ms")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            future.whenComplete((r, e) -> timeout.cancel(false));
+        }
+        try {
+            call.execute(options, new ActionListener<R>() {
+                @Override
+                public void onResponse(R response) {
+                    complete(() -> future.complete(response), future);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    complete(() -> future.completeExceptionally(e), future);
+                }
+            });
+        } catch (RuntimeException e) {
+            //请求转换失败(例如校验不通过)时直接抛出,而不是回调
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void complete(Runnable completion, CompletableFuture<?> future) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 等待全部完成,结果顺序与传入顺序一致;任一失败时整体以该异常结束
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<T> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private Executor callbackExecutor = ForkJoinPool.commonPool();
+        private TimeValue timeout = TimeValue.timeValueSeconds(30);
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder options(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 完成future(以及执行非async的后续阶段)的线程池,默认ForkJoinPool.commonPool()
+         */
+        public Builder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * 默认超时时间,TimeValue.MINUS_ONE表示不超时
+         */
+        public Builder timeout(TimeValue timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public AsyncElasticsearchClient build() {
+            return new AsyncElasticsearchClient(this);
+        }
+    }
+}
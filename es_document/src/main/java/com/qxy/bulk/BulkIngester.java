@@ -0,0 +1,473 @@
+package com.qxy.bulk;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/18 14:30
+ * @Introduction: 批量写入组件,多线程并发提交IndexRequest/UpdateRequest/DeleteRequest
+ * <p>
+ * 1、按条数、字节数、存活时间三个条件触发flush
+ * 2、最多同时有concurrentRequests个bulk请求在执行,超过时提交线程阻塞(背压)
+ * 3、批次大小根据服务端耗时和429拒绝自适应调整: 顺利时线性增加,超时或被拒绝时成倍缩小
+ * 4、只重试被拒绝(429)的条目,按指数退避
+ */
+@Slf4j
+public class BulkIngester implements Closeable {
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final int minActions;
+    private final int maxActions;
+    private final long maxBytes;
+    private final long targetLatencyMillis;
+    private final TimeValue retryInitialDelay;
+    private final int maxRetries;
+
+    /**
+     * 当前批次大小,由服务端反馈调整
+     */
+    private final AtomicInteger batchActions;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService scheduler;
+    /**
+     * 还没有结束的批次: 在途的,以及等待重试的;awaitClose等它归零后才关闭调度器
+     */
+    private final AtomicInteger outstanding = new AtomicInteger();
+    /**
+     * 已调度、还没开始执行的重试,关闭超时时按失败计数
+     */
+    private final Set<BulkRequest> scheduledRetries = ConcurrentHashMap.newKeySet();
+
+    private BulkRequest pending = new BulkRequest();
+    private volatile boolean closed;
+
+    private final LongAdder docs = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failedDocs = new LongAdder();
+    private final LongAdder retriedDocs = new LongAdder();
+    private final LongAdder rejectedBulks = new LongAdder();
+    private volatile double docsPerSecond;
+    private volatile double bytesPerSecond;
+    private long lastRateDocs;
+    private long lastRateBytes;
+    private long lastRateNanos = System.nanoTime();
+
+    private BulkIngester(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.minActions = builder.minActions;
+        this.maxActions = builder.maxActions;
+        this.maxBytes = builder.maxBytes;
+        this.targetLatencyMillis = builder.targetLatency.millis();
+        this.retryInitialDelay = builder.retryInitialDelay;
+        this.maxRetries = builder.maxRetries;
+        this.batchActions = new AtomicInteger(Math.max(minActions, Math.min(maxActions, builder.initialActions)));
+        this.inFlight = new Semaphore(builder.concurrentRequests);
+        AtomicInteger threads = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "bulk-ingester-scheduler-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long flushMillis = builder.flushInterval.millis();
+        scheduler.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::updateRates, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * 提交一条写请求,线程安全;达到批次条数或字节数时立即发送
+     *
+     * @param request IndexRequest/UpdateRequest/DeleteRequest
+     */
+    public void add(DocWriteRequest<?> request) {
+        BulkRequest ready = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("bulk ingester is closed");
+            }
+            pending.add(request);
+            if (pending.numberOfActions() >= batchActions.get() || pending.estimatedSizeInBytes() >= maxBytes) {
+                ready = swap();
+            }
+        }
+        if (ready != null) {
+            execute(ready, null);
+        }
+    }
+
+    /**
+     * 立即发送缓冲区中的请求(定时任务按flushInterval调用)
+     */
+    public void flush() {
+        BulkRequest ready;
+        synchronized (this) {
+            ready = pending.numberOfActions() == 0 ? null : swap();
+        }
+        if (ready != null) {
+            execute(ready, null);
+        }
+    }
+
+    private BulkRequest swap() {
+        BulkRequest ready = pending;
+        pending = new BulkRequest();
+        return ready;
+    }
+
+    /**
+     * @param backoff 为null时是首次发送,否则是重试且携带剩余的退避序列
+     */
+    private void execute(BulkRequest request, Iterator<TimeValue> backoff) {
+        if (backoff == null) {
+            outstanding.incrementAndGet();
+        }
+        try {
+            //超过并发数时阻塞提交线程,形成背压
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedDocs.add(request.numberOfActions());
+            log.error("interrupted while waiting to send bulk of {} actions", request.numberOfActions());
+            finished();
+            return;
+        }
+        long start = System.nanoTime();
+        long size = request.estimatedSizeInBytes();
+        client.bulkAsync(request, options, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                try {
+                    onBulkResponse(request, response, size, System.nanoTime() - start, backoff);
+                } finally {
+                    inFlight.release();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                try {
+                    onBulkFailure(request, e, backoff);
+                } finally {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    private void onBulkResponse(BulkRequest request, BulkResponse response, long size, long elapsedNanos,
+                                Iterator<TimeValue> backoff) {
+        List<DocWriteRequest<?>> requests = request.requests();
+        BulkRequest rejected = new BulkRequest();
+        int succeeded = 0;
+        for (BulkItemResponse item : response) {
+            if (!item.isFailed()) {
+                succeeded++;
+            } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                //只有被拒绝的条目才值得重试,mapping错误之类的重试也不会成功
+                rejected.add(requests.get(item.getItemId()));
+            } else {
+                failedDocs.increment();
+                log.warn("bulk item [{}/{}] failed: {}", item.getIndex(), item.getId(), item.getFailureMessage());
+            }
+        }
+        docs.add(succeeded);
+        bytes.add(size);
+        adapt(elapsedNanos, rejected.numberOfActions() > 0);
+        if (rejected.numberOfActions() > 0) {
+            retry(rejected, backoff);
+        } else {
+            finished();
+        }
+    }
+
+    private void onBulkFailure(BulkRequest request, Exception e, Iterator<TimeValue> backoff) {
+        if (e instanceof ElasticsearchStatusException
+                && ((ElasticsearchStatusException) e).status() == RestStatus.TOO_MANY_REQUESTS) {
+            adapt(0, true);
+            retry(request, backoff);
+            return;
+        }
+        failedDocs.add(request.numberOfActions());
+        log.error("bulk of {} actions failed", request.numberOfActions(), e);
+        finished();
+    }
+
+    /**
+     * 加性增、乘性减: 被拒绝时批次减半,耗时超过目标时缩小1/4,否则每次增加最小批次的大小
+     */
+    private void adapt(long elapsedNanos, boolean rejected) {
+        if (rejected) {
+            rejectedBulks.increment();
+        }
+        batchActions.updateAndGet(current -> {
+            int next;
+            if (rejected) {
+                next = current / 2;
+            } else if (TimeUnit.NANOSECONDS.toMillis(elapsedNanos) > targetLatencyMillis) {
+                next = current - current / 4;
+            } else {
+                next = current + minActions;
+            }
+            return Math.max(minActions, Math.min(maxActions, next));
+        });
+    }
+
+    private void retry(BulkRequest rejected, Iterator<TimeValue> backoff) {
+        Iterator<TimeValue> delays = backoff != null
+                ? backoff
+                : BackoffPolicy.exponentialBackoff(retryInitialDelay, maxRetries).iterator();
+        if (!delays.hasNext()) {
+            failedDocs.add(rejected.numberOfActions());
+            log.error("giving up {} rejected bulk actions after {} retries", rejected.numberOfActions(), maxRetries);
+            finished();
+            return;
+        }
+        scheduledRetries.add(rejected);
+        try {
+            scheduler.schedule(() -> {
+                //关闭超时时已按失败计数的重试不再发送
+                if (scheduledRetries.remove(rejected)) {
+                    execute(rejected, delays);
+                }
+            }, delays.next().millis(), TimeUnit.MILLISECONDS);
+            retriedDocs.add(rejected.numberOfActions());
+        } catch (RejectedExecutionException e) {
+            //awaitClose超时后调度器已关闭,不再重试
+            if (scheduledRetries.remove(rejected)) {
+                failedDocs.add(rejected.numberOfActions());
+                log.error("bulk ingester closed, dropping {} rejected bulk actions", rejected.numberOfActions());
+                finished();
+            }
+        }
+    }
+
+    /**
+     * 一个批次(含它的所有重试)结束
+     */
+    private void finished() {
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (outstanding) {
+                outstanding.notifyAll();
+            }
+        }
+    }
+
+    private synchronized void updateRates() {
+        long now = System.nanoTime();
+        long currentDocs = docs.sum();
+        long currentBytes = bytes.sum();
+        double seconds = (now - lastRateNanos) / 1e9;
+        if (seconds > 0) {
+            docsPerSecond = (currentDocs - lastRateDocs) / seconds;
+            bytesPerSecond = (currentBytes - lastRateBytes) / seconds;
+        }
+        lastRateDocs = currentDocs;
+        lastRateBytes = currentBytes;
+        lastRateNanos = now;
+    }
+
+    /**
+     * 发送剩余请求并等待所有在途请求完成
+     *
+     * @return 是否在超时时间内全部完成
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        BulkRequest ready;
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            closed = true;
+            ready = pending.numberOfActions() == 0 ? null : swap();
+        }
+        if (ready != null) {
+            execute(ready, null);
+        }
+        //先等所有批次结束(包括还在退避中的429重试),再关闭调度器,否则晚到的重试会被调度器拒绝
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (outstanding) {
+            for (long wait; outstanding.get() > 0 && (wait = deadline - System.nanoTime()) > 0; ) {
+                TimeUnit.NANOSECONDS.timedWait(outstanding, wait);
+            }
+        }
+        boolean done = outstanding.get() == 0;
+        scheduler.shutdownNow();
+        //超时: 还没开始的重试不会再发送,按失败计数
+        for (BulkRequest retry : scheduledRetries) {
+            if (scheduledRetries.remove(retry)) {
+                failedDocs.add(retry.numberOfActions());
+                log.error("bulk ingester closed before retrying {} rejected bulk actions", retry.numberOfActions());
+                finished();
+            }
+        }
+        updateRates();
+        return done;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!awaitClose(30, TimeUnit.SECONDS)) {
+                log.warn("bulk ingester closed with requests still in flight");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 当前批次条数
+     */
+    public int getBatchActions() {
+        return batchActions.get();
+    }
+
+    /**
+     * @return 写入成功的文档数
+     */
+    public long getDocs() {
+        return docs.sum();
+    }
+
+    /**
+     * @return 已发送的字节数
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return 最终失败(不可重试或重试耗尽)的文档数
+     */
+    public long getFailedDocs() {
+        return failedDocs.sum();
+    }
+
+    /**
+     * @return 因429被重试的文档数(同一文档多次重试会重复计数)
+     */
+    public long getRetriedDocs() {
+        return retriedDocs.sum();
+    }
+
+    /**
+     * @return 出现429拒绝的bulk请求数
+     */
+    public long getRejectedBulks() {
+        return rejectedBulks.sum();
+    }
+
+    /**
+     * @return 最近一秒的写入速率(文档/秒)
+     */
+    public double getDocsPerSecond() {
+        return docsPerSecond;
+    }
+
+    /**
+     * @return 最近一秒的写入速率(字节/秒)
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private int initialActions = 1000;
+        private int minActions = 100;
+        private int maxActions = 10000;
+        private long maxBytes = 5 * 1024 * 1024;
+        private TimeValue flushInterval = TimeValue.timeValueSeconds(1);
+        private int concurrentRequests = 2;
+        private TimeValue targetLatency = TimeValue.timeValueMillis(500);
+        private TimeValue retryInitialDelay = TimeValue.timeValueMillis(100);
+        private int maxRetries = 5;
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder options(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 批次条数的初始值与上下限
+         */
+        public Builder actions(int initial, int min, int max) {
+            if (min <= 0 || max < min) {
+                throw new IllegalArgumentException("invalid bulk actions range [" + min + ", " + max + "]");
+            }
+            this.initialActions = initial;
+            this.minActions = min;
+            this.maxActions = max;
+            return this;
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder flushInterval(TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder concurrentRequests(int concurrentRequests) {
+            if (concurrentRequests <= 0) {
+                throw new IllegalArgumentException("concurrentRequests must be positive");
+            }
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        /**
+         * 单个bulk请求的目标耗时,超过后缩小批次
+         */
+        public Builder targetLatency(TimeValue targetLatency) {
+            this.targetLatency = targetLatency;
+            return this;
+        }
+
+        public Builder retry(TimeValue initialDelay, int maxRetries) {
+            this.retryInitialDelay = initialDelay;
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public BulkIngester build() {
+            return new BulkIngester(this);
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package com.qxy.cache;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/2 9:30
+ * @Introduction: 按id读取文档的进程内近端缓存,放在RestHighLevelClient.get前面,用于热点的参考数据
+ * <p>
+ * 1、key是响应中实际的索引(_index)、routing和id,条目记录文档的版本;请求指定了版本时只有版本相同才命中
+ * 2、通过别名读写时,按响应记住别名对应的索引,之后通过别名或索引名读写的是同一个条目;第一次通过别名读取的结果不放入缓存
+ * 3、条目只保存_source的JSON字节,不保存解析后的Map,命中时每个调用方得到自己的副本;LRU淘汰,同时受条目数和字节数限制
+ * 4、通过这个类执行的index/update/delete/bulk会在请求前后失效对应条目;index和带_source返回的update
+ * 直接用新版本刷新条目(refreshOnWrite),请求带ingest pipeline时只失效
+ * 5、其他进程的写入感知不到,由ttl兜底: 条目最多在ttl内返回旧数据;别名切换到其他索引后同理
+ * 6、_source过滤在命中时对缓存的完整_source进行;不存在的文档、stored_fields、realtime(false)的请求不走缓存
+ * <p>
+ * 读请求未命中时在锁外查询,查询期间如果同一个key被写入失效,结果不放入缓存,避免旧版本覆盖失效;
+ * 写入后的刷新同理: 从写入前失效到放入缓存之间有其他失效(例如并发的delete)时只失效不刷新
+ */
+public class DocumentCache {
+    /**
+     * 失效记录的分段数,每段记录失效的次数
+     */
+    private static final int STRIPES = 256;
+    /**
+     * 每个条目除_source外的估算开销
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final boolean refreshOnWrite;
+
+    /**
+     * accessOrder为true的LinkedHashMap即LRU,所有访问在synchronized(entries)内
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    /**
+     * 请求中的别名 -> 响应中的索引,只记录两者不同的
+     */
+    private final Map<String, String> aliases = new ConcurrentHashMap<>();
+
+    private final AtomicLongArray invalidated = new AtomicLongArray(STRIPES);
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+
+    private DocumentCache(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.maxEntries = builder.maxEntries;
+        this.maxBytes = builder.maxBytes;
+        this.ttlNanos = builder.ttl.nanos();
+        this.refreshOnWrite = builder.refreshOnWrite;
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * 与RestHighLevelClient.get相同,命中且未过期时由缓存的_source构造响应
+     *
+     * @param request get请求
+     * @return get结果
+     * @throws IOException IOException
+     */
+    public GetResponse get(GetRequest request) throws IOException {
+        if (request.storedFields() != null || !request.realtime() || request.refresh()) {
+            return client.get(request, options);
+        }
+        String key = key(resolve(request.index()), request.routing(), request.id());
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && now - entry.createdNanos >= ttlNanos) {
+                remove(key, entry);
+                expiredCount.increment();
+                entry = null;
+            }
+        }
+        if (entry != null && (request.version() == Versions.MATCH_ANY || request.version() == entry.version)) {
+            hitCount.increment();
+            return entry.toResponse(request.id(), request.fetchSourceContext());
+        }
+        missCount.increment();
+        long started = invalidated.get(stripe(key));
+        //只有获取完整_source的请求才能放入缓存
+        FetchSourceContext source = request.fetchSourceContext();
+        boolean full = source == null || (source.fetchSource() && source.includes().length == 0 && source.excludes().length == 0);
+        GetResponse response = client.get(request, options);
+        //别名第一次解析出索引时,started是按别名取的,不能用来判断索引上的失效
+        if (key.equals(resolved(request.index(), response.getIndex(), request.routing(), request.id()))
+                && full && response.isExists() && !response.isSourceEmpty()) {
+            put(key, new Entry(response.getIndex(), response.getType(), response.getVersion(), response.getSeqNo(),
+                    response.getPrimaryTerm(), response.getSourceAsBytesRef(), System.nanoTime()), started);
+        }
+        return response;
+    }
+
+    /**
+     * 与RestHighLevelClient.index相同,写入后用请求中的_source和新版本刷新条目
+     */
+    public IndexResponse index(IndexRequest request) throws IOException {
+        //自动生成id时写入前没有其他请求能读写这个文档
+        String key = request.id() == null ? null : key(resolve(request.index()), request.routing(), request.id());
+        long before = invalidate(key);
+        IndexResponse response;
+        long after;
+        try {
+            response = client.index(request, options);
+        } finally {
+            after = invalidate(key);
+        }
+        String written = resolved(request.index(), response.getIndex(), request.routing(), response.getId());
+        if (key != null && !written.equals(key)) {
+            //写入时还不知道别名对应的索引: 只失效
+            invalidate(written);
+            return response;
+        }
+        if (refreshOnWrite && request.getPipeline() == null && (key == null || after == before + 1)) {
+            BytesReference source = request.source();
+            if (request.getContentType() != XContentType.JSON) {
+                source = new BytesArray(XContentHelper.convertToJson(source, false, request.getContentType()));
+            }
+            put(written, new Entry(response.getIndex(), response.getType(), response.getVersion(), response.getSeqNo(),
+                    response.getPrimaryTerm(), source, System.nanoTime()), key == null ? invalidated.get(stripe(written)) : after);
+        }
+        return response;
+    }
+
+    /**
+     * 与RestHighLevelClient.update相同;请求设置了fetchSource时用返回的完整_source刷新条目,否则失效
+     */
+    public UpdateResponse update(UpdateRequest request) throws IOException {
+        String key = key(resolve(request.index()), request.routing(), request.id());
+        long before = invalidate(key);
+        UpdateResponse response;
+        long after;
+        try {
+            response = client.update(request, options);
+        } finally {
+            after = invalidate(key);
+        }
+        String written = resolved(request.index(), response.getIndex(), request.routing(), request.id());
+        if (!written.equals(key)) {
+            invalidate(written);
+            return response;
+        }
+        GetResult result = response.getGetResult();
+        FetchSourceContext source = request.fetchSource();
+        boolean full = source != null && source.fetchSource() && source.includes().length == 0 && source.excludes().length == 0;
+        if (refreshOnWrite && full && result != null && result.isExists() && !result.isSourceEmpty() && after == before + 1) {
+            put(key, new Entry(response.getIndex(), response.getType(), response.getVersion(), response.getSeqNo(),
+                    response.getPrimaryTerm(), result.sourceRef(), System.nanoTime()), after);
+        }
+        return response;
+    }
+
+    public DeleteResponse delete(DeleteRequest request) throws IOException {
+        invalidate(request.index(), request.routing(), request.id());
+        DeleteResponse response = null;
+        try {
+            response = client.delete(request, options);
+            return response;
+        } finally {
+            invalidate(request.index(), request.routing(), request.id());
+            if (response != null) {
+                invalidate(resolved(request.index(), response.getIndex(), request.routing(), request.id()));
+            }
+        }
+    }
+
+    /**
+     * 与RestHighLevelClient.bulk相同,请求前后失效其中的每个文档
+     */
+    public BulkResponse bulk(BulkRequest request) throws IOException {
+        invalidate(request);
+        BulkResponse response = null;
+        try {
+            response = client.bulk(request, options);
+            return response;
+        } finally {
+            invalidate(request);
+            if (response != null) {
+                //响应中的项与请求中的项一一对应,按实际写入的索引再失效一次
+                List<DocWriteRequest<?>> items = request.requests();
+                for (BulkItemResponse item : response.getItems()) {
+                    if (item.getIndex() != null && item.getId() != null) {
+                        DocWriteRequest<?> itemRequest = items.get(item.getItemId());
+                        invalidate(resolved(itemRequest.index(), item.getIndex(), itemRequest.routing(), item.getId()));
+                    }
+                }
+            }
+        }
+    }
+
+    private void invalidate(BulkRequest request) {
+        for (DocWriteRequest<?> item : request.requests()) {
+            if (item.id() != null) {
+                invalidate(item.index(), item.routing(), item.id());
+            }
+        }
+    }
+
+    /**
+     * 失效一个文档,用于绕过这个类写入的场景
+     */
+    public void invalidate(String index, String routing, String id) {
+        if (id != null) {
+            invalidate(key(resolve(index), routing, id));
+        }
+    }
+
+    /**
+     * @return 失效后这个key所在分段的失效次数;key为null时不失效,返回-1
+     */
+    private long invalidate(String key) {
+        if (key == null) {
+            return -1;
+        }
+        //先记录失效,此后完成的读写请求不会再放入旧数据
+        long count = invalidated.incrementAndGet(stripe(key));
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                remove(key, entry);
+                invalidationCount.increment();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+        aliases.clear();
+    }
+
+    /**
+     * 不用旧版本覆盖新版本,并发的写入和读取以版本高的为准
+     *
+     * @param invalidations 得到entry时分段的失效次数,之后又有失效时不放入;在锁内检查,
+     *                      失效先计数再加锁移除,检查之后的失效一定会移除这里放入的条目
+     */
+    private void put(String key, Entry entry, long invalidations) {
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            if (invalidated.get(stripe(key)) != invalidations) {
+                return;
+            }
+            Entry old = entries.get(key);
+            if (old != null && old.version > entry.version) {
+                return;
+            }
+            entries.put(key, entry);
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+            bytes += entry.bytes;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                iterator.remove();
+                bytes -= eldest.bytes;
+                evictionCount.increment();
+            }
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+    }
+
+    /**
+     * @return 已知的别名对应的索引,否则原样返回
+     */
+    private String resolve(String index) {
+        return aliases.getOrDefault(index, index);
+    }
+
+    /**
+     * 记住请求中的名称在响应中对应的索引
+     *
+     * @return 响应中实际文档的key
+     */
+    private String resolved(String requested, String index, String routing, String id) {
+        if (index == null) {
+            index = resolve(requested);
+        } else if (!index.equals(requested)) {
+            aliases.put(requested, index);
+        }
+        return key(index, routing, id);
+    }
+
+    private static String key(String index, String routing, String id) {
+        return index + '|' + (routing == null ? "" : routing) + '|' + id;
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 因本地写入而失效的次数
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    /**
+     * 因超过ttl而失效的次数
+     */
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    public int getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getEstimatedBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentCache{entries=" + getEntries() + ", estimatedBytes=" + getEstimatedBytes()
+                + ", hitRatio=" + String.format("%.3f", getHitRatio()) + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+                + ", invalidations=" + getInvalidationCount() + ", expired=" + getExpiredCount() + '}';
+    }
+
+    private static class Entry {
+        private final String index;
+        private final String type;
+        private final long version;
+        private final long seqNo;
+        private final long primaryTerm;
+        private final byte[] source;
+        private final long createdNanos;
+        private final long bytes;
+
+        private Entry(String index, String type, long version, long seqNo, long primaryTerm, BytesReference source,
+                      long createdNanos) {
+            this.index = index;
+            this.type = type;
+            this.version = version;
+            this.seqNo = seqNo;
+            this.primaryTerm = primaryTerm;
+            this.source = BytesReference.toBytes(source);
+            this.createdNanos = createdNanos;
+            this.bytes = ENTRY_OVERHEAD + this.source.length;
+        }
+
+        /**
+         * 每次命中构造新的响应,_source按请求过滤;不过滤时复制字节,调用方拿到的数组不是缓存中的
+         */
+        private GetResponse toResponse(String id, FetchSourceContext fetchSource) throws IOException {
+            BytesReference sourceRef;
+            if (fetchSource != null && !fetchSource.fetchSource()) {
+                sourceRef = null;
+            } else if (fetchSource != null && (fetchSource.includes().length > 0 || fetchSource.excludes().length > 0)) {
+                Map<String, Object> map = XContentHelper.convertToMap(new BytesArray(source), false, XContentType.JSON).v2();
+                XContentBuilder builder = XContentFactory.jsonBuilder()
+                        .map(XContentMapValues.filter(map, fetchSource.includes(), fetchSource.excludes()));
+                sourceRef = BytesReference.bytes(builder);
+            } else {
+                sourceRef = new BytesArray(source.clone());
+            }
+            return new GetResponse(new GetResult(index, type, id, seqNo, primaryTerm, version, true, sourceRef,
+                    Collections.emptyMap(), Collections.emptyMap()));
+        }
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private int maxEntries = 10000;
+        private long maxBytes = 64 * 1024 * 1024;
+        private TimeValue ttl = TimeValue.timeValueMinutes(1);
+        private boolean refreshOnWrite = true;
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder options(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * _source字节数加每个条目估算开销的上限
+         */
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * 条目的存活时间,也是其他进程写入后可能返回旧数据的最长时间
+         */
+        public Builder ttl(TimeValue ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * 本地写入后是否用新版本刷新条目,为false时只失效;索引配置了default_pipeline时应关闭
+         */
+        public Builder refreshOnWrite(boolean refreshOnWrite) {
+            this.refreshOnWrite = refreshOnWrite;
+            return this;
+        }
+
+        public DocumentCache build() {
+            if (maxEntries <= 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("maxEntries and maxBytes must be positive");
+            }
+            return new DocumentCache(this);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.qxy.config;
+
+import com.qxy.async.AsyncElasticsearchClient;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/23 9:40
+ * @Introduction: 向容器注入返回CompletableFuture的异步客户端
+ */
+@Configuration
+public class AsyncClientConfig {
+    /**
+     * 默认超时时间(毫秒),小于等于0表示不超时
+     */
+    @Value("${qxy.elasticsearch.async.timeout:30000}")
+    private long timeout;
+
+    @Bean(destroyMethod = "close")
+    public AsyncElasticsearchClient asyncElasticsearchClient(RestHighLevelClient client, RequestOptions requestOptions) {
+        return AsyncElasticsearchClient.builder(client)
+                .options(requestOptions)
+                .timeout(TimeValue.timeValueMillis(timeout))
+                .build();
+    }
+}
@@ -0,0 +1,57 @@
+package com.qxy.config;
+
+import com.qxy.bulk.BulkIngester;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/18 14:30
+ * @Introduction: 向容器注入批量写入组件
+ */
+@Configuration
+public class BulkIngesterConfig {
+    @Value("${qxy.elasticsearch.bulk.initialActions:1000}")
+    private int initialActions;
+
+    @Value("${qxy.elasticsearch.bulk.minActions:100}")
+    private int minActions;
+
+    @Value("${qxy.elasticsearch.bulk.maxActions:10000}")
+    private int maxActions;
+
+    @Value("${qxy.elasticsearch.bulk.maxBytes:5242880}")
+    private long maxBytes;
+
+    @Value("${qxy.elasticsearch.bulk.flushInterval:1000}")
+    private long flushInterval;
+
+    @Value("${qxy.elasticsearch.bulk.concurrentRequests:2}")
+    private int concurrentRequests;
+
+    @Value("${qxy.elasticsearch.bulk.targetLatency:500}")
+    private long targetLatency;
+
+    @Value("${qxy.elasticsearch.bulk.retryInitialDelay:100}")
+    private long retryInitialDelay;
+
+    @Value("${qxy.elasticsearch.bulk.maxRetries:5}")
+    private int maxRetries;
+
+    @Bean(destroyMethod = "close")
+    public BulkIngester bulkIngester(RestHighLevelClient client, RequestOptions requestOptions) {
+        return BulkIngester.builder(client)
+                .options(requestOptions)
+                .actions(initialActions, minActions, maxActions)
+                .maxBytes(maxBytes)
+                .flushInterval(TimeValue.timeValueMillis(flushInterval))
+                .concurrentRequests(concurrentRequests)
+                .targetLatency(TimeValue.timeValueMillis(targetLatency))
+                .retry(TimeValue.timeValueMillis(retryInitialDelay), maxRetries)
+                .build();
+    }
+}
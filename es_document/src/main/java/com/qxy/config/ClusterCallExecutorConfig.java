@@ -0,0 +1,47 @@
+package com.qxy.config;
+
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.executor.ClusterCallExecutor;
+import com.qxy.executor.ClusterCallExecutors;
+import com.qxy.executor.ExecutionMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/24 10:20
+ * @Introduction: 向容器注入每个集群的调用执行器,以及默认集群的执行器
+ */
+@Configuration
+public class ClusterCallExecutorConfig {
+    /**
+     * platform或virtual,virtual需要JDK 21+
+     */
+    @Value("${qxy.elasticsearch.executor.mode:platform}")
+    private String mode;
+
+    /**
+     * 同时在途的调用数,不大于maxConnTotal
+     */
+    @Value("${qxy.elasticsearch.executor.maxConcurrency:100}")
+    private int maxConcurrency;
+
+    @Value("${qxy.elasticsearch.executor.platformThreads:200}")
+    private int platformThreads;
+
+    @Bean(destroyMethod = "close")
+    public ClusterCallExecutors clusterCallExecutors(ElasticsearchClients elasticsearchClients) {
+        return new ClusterCallExecutors(elasticsearchClients, ExecutionMode.valueOf(mode.toUpperCase()), maxConcurrency, platformThreads);
+    }
+
+    /**
+     * 默认集群的执行器,由clusterCallExecutors关闭;@Lazy,startup=lazy时不提前创建默认集群
+     */
+    @Lazy
+    @Bean(destroyMethod = "")
+    public ClusterCallExecutor clusterCallExecutor(ClusterCallExecutors clusterCallExecutors) {
+        return clusterCallExecutors.getDefault();
+    }
+}
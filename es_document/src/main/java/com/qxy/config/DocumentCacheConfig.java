@@ -0,0 +1,42 @@
+package com.qxy.config;
+
+import com.qxy.cache.DocumentCache;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/2 9:30
+ * @Introduction: 向容器注入文档近端缓存,qxy.elasticsearch.documentCache.enabled为true时启用
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "qxy.elasticsearch.documentCache", name = "enabled", havingValue = "true")
+public class DocumentCacheConfig {
+    @Value("${qxy.elasticsearch.documentCache.maxEntries:10000}")
+    private int maxEntries;
+
+    @Value("${qxy.elasticsearch.documentCache.maxBytes:67108864}")
+    private long maxBytes;
+
+    @Value("${qxy.elasticsearch.documentCache.ttl:60000}")
+    private long ttl;
+
+    @Value("${qxy.elasticsearch.documentCache.refreshOnWrite:true}")
+    private boolean refreshOnWrite;
+
+    @Bean
+    public DocumentCache documentCache(RestHighLevelClient client, RequestOptions requestOptions) {
+        return DocumentCache.builder(client)
+                .options(requestOptions)
+                .maxEntries(maxEntries)
+                .maxBytes(maxBytes)
+                .ttl(TimeValue.timeValueMillis(ttl))
+                .refreshOnWrite(refreshOnWrite)
+                .build();
+    }
+}
@@ -0,0 +1,35 @@
+package com.qxy.config;
+
+import com.qxy.loader.DocumentLoader;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/1 9:30
+ * @Introduction: 向容器注入把get合并为mget的文档加载器
+ */
+@Configuration
+public class DocumentLoaderConfig {
+    /**
+     * 批次中第一个请求最多等待的时间(毫秒)
+     */
+    @Value("${qxy.elasticsearch.loader.maxDelay:2}")
+    private long maxDelay;
+
+    @Value("${qxy.elasticsearch.loader.maxBatch:100}")
+    private int maxBatch;
+
+    @Bean(destroyMethod = "close")
+    public DocumentLoader documentLoader(RestHighLevelClient client, RequestOptions requestOptions) {
+        return DocumentLoader.builder(client)
+                .options(requestOptions)
+                .maxDelay(TimeValue.timeValueMillis(maxDelay))
+                .maxBatch(maxBatch)
+                .build();
+    }
+}
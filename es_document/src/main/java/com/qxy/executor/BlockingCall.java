@@ -0,0 +1,13 @@
+package com.qxy.executor;
+
+import org.elasticsearch.client.RestHighLevelClient;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/24 10:20
+ * @Introduction: 一次同步调用,例如 client -> client.get(request, RequestOptions.DEFAULT)
+ */
+@FunctionalInterface
+public interface BlockingCall<T> {
+    T call(RestHighLevelClient client) throws Exception;
+}
@@ -0,0 +1,226 @@
+package com.qxy.executor;
+
+import com.qxy.async.AsyncCall;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/24 10:20
+ * @Introduction: 在独立的线程(虚拟线程或平台线程池)上执行es调用,每个集群一个实例(见ClusterCallExecutors)
+ * <p>
+ * 1、VIRTUAL模式每个调用一个虚拟线程,等待响应时不占用平台线程,适合大量并发、每个请求多次往返的场景
+ * 2、7.3的同步调用(client.get/search、RestClient.performRequest)在httpcore的BasicFuture.get()里等待,
+ * 它是synchronized方法并调用wait(),会把虚拟线程钉在载体线程上(JDK 21),并发数被载体线程数限制。
+ * 虚拟线程上应使用submitAsync: 发出xxxAsync请求,在CompletableFuture上等待(LockSupport.park,不持有监视器);
+ * submit的同步调用适合PLATFORM模式
+ * 3、maxConcurrency限制同时在途的调用数,超出的调用在线程内排队;应不大于连接池的maxConnTotal,
+ * 否则多出的调用会在连接池里等待,超过connectionRequestTimeout后失败
+ * 4、通过反射创建虚拟线程,代码仍按1.8编译;JDK 21以下VIRTUAL模式退化为PLATFORM并打印警告
+ */
+@Slf4j
+public class ClusterCallExecutor implements Closeable {
+    private final String cluster;
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final ExecutorService executor;
+    private final Semaphore limiter;
+    private final int maxConcurrency;
+    private final ExecutionMode mode;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicBoolean pinningWarned = new AtomicBoolean();
+
+    /**
+     * 一般通过ClusterCallExecutors取得,使用集群自己的客户端和请求选项
+     *
+     * @param cluster         集群名称,用于线程名和日志
+     * @param client          集群对应的客户端
+     * @param options         submitAsync使用的请求选项
+     * @param mode            执行方式
+     * @param maxConcurrency  同时在途的调用数上限
+     * @param platformThreads PLATFORM模式的线程数
+     */
+    public ClusterCallExecutor(String cluster, RestHighLevelClient client, RequestOptions options, ExecutionMode mode,
+                               int maxConcurrency, int platformThreads) {
+        if (maxConcurrency <= 0 || platformThreads <= 0) {
+            throw new IllegalArgumentException("maxConcurrency and platformThreads must be positive");
+        }
+        this.cluster = cluster;
+        this.client = client;
+        this.options = options;
+        this.maxConcurrency = maxConcurrency;
+        this.limiter = new Semaphore(maxConcurrency, true);
+        ExecutorService virtual = mode == ExecutionMode.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
+        if (virtual != null) {
+            this.executor = virtual;
+            this.mode = ExecutionMode.VIRTUAL;
+        } else {
+            AtomicInteger index = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(platformThreads, r -> {
+                Thread thread = new Thread(r, "es-call-" + cluster + "-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.mode = ExecutionMode.PLATFORM;
+        }
+        log.info("elasticsearch call executor of cluster [{}] mode: {}, maxConcurrency: {}", cluster, this.mode, maxConcurrency);
+    }
+
+    /**
+     * 虚拟线程可用时返回每个任务一个虚拟线程的执行器,否则返回null
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("virtual threads require JDK 21+, running on {}; fall back to platform threads",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    /**
+     * 提交一次同步调用;VIRTUAL模式下同步调用会钉住载体线程,应使用submitAsync
+     *
+     * @param call 同步调用
+     * @return 调用结果
+     */
+    public <T> CompletableFuture<T> submit(BlockingCall<T> call) {
+        if (mode == ExecutionMode.VIRTUAL && pinningWarned.compareAndSet(false, true)) {
+            log.warn("blocking calls pin virtual threads to carrier threads (BasicFuture.get is synchronized), "
+                    + "use submitAsync on cluster [{}]", cluster);
+        }
+        return execute(call);
+    }
+
+    /**
+     * 提交一次异步调用,在执行线程上等待响应: 与submit相同受maxConcurrency限制,但等待不持有监视器,
+     * 虚拟线程在等待时让出载体线程
+     *
+     * @param call 异步调用,例如 (options, listener) -> executor.getClient().getAsync(request, options, listener)
+     * @return 调用结果
+     */
+    public <T> CompletableFuture<T> submitAsync(AsyncCall<T> call) {
+        return execute(c -> await(call));
+    }
+
+    private <T> CompletableFuture<T> execute(BlockingCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(call, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> T await(AsyncCall<T> call) throws Exception {
+        CompletableFuture<T> response = new CompletableFuture<>();
+        call.execute(options, ActionListener.wrap(response::complete, response::completeExceptionally));
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            //onFailure的参数一定是Exception
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * 用submitAsync并发执行多个异步调用,结果顺序与传入顺序一致
+     */
+    public <T> CompletableFuture<List<T>> submitAll(List<AsyncCall<T>> calls) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(calls.size());
+        for (AsyncCall<T> call : calls) {
+            futures.add(submitAsync(call));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<T> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    private <T> void run(BlockingCall<T> call, CompletableFuture<T> future) {
+        if (future.isDone()) {
+            return;
+        }
+        waiting.incrementAndGet();
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        } finally {
+            waiting.decrementAndGet();
+        }
+        try {
+            future.complete(call.call(client));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            limiter.release();
+        }
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    /**
+     * 集群对应的客户端,submitAsync的调用用它发出xxxAsync请求
+     */
+    public RestHighLevelClient getClient() {
+        return client;
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * 正在执行的调用数
+     */
+    public int getActive() {
+        return maxConcurrency - limiter.availablePermits();
+    }
+
+    /**
+     * 在限流器上等待的调用数
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.qxy.executor;
+
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.client.ElasticsearchCluster;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/9 14:00
+ * @Introduction: 每个集群一个ClusterCallExecutor,使用该集群的客户端和请求选项
+ * <p>
+ * 执行器在第一次取用时创建,lazy/background启动模式下不会因为创建执行器而提前创建集群;
+ * mode、maxConcurrency、platformThreads对所有集群相同,maxConcurrency应不大于每个集群的maxConnTotal
+ */
+public class ClusterCallExecutors implements Closeable {
+    private final ElasticsearchClients clients;
+    private final ExecutionMode mode;
+    private final int maxConcurrency;
+    private final int platformThreads;
+    private final Map<String, ClusterCallExecutor> executors = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public ClusterCallExecutors(ElasticsearchClients clients, ExecutionMode mode, int maxConcurrency, int platformThreads) {
+        this.clients = clients;
+        this.mode = mode;
+        this.maxConcurrency = maxConcurrency;
+        this.platformThreads = platformThreads;
+    }
+
+    /**
+     * @param name 集群名称
+     * @return 集群的执行器
+     * @throws IllegalArgumentException 没有该集群
+     */
+    public ClusterCallExecutor get(String name) {
+        if (closed) {
+            throw new IllegalStateException("cluster call executors are closed");
+        }
+        return executors.computeIfAbsent(name, key -> {
+            ElasticsearchCluster cluster = clients.getCluster(key);
+            return new ClusterCallExecutor(key, cluster.getClient(), cluster.getRequestOptions(), mode,
+                    maxConcurrency, platformThreads);
+        });
+    }
+
+    public ClusterCallExecutor getDefault() {
+        return get(ElasticsearchClients.DEFAULT);
+    }
+
+    public Set<String> getNames() {
+        return clients.getNames();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (ClusterCallExecutor executor : executors.values()) {
+            executor.close();
+        }
+        executors.clear();
+    }
+}
@@ -0,0 +1,17 @@
+package com.qxy.executor;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/24 10:20
+ * @Introduction: 同步调用的执行方式
+ */
+public enum ExecutionMode {
+    /**
+     * 固定大小的平台线程池
+     */
+    PLATFORM,
+    /**
+     * 每个调用一个虚拟线程(JDK 21+),低版本JDK上退化为PLATFORM
+     */
+    VIRTUAL
+}
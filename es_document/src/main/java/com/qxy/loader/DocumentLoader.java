@@ -0,0 +1,499 @@
+package com.qxy.loader;
+
+import com.qxy.common.client.ResponseSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/1 9:30
+ * @Introduction: 把单个的get请求在一个很短的时间窗口内攒成一次mget,结果按调用方分发回各自的future,避免N+1次往返
+ * <p>
+ * 1、第一个请求到达时开始计时,maxDelay后或攒够maxBatch个请求时发送
+ * 2、preference、realtime、refresh是mget的请求级参数,这三个参数不同的get分到不同的批次
+ * 3、同一个批次中相同的文档(索引、id、routing、版本、stored_fields)只请求一次,每个调用方得到各自的GetResponse,可以修改
+ * 4、_source过滤按索引合并: 取各调用方include的并集、exclude的交集,返回前再按每个调用方自己的过滤条件裁剪;
+ * 调用方的过滤条件与合并后的相同时不裁剪
+ * 5、单个文档失败(如索引不存在)只影响请求它的调用方,整个mget失败时批次中的全部调用方失败
+ * <p>
+ * 和逐个get相比,每个调用最多多等maxDelay;结果在callbackExecutor上完成,后续回调不会阻塞I/O线程
+ */
+@Slf4j
+public class DocumentLoader implements Closeable {
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final Executor callbackExecutor;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * 按请求级参数分开的待发送批次
+     */
+    private final Map<String, Batch> pending = new HashMap<>();
+    private boolean closed;
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder items = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private DocumentLoader(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.callbackExecutor = builder.callbackExecutor;
+        this.maxDelayNanos = builder.maxDelay.nanos();
+        this.maxBatch = builder.maxBatch;
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "document-loader-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //攒够maxBatch提前发送时取消定时任务,及时从队列中移除
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * 加入当前批次,线程安全
+     *
+     * @return 与RestHighLevelClient.get相同的响应;文档不存在时isExists()为false
+     */
+    public CompletableFuture<GetResponse> load(GetRequest request) {
+        Load load = new Load(request);
+        Batch ready = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("document loader is closed");
+            }
+            String key = request.preference() + '|' + request.realtime() + '|' + request.refresh();
+            Batch batch = pending.get(key);
+            if (batch == null) {
+                batch = new Batch(key, request);
+                pending.put(key, batch);
+                Batch scheduled = batch;
+                batch.timeout = timer.schedule(() -> flush(scheduled), maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+            batch.loads.add(load);
+            if (batch.loads.size() >= maxBatch) {
+                pending.remove(key);
+                batch.timeout.cancel(false);
+                ready = batch;
+            }
+        }
+        loads.increment();
+        if (ready != null) {
+            execute(ready);
+        }
+        return load.future;
+    }
+
+    public CompletableFuture<GetResponse> load(String index, String id) {
+        return load(new GetRequest(index, id));
+    }
+
+    /**
+     * 同步等待load的结果,异常与RestHighLevelClient.get一致
+     */
+    public GetResponse get(GetRequest request) throws IOException {
+        try {
+            return load(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a batched get");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 立即发送所有待发送的批次
+     */
+    public void flush() {
+        List<Batch> ready;
+        synchronized (this) {
+            ready = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        for (Batch batch : ready) {
+            batch.timeout.cancel(false);
+            execute(batch);
+        }
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            //已经因为攒够条数被发送
+            if (!pending.remove(batch.key, batch)) {
+                return;
+            }
+        }
+        execute(batch);
+    }
+
+    private void execute(Batch batch) {
+        MultiGetRequest request = new MultiGetRequest()
+                .preference(batch.preference)
+                .realtime(batch.realtime)
+                .refresh(batch.refresh);
+        //每个索引合并一个_source过滤条件
+        Map<String, FetchSourceContext> sources = new HashMap<>();
+        Map<String, List<Load>> loadsByIndex = new HashMap<>();
+        for (Load load : batch.loads) {
+            loadsByIndex.computeIfAbsent(load.request.index(), k -> new ArrayList<>()).add(load);
+        }
+        for (Map.Entry<String, List<Load>> entry : loadsByIndex.entrySet()) {
+            sources.put(entry.getKey(), merge(entry.getValue()));
+        }
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        for (Load load : batch.loads) {
+            load.merged = sources.get(load.request.index());
+            Integer slot = slots.get(load.key);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(load.key, slot);
+                GetRequest get = load.request;
+                request.add(new MultiGetRequest.Item(get.index(), get.type(), get.id())
+                        .routing(get.routing())
+                        .storedFields(get.storedFields())
+                        .version(get.version())
+                        .versionType(get.versionType())
+                        .fetchSourceContext(load.merged));
+            }
+            load.slot = slot;
+        }
+        batches.increment();
+        items.add(slots.size());
+        try {
+            client.mgetAsync(request, options, new ActionListener<MultiGetResponse>() {
+                @Override
+                public void onResponse(MultiGetResponse response) {
+                    complete(batch, () -> dispatch(batch, response));
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    complete(batch, () -> fail(batch, e));
+                }
+            });
+        } catch (RuntimeException e) {
+            fail(batch, e);
+        }
+    }
+
+    private void complete(Batch batch, Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            fail(batch, e);
+        }
+    }
+
+    private void dispatch(Batch batch, MultiGetResponse response) {
+        MultiGetItemResponse[] responses = response.getResponses();
+        //同一个文档有多个调用方时,在完成任何一个future之前生成快照,第一个调用方使用响应本身,其余调用方各自解析一份
+        int[] callers = new int[responses.length];
+        for (Load load : batch.loads) {
+            callers[load.slot]++;
+        }
+        Map<Integer, ResponseSnapshot<GetResponse>> snapshots = new HashMap<>();
+        for (Load load : batch.loads) {
+            MultiGetItemResponse item = responses[load.slot];
+            if (!item.isFailed() && callers[load.slot] > 1 && !snapshots.containsKey(load.slot)) {
+                try {
+                    snapshots.put(load.slot, ResponseSnapshot.of(item.getResponse()));
+                } catch (RuntimeException e) {
+                    snapshots.put(load.slot, null);
+                }
+            }
+        }
+        boolean[] claimed = new boolean[responses.length];
+        for (Load load : batch.loads) {
+            MultiGetItemResponse item = responses[load.slot];
+            if (item.isFailed()) {
+                failures.increment();
+                load.future.completeExceptionally(item.getFailure().getFailure());
+                continue;
+            }
+            try {
+                GetResponse own;
+                if (!claimed[load.slot]) {
+                    claimed[load.slot] = true;
+                    own = item.getResponse();
+                } else {
+                    ResponseSnapshot<GetResponse> snapshot = snapshots.get(load.slot);
+                    if (snapshot == null) {
+                        throw new IllegalStateException("failed to copy the shared response of " + load.key);
+                    }
+                    own = snapshot.copy();
+                }
+                load.future.complete(load.source.equals(load.merged) ? own : trim(own, load.source));
+            } catch (IOException | RuntimeException e) {
+                failures.increment();
+                load.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void fail(Batch batch, Exception e) {
+        failures.add(batch.loads.size());
+        log.warn("mget of {} documents failed", batch.loads.size(), e);
+        for (Load load : batch.loads) {
+            load.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 合并后的过滤条件: 任一调用方需要_source就获取;include取并集(有人要全部则为全部),exclude取交集
+     */
+    static FetchSourceContext merge(List<Load> loads) {
+        boolean fetch = false;
+        Set<String> includes = new LinkedHashSet<>();
+        Set<String> excludes = null;
+        boolean includeAll = false;
+        Set<FetchSourceContext> distinct = new LinkedHashSet<>();
+        for (Load load : loads) {
+            FetchSourceContext source = load.source;
+            distinct.add(source);
+            if (!source.fetchSource()) {
+                continue;
+            }
+            fetch = true;
+            if (source.includes().length == 0) {
+                includeAll = true;
+            } else {
+                includes.addAll(Arrays.asList(source.includes()));
+            }
+            Set<String> current = new LinkedHashSet<>(Arrays.asList(source.excludes()));
+            if (excludes == null) {
+                excludes = current;
+            } else {
+                excludes.retainAll(current);
+            }
+        }
+        if (distinct.size() == 1) {
+            return distinct.iterator().next();
+        }
+        if (!fetch) {
+            return FetchSourceContext.DO_NOT_FETCH_SOURCE;
+        }
+        return new FetchSourceContext(true,
+                includeAll ? new String[0] : includes.toArray(new String[0]),
+                excludes.toArray(new String[0]));
+    }
+
+    /**
+     * 按调用方自己的_source过滤条件裁剪合并请求的结果
+     */
+    static GetResponse trim(GetResponse response, FetchSourceContext source) throws IOException {
+        if (!response.isExists() || response.isSourceEmpty()) {
+            return response;
+        }
+        BytesReference trimmed;
+        if (!source.fetchSource()) {
+            trimmed = null;
+        } else if (source.includes().length == 0 && source.excludes().length == 0) {
+            return response;
+        } else {
+            Map<String, Object> filtered = XContentMapValues.filter(response.getSourceAsMap(), source.includes(), source.excludes());
+            XContentBuilder builder = XContentFactory.jsonBuilder().map(filtered);
+            trimmed = BytesReference.bytes(builder);
+        }
+        Map<String, DocumentField> documentFields = new HashMap<>();
+        Map<String, DocumentField> metadataFields = new HashMap<>();
+        for (DocumentField field : response.getFields().values()) {
+            (field.isMetadataField() ? metadataFields : documentFields).put(field.getName(), field);
+        }
+        return new GetResponse(new GetResult(response.getIndex(), response.getType(), response.getId(),
+                response.getSeqNo(), response.getPrimaryTerm(), response.getVersion(), true, trimmed,
+                documentFields, metadataFields));
+    }
+
+    /**
+     * 发送剩余批次并停止定时器,之后的load抛出IllegalStateException
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return 调用load的次数
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return 发送的mget请求数
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return mget请求中的文档数(去重后)
+     */
+    public long getItems() {
+        return items.sum();
+    }
+
+    /**
+     * @return 以异常结束的load数
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return 平均每个mget合并的load数
+     */
+    public double getAverageBatchSize() {
+        long sent = batches.sum();
+        return sent == 0 ? 0 : (double) loads.sum() / sent;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentLoader{loads=" + getLoads() + ", batches=" + getBatches() + ", items=" + getItems()
+                + ", failures=" + getFailures() + '}';
+    }
+
+    static final class Load {
+        private final GetRequest request;
+        /**
+         * 调用方的_source过滤条件,未指定时为获取全部
+         */
+        private final FetchSourceContext source;
+        private final String key;
+        private final CompletableFuture<GetResponse> future = new CompletableFuture<>();
+        private int slot;
+        /**
+         * 所在索引合并后的过滤条件,即mget实际使用的
+         */
+        private FetchSourceContext merged;
+
+        Load(GetRequest request) {
+            this.request = request;
+            this.source = request.fetchSourceContext() == null
+                    ? FetchSourceContext.FETCH_SOURCE
+                    : request.fetchSourceContext();
+            this.key = request.index() + '|' + request.type() + '|' + request.id() + '|' + request.routing() + '|'
+                    + request.version() + '|' + request.versionType() + '|' + Arrays.toString(request.storedFields());
+        }
+    }
+
+    private static final class Batch {
+        private final String key;
+        private final String preference;
+        private final boolean realtime;
+        private final boolean refresh;
+        private final List<Load> loads = new ArrayList<>();
+        private ScheduledFuture<?> timeout;
+
+        Batch(String key, GetRequest request) {
+            this.key = key;
+            this.preference = request.preference();
+            this.realtime = request.realtime();
+            this.refresh = request.refresh();
+        }
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private Executor callbackExecutor = ForkJoinPool.commonPool();
+        private TimeValue maxDelay = TimeValue.timeValueMillis(2);
+        private int maxBatch = 100;
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder options(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * 完成future的线程池,默认ForkJoinPool.commonPool()
+         */
+        public Builder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * 批次中第一个请求最多等待的时间
+         */
+        public Builder maxDelay(TimeValue maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * 攒够多少个请求立即发送
+         */
+        public Builder maxBatch(int maxBatch) {
+            if (maxBatch <= 0) {
+                throw new IllegalArgumentException("maxBatch must be positive");
+            }
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        public DocumentLoader build() {
+            return new DocumentLoader(this);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.qxy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 09:40
+ * @Introduction: springboot索引的文档
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Person {
+    private String name;
+    private Integer age;
+    private String[] hobby;
+}
@@ -0,0 +1,151 @@
+package com.qxy.source;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 09:40
+ * @Introduction: 文档编码器,把对象直接序列化为_source字节,替代 IndexRequest.source(Map, XContentType)
+ * <p>
+ * 1、每个线程复用一块缓冲区,序列化过程中不产生Map和扩容拷贝
+ * 2、最终按实际长度拷贝出一份字节交给请求:请求可能异步发送,不能引用会被复用的缓冲区
+ * 3、支持JSON/SMILE/CBOR;同一个bulk请求里的文档必须是同一种格式,且bulk只支持JSON和SMILE
+ */
+public class DocumentSourceEncoder {
+    /**
+     * 超过这个大小的缓冲区用完后丢弃,避免个别大文档让每个线程长期持有大数组
+     */
+    private static final int MAX_RETAINED_BYTES = 1024 * 1024;
+
+    private static final ThreadLocal<ReusableOutputStream> BUFFERS =
+            ThreadLocal.withInitial(() -> new ReusableOutputStream(8 * 1024));
+
+    private final XContentType xContentType;
+
+    public DocumentSourceEncoder() {
+        this(XContentType.JSON);
+    }
+
+    public DocumentSourceEncoder(XContentType xContentType) {
+        this.xContentType = xContentType;
+    }
+
+    public XContentType getXContentType() {
+        return xContentType;
+    }
+
+    /**
+     * 编码为_source字节
+     *
+     * @param document 文档对象
+     * @param writer   字段写入方式
+     * @return _source字节
+     * @throws IOException IOException
+     */
+    public <T> BytesReference encode(T document, SourceWriter<T> writer) throws IOException {
+        ReusableOutputStream out = BUFFERS.get();
+        out.reset();
+        try {
+            XContentBuilder builder = new XContentBuilder(xContentType.xContent(), out);
+            builder.startObject();
+            writer.write(document, builder);
+            builder.endObject();
+            builder.close();
+            return new BytesArray(out.toByteArray());
+        } finally {
+            if (out.capacity() > MAX_RETAINED_BYTES) {
+                BUFFERS.remove();
+            }
+        }
+    }
+
+    /**
+     * 按类缓存的SourceWriter编码
+     */
+    @SuppressWarnings("unchecked")
+    public <T> BytesReference encode(T document) throws IOException {
+        return encode(document, SourceWriters.forClass((Class<T>) document.getClass()));
+    }
+
+    /**
+     * 构建写入请求
+     *
+     * @param index    索引
+     * @param id       文档id,为null时由es生成
+     * @param document 文档对象
+     * @param writer   字段写入方式
+     * @return IndexRequest
+     * @throws IOException IOException
+     */
+    public <T> IndexRequest indexRequest(String index, String id, T document, SourceWriter<T> writer) throws IOException {
+        IndexRequest request = new IndexRequest(index);
+        if (id != null) {
+            request.id(id);
+        }
+        return request.source(encode(document, writer), xContentType);
+    }
+
+    public <T> IndexRequest indexRequest(String index, String id, T document) throws IOException {
+        IndexRequest request = new IndexRequest(index);
+        if (id != null) {
+            request.id(id);
+        }
+        return request.source(encode(document), xContentType);
+    }
+
+    /**
+     * 可复用的字节输出流,close不释放缓冲区
+     */
+    private static final class ReusableOutputStream extends OutputStream {
+        private byte[] buf;
+        private int count;
+
+        ReusableOutputStream(int initialCapacity) {
+            this.buf = new byte[initialCapacity];
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int minCapacity) {
+            if (minCapacity > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, minCapacity));
+            }
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        @Override
+        public void close() {
+            //复用的缓冲区,不做任何事
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.qxy.source;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 09:40
+ * @Introduction: 把一个对象的字段直接写入XContentBuilder,不经过中间的Map
+ */
+@FunctionalInterface
+public interface SourceWriter<T> {
+    /**
+     * 写入对象的全部字段,调用前builder已经startObject,调用后由编码器endObject
+     *
+     * @param document 文档对象
+     * @param builder  目标builder
+     * @throws IOException IOException
+     */
+    void write(T document, XContentBuilder builder) throws IOException;
+}
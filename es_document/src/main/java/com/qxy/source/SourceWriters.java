@@ -0,0 +1,76 @@
+package com.qxy.source;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 09:40
+ * @Introduction: 按类生成并缓存SourceWriter,getter只在第一次使用该类时解析
+ * <p>
+ * 热点路径建议手写SourceWriter(lambda),这里是省事的通用实现
+ */
+public final class SourceWriters {
+    private static final Map<Class<?>, SourceWriter<?>> CACHE = new ConcurrentHashMap<>();
+
+    private SourceWriters() {
+    }
+
+    /**
+     * 获取类对应的SourceWriter,按JavaBean的getter输出字段,值为null的字段不输出
+     *
+     * @param type 文档类型
+     * @return 缓存的SourceWriter
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SourceWriter<T> forClass(Class<T> type) {
+        return (SourceWriter<T>) CACHE.computeIfAbsent(type, SourceWriters::create);
+    }
+
+    private static SourceWriter<?> create(Class<?> type) {
+        BeanInfo beanInfo;
+        try {
+            beanInfo = Introspector.getBeanInfo(type, Object.class);
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("cannot introspect " + type.getName(), e);
+        }
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        List<String> names = new ArrayList<>();
+        List<MethodHandle> getters = new ArrayList<>();
+        for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+            if (descriptor.getReadMethod() == null) {
+                continue;
+            }
+            try {
+                names.add(descriptor.getName());
+                getters.add(lookup.unreflect(descriptor.getReadMethod()));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("getter of " + type.getName() + "." + descriptor.getName()
+                        + " is not accessible", e);
+            }
+        }
+        String[] fieldNames = names.toArray(new String[0]);
+        MethodHandle[] fieldGetters = getters.toArray(new MethodHandle[0]);
+        return (document, builder) -> {
+            for (int i = 0; i < fieldNames.length; i++) {
+                Object value;
+                try {
+                    value = fieldGetters[i].invoke(document);
+                } catch (Throwable t) {
+                    throw new IllegalStateException("failed to read " + type.getName() + "." + fieldNames[i], t);
+                }
+                if (value != null) {
+                    builder.field(fieldNames[i], value);
+                }
+            }
+        };
+    }
+}
@@ -1,5 +1,15 @@
 package com.qxy;
 
+import com.qxy.async.AsyncElasticsearchClient;
+import com.qxy.bulk.BulkIngester;
+import com.qxy.cache.DocumentCache;
+import com.qxy.common.client.CoalescingClient;
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import com.qxy.common.metrics.MeteredClient;
+import com.qxy.common.metrics.OperationStats;
+import com.qxy.loader.DocumentLoader;
+import com.qxy.model.Person;
+import com.qxy.source.DocumentSourceEncoder;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteResponse;
@@ -28,21 +38,48 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @Author: SayHello
  * @Date: 2023/3/11 10:20
  * @Introduction: java api操作es
  */
-@SpringBootTest(classes = ElasticsearchApplication.class)
+@SpringBootTest(classes = ElasticsearchApplication.class, properties = "qxy.elasticsearch.documentCache.enabled=true")
 @RunWith(SpringRunner.class)
 @Slf4j
 public class DocumentManageTest {
     @Autowired
     RestHighLevelClient client;
 
+    @Autowired
+    BulkIngester bulkIngester;
+
+    @Autowired
+    AsyncElasticsearchClient asyncClient;
+
+    @Autowired
+    MeteredClient meteredClient;
+
+    @Autowired
+    ElasticsearchMetrics elasticsearchMetrics;
+
+    @Autowired
+    CoalescingClient coalescingClient;
+
+    @Autowired
+    DocumentLoader documentLoader;
+
+    @Autowired
+    DocumentCache documentCache;
+
     /**
      * 预先在kibana执行以下语句：
      * PUT /springboot/_doc/1
@@ -141,6 +178,36 @@ public class DocumentManageTest {
         }
     }
 
+    /**
+     * 测试异步获取: 返回CompletableFuture,用join等待结果代替Thread.sleep
+     */
+    @Test
+    public void testGetFuture() {
+        GetRequest getRequest = new GetRequest("springboot", "1");
+        CompletableFuture<GetResponse> future = asyncClient.get(getRequest);
+        future.thenAccept(response -> log.info("source: {}", response.getSource()))
+                .exceptionally(e -> {
+                    log.error("get failed", e);
+                    return null;
+                })
+                .join();
+    }
+
+    /**
+     * 测试异步并发获取: 同时发出多个请求,全部返回后汇总
+     */
+    @Test
+    public void testGetFanOut() {
+        List<CompletableFuture<GetResponse>> futures = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            futures.add(asyncClient.get(new GetRequest("springboot", String.valueOf(i))));
+        }
+        List<GetResponse> responses = AsyncElasticsearchClient.allOf(futures).join();
+        for (GetResponse response : responses) {
+            log.info("id: {}, exists: {}", response.getId(), response.isExists());
+        }
+    }
+
     /**
      * 测试添加数据：构建请求体的方法共有四种，推荐使用map
      *
@@ -196,6 +263,28 @@ public class DocumentManageTest {
         }
     }
 
+    /**
+     * 测试添加数据：直接把对象编码为_source字节，不经过Map
+     *
+     * @throws IOException IOException
+     */
+    @Test
+    public void testAddEncoded() throws IOException {
+        //1、创建请求：SMILE是二进制格式，比JSON更小、编解码更快
+        DocumentSourceEncoder encoder = new DocumentSourceEncoder(XContentType.SMILE);
+        Person person = new Person("rose", 21, new String[]{"吃饭", "睡觉", "打豆豆"});
+        IndexRequest request = encoder.indexRequest("springboot", "6", person, (doc, builder) -> {
+            builder.field("name", doc.getName());
+            builder.field("age", doc.getAge());
+            builder.array("hobby", doc.getHobby());
+        });
+        //2、执行请求
+        IndexResponse response = client.index(request, RequestOptions.DEFAULT);
+        //3、获取结果
+        log.info("Id: {}", response.getId());
+        log.info("Result: {}", response.getResult());
+    }
+
     /**
      * 测试异步添加数据：构建请求体的方法共有四种，推荐使用map
      *
@@ -474,4 +563,123 @@ public class DocumentManageTest {
             }
         }
     }
+
+    /**
+     * 测试批量写入组件：多线程提交，按条数/字节数/时间自动flush
+     *
+     * @throws InterruptedException InterruptedException
+     */
+    @Test
+    public void testBulkIngester() throws InterruptedException {
+        //1、多个线程并发提交写请求
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                for (int i = 0; i < 2500; i++) {
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("name", "bulk-" + thread + "-" + i);
+                    map.put("age", i % 100);
+                    bulkIngester.add(new IndexRequest("springboot").id(thread + "-" + i).source(map, XContentType.JSON));
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        //2、发送剩余的请求
+        bulkIngester.flush();
+        Thread.sleep(2000);
+        //3、查看统计
+        log.info("docs: {}", bulkIngester.getDocs());
+        log.info("failedDocs: {}", bulkIngester.getFailedDocs());
+        log.info("retriedDocs: {}", bulkIngester.getRetriedDocs());
+        log.info("batchActions: {}", bulkIngester.getBatchActions());
+        log.info("docsPerSecond: {}", bulkIngester.getDocsPerSecond());
+        log.info("bytesPerSecond: {}", bulkIngester.getBytesPerSecond());
+    }
+
+    /**
+     * 通过MeteredClient写入、查询和批量写入,输出每个操作的指标;
+     * 批量请求中age不是数字的一项会失败,记入bulkItemFailures
+     */
+    @Test
+    public void testMetrics() throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", "metrics");
+        map.put("age", 18);
+        meteredClient.index(new IndexRequest("springboot").id("20").source(map, XContentType.JSON));
+        for (int i = 0; i < 20; i++) {
+            meteredClient.get(new GetRequest("springboot", "20"));
+        }
+        meteredClient.bulk(new BulkRequest()
+                .add(new IndexRequest("springboot").id("21").source(map, XContentType.JSON))
+                .add(new IndexRequest("springboot").id("22").source("{\"age\":\"eighteen\"}", XContentType.JSON)));
+        for (OperationStats stats : elasticsearchMetrics.getOperations()) {
+            log.info("{}", stats);
+        }
+    }
+
+    /**
+     * 并发读取同一个文档,同时在执行的相同get请求只发送一次
+     */
+    @Test
+    public void testGetCoalesced() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<CompletableFuture<GetResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return coalescingClient.get(new GetRequest("springboot", "1"));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, executor));
+        }
+        for (CompletableFuture<GetResponse> future : futures) {
+            log.info("{}", future.get().getSourceAsString());
+        }
+        executor.shutdown();
+        log.info("{}", coalescingClient);
+    }
+
+    /**
+     * 与testMGet相同的文档,逐个load,由DocumentLoader合并为一次mget
+     */
+    @Test
+    public void testLoader() {
+        List<CompletableFuture<GetResponse>> futures = new ArrayList<>();
+        for (String id : new String[]{"10", "11", "12"}) {
+            futures.add(documentLoader.load("springboot", id));
+        }
+        //只要name字段,与上面的请求在同一个批次中
+        futures.add(documentLoader.load(new GetRequest("springboot", "1")
+                .fetchSourceContext(new FetchSourceContext(true, new String[]{"name"}, null))));
+        for (CompletableFuture<GetResponse> future : futures) {
+            GetResponse getResponse = future.join();
+            if (getResponse.isExists()) {
+                log.info("source: {}", getResponse.getSource());
+            }
+        }
+        log.info("{}", documentLoader);
+    }
+
+    /**
+     * 重复读取同一个文档只有第一次访问集群,通过缓存写入后读到新版本
+     */
+    @Test
+    public void testDocumentCache() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            GetResponse getResponse = documentCache.get(new GetRequest("springboot", "1"));
+            log.info("version: {}, source: {}", getResponse.getVersion(), getResponse.getSourceAsString());
+        }
+        UpdateRequest request = new UpdateRequest("springboot", "1");
+        Map<String, Object> map = new HashMap<>();
+        map.put("age", 20);
+        request.doc(map).fetchSource(true);
+        documentCache.update(request);
+        GetResponse getResponse = documentCache.get(new GetRequest("springboot", "1")
+                .fetchSourceContext(new FetchSourceContext(true, new String[]{"age"}, null)));
+        log.info("version: {}, source: {}", getResponse.getVersion(), getResponse.getSourceAsString());
+        log.info("{}", documentCache);
+    }
 }
@@ -0,0 +1,115 @@
+package com.qxy.benchmark;
+
+import com.qxy.common.client.ElasticsearchClientFactory;
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.config.ClusterProperties;
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.executor.ClusterCallExecutor;
+import com.qxy.executor.ClusterCallExecutors;
+import com.qxy.executor.ExecutionMode;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.RequestOptions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/24 10:20
+ * @Introduction: 对比平台线程池与虚拟线程执行es调用的吞吐量和p99,服务端是本地的桩服务器(固定延迟)
+ * <p>
+ * 每个"业务请求"串行发出3次get,同时保持concurrency个业务请求在途;JMH的线程模型不适合这种开环并发,这里直接用main测量
+ * <p>
+ * 运行main方法,参数: [模式 platform|virtual|virtual-blocking|all] [并发业务请求数] [业务请求总数] [桩延迟毫秒];
+ * platform在线程池上执行同步调用,virtual在虚拟线程上执行submitAsync,virtual-blocking在虚拟线程上执行同步调用(会被钉住,作对照)。
+ * virtual需要在JDK 21+上运行(低版本上会退化为platform),加 -Djdk.tracePinnedThreads=short 可以看到钉住的栈
+ */
+public class ExecutorModeBenchmark {
+    private static final int ROUND_TRIPS = 3;
+    private static final int MAX_CONCURRENCY = 100;
+    private static final int PLATFORM_THREADS = 200;
+
+    public static void main(String[] args) throws Exception {
+        String modes = args.length > 0 ? args[0] : "all";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int total = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int latencyMillis = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        StubElasticsearch server = startStub(latencyMillis);
+        //与应用相同: 通过ElasticsearchClients和ClusterCallExecutors取得执行器,使用集群自己的客户端和请求选项
+        ClusterProperties properties = server.properties();
+        properties.setMaxConnTotal(MAX_CONCURRENCY);
+        properties.setMaxConnPerRoute(MAX_CONCURRENCY);
+        ElasticsearchClients clients = new ElasticsearchClients(Collections.singletonMap(ElasticsearchClients.DEFAULT,
+                ElasticsearchClientFactory.create(ElasticsearchClients.DEFAULT, properties)));
+        RequestOptions options = clients.getCluster(ElasticsearchClients.DEFAULT).getRequestOptions();
+        try {
+            for (String mode : "all".equals(modes) ? new String[]{"platform", "virtual", "virtual-blocking"} : new String[]{modes}) {
+                boolean blocking = !"virtual".equals(mode);
+                ExecutionMode executionMode = mode.startsWith("virtual") ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM;
+                try (ClusterCallExecutors executors = new ClusterCallExecutors(clients, executionMode, MAX_CONCURRENCY, PLATFORM_THREADS)) {
+                    ClusterCallExecutor executor = executors.getDefault();
+                    //预热
+                    run(executor, options, blocking, concurrency, total / 4);
+                    run(executor, options, blocking, concurrency, total);
+                }
+            }
+        } finally {
+            clients.close();
+            server.close();
+        }
+    }
+
+    private static void run(ClusterCallExecutor executor, RequestOptions options, boolean blocking, int concurrency, int total)
+            throws InterruptedException {
+        long[] latencies = new long[total];
+        Semaphore inFlight = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            inFlight.acquire();
+            int index = i;
+            long begin = System.nanoTime();
+            CompletableFuture<GetResponse> chain = get(executor, options, blocking);
+            for (int r = 1; r < ROUND_TRIPS; r++) {
+                chain = chain.thenCompose(response -> get(executor, options, blocking));
+            }
+            chain.whenComplete((response, e) -> {
+                latencies[index] = e == null ? System.nanoTime() - begin : Long.MAX_VALUE;
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(concurrency);
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        long failed = Arrays.stream(latencies).filter(l -> l == Long.MAX_VALUE).count();
+        System.out.printf("mode=%s blocking=%s requests=%d concurrency=%d failed=%d throughput=%.0f req/s p50=%.1fms p99=%.1fms max=%.1fms%n",
+                executor.getMode(), blocking, total, concurrency, failed, total * 1e9 / elapsed,
+                latencies[total / 2] / 1e6, latencies[(int) (total * 0.99)] / 1e6,
+                latencies[(int) (total - failed - 1)] / 1e6);
+    }
+
+    private static CompletableFuture<GetResponse> get(ClusterCallExecutor executor, RequestOptions options, boolean blocking) {
+        GetRequest request = new GetRequest("springboot", "1");
+        if (blocking) {
+            return executor.submit(client -> client.get(request, options));
+        }
+        return executor.submitAsync((callOptions, listener) -> executor.getClient().getAsync(request, callOptions, listener));
+    }
+
+    private static StubElasticsearch startStub(int latencyMillis) throws Exception {
+        String body = "{\"_index\":\"springboot\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"_seq_no\":0,"
+                + "\"_primary_term\":1,\"found\":true,\"_source\":{\"name\":\"rose\"}}";
+        return StubElasticsearch.start(request -> {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return StubElasticsearch.StubResponse.json(body);
+        }, MAX_CONCURRENCY * 2);
+    }
+}
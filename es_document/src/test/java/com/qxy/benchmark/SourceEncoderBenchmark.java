@@ -0,0 +1,87 @@
+package com.qxy.benchmark;
+
+import com.qxy.model.Person;
+import com.qxy.source.DocumentSourceEncoder;
+import com.qxy.source.SourceWriter;
+import com.qxy.source.SourceWriters;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 09:40
+ * @Introduction: 对比 Map 构建请求体 与 DocumentSourceEncoder 的吞吐量和内存分配
+ * <p>
+ * 运行main方法即可,加上 -prof gc 的效果见 addProfiler
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceEncoderBenchmark {
+    private static final SourceWriter<Person> PERSON_WRITER = (person, builder) -> {
+        builder.field("name", person.getName());
+        builder.field("age", person.getAge());
+        builder.array("hobby", person.getHobby());
+    };
+
+    private final Person person = new Person("rose", 21, new String[]{"吃饭", "睡觉", "打豆豆"});
+    private final DocumentSourceEncoder jsonEncoder = new DocumentSourceEncoder(XContentType.JSON);
+    private final DocumentSourceEncoder smileEncoder = new DocumentSourceEncoder(XContentType.SMILE);
+    private final DocumentSourceEncoder cborEncoder = new DocumentSourceEncoder(XContentType.CBOR);
+
+    @Benchmark
+    public IndexRequest map() {
+        Map<String, Object> jsonMap = new HashMap<>();
+        jsonMap.put("name", person.getName());
+        jsonMap.put("age", person.getAge());
+        jsonMap.put("hobby", person.getHobby());
+        return new IndexRequest("springboot").id("5").source(jsonMap, XContentType.JSON);
+    }
+
+    @Benchmark
+    public IndexRequest encoderJson() throws IOException {
+        return jsonEncoder.indexRequest("springboot", "5", person, PERSON_WRITER);
+    }
+
+    @Benchmark
+    public IndexRequest encoderJsonCachedBean() throws IOException {
+        return jsonEncoder.indexRequest("springboot", "5", person, SourceWriters.forClass(Person.class));
+    }
+
+    @Benchmark
+    public IndexRequest encoderSmile() throws IOException {
+        return smileEncoder.indexRequest("springboot", "5", person, PERSON_WRITER);
+    }
+
+    @Benchmark
+    public IndexRequest encoderCbor() throws IOException {
+        return cborEncoder.indexRequest("springboot", "5", person, PERSON_WRITER);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SourceEncoderBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
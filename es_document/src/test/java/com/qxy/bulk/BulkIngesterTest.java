@@ -0,0 +1,107 @@
+package com.qxy.bulk;
+
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/18 14:30
+ * @Introduction: BulkIngester关闭时的429重试: 桩服务器对前rejectedBulks个bulk请求的所有条目返回429
+ */
+class BulkIngesterTest {
+    private StubElasticsearch server;
+    private RestHighLevelClient client;
+    private final AtomicInteger bulks = new AtomicInteger();
+    private volatile int rejectedBulks;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = StubElasticsearch.start(this::handle);
+        client = server.newClient();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private StubResponse handle(StubRequest request) {
+        //index请求每个条目两行: action和source
+        int items = request.getBodyAsString().split("\n").length / 2;
+        boolean reject = bulks.incrementAndGet() <= rejectedBulks;
+        StringBuilder response = new StringBuilder("{\"took\":1,\"errors\":").append(reject).append(",\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append("{\"index\":{\"_index\":\"docs\",\"_type\":\"_doc\",\"_id\":\"").append(i).append('"');
+            if (reject) {
+                response.append(",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}");
+            } else {
+                response.append(",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},")
+                        .append("\"_seq_no\":0,\"_primary_term\":1,\"status\":201}}");
+            }
+        }
+        return StubResponse.json(response.append("]}").toString());
+    }
+
+    private BulkIngester ingester(TimeValue retryDelay) {
+        return BulkIngester.builder(client)
+                .actions(100, 10, 100)
+                .flushInterval(TimeValue.timeValueSeconds(60))
+                .retry(retryDelay, 3)
+                .build();
+    }
+
+    private static IndexRequest doc(int id) {
+        return new IndexRequest("docs").id(String.valueOf(id)).source("{\"n\":" + id + "}", XContentType.JSON);
+    }
+
+    @Test
+    void awaitCloseWaitsForRejectedBulksStillBackingOff() throws Exception {
+        rejectedBulks = 1;
+        BulkIngester ingester = ingester(TimeValue.timeValueMillis(300));
+        for (int i = 0; i < 20; i++) {
+            ingester.add(doc(i));
+        }
+        //第一次发送被拒绝,重试还在退避中时就开始关闭
+        assertThat(ingester.awaitClose(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(bulks.get()).isEqualTo(2);
+        assertThat(ingester.getDocs()).isEqualTo(20);
+        assertThat(ingester.getRetriedDocs()).isEqualTo(20);
+        assertThat(ingester.getFailedDocs()).isZero();
+    }
+
+    @Test
+    void retriesNotSentBeforeTheTimeoutAreCountedAsFailed() throws Exception {
+        rejectedBulks = Integer.MAX_VALUE;
+        BulkIngester ingester = ingester(TimeValue.timeValueSeconds(5));
+        for (int i = 0; i < 20; i++) {
+            ingester.add(doc(i));
+        }
+        assertThat(ingester.awaitClose(500, TimeUnit.MILLISECONDS)).isFalse();
+
+        assertThat(ingester.getFailedDocs()).isEqualTo(20);
+        assertThat(ingester.getDocs()).isZero();
+        //关闭后不再发送重试
+        int sent = bulks.get();
+        Thread.sleep(300);
+        assertThat(bulks.get()).isEqualTo(sent).isEqualTo(1);
+    }
+}
@@ -0,0 +1,158 @@
+package com.qxy.cache;
+
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/9 11:00
+ * @Introduction: DocumentCache写入后刷新条目与并发delete的交错、命中的副本和别名;桩服务器可以挂起index请求,别名books下的文档都存在
+ */
+class DocumentCacheTest {
+    private static final String INDEXED = "{\"_index\":\"docs\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":2,\"result\":\"updated\","
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":1,\"_primary_term\":1}";
+    private static final String DELETED = "{\"_index\":\"%s\",\"_type\":\"_doc\",\"_id\":\"%s\",\"_version\":3,\"result\":\"deleted\","
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":2,\"_primary_term\":1}";
+    /**
+     * 别名books指向的索引,桩服务器中books下的文档都存在
+     */
+    private static final String ALIAS = "books";
+    private static final String ALIAS_INDEX = "books-v1";
+    private static final String FOUND = "{\"_index\":\"" + ALIAS_INDEX + "\",\"_type\":\"_doc\",\"_id\":\"%s\",\"_version\":1,"
+            + "\"_seq_no\":0,\"_primary_term\":1,\"found\":true,\"_source\":{\"name\":\"rose\"}}";
+    private static final String NOT_FOUND = "{\"_index\":\"docs\",\"_type\":\"_doc\",\"_id\":\"1\",\"found\":false}";
+
+    private StubElasticsearch server;
+    private RestHighLevelClient client;
+    private final AtomicInteger gets = new AtomicInteger();
+    private final CountDownLatch indexReceived = new CountDownLatch(1);
+    private volatile CountDownLatch releaseIndex = new CountDownLatch(0);
+
+    @BeforeEach
+    void start() throws IOException {
+        server = StubElasticsearch.start(this::handle);
+        client = server.newClient();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        releaseIndex.countDown();
+        client.close();
+        server.close();
+    }
+
+    private StubResponse handle(StubRequest request) {
+        //路径为 /{index}/_doc/{id}
+        String[] path = request.getPath().split("/");
+        String index = ALIAS.equals(path[1]) ? ALIAS_INDEX : path[1];
+        switch (request.getMethod()) {
+            case "GET":
+                gets.incrementAndGet();
+                return ALIAS_INDEX.equals(index) ? StubResponse.json(String.format(FOUND, path[3])) : StubResponse.json(404, NOT_FOUND);
+            case "DELETE":
+                return StubResponse.json(String.format(DELETED, index, path[3]));
+            default:
+                indexReceived.countDown();
+                try {
+                    releaseIndex.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return StubResponse.json(INDEXED);
+        }
+    }
+
+    private static IndexRequest index() {
+        return new IndexRequest("docs").id("1").source("{\"name\":\"jack\"}", XContentType.JSON);
+    }
+
+    @Test
+    void indexRefreshesTheEntry() throws Exception {
+        DocumentCache cache = DocumentCache.builder(client).build();
+        cache.index(index());
+
+        assertThat(cache.getEntries()).isEqualTo(1);
+        assertThat(cache.get(new GetRequest("docs", "1")).getSourceAsMap()).containsEntry("name", "jack");
+        assertThat(gets.get()).isZero();
+    }
+
+    /**
+     * index在执行时并发的delete已经完成: index返回的版本可能已被删除,不能再放入缓存
+     */
+    @Test
+    void deleteDuringIndexPreventsTheRefresh() throws Exception {
+        DocumentCache cache = DocumentCache.builder(client).build();
+        releaseIndex = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<IndexResponse> indexed = writer.submit(() -> cache.index(index()));
+        assertThat(indexReceived.await(10, TimeUnit.SECONDS)).isTrue();
+
+        cache.delete(new DeleteRequest("docs", "1"));
+        releaseIndex.countDown();
+        assertThat(indexed.get(10, TimeUnit.SECONDS).getVersion()).isEqualTo(2);
+        writer.shutdown();
+
+        assertThat(cache.getEntries()).isZero();
+        assertThat(cache.get(new GetRequest("docs", "1")).isExists()).isFalse();
+        assertThat(gets.get()).isEqualTo(1);
+    }
+
+    @Test
+    void hitsReturnTheirOwnSourceBytes() throws Exception {
+        DocumentCache cache = DocumentCache.builder(client).build();
+        cache.index(index());
+
+        GetResponse first = cache.get(new GetRequest("docs", "1"));
+        //BytesArray暴露了底层数组,修改它不能影响缓存
+        Arrays.fill(((BytesArray) first.getSourceAsBytesRef()).array(), (byte) ' ');
+        GetResponse second = cache.get(new GetRequest("docs", "1"));
+
+        assertThat(second.getSourceAsMap()).containsEntry("name", "jack");
+        assertThat(gets.get()).isZero();
+    }
+
+    /**
+     * 条目按响应中的索引保存: 通过别名读取后,按索引名删除也会失效
+     */
+    @Test
+    void aliasReadsAreInvalidatedByWritesToTheIndex() throws Exception {
+        DocumentCache cache = DocumentCache.builder(client).build();
+
+        assertThat(cache.get(new GetRequest(ALIAS, "2")).getIndex()).isEqualTo(ALIAS_INDEX);
+        assertThat(cache.getEntries()).isZero();
+        cache.get(new GetRequest(ALIAS, "2"));
+        assertThat(cache.get(new GetRequest(ALIAS, "2")).getIndex()).isEqualTo(ALIAS_INDEX);
+        assertThat(cache.get(new GetRequest(ALIAS_INDEX, "2")).getSourceAsMap()).containsEntry("name", "rose");
+        assertThat(gets.get()).isEqualTo(2);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+
+        cache.delete(new DeleteRequest(ALIAS_INDEX, "2"));
+        assertThat(cache.getEntries()).isZero();
+        cache.get(new GetRequest(ALIAS, "2"));
+        cache.delete(new DeleteRequest(ALIAS, "2"));
+        assertThat(cache.getEntries()).isZero();
+    }
+}
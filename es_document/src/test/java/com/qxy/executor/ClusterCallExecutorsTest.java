@@ -0,0 +1,142 @@
+package com.qxy.executor;
+
+import com.qxy.async.AsyncCall;
+import com.qxy.common.client.ElasticsearchClientFactory;
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.client.ElasticsearchCluster;
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/9 14:00
+ * @Introduction: 每个集群一个执行器,submitAsync的结果和异常与同步调用一致;两个桩服务器分别代表两个集群
+ */
+class ClusterCallExecutorsTest {
+    private StubElasticsearch defaultServer;
+    private StubElasticsearch logsServer;
+    private ElasticsearchClients clients;
+    private ClusterCallExecutors executors;
+
+    @BeforeEach
+    void start() throws IOException {
+        defaultServer = startStub("springboot");
+        logsServer = startStub("logs");
+        Map<String, ElasticsearchCluster> clusters = new LinkedHashMap<>();
+        clusters.put(ElasticsearchClients.DEFAULT, ElasticsearchClientFactory.create(ElasticsearchClients.DEFAULT, defaultServer.properties()));
+        clusters.put("logs", ElasticsearchClientFactory.create("logs", logsServer.properties()));
+        clients = new ElasticsearchClients(clusters);
+        executors = new ClusterCallExecutors(clients, ExecutionMode.PLATFORM, 4, 2);
+    }
+
+    @AfterEach
+    void stop() {
+        executors.close();
+        clients.close();
+        defaultServer.close();
+        logsServer.close();
+    }
+
+    /**
+     * 文档1存在,文档broken返回500,其他文档返回404;_index是服务器代表的集群,用来区分请求发到了哪个集群
+     */
+    private static StubElasticsearch startStub(String index) throws IOException {
+        return StubElasticsearch.start(request -> {
+            String path = request.getPath();
+            if (path.endsWith("/1")) {
+                return StubResponse.json("{\"_index\":\"" + index + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"_seq_no\":0,"
+                        + "\"_primary_term\":1,\"found\":true,\"_source\":{\"name\":\"rose\"}}");
+            }
+            if (path.endsWith("/broken")) {
+                return StubResponse.json(500, "{\"error\":{\"type\":\"exception\",\"reason\":\"broken\"},\"status\":500}");
+            }
+            return StubResponse.json(404, "{\"_index\":\"" + index + "\",\"_type\":\"_doc\",\"_id\":\"1\",\"found\":false}");
+        });
+    }
+
+    private static CompletableFuture<GetResponse> getAsync(ClusterCallExecutor executor, String id) {
+        GetRequest request = new GetRequest("any", id);
+        return executor.submitAsync((options, listener) -> executor.getClient().getAsync(request, options, listener));
+    }
+
+    @Test
+    void eachClusterHasItsOwnExecutor() throws Exception {
+        ClusterCallExecutor defaultExecutor = executors.getDefault();
+        ClusterCallExecutor logsExecutor = executors.get("logs");
+
+        assertThat(executors.get(ElasticsearchClients.DEFAULT)).isSameAs(defaultExecutor);
+        assertThat(logsExecutor).isNotSameAs(defaultExecutor);
+        assertThat(defaultExecutor.getCluster()).isEqualTo(ElasticsearchClients.DEFAULT);
+        assertThat(logsExecutor.getCluster()).isEqualTo("logs");
+        assertThat(logsExecutor.getClient()).isSameAs(clients.getClient("logs"));
+        assertThat(getAsync(defaultExecutor, "1").get(10, TimeUnit.SECONDS).getIndex()).isEqualTo("springboot");
+        assertThat(getAsync(logsExecutor, "1").get(10, TimeUnit.SECONDS).getIndex()).isEqualTo("logs");
+        assertThat(logsExecutor.submit(client -> client.get(new GetRequest("any", "1"), clients.getCluster("logs").getRequestOptions()))
+                .get(10, TimeUnit.SECONDS).getIndex()).isEqualTo("logs");
+        assertThatThrownBy(() -> executors.get("missing")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * 异步调用的失败原样传给调用方,不被ExecutionException包装
+     */
+    @Test
+    void asyncFailureCompletesWithTheOriginalException() {
+        ClusterCallExecutor executor = executors.get("logs");
+        CompletableFuture<GetResponse> failed = getAsync(executor, "broken");
+
+        Throwable thrown = catchThrowable(() -> failed.get(10, TimeUnit.SECONDS));
+        assertThat(thrown).isInstanceOf(ExecutionException.class);
+        assertThat(thrown.getCause()).isInstanceOf(ElasticsearchStatusException.class);
+        assertThat(((ElasticsearchStatusException) thrown.getCause()).status()).isEqualTo(RestStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * submitAll的每个调用走submitAsync,结果顺序与传入顺序一致
+     */
+    @Test
+    void submitAllKeepsTheOrderOfTheCalls() throws Exception {
+        ClusterCallExecutor executor = executors.get("logs");
+        List<AsyncCall<GetResponse>> calls = new ArrayList<>();
+        for (String id : new String[]{"1", "2", "1"}) {
+            GetRequest request = new GetRequest("any", id);
+            calls.add((options, listener) -> executor.getClient().getAsync(request, options, listener));
+        }
+
+        List<GetResponse> responses = executor.submitAll(calls).get(10, TimeUnit.SECONDS);
+
+        assertThat(responses).extracting(GetResponse::isExists).containsExactly(true, false, true);
+        assertThat(responses).extracting(GetResponse::getIndex).containsOnly("logs");
+    }
+
+    @Test
+    void closeClosesEveryExecutor() throws Exception {
+        ClusterCallExecutor logsExecutor = executors.get("logs");
+        assertThat(getAsync(logsExecutor, "1").get(10, TimeUnit.SECONDS).isExists()).isTrue();
+
+        executors.close();
+        assertThatThrownBy(() -> getAsync(logsExecutor, "1").get(10, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThatThrownBy(() -> executors.get("logs")).isInstanceOf(IllegalStateException.class);
+    }
+}
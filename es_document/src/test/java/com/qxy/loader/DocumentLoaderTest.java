@@ -0,0 +1,156 @@
+package com.qxy.loader;
+
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/1 9:30
+ * @Introduction: DocumentLoader的_source过滤合并与裁剪、文档去重和按slot分发;桩服务器按mget的顺序返回文档的完整_source,不做过滤
+ */
+class DocumentLoaderTest {
+    private static final Pattern ID = Pattern.compile("\"_id\":\"([^\"]+)\"");
+
+    private StubElasticsearch server;
+    private RestHighLevelClient client;
+    private DocumentLoader loader;
+    private final List<String> mgetBodies = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = StubElasticsearch.start(this::handle);
+        client = server.newClient();
+        //只由flush()发送,批次内容是确定的
+        loader = DocumentLoader.builder(client).maxDelay(TimeValue.timeValueMinutes(1)).build();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        loader.close();
+        client.close();
+        server.close();
+    }
+
+    private StubResponse handle(StubRequest request) {
+        String body = request.getBodyAsString();
+        mgetBodies.add(body);
+        StringBuilder docs = new StringBuilder("{\"docs\":[");
+        Matcher matcher = ID.matcher(body);
+        for (int i = 0; matcher.find(); i++) {
+            String id = matcher.group(1);
+            docs.append(i == 0 ? "" : ",")
+                    .append("{\"_index\":\"book\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+                    .append("\",\"_version\":1,\"_seq_no\":0,\"_primary_term\":1,\"found\":true,")
+                    .append("\"_source\":{\"name\":\"book").append(id).append("\",\"price\":10}}");
+        }
+        return StubResponse.json(docs.append("]}").toString());
+    }
+
+    private static DocumentLoader.Load load(String[] includes, String[] excludes) {
+        return new DocumentLoader.Load(new GetRequest("book", "1").fetchSourceContext(new FetchSourceContext(true, includes, excludes)));
+    }
+
+    private static GetResponse response() {
+        return new GetResponse(new GetResult("book", "_doc", "1", 0, 1, 1, true,
+                new BytesArray("{\"name\":\"java\",\"price\":10,\"author\":{\"name\":\"rose\"}}"),
+                Collections.emptyMap(), Collections.emptyMap()));
+    }
+
+    @Test
+    void mergeUnionsIncludesAndIntersectsExcludes() {
+        FetchSourceContext merged = DocumentLoader.merge(Arrays.asList(
+                load(new String[]{"name"}, new String[]{"author.*", "price"}),
+                load(new String[]{"price"}, new String[]{"author.*"})));
+
+        assertThat(merged.fetchSource()).isTrue();
+        assertThat(merged.includes()).containsExactly("name", "price");
+        assertThat(merged.excludes()).containsExactly("author.*");
+    }
+
+    @Test
+    void mergeFetchesEverythingWhenAnyCallerWantsTheWholeSource() {
+        DocumentLoader.Load all = new DocumentLoader.Load(new GetRequest("book", "1"));
+        DocumentLoader.Load none = new DocumentLoader.Load(new GetRequest("book", "1").fetchSourceContext(FetchSourceContext.DO_NOT_FETCH_SOURCE));
+        DocumentLoader.Load name = load(new String[]{"name"}, new String[0]);
+
+        FetchSourceContext merged = DocumentLoader.merge(Arrays.asList(name, all, none));
+
+        assertThat(merged.fetchSource()).isTrue();
+        assertThat(merged.includes()).isEmpty();
+        assertThat(merged.excludes()).isEmpty();
+        assertThat(DocumentLoader.merge(Arrays.asList(none, none))).isSameAs(FetchSourceContext.DO_NOT_FETCH_SOURCE);
+    }
+
+    @Test
+    void trimAppliesTheCallersOwnFilter() throws IOException {
+        GetResponse included = DocumentLoader.trim(response(), new FetchSourceContext(true, new String[]{"name", "author.*"}, new String[]{"author.name"}));
+        GetResponse withoutSource = DocumentLoader.trim(response(), FetchSourceContext.DO_NOT_FETCH_SOURCE);
+        GetResponse whole = response();
+
+        assertThat(included.getSourceAsMap()).containsOnlyKeys("name");
+        assertThat(withoutSource.isExists()).isTrue();
+        assertThat(withoutSource.isSourceEmpty()).isTrue();
+        assertThat(DocumentLoader.trim(whole, FetchSourceContext.FETCH_SOURCE)).isSameAs(whole);
+    }
+
+    /**
+     * 同一个文档只请求一次,每个调用方得到按自己的过滤条件裁剪的、互不影响的响应
+     */
+    @Test
+    void duplicateLoadsShareOneItemButGetTheirOwnResponses() throws Exception {
+        CompletableFuture<GetResponse> whole = loader.load("book", "1");
+        CompletableFuture<GetResponse> again = loader.load("book", "1");
+        CompletableFuture<GetResponse> nameOnly = loader.load(new GetRequest("book", "1")
+                .fetchSourceContext(new FetchSourceContext(true, new String[]{"name"}, null)));
+        CompletableFuture<GetResponse> other = loader.load("book", "2");
+        loader.flush();
+
+        GetResponse first = whole.get(10, TimeUnit.SECONDS);
+        GetResponse second = again.get(10, TimeUnit.SECONDS);
+        assertThat(mgetBodies).hasSize(1);
+        assertThat(loader.getItems()).isEqualTo(2);
+        assertThat(first).isNotSameAs(second);
+        first.getSourceAsMap().put("name", "changed");
+        assertThat(second.getSourceAsMap()).containsEntry("name", "book1").containsEntry("price", 10);
+        assertThat(nameOnly.get(10, TimeUnit.SECONDS).getSourceAsMap()).containsOnlyKeys("name");
+        assertThat(other.get(10, TimeUnit.SECONDS).getSourceAsMap()).containsEntry("name", "book2");
+    }
+
+    /**
+     * 调用方的过滤条件就是mget使用的条件时直接返回mget的结果;桩服务器不做过滤,能看出没有再次裁剪
+     */
+    @Test
+    void responseIsNotTrimmedWhenTheFilterEqualsTheMergedOne() throws Exception {
+        FetchSourceContext name = new FetchSourceContext(true, new String[]{"name"}, null);
+        CompletableFuture<GetResponse> first = loader.load(new GetRequest("book", "1").fetchSourceContext(name));
+        CompletableFuture<GetResponse> second = loader.load(new GetRequest("book", "2").fetchSourceContext(name));
+        loader.flush();
+
+        assertThat(first.get(10, TimeUnit.SECONDS).getSourceAsMap()).containsKeys("name", "price");
+        assertThat(second.get(10, TimeUnit.SECONDS).getSourceAsMap()).containsKeys("name", "price");
+        assertThat(mgetBodies.get(0)).contains("\"includes\":[\"name\"]");
+    }
+}
@@ -0,0 +1,93 @@
+package com.qxy.agg;
+
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+
+import java.time.DayOfWeek;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/22 10:10
+ * @Introduction: 时间桶的粒度,客户端按与es date_histogram相同的规则计算桶的起止时间
+ */
+public enum BucketInterval {
+    DAY(DateHistogramInterval.DAY) {
+        @Override
+        ZonedDateTime floor(ZonedDateTime time) {
+            return time.truncatedTo(ChronoUnit.DAYS);
+        }
+
+        @Override
+        ZonedDateTime next(ZonedDateTime start) {
+            return start.plusDays(1);
+        }
+    },
+    WEEK(DateHistogramInterval.WEEK) {
+        @Override
+        ZonedDateTime floor(ZonedDateTime time) {
+            //与es一致,周一为一周的第一天
+            return time.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+
+        @Override
+        ZonedDateTime next(ZonedDateTime start) {
+            return start.plusWeeks(1);
+        }
+    },
+    MONTH(DateHistogramInterval.MONTH) {
+        @Override
+        ZonedDateTime floor(ZonedDateTime time) {
+            return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+        }
+
+        @Override
+        ZonedDateTime next(ZonedDateTime start) {
+            return start.plusMonths(1);
+        }
+    },
+    QUARTER(DateHistogramInterval.QUARTER) {
+        @Override
+        ZonedDateTime floor(ZonedDateTime time) {
+            int month = (time.getMonthValue() - 1) / 3 * 3 + 1;
+            return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).withMonth(month);
+        }
+
+        @Override
+        ZonedDateTime next(ZonedDateTime start) {
+            return start.plusMonths(3);
+        }
+    },
+    YEAR(DateHistogramInterval.YEAR) {
+        @Override
+        ZonedDateTime floor(ZonedDateTime time) {
+            return time.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+        }
+
+        @Override
+        ZonedDateTime next(ZonedDateTime start) {
+            return start.plusYears(1);
+        }
+    };
+
+    private final DateHistogramInterval histogramInterval;
+
+    BucketInterval(DateHistogramInterval histogramInterval) {
+        this.histogramInterval = histogramInterval;
+    }
+
+    DateHistogramInterval getHistogramInterval() {
+        return histogramInterval;
+    }
+
+    /**
+     * 所在桶的开始时间
+     */
+    abstract ZonedDateTime floor(ZonedDateTime time);
+
+    /**
+     * 下一个桶的开始时间,即当前桶的结束时间(不含)
+     */
+    abstract ZonedDateTime next(ZonedDateTime start);
+}
@@ -0,0 +1,66 @@
+package com.qxy.agg;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/22 10:10
+ * @Introduction: 可合并的桶统计值: 个数、总和、最小值、最大值,平均值由总和和个数算出
+ * <p>
+ * 只保存可合并的量,任意多个桶合并的结果与直接对合并后的时间范围做聚合一致
+ */
+public class BucketStats {
+    public static final BucketStats EMPTY = new BucketStats(0, 0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+    private final long docCount;
+    private final long valueCount;
+    private final double sum;
+    private final double min;
+    private final double max;
+
+    public BucketStats(long docCount, long valueCount, double sum, double min, double max) {
+        this.docCount = docCount;
+        this.valueCount = valueCount;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public BucketStats merge(BucketStats other) {
+        return new BucketStats(docCount + other.docCount, valueCount + other.valueCount, sum + other.sum,
+                Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    public long getDocCount() {
+        return docCount;
+    }
+
+    /**
+     * 统计字段有值的文档数
+     */
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * 没有值时为Infinity,与es的min聚合一致
+     */
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getAvg() {
+        return valueCount == 0 ? Double.NaN : sum / valueCount;
+    }
+
+    @Override
+    public String toString() {
+        return "{docCount=" + docCount + ", sum=" + sum + ", min=" + min + ", max=" + max + ", avg=" + getAvg() + '}';
+    }
+}
@@ -0,0 +1,366 @@
+package com.qxy.agg;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Stats;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/22 10:10
+ * @Introduction: 按时间桶增量聚合: 已结束的桶(封存桶)只聚合一次并缓存,之后的请求只对未结束的桶做带range过滤的聚合
+ * <p>
+ * 1、桶结束时间 + sealDelay 早于当前时间时封存,sealDelay用于容纳迟到的数据
+ * 2、请求的时间范围向外对齐到桶边界,不会出现只缓存了半个桶的情况
+ * 3、历史数据被修改(重新导入、删除)后需要调用invalidate
+ * 4、分组时每个桶取前groupSize个分组,跨桶合并分组是近似值,分组数少于groupSize时是精确值
+ */
+@Slf4j
+public class SealedBucketAggregator {
+    private static final String HISTOGRAM = "buckets";
+    private static final String STATS = "stats";
+    private static final String GROUPS = "groups";
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final String index;
+    private final String dateField;
+    private final BucketInterval interval;
+    private final String metricField;
+    private final String groupField;
+    private final int groupSize;
+    private final QueryBuilder query;
+    private final ZoneId zone;
+    private final long sealDelayMillis;
+    private final DateTimeFormatter formatter;
+
+    /**
+     * key为桶的开始时间(毫秒)
+     */
+    private final TreeMap<Long, TimeBucket> sealed = new TreeMap<>();
+
+    private final LongAdder cachedBuckets = new LongAdder();
+    private final LongAdder aggregatedBuckets = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+
+    private SealedBucketAggregator(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.index = builder.index;
+        this.dateField = builder.dateField;
+        this.interval = builder.interval;
+        this.metricField = builder.metricField;
+        this.groupField = builder.groupField;
+        this.groupSize = builder.groupSize;
+        this.query = builder.query;
+        this.zone = builder.zone;
+        this.sealDelayMillis = builder.sealDelay.millis();
+        this.formatter = DateTimeFormatter.ofPattern(builder.format).withZone(builder.zone);
+    }
+
+    /**
+     * @param dateField 日期字段,例如sold_date
+     */
+    public static Builder builder(RestHighLevelClient client, String index, String dateField) {
+        return new Builder(client, index, dateField);
+    }
+
+    /**
+     * 聚合[from, to)内的每个桶,包括没有数据的桶
+     *
+     * @param from 开始时间,向前对齐到桶的开始
+     * @param to   结束时间(不含),向后对齐到桶的结束
+     * @return 按时间升序的桶
+     * @throws IOException IOException
+     */
+    public List<TimeBucket> aggregate(ZonedDateTime from, ZonedDateTime to) throws IOException {
+        long sealBoundary = interval.floor(ZonedDateTime.now(zone).minusNanos(sealDelayMillis * 1_000_000)).toInstant().toEpochMilli();
+        List<ZonedDateTime> starts = new ArrayList<>();
+        ZonedDateTime end = interval.floor(from.withZoneSameInstant(zone));
+        while (end.isBefore(to)) {
+            starts.add(end);
+            end = interval.next(end);
+        }
+        if (starts.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        //1、缺失的封存桶: 一次聚合从第一个缺失到最后一个缺失的范围,中间已缓存的桶一并刷新
+        ZonedDateTime firstMissing = null;
+        ZonedDateTime lastMissing = null;
+        synchronized (sealed) {
+            for (ZonedDateTime start : starts) {
+                long key = millis(start);
+                if (key < sealBoundary && !sealed.containsKey(key)) {
+                    if (firstMissing == null) {
+                        firstMissing = start;
+                    }
+                    lastMissing = start;
+                }
+            }
+        }
+        Map<Long, TimeBucket> fetched = Collections.emptyMap();
+        if (firstMissing != null) {
+            fetched = fetch(firstMissing, interval.next(lastMissing), true);
+            synchronized (sealed) {
+                sealed.putAll(fetched);
+            }
+        }
+
+        //2、未封存的桶每次都聚合,不缓存
+        Map<Long, TimeBucket> open = Collections.emptyMap();
+        ZonedDateTime firstOpen = null;
+        for (ZonedDateTime start : starts) {
+            if (millis(start) >= sealBoundary) {
+                firstOpen = start;
+                break;
+            }
+        }
+        if (firstOpen != null) {
+            open = fetch(firstOpen, end, false);
+        }
+
+        //3、按时间顺序合并
+        List<TimeBucket> buckets = new ArrayList<>(starts.size());
+        synchronized (sealed) {
+            for (ZonedDateTime start : starts) {
+                long key = millis(start);
+                if (key < sealBoundary) {
+                    buckets.add(sealed.get(key));
+                    if (!fetched.containsKey(key)) {
+                        cachedBuckets.increment();
+                    }
+                } else {
+                    buckets.add(open.get(key));
+                }
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * 清空全部封存桶
+     */
+    public void invalidate() {
+        synchronized (sealed) {
+            sealed.clear();
+        }
+    }
+
+    /**
+     * 清空[from, to)范围内的封存桶,用于历史数据被修改后
+     */
+    public void invalidate(ZonedDateTime from, ZonedDateTime to) {
+        synchronized (sealed) {
+            sealed.subMap(millis(interval.floor(from.withZoneSameInstant(zone))), millis(to)).clear();
+        }
+    }
+
+    /**
+     * 聚合[from, to)范围,返回范围内每个桶(没有数据的桶补0)
+     */
+    private Map<Long, TimeBucket> fetch(ZonedDateTime from, ZonedDateTime to, boolean seal) throws IOException {
+        BoolQueryBuilder filter = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.rangeQuery(dateField).gte(millis(from)).lt(millis(to)).format("epoch_millis"));
+        if (query != null) {
+            filter.filter(query);
+        }
+        DateHistogramAggregationBuilder histogram = AggregationBuilders.dateHistogram(HISTOGRAM)
+                .field(dateField)
+                .calendarInterval(interval.getHistogramInterval())
+                .timeZone(zone);
+        if (metricField != null) {
+            histogram.subAggregation(AggregationBuilders.stats(STATS).field(metricField));
+        }
+        if (groupField != null) {
+            if (metricField != null) {
+                histogram.subAggregation(AggregationBuilders.terms(GROUPS).field(groupField).size(groupSize)
+                        .subAggregation(AggregationBuilders.stats(STATS).field(metricField)));
+            } else {
+                histogram.subAggregation(AggregationBuilders.terms(GROUPS).field(groupField).size(groupSize));
+            }
+        }
+        SearchSourceBuilder source = new SearchSourceBuilder().size(0).query(filter).aggregation(histogram);
+        SearchResponse response = client.search(new SearchRequest(index).source(source), options);
+        queries.increment();
+        if (seal && (response.getFailedShards() > 0 || response.isTimedOut())) {
+            throw new IOException("partial aggregation result of [" + index + "], refuse to seal buckets");
+        }
+
+        Map<Long, TimeBucket> buckets = new HashMap<>();
+        Histogram result = response.getAggregations().get(HISTOGRAM);
+        for (Histogram.Bucket bucket : result.getBuckets()) {
+            long key = ((ZonedDateTime) bucket.getKey()).toInstant().toEpochMilli();
+            Map<String, BucketStats> groups = new LinkedHashMap<>();
+            if (groupField != null) {
+                Terms terms = bucket.getAggregations().get(GROUPS);
+                for (Terms.Bucket group : terms.getBuckets()) {
+                    groups.put(group.getKeyAsString(), stats(group.getDocCount(), group.getAggregations()));
+                }
+            }
+            buckets.put(key, bucket(key, seal, stats(bucket.getDocCount(), bucket.getAggregations()), groups));
+        }
+        for (ZonedDateTime start = from; start.isBefore(to); start = interval.next(start)) {
+            aggregatedBuckets.increment();
+            buckets.putIfAbsent(millis(start), bucket(millis(start), seal, BucketStats.EMPTY, new LinkedHashMap<>()));
+        }
+        log.debug("aggregated [{}] {} from {} to {}, sealed: {}", index, interval, from, to, seal);
+        return buckets;
+    }
+
+    private BucketStats stats(long docCount, Aggregations aggregations) {
+        if (metricField == null) {
+            return new BucketStats(docCount, 0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        }
+        Stats stats = aggregations.get(STATS);
+        return new BucketStats(docCount, stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax());
+    }
+
+    private TimeBucket bucket(long key, boolean seal, BucketStats stats, Map<String, BucketStats> groups) {
+        ZonedDateTime time = Instant.ofEpochMilli(key).atZone(zone);
+        return new TimeBucket(time, formatter.format(time), seal, stats, groups);
+    }
+
+    private static long millis(ZonedDateTime time) {
+        return time.toInstant().toEpochMilli();
+    }
+
+    /**
+     * 直接从缓存返回的封存桶数
+     */
+    public long getCachedBuckets() {
+        return cachedBuckets.sum();
+    }
+
+    /**
+     * 由es聚合的桶数(封存桶和未封存桶)
+     */
+    public long getAggregatedBuckets() {
+        return aggregatedBuckets.sum();
+    }
+
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    public int getSealedBuckets() {
+        synchronized (sealed) {
+            return sealed.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SealedBucketAggregator{index=" + index + ", interval=" + interval + ", sealedBuckets=" + getSealedBuckets()
+                + ", cachedBuckets=" + getCachedBuckets() + ", aggregatedBuckets=" + getAggregatedBuckets()
+                + ", queries=" + getQueries() + '}';
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private final String index;
+        private final String dateField;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private BucketInterval interval = BucketInterval.DAY;
+        private String metricField;
+        private String groupField;
+        private int groupSize = 10;
+        private QueryBuilder query;
+        private ZoneId zone = ZoneOffset.UTC;
+        private TimeValue sealDelay = TimeValue.timeValueMinutes(5);
+        private String format = "yyyy-MM-dd";
+
+        private Builder(RestHighLevelClient client, String index, String dateField) {
+            this.client = client;
+            this.index = index;
+            this.dateField = dateField;
+        }
+
+        public Builder options(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Builder interval(BucketInterval interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * 统计个数之外,再统计该数值字段的总和、最小值、最大值、平均值
+         */
+        public Builder metric(String metricField) {
+            this.metricField = metricField;
+            return this;
+        }
+
+        /**
+         * 每个桶内再按该字段分组,取前size个分组
+         */
+        public Builder group(String groupField, int size) {
+            this.groupField = groupField;
+            this.groupSize = size;
+            return this;
+        }
+
+        /**
+         * 附加的过滤条件,不同的条件要使用不同的实例
+         */
+        public Builder query(QueryBuilder query) {
+            this.query = query;
+            return this;
+        }
+
+        public Builder zone(ZoneId zone) {
+            this.zone = zone;
+            return this;
+        }
+
+        /**
+         * 桶结束后再等待多久才封存
+         */
+        public Builder sealDelay(TimeValue sealDelay) {
+            this.sealDelay = sealDelay;
+            return this;
+        }
+
+        /**
+         * 桶的keyAsString格式
+         */
+        public Builder format(String format) {
+            this.format = format;
+            return this;
+        }
+
+        public SealedBucketAggregator build() {
+            return new SealedBucketAggregator(this);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.qxy.agg;
+
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/22 10:10
+ * @Introduction: 一个时间桶的聚合结果,可选按某个字段再分组
+ */
+public class TimeBucket {
+    private final ZonedDateTime key;
+    private final String keyAsString;
+    private final boolean sealed;
+    private final BucketStats stats;
+    private final Map<String, BucketStats> groups;
+
+    TimeBucket(ZonedDateTime key, String keyAsString, boolean sealed, BucketStats stats, Map<String, BucketStats> groups) {
+        this.key = key;
+        this.keyAsString = keyAsString;
+        this.sealed = sealed;
+        this.stats = stats;
+        this.groups = Collections.unmodifiableMap(groups);
+    }
+
+    /**
+     * 合并多个桶,例如把各季度合并为全年
+     */
+    public static BucketStats total(List<TimeBucket> buckets) {
+        BucketStats total = BucketStats.EMPTY;
+        for (TimeBucket bucket : buckets) {
+            total = total.merge(bucket.stats);
+        }
+        return total;
+    }
+
+    /**
+     * 合并多个桶的分组结果
+     */
+    public static Map<String, BucketStats> totalGroups(List<TimeBucket> buckets) {
+        Map<String, BucketStats> total = new LinkedHashMap<>();
+        for (TimeBucket bucket : buckets) {
+            bucket.groups.forEach((group, stats) -> total.merge(group, stats, BucketStats::merge));
+        }
+        return total;
+    }
+
+    public ZonedDateTime getKey() {
+        return key;
+    }
+
+    public String getKeyAsString() {
+        return keyAsString;
+    }
+
+    /**
+     * 是否已封存(来自缓存或已写入缓存),未封存的桶每次请求都会重新聚合
+     */
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public BucketStats getStats() {
+        return stats;
+    }
+
+    public Map<String, BucketStats> getGroups() {
+        return groups;
+    }
+
+    @Override
+    public String toString() {
+        return keyAsString + (sealed ? "(sealed)" : "(open)") + stats + (groups.isEmpty() ? "" : " " + groups);
+    }
+}
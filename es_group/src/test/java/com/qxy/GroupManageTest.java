@@ -1,5 +1,11 @@
 package com.qxy;
 
+import com.qxy.agg.BucketInterval;
+import com.qxy.agg.SealedBucketAggregator;
+import com.qxy.agg.TimeBucket;
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import com.qxy.common.metrics.MeteredClient;
+import com.qxy.common.metrics.OperationStats;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
@@ -21,6 +27,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.IOException;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.List;
 
@@ -36,6 +43,12 @@ public class GroupManageTest {
     @Autowired
     RestHighLevelClient client;
 
+    @Autowired
+    MeteredClient meteredClient;
+
+    @Autowired
+    ElasticsearchMetrics elasticsearchMetrics;
+
     /**
      * 需求一：按照颜色分组，计算每个颜色卖出的个数
      */
@@ -256,4 +269,45 @@ public class GroupManageTest {
             System.out.println("-----------------");
         }
     }
+
+    /**
+     * 需求五(增量): 过去的季度只聚合一次,之后只聚合当前季度
+     */
+    @Test
+    public void testQuestion5Sealed() throws IOException {
+        SealedBucketAggregator aggregator = SealedBucketAggregator.builder(client, "tvs", "sold_date")
+                .interval(BucketInterval.QUARTER)
+                .metric("price")
+                .group("color", 10)
+                .build();
+        ZonedDateTime from = ZonedDateTime.of(2019, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        ZonedDateTime to = ZonedDateTime.now(ZoneOffset.UTC);
+        for (int i = 0; i < 2; i++) {
+            List<TimeBucket> buckets = aggregator.aggregate(from, to);
+            for (TimeBucket bucket : buckets) {
+                log.info("date: {}, docCount: {}, income: {}", bucket.getKeyAsString(),
+                        bucket.getStats().getDocCount(), bucket.getStats().getSum());
+            }
+            log.info("total: {}", TimeBucket.total(buckets));
+        }
+        //第二次只有当前季度访问了es
+        log.info("{}", aggregator);
+    }
+
+    /**
+     * 通过MeteredClient执行需求一的聚合,带聚合的查询记为aggregation操作
+     */
+    @Test
+    public void testQuestion1Metrics() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            SearchRequest request = new SearchRequest("tvs");
+            request.source(new SearchSourceBuilder()
+                    .size(0)
+                    .aggregation(AggregationBuilders.terms("groupby_color").field("color")));
+            meteredClient.search(request);
+        }
+        for (OperationStats stats : elasticsearchMetrics.getOperations()) {
+            log.info("{}", stats);
+        }
+    }
 }
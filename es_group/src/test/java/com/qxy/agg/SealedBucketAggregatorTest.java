@@ -0,0 +1,144 @@
+package com.qxy.agg;
+
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/10 16:00
+ * @Introduction: SealedBucketAggregator按桶解析分组和跨桶合并分组;桩服务器返回固定的按天聚合结果,全部是已封存的桶
+ * <p>
+ * 1月1日: red 2条(1000、2000),blue 1条(3000);1月2日: red 1条(500),green 2条(4000、4000);1月3日没有数据
+ */
+class SealedBucketAggregatorTest {
+    private static final ZonedDateTime FROM = ZonedDateTime.of(2023, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final ZonedDateTime TO = FROM.plusDays(3);
+
+    private static final String RESPONSE = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":6,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]},"
+            + "\"aggregations\":{\"date_histogram#buckets\":{\"buckets\":["
+            + bucket("2023-01-01", 1672531200000L, 3, stats(3, 1000, 3000, 6000),
+            group("red", 2, stats(2, 1000, 2000, 3000)), group("blue", 1, stats(1, 3000, 3000, 3000))) + ","
+            + bucket("2023-01-02", 1672617600000L, 3, stats(3, 500, 4000, 8500),
+            group("red", 1, stats(1, 500, 500, 500)), group("green", 2, stats(2, 4000, 4000, 8000)))
+            + "]}}}";
+
+    private StubElasticsearch server;
+    private RestHighLevelClient client;
+    private final Queue<String> requests = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = StubElasticsearch.start(this::handle);
+        client = server.newClient();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private StubResponse handle(StubRequest request) {
+        requests.add(request.getMethod() + " " + request.getPath() + " " + request.getBodyAsString());
+        return StubResponse.json(RESPONSE);
+    }
+
+    private static String bucket(String date, long key, long docCount, String stats, String... groups) {
+        return "{\"key_as_string\":\"" + date + "T00:00:00.000Z\",\"key\":" + key + ",\"doc_count\":" + docCount
+                + ",\"stats#stats\":" + stats
+                + ",\"sterms#groups\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,\"buckets\":["
+                + String.join(",", groups) + "]}}";
+    }
+
+    private static String group(String key, long docCount, String stats) {
+        return "{\"key\":\"" + key + "\",\"doc_count\":" + docCount + ",\"stats#stats\":" + stats + "}";
+    }
+
+    private static String stats(long count, double min, double max, double sum) {
+        return "{\"count\":" + count + ",\"min\":" + min + ",\"max\":" + max + ",\"avg\":" + sum / count + ",\"sum\":" + sum + "}";
+    }
+
+    private SealedBucketAggregator aggregator() {
+        return SealedBucketAggregator.builder(client, "tvs", "sold_date")
+                .metric("price")
+                .group("color", 10)
+                .build();
+    }
+
+    /**
+     * 每个桶保留自己的分组,没有数据的桶补为空分组
+     */
+    @Test
+    void groupsAreParsedPerBucket() throws IOException {
+        List<TimeBucket> buckets = aggregator().aggregate(FROM, TO);
+
+        assertThat(buckets).extracting(TimeBucket::getKeyAsString).containsExactly("2023-01-01", "2023-01-02", "2023-01-03");
+        assertThat(buckets).allMatch(TimeBucket::isSealed);
+        assertThat(buckets.get(0).getGroups()).containsOnlyKeys("red", "blue");
+        assertThat(buckets.get(1).getGroups()).containsOnlyKeys("red", "green");
+        assertThat(buckets.get(2).getGroups()).isEmpty();
+        assertThat(buckets.get(2).getStats().getDocCount()).isZero();
+        assertThat(requests).hasSize(1);
+        assertThat(requests.peek()).startsWith("POST /tvs/_search")
+                .contains("\"terms\":{\"field\":\"color\",\"size\":10");
+    }
+
+    /**
+     * 同名分组跨桶合并: 个数和总和相加,最小值和最大值取两边的极值,分组按第一次出现的顺序
+     */
+    @Test
+    void groupsAreMergedAcrossBuckets() throws IOException {
+        Map<String, BucketStats> groups = TimeBucket.totalGroups(aggregator().aggregate(FROM, TO));
+
+        assertThat(groups.keySet()).containsExactly("red", "blue", "green");
+        BucketStats red = groups.get("red");
+        assertThat(red.getDocCount()).isEqualTo(3);
+        assertThat(red.getValueCount()).isEqualTo(3);
+        assertThat(red.getSum()).isEqualTo(3500);
+        assertThat(red.getMin()).isEqualTo(500);
+        assertThat(red.getMax()).isEqualTo(2000);
+        assertThat(red.getAvg()).isCloseTo(3500 / 3.0, within(1e-9));
+        assertThat(groups.get("blue").getSum()).isEqualTo(3000);
+        assertThat(groups.get("green").getDocCount()).isEqualTo(2);
+        assertThat(groups.get("green").getMin()).isEqualTo(4000);
+    }
+
+    /**
+     * 合并的分组与合并的桶统计一致,从缓存返回的封存桶合并出同样的结果
+     */
+    @Test
+    void cachedBucketsMergeToTheSameGroups() throws IOException {
+        SealedBucketAggregator aggregator = aggregator();
+        List<TimeBucket> first = aggregator.aggregate(FROM, TO);
+        List<TimeBucket> second = aggregator.aggregate(FROM, TO);
+
+        assertThat(requests).hasSize(1);
+        assertThat(aggregator.getCachedBuckets()).isEqualTo(3);
+        assertThat(second).containsExactlyElementsOf(first);
+        BucketStats total = TimeBucket.total(second);
+        long groupDocCount = TimeBucket.totalGroups(second).values().stream().mapToLong(BucketStats::getDocCount).sum();
+        double groupSum = TimeBucket.totalGroups(second).values().stream().mapToDouble(BucketStats::getSum).sum();
+        assertThat(total.getDocCount()).isEqualTo(6).isEqualTo(groupDocCount);
+        assertThat(total.getSum()).isEqualTo(14500).isEqualTo(groupSum);
+        assertThat(total.getMin()).isEqualTo(500);
+        assertThat(total.getMax()).isEqualTo(4000);
+    }
+}
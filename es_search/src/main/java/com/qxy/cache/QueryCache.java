@@ -0,0 +1,425 @@
+package com.qxy.cache;
+
+import com.qxy.common.client.ResponseSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/21 9:30
+ * @Introduction: 客户端查询结果缓存,放在RestHighLevelClient.search前面,用于看板这类重复度很高的查询
+ * <p>
+ * 1、key是索引、type、routing、preference、searchType、indicesOptions、allowPartialSearchResults、
+ * batchedReduceSize和source序列化后的JSON(字段顺序由SearchSourceBuilder决定,不做其他规范化),同样方式构建的请求得到同一个key
+ * 2、LRU淘汰,同时受条目数和估算内存限制
+ * 3、失效: 超过ttl;或索引的"代"变化——代由 _stats/indexing,refresh 的写入/删除/refresh次数组成,
+ * 写入后未refresh的数据本来就搜不到,refresh后代才会变化
+ * 4、代按(索引, indicesOptions)在后台异步探测,不在查询线程上等待: 探测结果超过probeInterval的一半时提前刷新,
+ * 超过probeInterval、还没有结果或统计不完整(如通配符没有匹配到索引)时本次查询不使用缓存
+ * 5、缓存保存的是ResponseSnapshot,命中时每次解析出新的SearchResponse,调用方可以修改;took等字段是首次查询时的值
+ * 6、scroll请求和requestCache(false)的请求不走缓存
+ */
+@Slf4j
+public class QueryCache {
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final long probeIntervalNanos;
+
+    /**
+     * accessOrder为true的LinkedHashMap即LRU,所有访问在synchronized(entries)内
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Probe> probes = new ConcurrentHashMap<>();
+    private long bytes;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+    private final LongAdder probeCount = new LongAdder();
+
+    private QueryCache(Builder builder) {
+        this.client = builder.client;
+        this.options = builder.options;
+        this.maxEntries = builder.maxEntries;
+        this.maxBytes = builder.maxBytes;
+        this.ttlNanos = builder.ttl.nanos();
+        this.probeIntervalNanos = builder.probeInterval.nanos();
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * 与RestHighLevelClient.search相同,命中且未失效时直接返回缓存的结果
+     *
+     * @param request 搜索请求
+     * @return 搜索结果
+     * @throws IOException IOException
+     */
+    public SearchResponse search(SearchRequest request) throws IOException {
+        if (request.scroll() != null || Boolean.FALSE.equals(request.requestCache())) {
+            return client.search(request, options);
+        }
+        Long generation = generation(request);
+        if (generation == null) {
+            return client.search(request, options);
+        }
+        String key = key(request);
+        long now = System.nanoTime();
+        Entry hit = null;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.generation == generation && now - entry.createdNanos < ttlNanos) {
+                    hit = entry;
+                } else {
+                    remove(key, entry);
+                    invalidationCount.increment();
+                }
+            }
+        }
+        if (hit != null) {
+            //快照不可变,解析在锁外进行
+            hitCount.increment();
+            return hit.snapshot.copy();
+        }
+        missCount.increment();
+        //查询在锁外进行,并发的相同查询各自执行,后完成的覆盖先完成的
+        SearchResponse response = client.search(request, options);
+        if (response.getFailedShards() == 0 && !response.isTimedOut()) {
+            //返回前生成快照,调用方之后对response的修改不会进入缓存
+            ResponseSnapshot<SearchResponse> snapshot = ResponseSnapshot.of(response);
+            put(key, new Entry(snapshot, generation, now, key.length() * 2L + snapshot.length()));
+        }
+        return response;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+        probes.clear();
+    }
+
+    private void put(String key, Entry entry) {
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            Entry old = entries.put(key, entry);
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+            bytes += entry.bytes;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                iterator.remove();
+                bytes -= eldest.bytes;
+                evictionCount.increment();
+            }
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+    }
+
+    /**
+     * 当前可用的代,必要时在后台发起探测;没有可用的代时返回null,本次不使用缓存
+     */
+    private Long generation(SearchRequest request) {
+        Probe probe = probes.computeIfAbsent(indices(request) + '|' + request.indicesOptions(), k -> new Probe());
+        Generation current = probe.current;
+        long age = current == null ? Long.MAX_VALUE : System.nanoTime() - current.probedNanos;
+        if (age >= probeIntervalNanos / 2) {
+            probe(probe, request);
+        }
+        return age < probeIntervalNanos ? current.value : null;
+    }
+
+    /**
+     * 同一个(索引, indicesOptions)同时只有一个探测;结果的时间取发起探测的时间
+     */
+    private void probe(Probe probe, SearchRequest searchRequest) {
+        if (!probe.probing.compareAndSet(false, true)) {
+            return;
+        }
+        probeCount.increment();
+        String indices = indices(searchRequest);
+        long start = System.nanoTime();
+        Request request = new Request("GET", "/" + indices + "/_stats/indexing,refresh");
+        request.addParameter("filter_path", "_all.total.indexing.index_total,_all.total.indexing.delete_total,_all.total.refresh.total");
+        addIndicesOptions(request, searchRequest.indicesOptions());
+        request.setOptions(options);
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                //filter_path之后响应只有几十字节,直接在回调线程上解析
+                try (InputStream in = response.getEntity().getContent()) {
+                    Long generation = parseGeneration(XContentHelper.convertToMap(JsonXContent.jsonXContent, in, false));
+                    if (generation == null) {
+                        log.debug("no indexing stats for [{}], bypass cache", indices);
+                    }
+                    probe.current = new Generation(generation, start);
+                } catch (IOException | RuntimeException e) {
+                    onFailure(e);
+                } finally {
+                    probe.probing.set(false);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                log.warn("failed to probe generation of [{}], bypass cache", indices, e);
+                probe.probing.set(false);
+            }
+        });
+    }
+
+    /**
+     * 与SearchRequest相同的indicesOptions,探测的索引与搜索的索引一致
+     */
+    private static void addIndicesOptions(Request request, IndicesOptions indicesOptions) {
+        request.addParameter("ignore_unavailable", Boolean.toString(indicesOptions.ignoreUnavailable()));
+        request.addParameter("allow_no_indices", Boolean.toString(indicesOptions.allowNoIndices()));
+        String expandWildcards;
+        if (indicesOptions.expandWildcardsOpen() && indicesOptions.expandWildcardsClosed()) {
+            expandWildcards = "all";
+        } else if (indicesOptions.expandWildcardsOpen()) {
+            expandWildcards = "open";
+        } else if (indicesOptions.expandWildcardsClosed()) {
+            expandWildcards = "closed";
+        } else {
+            expandWildcards = "none";
+        }
+        request.addParameter("expand_wildcards", expandWildcards);
+    }
+
+    /**
+     * total包含副本,搜索可能落在副本上,副本refresh后也要失效
+     *
+     * @return 统计不完整(没有匹配的索引、filter_path之后为空)时返回null
+     */
+    static Long parseGeneration(Map<String, Object> stats) {
+        Number indexTotal = number(stats, "_all", "total", "indexing", "index_total");
+        Number deleteTotal = number(stats, "_all", "total", "indexing", "delete_total");
+        Number refreshTotal = number(stats, "_all", "total", "refresh", "total");
+        if (indexTotal == null || deleteTotal == null || refreshTotal == null) {
+            return null;
+        }
+        long generation = indexTotal.longValue();
+        generation = generation * 31 + deleteTotal.longValue();
+        generation = generation * 31 + refreshTotal.longValue();
+        return generation;
+    }
+
+    private static Number number(Map<String, Object> map, String... path) {
+        Object value = map;
+        for (String name : path) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(name);
+        }
+        return value instanceof Number ? (Number) value : null;
+    }
+
+    /**
+     * 测试用: 发起探测并等待请求的代可用
+     */
+    boolean awaitProbe(SearchRequest request, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (generation(request) == null) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private static String indices(SearchRequest request) {
+        return request.indices().length == 0 ? "_all" : String.join(",", request.indices());
+    }
+
+    private static String key(SearchRequest request) {
+        StringBuilder key = new StringBuilder(256);
+        key.append(indices(request)).append('|')
+                .append(request.routing()).append('|')
+                .append(request.preference()).append('|')
+                .append(request.searchType()).append('|')
+                .append(request.indicesOptions()).append('|')
+                .append(Arrays.toString(request.types())).append('|')
+                .append(request.allowPartialSearchResults()).append('|')
+                .append(request.getBatchedReduceSize()).append('|');
+        if (request.source() != null) {
+            key.append(Strings.toString(request.source()));
+        }
+        return key.toString();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 因ttl或索引的代变化而失效的次数
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    public long getProbeCount() {
+        return probeCount.sum();
+    }
+
+    public int getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getEstimatedBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{entries=" + getEntries() + ", estimatedBytes=" + getEstimatedBytes()
+                + ", hitRatio=" + String.format("%.3f", getHitRatio()) + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+                + ", invalidations=" + getInvalidationCount() + ", probes=" + getProbeCount() + '}';
+    }
+
+    private static class Entry {
+        private final ResponseSnapshot<SearchResponse> snapshot;
+        private final long generation;
+        private final long createdNanos;
+        /**
+         * 按JSON长度估算,key为char按2字节
+         */
+        private final long bytes;
+
+        private Entry(ResponseSnapshot<SearchResponse> snapshot, long generation, long createdNanos, long bytes) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+            this.createdNanos = createdNanos;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Probe {
+        private volatile Generation current;
+        private final AtomicBoolean probing = new AtomicBoolean();
+    }
+
+    private static class Generation {
+        /**
+         * null: 统计不完整,不使用缓存
+         */
+        private final Long value;
+        private final long probedNanos;
+
+        private Generation(Long value, long probedNanos) {
+            this.value = value;
+            this.probedNanos = probedNanos;
+        }
+    }
+
+    public static class Builder {
+        private final RestHighLevelClient client;
+        private RequestOptions options = RequestOptions.DEFAULT;
+        private int maxEntries = 1000;
+        private long maxBytes = 64 * 1024 * 1024;
+        private TimeValue ttl = TimeValue.timeValueMinutes(1);
+        private TimeValue probeInterval = TimeValue.timeValueSeconds(1);
+
+        private Builder(RestHighLevelClient client) {
+            this.client = client;
+        }
+
+        public Builder options(RequestOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder ttl(TimeValue ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * 探测结果的有效期,也是写入后缓存可能返回旧结果的最长时间;超过一半时在后台提前探测
+         */
+        public Builder probeInterval(TimeValue probeInterval) {
+            this.probeInterval = probeInterval;
+            return this;
+        }
+
+        public QueryCache build() {
+            if (maxEntries <= 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("maxEntries and maxBytes must be positive");
+            }
+            return new QueryCache(this);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.qxy.config;
+
+import com.qxy.cache.QueryCache;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/21 9:30
+ * @Introduction: 向容器注入查询结果缓存
+ */
+@Configuration
+public class QueryCacheConfig {
+    @Value("${qxy.elasticsearch.queryCache.maxEntries:1000}")
+    private int maxEntries;
+
+    @Value("${qxy.elasticsearch.queryCache.maxBytes:67108864}")
+    private long maxBytes;
+
+    @Value("${qxy.elasticsearch.queryCache.ttl:60000}")
+    private long ttl;
+
+    @Value("${qxy.elasticsearch.queryCache.probeInterval:1000}")
+    private long probeInterval;
+
+    @Bean
+    public QueryCache queryCache(RestHighLevelClient client, RequestOptions requestOptions) {
+        return QueryCache.builder(client)
+                .options(requestOptions)
+                .maxEntries(maxEntries)
+                .maxBytes(maxBytes)
+                .ttl(TimeValue.timeValueMillis(ttl))
+                .probeInterval(TimeValue.timeValueMillis(probeInterval))
+                .build();
+    }
+}
@@ -0,0 +1,23 @@
+package com.qxy.export;
+
+import org.elasticsearch.search.SearchHit;
+
+import java.util.function.Consumer;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 15:40
+ * @Introduction: 把记录交给回调处理,回调会被多个slice线程并发调用
+ */
+public class CallbackSink implements HitSink {
+    private final Consumer<SearchHit> callback;
+
+    public CallbackSink(Consumer<SearchHit> callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void accept(int slice, SearchHit hit) {
+        callback.accept(hit);
+    }
+}
@@ -0,0 +1,80 @@
+package com.qxy.export;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 15:40
+ * @Introduction: 导出结果统计,用于对照分片数调整slice数
+ */
+public class ExportReport {
+    private final List<SliceStats> slices;
+    private final long elapsedNanos;
+
+    ExportReport(List<SliceStats> slices, long elapsedNanos) {
+        this.slices = Collections.unmodifiableList(slices);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<SliceStats> getSlices() {
+        return slices;
+    }
+
+    public long getRows() {
+        long rows = 0;
+        for (SliceStats slice : slices) {
+            rows += slice.getRows();
+        }
+        return rows;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : getRows() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportReport{rows=" + getRows() + ", elapsedMillis=" + getElapsedMillis()
+                + ", rowsPerSecond=" + (long) getRowsPerSecond() + ", slices=" + slices + '}';
+    }
+
+    public static class SliceStats {
+        private final int slice;
+        private final long rows;
+        private final long elapsedNanos;
+
+        SliceStats(int slice, long rows, long elapsedNanos) {
+            this.slice = slice;
+            this.rows = rows;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getSlice() {
+            return slice;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "{slice=" + slice + ", rows=" + rows + ", elapsedMillis=" + getElapsedMillis()
+                    + ", rowsPerSecond=" + (long) getRowsPerSecond() + '}';
+        }
+    }
+}
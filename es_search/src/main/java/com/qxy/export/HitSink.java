@@ -0,0 +1,28 @@
+package com.qxy.export;
+
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 15:40
+ * @Introduction: 导出数据的去处,多个分片(slice)的线程会并发调用,实现需要线程安全
+ * <p>
+ * accept阻塞时对应的slice停止拉取下一页,以此形成背压
+ */
+public interface HitSink extends AutoCloseable {
+    /**
+     * 接收一条记录
+     *
+     * @param slice 来自哪个slice
+     * @param hit   记录
+     * @throws Exception 抛出异常会终止整个导出
+     */
+    void accept(int slice, SearchHit hit) throws Exception;
+
+    /**
+     * 全部slice结束(成功或失败)后调用一次
+     */
+    @Override
+    default void close() throws Exception {
+    }
+}
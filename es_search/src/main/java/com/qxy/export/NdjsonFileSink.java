@@ -0,0 +1,38 @@
+package com.qxy.export;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 15:40
+ * @Introduction: 每条记录的_source原样写为一行(NDJSON),不解析为Map
+ */
+public class NdjsonFileSink implements HitSink {
+    private final OutputStream out;
+
+    public NdjsonFileSink(Path file) throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+    }
+
+    @Override
+    public synchronized void accept(int slice, SearchHit hit) throws IOException {
+        BytesReference source = hit.getSourceRef();
+        if (source == null) {
+            return;
+        }
+        source.writeTo(out);
+        out.write('\n');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
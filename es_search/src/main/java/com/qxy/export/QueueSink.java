@@ -0,0 +1,52 @@
+package com.qxy.export;
+
+import org.elasticsearch.search.SearchHit;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 15:40
+ * @Introduction: 把记录放入有界阻塞队列,队列满时slice线程阻塞;导出结束后放入END标记
+ * <p>
+ * 消费方已经停止取数据时,END标记最多等待closeTimeout,不会使导出永远不返回
+ */
+public class QueueSink implements HitSink {
+    /**
+     * 结束标记,消费方取到它(用==比较)说明没有更多数据
+     */
+    public static final SearchHit END = new SearchHit(-1, "_end", null, Collections.emptyMap());
+
+    private final BlockingQueue<SearchHit> queue;
+    private final long closeTimeoutMillis;
+
+    public QueueSink(BlockingQueue<SearchHit> queue) {
+        this(queue, TimeUnit.SECONDS.toMillis(30));
+    }
+
+    /**
+     * @param closeTimeoutMillis 队列满时放入END标记的最长等待时间(毫秒)
+     */
+    public QueueSink(BlockingQueue<SearchHit> queue, long closeTimeoutMillis) {
+        this.queue = queue;
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    @Override
+    public void accept(int slice, SearchHit hit) throws InterruptedException {
+        queue.put(hit);
+    }
+
+    /**
+     * @throws TimeoutException 等待closeTimeout后队列仍然是满的,消费方不会收到END标记
+     */
+    @Override
+    public void close() throws InterruptedException, TimeoutException {
+        if (!queue.offer(END, closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("queue is still full after " + closeTimeoutMillis + "ms, the end marker was not added");
+        }
+    }
+}
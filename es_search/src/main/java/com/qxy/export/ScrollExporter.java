@@ -0,0 +1,259 @@
+package com.qxy.export;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 15:40
+ * @Introduction: 全量导出引擎: sliced scroll,每个slice一个线程并行拉取,结果写入HitSink
+ * <p>
+ * 1、slice数建议不超过索引的分片数,超过后同一分片上的slice会互相抢资源
+ * 2、按_doc排序,跳过打分和排序,是scroll最快的方式
+ * 3、无论成功失败都会清理scroll上下文;任一slice失败则其余slice在下一页前停止
+ */
+@Slf4j
+public class ScrollExporter {
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final int slices;
+    private final int pageSize;
+    private final TimeValue keepAlive;
+    private final int maxWorkers;
+
+    public ScrollExporter(RestHighLevelClient client, int slices) {
+        this(client, RequestOptions.DEFAULT, slices, 1000, TimeValue.timeValueMinutes(1), slices);
+    }
+
+    /**
+     * @param slices     slice数
+     * @param pageSize   每个slice每次拉取的条数
+     * @param keepAlive  两次拉取之间scroll上下文的保留时间,需要大于sink处理一页的耗时
+     * @param maxWorkers 同时运行的slice线程上限,多余的slice排队
+     */
+    public ScrollExporter(RestHighLevelClient client, RequestOptions options, int slices, int pageSize,
+                          TimeValue keepAlive, int maxWorkers) {
+        if (slices <= 0 || maxWorkers <= 0) {
+            throw new IllegalArgumentException("slices and maxWorkers must be positive");
+        }
+        this.client = client;
+        this.options = options;
+        this.slices = slices;
+        this.pageSize = pageSize;
+        this.keepAlive = keepAlive;
+        this.maxWorkers = maxWorkers;
+    }
+
+    /**
+     * 导出请求匹配的全部记录,返回前会关闭sink
+     *
+     * @param request 搜索请求,source中影响命中和返回字段的部分都会保留(query、post_filter、_source过滤、
+     *                docvalue_fields、stored_fields、script_fields等);size、sort会被覆盖,from、search_after、
+     *                rescore(只影响打分顺序,与_doc排序冲突)以及不影响命中的聚合、suggest、profile不会发送;
+     *                request本身不会被修改
+     * @param sink    记录去处
+     * @return 每个slice的条数和速率
+     * @throws IllegalArgumentException 请求中有collapse: scroll不支持折叠,去掉会改变导出的记录
+     * @throws IOException              任一slice失败时抛出
+     */
+    public ExportReport export(SearchRequest request, HitSink sink) throws IOException {
+        if (request.source() != null && request.source().collapse() != null) {
+            throw new IllegalArgumentException("collapse is not supported by scroll, remove it before exporting");
+        }
+        SearchSourceBuilder source = exportSource(request.source());
+        AtomicBoolean aborted = new AtomicBoolean();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.min(maxWorkers, slices), Math.min(maxWorkers, slices),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(slices), r -> {
+            Thread thread = new Thread(r, "scroll-export-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        List<Future<ExportReport.SliceStats>> futures = new ArrayList<>(slices);
+        Exception failure = null;
+        try {
+            for (int slice = 0; slice < slices; slice++) {
+                SearchRequest sliceRequest = sliceRequest(request, source, slice);
+                int id = slice;
+                futures.add(executor.submit(() -> exportSlice(id, sliceRequest, sink, aborted)));
+            }
+            List<ExportReport.SliceStats> stats = new ArrayList<>(slices);
+            for (Future<ExportReport.SliceStats> future : futures) {
+                try {
+                    stats.add(future.get());
+                } catch (ExecutionException e) {
+                    aborted.set(true);
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                } catch (InterruptedException e) {
+                    aborted.set(true);
+                    Thread.currentThread().interrupt();
+                    failure = e;
+                    break;
+                }
+            }
+            if (failure == null) {
+                return new ExportReport(stats, System.nanoTime() - start);
+            }
+        } finally {
+            //slice线程全部结束后才能关闭sink,否则仍在写入的线程会写到已关闭的sink
+            awaitWorkers(executor, aborted.get());
+            try {
+                sink.close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        throw new IOException("export failed", failure);
+    }
+
+    /**
+     * 复制原请求的source,按_doc排序、每页pageSize条;rescore只能用于按_score排序,不复制
+     * <p>
+     * 不用copyWithNewSlice: 它是浅复制,sorts列表与原请求共用,替换排序会修改调用方的请求
+     */
+    private SearchSourceBuilder exportSource(SearchSourceBuilder original) {
+        SearchSourceBuilder source = new SearchSourceBuilder().size(pageSize).sort(FieldSortBuilder.DOC_FIELD_NAME);
+        if (original == null) {
+            return source;
+        }
+        source.query(original.query())
+                .postFilter(original.postFilter())
+                .fetchSource(original.fetchSource())
+                .storedFields(original.storedFields())
+                .explain(original.explain())
+                .version(original.version())
+                .seqNoAndPrimaryTerm(original.seqNoAndPrimaryTerm())
+                .timeout(original.timeout())
+                .terminateAfter(original.terminateAfter())
+                .trackScores(original.trackScores())
+                .highlighter(original.highlighter())
+                .stats(original.stats())
+                .ext(original.ext());
+        if (original.minScore() != null) {
+            source.minScore(original.minScore());
+        }
+        if (original.trackTotalHitsUpTo() != null) {
+            source.trackTotalHitsUpTo(original.trackTotalHitsUpTo());
+        }
+        if (original.docValueFields() != null) {
+            original.docValueFields().forEach(field -> source.docValueField(field.field, field.format));
+        }
+        if (original.scriptFields() != null) {
+            original.scriptFields().forEach(field -> source.scriptField(field.fieldName(), field.script(), field.ignoreFailure()));
+        }
+        original.indexBoosts().forEach(boost -> source.indexBoost(boost.getIndex(), boost.getBoost()));
+        return source;
+    }
+
+    /**
+     * 等待slice线程结束;中止时先中断它们(正在进行的http请求会被取消),等待期间的中断在结束后恢复
+     */
+    private void awaitWorkers(ThreadPoolExecutor executor, boolean abort) {
+        if (abort) {
+            executor.shutdownNow();
+        } else {
+            executor.shutdown();
+        }
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(keepAlive.millis(), TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                    log.warn("still waiting for {} scroll export slices to stop", executor.getActiveCount());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private SearchRequest sliceRequest(SearchRequest request, SearchSourceBuilder source, int slice) {
+        //slice为1时不能设置SliceBuilder(max必须大于1)
+        SearchSourceBuilder sliceSource = source.copyWithNewSlice(slices > 1 ? new SliceBuilder(slice, slices) : null);
+        SearchRequest sliceRequest = new SearchRequest(request);
+        sliceRequest.source(sliceSource);
+        sliceRequest.scroll(keepAlive);
+        return sliceRequest;
+    }
+
+    private ExportReport.SliceStats exportSlice(int slice, SearchRequest request, HitSink sink, AtomicBoolean aborted)
+            throws Exception {
+        long start = System.nanoTime();
+        long rows = 0;
+        String scrollId = null;
+        try {
+            SearchResponse response = client.search(request, options);
+            scrollId = response.getScrollId();
+            while (!aborted.get()) {
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    break;
+                }
+                for (SearchHit hit : hits) {
+                    sink.accept(slice, hit);
+                }
+                rows += hits.length;
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId).scroll(keepAlive);
+                response = client.scroll(scrollRequest, options);
+                scrollId = response.getScrollId();
+            }
+        } catch (Exception e) {
+            aborted.set(true);
+            throw e;
+        } finally {
+            clearScroll(scrollId);
+        }
+        long elapsed = System.nanoTime() - start;
+        log.debug("slice {} exported {} rows in {} ms", slice, rows, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        return new ExportReport.SliceStats(slice, rows, elapsed);
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(scrollId);
+        try {
+            client.clearScroll(clearScrollRequest, options);
+        } catch (IOException | RuntimeException e) {
+            //清理失败(包括上下文已过期的404)时上下文会在keepAlive后自动过期;在finally中调用,不能掩盖slice原本的异常
+            log.warn("failed to clear scroll context, it will expire after {}", keepAlive, e);
+        }
+    }
+}
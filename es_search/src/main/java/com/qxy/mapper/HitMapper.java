@@ -0,0 +1,271 @@
+package com.qxy.mapper;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 15:20
+ * @Introduction: 把SearchHit的_source字节直接解码为目标类,替代 hit.getSourceAsMap() + 强制类型转换
+ * <p>
+ * 1、流式解析,不生成中间的Map;目标类中没有的字段直接跳过(包括嵌套对象和数组)
+ * 2、每个类只在第一次使用时解析字段并生成MethodHandle,之后复用
+ * 3、按字段声明的类型读取: String、基本类型及包装类(byte、char除外)、String[]、List、Map,Object按Map/List/原始值读取;
+ * 其他类型(嵌套的实体类、日期、枚举等)在创建解码器时抛出IllegalArgumentException,而不是解码时才出现类型转换错误
+ */
+public final class HitMapper<T> {
+    private static final Map<Class<?>, HitMapper<?>> CACHE = new ConcurrentHashMap<>();
+
+    private final Class<T> type;
+    private final MethodHandle constructor;
+    private final Map<String, FieldBinding> bindings;
+
+    private HitMapper(Class<T> type) {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<T> noArgs = type.getDeclaredConstructor();
+            noArgs.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(noArgs);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(type.getName() + " must have a no-args constructor", e);
+        }
+        Map<String, FieldBinding> fields = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                if (fields.containsKey(field.getName())) {
+                    //子类的同名字段优先
+                    continue;
+                }
+                ValueReader reader = ValueReader.forType(field.getType());
+                if (reader == null) {
+                    throw new IllegalArgumentException("field " + type.getName() + "." + field.getName() + " has unsupported type "
+                            + field.getType().getName() + ", supported types are String, primitives and their wrappers "
+                            + "(except byte and char), String[], List, Map and Object");
+                }
+                field.setAccessible(true);
+                try {
+                    fields.put(field.getName(), new FieldBinding(lookup.unreflectSetter(field), reader));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException("cannot bind " + type.getName() + "." + field.getName(), e);
+                }
+            }
+        }
+        this.bindings = fields;
+    }
+
+    /**
+     * 获取类对应的解码器,按类缓存
+     *
+     * @param type 目标类,需要有无参构造器
+     * @return 解码器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> HitMapper<T> of(Class<T> type) {
+        return (HitMapper<T>) CACHE.computeIfAbsent(type, HitMapper::new);
+    }
+
+    /**
+     * 解码单条记录,没有_source时返回null
+     */
+    public T map(SearchHit hit) {
+        BytesReference source = hit.getSourceRef();
+        return source == null ? null : map(source);
+    }
+
+    /**
+     * 解码一页记录
+     */
+    public List<T> mapAll(SearchHits hits) {
+        SearchHit[] array = hits.getHits();
+        List<T> result = new ArrayList<>(array.length);
+        for (SearchHit hit : array) {
+            result.add(map(hit));
+        }
+        return result;
+    }
+
+    /**
+     * 解码_source字节
+     */
+    public T map(BytesReference source) {
+        BytesRef ref = source.toBytesRef();
+        XContentType xContentType = XContentFactory.xContentType(ref.bytes, ref.offset, ref.length);
+        if (xContentType == null) {
+            throw new IllegalArgumentException("unknown content type of _source");
+        }
+        try (XContentParser parser = xContentType.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, ref.bytes, ref.offset, ref.length)) {
+            return read(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to decode _source into " + type.getName(), e);
+        }
+    }
+
+    private T read(XContentParser parser) throws IOException {
+        T target = newInstance();
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.START_OBJECT) {
+            throw new IOException("_source must be an object but was " + token);
+        }
+        while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+            FieldBinding binding = bindings.get(parser.currentName());
+            token = parser.nextToken();
+            if (binding == null) {
+                //不需要的字段,对象和数组整体跳过
+                parser.skipChildren();
+                continue;
+            }
+            Object value = token == XContentParser.Token.VALUE_NULL ? null : binding.reader.read(parser);
+            binding.set(target, value);
+        }
+        return target;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T newInstance() {
+        try {
+            return (T) constructor.invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("cannot instantiate " + type.getName(), t);
+        }
+    }
+
+    private static final class FieldBinding {
+        private final MethodHandle setter;
+        private final ValueReader reader;
+        private final boolean primitive;
+
+        FieldBinding(MethodHandle setter, ValueReader reader) {
+            this.setter = setter;
+            this.reader = reader;
+            this.primitive = setter.type().parameterType(1).isPrimitive();
+        }
+
+        void set(Object target, Object value) {
+            if (value == null && primitive) {
+                return;
+            }
+            try {
+                setter.invoke(target, value);
+            } catch (Throwable t) {
+                throw new IllegalStateException("cannot set field value " + value, t);
+            }
+        }
+    }
+
+    /**
+     * 按字段类型读取当前token的值,parser停留在值的token上;读出的值必须能赋给该类型的字段
+     */
+    @FunctionalInterface
+    private interface ValueReader {
+        Object read(XContentParser parser) throws IOException;
+
+        /**
+         * @return 不支持的类型返回null
+         */
+        static ValueReader forType(Class<?> type) {
+            if (type == String.class) {
+                return XContentParser::text;
+            }
+            if (type == int.class || type == Integer.class) {
+                return parser -> parser.intValue(true);
+            }
+            if (type == long.class || type == Long.class) {
+                return parser -> parser.longValue(true);
+            }
+            if (type == double.class || type == Double.class) {
+                return parser -> parser.doubleValue(true);
+            }
+            if (type == float.class || type == Float.class) {
+                return parser -> parser.floatValue(true);
+            }
+            if (type == short.class || type == Short.class) {
+                return parser -> parser.shortValue(true);
+            }
+            if (type == boolean.class || type == Boolean.class) {
+                return XContentParser::booleanValue;
+            }
+            if (type == String[].class) {
+                return HitMapper::readStringArray;
+            }
+            //parser.list()和parser.map()返回ArrayList和HashMap,字段类型要能接收它们
+            if (type == List.class || type == Collection.class || type == Iterable.class || type == ArrayList.class) {
+                return HitMapper::readList;
+            }
+            if (type == Map.class || type == HashMap.class) {
+                return HitMapper::readMap;
+            }
+            if (type == Object.class) {
+                return HitMapper::readGeneric;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 数组字段;es允许单值写成非数组形式
+     */
+    private static String[] readStringArray(XContentParser parser) throws IOException {
+        if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+            return new String[]{parser.text()};
+        }
+        List<String> values = new ArrayList<>();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            values.add(token == XContentParser.Token.VALUE_NULL ? null : parser.text());
+        }
+        return values.toArray(new String[0]);
+    }
+
+    private static List<Object> readList(XContentParser parser) throws IOException {
+        if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+            List<Object> single = new ArrayList<>(1);
+            single.add(readGeneric(parser));
+            return single;
+        }
+        return parser.list();
+    }
+
+    private static Map<String, Object> readMap(XContentParser parser) throws IOException {
+        if (parser.currentToken() != XContentParser.Token.START_OBJECT) {
+            throw new IOException("field [" + parser.currentName() + "] must be an object but was " + parser.currentToken());
+        }
+        return parser.map();
+    }
+
+    private static Object readGeneric(XContentParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                return parser.map();
+            case START_ARRAY:
+                return parser.list();
+            default:
+                return parser.objectText();
+        }
+    }
+}
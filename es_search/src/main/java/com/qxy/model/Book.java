@@ -0,0 +1,19 @@
+package com.qxy.model;
+
+import lombok.Data;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 15:20
+ * @Introduction: book索引的文档
+ */
+@Data
+public class Book {
+    private String name;
+    private String description;
+    private String studymodel;
+    private Double price;
+    private String pic;
+    private String timestamp;
+    private String[] tags;
+}
@@ -0,0 +1,38 @@
+package com.qxy.page;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHits;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 10:05
+ * @Introduction: 游标分页的一页结果
+ */
+public class CursorPage {
+    private final SearchResponse response;
+    private final String nextCursor;
+
+    CursorPage(SearchResponse response, String nextCursor) {
+        this.response = response;
+        this.nextCursor = nextCursor;
+    }
+
+    public SearchResponse getResponse() {
+        return response;
+    }
+
+    public SearchHits getHits() {
+        return response.getHits();
+    }
+
+    /**
+     * @return 下一页的游标,没有下一页时为null
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
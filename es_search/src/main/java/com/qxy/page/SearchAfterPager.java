@@ -0,0 +1,142 @@
+package com.qxy.page;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 10:05
+ * @Introduction: 基于search_after的游标分页,替代 from = (page - 1) * size 的深分页
+ * <p>
+ * from/size分页每个分片都要取出from+size条再合并,越往后越慢,且受max_result_window(默认1万)限制;
+ * search_after只取"上一页最后一条之后"的size条,每页耗时与页深无关
+ * <p>
+ * 1、排序必须唯一确定一条记录,缺少tiebreaker字段时自动追加(会修改传入的SearchSourceBuilder)
+ * 2、游标是对调用方不透明的字符串,包含上一页最后一条的排序值和排序规则的校验码
+ * 3、7.3没有point in time,翻页期间有写入时结果可能出现新增或遗漏,导出全量数据用ScrollExporter
+ */
+public class SearchAfterPager {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final RestHighLevelClient client;
+    private final RequestOptions options;
+    private final String tiebreaker;
+
+    public SearchAfterPager(RestHighLevelClient client) {
+        this(client, RequestOptions.DEFAULT, "_id");
+    }
+
+    /**
+     * @param tiebreaker 唯一且有doc_values的字段;默认的_id排序需要加载fielddata,数据量大时建议换成业务主键
+     */
+    public SearchAfterPager(RestHighLevelClient client, RequestOptions options, String tiebreaker) {
+        this.client = client;
+        this.options = options;
+        this.tiebreaker = tiebreaker;
+    }
+
+    /**
+     * 查询一页
+     *
+     * @param request 搜索请求,source中的query、size、sort与from/size分页时一致,from会被忽略
+     * @param cursor  上一页返回的游标,第一页传null
+     * @return 当前页结果和下一页游标
+     * @throws IOException IOException
+     */
+    public CursorPage search(SearchRequest request, String cursor) throws IOException {
+        SearchSourceBuilder source = request.source();
+        if (source == null) {
+            source = new SearchSourceBuilder();
+            request.source(source);
+        }
+        ensureTiebreaker(source);
+        int sortHash = sortHash(source);
+
+        //浅拷贝后再设置search_after和from,不改变调用方的请求
+        SearchSourceBuilder pageSource = source.copyWithNewSlice(source.slice());
+        pageSource.from(0);
+        if (cursor != null) {
+            pageSource.searchAfter(decode(cursor, sortHash));
+        }
+        SearchRequest pageRequest = new SearchRequest(request);
+        pageRequest.source(pageSource);
+
+        SearchResponse response = client.search(pageRequest, options);
+        SearchHit[] hits = response.getHits().getHits();
+        int size = source.size() < 0 ? 10 : source.size();
+        String nextCursor = hits.length < size || hits.length == 0
+                ? null
+                : encode(hits[hits.length - 1].getSortValues(), sortHash);
+        return new CursorPage(response, nextCursor);
+    }
+
+    private void ensureTiebreaker(SearchSourceBuilder source) {
+        List<SortBuilder<?>> sorts = source.sorts();
+        if (sorts != null) {
+            for (SortBuilder<?> sort : sorts) {
+                if (sort instanceof FieldSortBuilder && tiebreaker.equals(((FieldSortBuilder) sort).getFieldName())) {
+                    return;
+                }
+            }
+        }
+        if (sorts == null || sorts.isEmpty()) {
+            //没有指定排序时保持按相关度排序
+            source.sort(SortBuilders.scoreSort());
+        }
+        source.sort(SortBuilders.fieldSort(tiebreaker).order(SortOrder.ASC));
+    }
+
+    private static int sortHash(SearchSourceBuilder source) {
+        return source.sorts().toString().hashCode();
+    }
+
+    private static String encode(Object[] sortValues, int sortHash) throws IOException {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            builder.startArray();
+            builder.value(sortHash);
+            for (Object value : sortValues) {
+                builder.value(value);
+            }
+            builder.endArray();
+            return ENCODER.encodeToString(BytesReference.toBytes(BytesReference.bytes(builder)));
+        }
+    }
+
+    private static Object[] decode(String cursor, int sortHash) throws IOException {
+        byte[] json;
+        try {
+            json = DECODER.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor [" + cursor + "]", e);
+        }
+        List<Object> values;
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json)) {
+            values = parser.list();
+        }
+        if (values.isEmpty() || !Integer.valueOf(sortHash).equals(values.get(0))) {
+            throw new IllegalArgumentException("cursor does not belong to this query's sort");
+        }
+        return values.subList(1, values.size()).toArray();
+    }
+}
@@ -1,9 +1,25 @@
 package com.qxy;
 
+import com.qxy.cache.QueryCache;
+import com.qxy.common.client.DirectBufferPool;
+import com.qxy.common.client.ElasticsearchClients;
+import com.qxy.common.client.PooledRequestEntity;
+import com.qxy.common.metrics.ElasticsearchMetrics;
+import com.qxy.common.metrics.MeteredClient;
+import com.qxy.common.metrics.OperationStats;
+import com.qxy.export.ExportReport;
+import com.qxy.export.NdjsonFileSink;
+import com.qxy.export.ScrollExporter;
+import com.qxy.mapper.HitMapper;
+import com.qxy.model.Book;
+import com.qxy.page.CursorPage;
+import com.qxy.page.SearchAfterPager;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.MatchQueryBuilder;
@@ -20,6 +36,8 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -34,6 +52,21 @@ public class SearchManageTest {
     @Autowired
     RestHighLevelClient client;
 
+    @Autowired
+    QueryCache queryCache;
+
+    @Autowired
+    MeteredClient meteredClient;
+
+    @Autowired
+    ElasticsearchMetrics elasticsearchMetrics;
+
+    @Autowired
+    ElasticsearchClients elasticsearchClients;
+
+    @Autowired
+    RequestOptions requestOptions;
+
     /**
      * 搜索全部记录
      *
@@ -78,6 +111,37 @@ public class SearchManageTest {
     }
 
 
+    /**
+     * 搜索全部记录：_source直接解码为Book，不经过Map
+     *
+     * @throws IOException IOException
+     */
+    @Test
+    public void testSearchAllMapped() throws IOException {
+        //1构建搜索请求
+        SearchRequest searchRequest = new SearchRequest("book");
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(QueryBuilders.matchAllQuery());
+
+        //获取某些字段
+        searchSourceBuilder.fetchSource(new String[]{"name", "price"}, new String[]{});
+        searchRequest.source(searchSourceBuilder);
+
+        //2执行搜索
+        SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
+
+        //3获取结果
+        List<Book> books = HitMapper.of(Book.class).mapAll(searchResponse.getHits());
+        System.out.println("--------------------------");
+        for (Book book : books) {
+            System.out.println("name:" + book.getName());
+            System.out.println("price:" + book.getPrice());
+            System.out.println("==========================");
+        }
+        System.out.println("--------------------------");
+    }
+
     /**
      * 搜索分页
      *
@@ -130,6 +194,72 @@ public class SearchManageTest {
     }
 
 
+    /**
+     * 游标分页：search_after，每页耗时与页深无关，不受max_result_window限制
+     *
+     * @throws IOException IOException
+     */
+    @Test
+    public void testSearchPageCursor() throws IOException {
+        //1构建搜索请求
+        SearchRequest searchRequest = new SearchRequest("book");
+
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(QueryBuilders.matchAllQuery());
+        //每页几个
+        searchSourceBuilder.size(2);
+        searchSourceBuilder.sort("price", SortOrder.DESC);
+        searchRequest.source(searchSourceBuilder);
+
+        //2逐页执行搜索,第一页游标为null
+        SearchAfterPager pager = new SearchAfterPager(client);
+        String cursor = null;
+        int page = 1;
+        do {
+            CursorPage cursorPage = pager.search(searchRequest, cursor);
+            System.out.println("-----------第" + page++ + "页-----------");
+            for (SearchHit hit : cursorPage.getHits()) {
+                System.out.println("id:" + hit.getId() + " name:" + hit.getSourceAsMap().get("name"));
+            }
+            cursor = cursorPage.getNextCursor();
+        } while (cursor != null);
+    }
+
+    /**
+     * 全量导出: 2个slice并行scroll,写入NDJSON文件
+     *
+     * @throws IOException IOException
+     */
+    @Test
+    public void testExportAll() throws IOException {
+        //1构建搜索请求,size、sort由导出引擎设置
+        SearchRequest searchRequest = new SearchRequest("book");
+        searchRequest.source(new SearchSourceBuilder().query(QueryBuilders.matchAllQuery()));
+
+        //2导出,slice数一般与主分片数一致
+        ScrollExporter exporter = new ScrollExporter(client, 2);
+        ExportReport report = exporter.export(searchRequest, new NdjsonFileSink(Paths.get("book.ndjson")));
+        System.out.println(report);
+    }
+
+    /**
+     * 查询结果缓存: 同样的请求第二次直接命中缓存,索引写入并refresh后失效
+     *
+     * @throws IOException IOException
+     */
+    @Test
+    public void testSearchCached() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            //每次重新构建请求,与看板的调用方式一致
+            SearchRequest searchRequest = new SearchRequest("book");
+            searchRequest.source(new SearchSourceBuilder().query(QueryBuilders.matchQuery("description", "java程序员")));
+
+            SearchResponse searchResponse = queryCache.search(searchRequest);
+            System.out.println("total:" + searchResponse.getHits().getTotalHits().value);
+        }
+        System.out.println(queryCache);
+    }
+
     /**
      * ids搜索
      *
@@ -476,4 +606,63 @@ public class SearchManageTest {
         System.out.println("--------------------------");
     }
 
+    /**
+     * 通过MeteredClient查询,输出延迟分布与服务端took的对比
+     */
+    @Test
+    public void testSearchMetrics() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            SearchRequest searchRequest = new SearchRequest("book");
+            searchRequest.source(new SearchSourceBuilder()
+                    .query(QueryBuilders.multiMatchQuery("java程序员", "name", "description")));
+            meteredClient.search(searchRequest);
+        }
+        for (OperationStats stats : elasticsearchMetrics.getOperations()) {
+            //latency与took的差是网络和排队的开销,call与latency的差是响应体的传输和解析
+            log.info("{}", stats);
+        }
+        log.info("{}", elasticsearchMetrics.getPoolWaits());
+    }
+
+    /**
+     * 执行过滤、排序查询后输出按查询指纹的统计,字面量不同的同结构查询合并为一行
+     */
+    @Test
+    public void testQueryShapes() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            testSearchFilter();
+            testSearchSort();
+        }
+        log.info("query shapes:\n{}", elasticsearchMetrics.dumpQueryShapes(10));
+    }
+
+    /**
+     * buffer.pooled为true时,使用容器中RequestOptions的查询复用同一批堆外块接收响应体
+     */
+    @Test
+    public void testPooledBuffers() throws IOException {
+        DirectBufferPool pool = elasticsearchClients.getDefault().getBufferPool();
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(QueryBuilders.multiMatchQuery("java程序员", "name", "description"))
+                .size(100);
+        for (int i = 0; i < 20; i++) {
+            SearchResponse searchResponse = client.search(new SearchRequest("book").source(sourceBuilder), requestOptions);
+            log.info("hits: {}", searchResponse.getHits().getHits().length);
+        }
+        log.info("{}", pool);
+
+        //低级客户端的请求体也放在池化块中
+        PooledRequestEntity entity = PooledRequestEntity.json(pool, sourceBuilder);
+        try {
+            Request request = new Request("POST", "/book/_search");
+            request.setEntity(entity);
+            request.setOptions(requestOptions);
+            Response response = client.getLowLevelClient().performRequest(request);
+            log.info("status: {}, length: {}", response.getStatusLine(), response.getEntity().getContentLength());
+            response.getEntity().getContent().close();
+        } finally {
+            entity.release();
+        }
+        log.info("{}", pool);
+    }
 }
@@ -0,0 +1,122 @@
+package com.qxy.benchmark;
+
+import com.qxy.page.CursorPage;
+import com.qxy.page.SearchAfterPager;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 10:05
+ * @Introduction: 对比 from/size 与 search_after 在不同页深下单页的耗时,需要本地127.0.0.1:9200有es
+ * <p>
+ * 首次运行会向book_page_bench索引写入2万条数据;from/size最深只能到max_result_window(1万)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeepPagingBenchmark {
+    private static final String INDEX = "book_page_bench";
+    private static final int DOCS = 20000;
+    private static final int SIZE = 100;
+
+    /**
+     * 第几页(从0开始)
+     */
+    @Param({"0", "10", "50", "99"})
+    private int page;
+
+    private RestHighLevelClient client;
+    private SearchAfterPager pager;
+    private SearchSourceBuilder cursorSource;
+    private String cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        client = new RestHighLevelClient(RestClient.builder(new HttpHost("127.0.0.1", 9200)));
+        if (!client.indices().exists(new GetIndexRequest(INDEX), RequestOptions.DEFAULT)
+                || client.count(new CountRequest(INDEX), RequestOptions.DEFAULT).getCount() < DOCS) {
+            BulkRequest bulk = new BulkRequest().setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+            for (int i = 0; i < DOCS; i++) {
+                bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(XContentType.JSON,
+                        "name", "book-" + i, "price", i % 100, "serial", i));
+                if (bulk.numberOfActions() == 5000 || i == DOCS - 1) {
+                    client.bulk(bulk, RequestOptions.DEFAULT);
+                    bulk = new BulkRequest().setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+                }
+            }
+        }
+        //按唯一的数值字段做tiebreaker,避免_id的fielddata开销影响对比
+        pager = new SearchAfterPager(client, RequestOptions.DEFAULT, "serial");
+        cursorSource = source();
+        cursor = null;
+        for (int i = 0; i < page; i++) {
+            cursor = pager.search(new SearchRequest(INDEX).source(cursorSource), cursor).getNextCursor();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+    }
+
+    private static SearchSourceBuilder source() {
+        return new SearchSourceBuilder()
+                .query(QueryBuilders.matchAllQuery())
+                .sort("price", SortOrder.DESC)
+                .sort("serial", SortOrder.ASC)
+                .size(SIZE);
+    }
+
+    @Benchmark
+    public SearchResponse fromSize() throws IOException {
+        SearchSourceBuilder source = source().from(page * SIZE);
+        return client.search(new SearchRequest(INDEX).source(source), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public CursorPage searchAfter() throws IOException {
+        return pager.search(new SearchRequest(INDEX).source(cursorSource), cursor);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DeepPagingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.qxy.benchmark;
+
+import com.qxy.mapper.HitMapper;
+import com.qxy.model.Book;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/19 15:20
+ * @Introduction: 对比 getSourceAsMap 与 HitMapper 解码一页(默认1万条)记录的耗时和内存分配
+ * <p>
+ * SearchHit会缓存getSourceAsMap的结果,所以每次调用前重新生成一页记录
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HitMapperBenchmark {
+    @Param({"10000"})
+    private int hitsPerPage;
+
+    /**
+     * true: 模拟fetchSource只取了name和price
+     */
+    @Param({"false", "true"})
+    private boolean filtered;
+
+    private byte[][] sources;
+    private SearchHit[] hits;
+
+    @Setup(Level.Trial)
+    public void prepareSources() {
+        sources = new byte[hitsPerPage][];
+        for (int i = 0; i < hitsPerPage; i++) {
+            String json = filtered
+                    ? "{\"name\":\"java编程思想-" + i + "\",\"price\":" + (38.6 + i % 50) + "}"
+                    : "{\"name\":\"java编程思想-" + i + "\",\"description\":\"java语言是世界第一编程语言，在软件开发领域使用人数最多。\","
+                    + "\"studymodel\":\"201001\",\"price\":" + (38.6 + i % 50) + ",\"timestamp\":\"2019-08-25 19:11:35\","
+                    + "\"pic\":\"group1/M00/00/00/wKhlQFs6RCeAY0pHAAJx5ZjNDEM428.jpg\",\"tags\":[\"bootstrap\",\"dev\"]}";
+            sources[i] = json.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareHits() {
+        hits = new SearchHit[hitsPerPage];
+        for (int i = 0; i < hitsPerPage; i++) {
+            hits[i] = new SearchHit(i, String.valueOf(i), null, Collections.emptyMap());
+            hits[i].sourceRef(new BytesArray(sources[i]));
+        }
+    }
+
+    @Benchmark
+    public void sourceAsMap(Blackhole blackhole) {
+        for (SearchHit hit : hits) {
+            Map<String, Object> sourceAsMap = hit.getSourceAsMap();
+            blackhole.consume((String) sourceAsMap.get("name"));
+            blackhole.consume((String) sourceAsMap.get("description"));
+            blackhole.consume((Double) sourceAsMap.get("price"));
+            blackhole.consume((String) sourceAsMap.get("studymodel"));
+        }
+    }
+
+    @Benchmark
+    public void hitMapper(Blackhole blackhole) {
+        HitMapper<Book> mapper = HitMapper.of(Book.class);
+        for (SearchHit hit : hits) {
+            blackhole.consume(mapper.map(hit));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HitMapperBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
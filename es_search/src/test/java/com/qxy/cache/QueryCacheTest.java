@@ -0,0 +1,179 @@
+package com.qxy.cache;
+
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/9 10:30
+ * @Introduction: QueryCache命中时返回的对象互不影响,代在后台按(索引, indicesOptions)探测;桩服务器返回固定的_stats和搜索结果
+ */
+class QueryCacheTest {
+    private static final byte[] STATS = ("{\"_all\":{\"total\":{\"indexing\":{\"index_total\":1,\"delete_total\":0},"
+            + "\"refresh\":{\"total\":1}}}}").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY_STATS = "{}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEARCH = ("{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":1,\"relation\":\"eq\"},\"max_score\":1.0,"
+            + "\"hits\":[{\"_index\":\"book\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"name\":\"java\"}}]},"
+            + "\"aggregations\":{\"sterms#tags\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,"
+            + "\"buckets\":[{\"key\":\"es\",\"doc_count\":1}]}}}").getBytes(StandardCharsets.UTF_8);
+
+    private StubElasticsearch server;
+    private RestHighLevelClient client;
+    private final AtomicInteger searches = new AtomicInteger();
+    private final List<String> statsQueries = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = StubElasticsearch.start(this::handle);
+        client = server.newClient();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private StubResponse handle(StubRequest request) {
+        String path = request.getPath();
+        if (path.contains("/_stats")) {
+            statsQueries.add(request.getQuery());
+            //通配符没有匹配到索引时filter_path之后是空对象
+            return StubResponse.of(path.startsWith("/empty") ? EMPTY_STATS : STATS);
+        }
+        searches.incrementAndGet();
+        return StubResponse.of(SEARCH);
+    }
+
+    private static SearchRequest request() {
+        return new SearchRequest("book").source(new SearchSourceBuilder().query(QueryBuilders.matchAllQuery()));
+    }
+
+    @Test
+    void hitsReturnIndependentResponses() throws Exception {
+        QueryCache cache = QueryCache.builder(client).probeInterval(TimeValue.timeValueMinutes(1)).build();
+        assertThat(cache.awaitProbe(request(), 10, TimeUnit.SECONDS)).isTrue();
+
+        SearchResponse first = cache.search(request());
+        //修改首次查询的结果不影响缓存
+        first.getHits().getAt(0).getSourceAsMap().put("name", "changed");
+        SearchResponse second = cache.search(request());
+        SearchResponse third = cache.search(request());
+        second.getHits().getAt(0).getSourceAsMap().put("name", "changed");
+
+        assertThat(searches.get()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(second).isNotSameAs(first).isNotSameAs(third);
+        assertThat(third.getHits().getAt(0).getSourceAsMap()).containsEntry("name", "java");
+        Terms tags = third.getAggregations().get("tags");
+        assertThat(tags.getBuckets()).extracting(Terms.Bucket::getKeyAsString).containsExactly("es");
+        assertThat(cache.getEstimatedBytes()).isGreaterThan(SEARCH.length / 2);
+    }
+
+    @Test
+    void requestsDifferingInTypesOrPartialResultsAreCachedSeparately() throws Exception {
+        QueryCache cache = QueryCache.builder(client).probeInterval(TimeValue.timeValueMinutes(1)).build();
+        assertThat(cache.awaitProbe(request(), 10, TimeUnit.SECONDS)).isTrue();
+
+        cache.search(request());
+        cache.search(request().types("_doc"));
+        cache.search(request().allowPartialSearchResults(false));
+
+        assertThat(searches.get()).isEqualTo(3);
+        assertThat(cache.getEntries()).isEqualTo(3);
+    }
+
+    /**
+     * 代在后台探测: 第一次查询不等待探测也不缓存,探测完成后才使用缓存
+     */
+    @Test
+    void firstSearchBypassesTheCacheWhileTheGenerationIsProbed() throws Exception {
+        QueryCache cache = QueryCache.builder(client).probeInterval(TimeValue.timeValueMinutes(1)).build();
+
+        cache.search(request());
+        assertThat(cache.getEntries()).isZero();
+        assertThat(cache.awaitProbe(request(), 10, TimeUnit.SECONDS)).isTrue();
+        cache.search(request());
+        cache.search(request());
+
+        assertThat(searches.get()).isEqualTo(2);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getProbeCount()).isEqualTo(1);
+    }
+
+    @Test
+    void missingStatsBypassTheCache() throws Exception {
+        QueryCache cache = QueryCache.builder(client).probeInterval(TimeValue.timeValueMinutes(1)).build();
+        SearchRequest request = new SearchRequest("empty*");
+
+        cache.search(request);
+        awaitProbeResponses(1);
+        cache.search(request);
+        cache.search(request);
+
+        assertThat(searches.get()).isEqualTo(3);
+        assertThat(cache.getEntries()).isZero();
+        assertThat(cache.getHitCount()).isZero();
+        assertThat(cache.getProbeCount()).isEqualTo(1);
+    }
+
+    @Test
+    void generationIsProbedPerIndicesOptions() throws Exception {
+        QueryCache cache = QueryCache.builder(client).probeInterval(TimeValue.timeValueMinutes(1)).build();
+        SearchRequest lenient = request().indicesOptions(IndicesOptions.lenientExpandOpen());
+
+        assertThat(cache.awaitProbe(request(), 10, TimeUnit.SECONDS)).isTrue();
+        assertThat(cache.awaitProbe(lenient, 10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(cache.getProbeCount()).isEqualTo(2);
+        assertThat(statsQueries).anyMatch(query -> query.contains("ignore_unavailable=false"))
+                .anyMatch(query -> query.contains("ignore_unavailable=true"))
+                .allMatch(query -> query.contains("expand_wildcards=open"));
+    }
+
+    @Test
+    void incompleteStatsHaveNoGeneration() {
+        Map<String, Object> total = new HashMap<>();
+        total.put("indexing", Collections.singletonMap("index_total", 1));
+        Map<String, Object> stats = Collections.singletonMap("_all", Collections.singletonMap("total", total));
+
+        assertThat(QueryCache.parseGeneration(Collections.emptyMap())).isNull();
+        assertThat(QueryCache.parseGeneration(Collections.singletonMap("_all", "unexpected"))).isNull();
+        assertThat(QueryCache.parseGeneration(stats)).isNull();
+    }
+
+    private void awaitProbeResponses(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (statsQueries.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        //桩服务器记录请求后还要等客户端处理响应
+        Thread.sleep(100);
+    }
+}
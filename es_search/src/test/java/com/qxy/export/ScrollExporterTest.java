@@ -0,0 +1,187 @@
+package com.qxy.export;
+
+import com.qxy.common.stub.StubElasticsearch;
+import com.qxy.common.stub.StubElasticsearch.StubRequest;
+import com.qxy.common.stub.StubElasticsearch.StubResponse;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.collapse.CollapseBuilder;
+import org.elasticsearch.search.rescore.QueryRescorerBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/3/20 15:40
+ * @Introduction: ScrollExporter的测试,桩服务器第一页返回一条记录,之后返回空页
+ */
+class ScrollExporterTest {
+    private static final String FIRST_PAGE = "{\"_scroll_id\":\"s1\",\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":1,\"relation\":\"eq\"},\"max_score\":null,"
+            + "\"hits\":[{\"_index\":\"docs\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":null,\"_source\":{\"n\":1},\"sort\":[0]}]}}";
+    private static final String EMPTY_PAGE = "{\"_scroll_id\":\"s1\",\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":1,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}}";
+    private static final String CLEARED = "{\"succeeded\":true,\"num_freed\":1}";
+    private static final String SCROLL_FAILED = "{\"error\":{\"type\":\"exception\",\"reason\":\"scroll failed\"},\"status\":500}";
+    private static final String SCROLL_MISSING = "{\"error\":{\"type\":\"search_context_missing_exception\","
+            + "\"reason\":\"No search context found for id [1]\"},\"status\":404}";
+
+    private StubElasticsearch server;
+    private RestHighLevelClient client;
+    private final List<String> searchBodies = new CopyOnWriteArrayList<>();
+    /**
+     * 为true时拉取下一页返回500、清理scroll返回404(上下文已过期)
+     */
+    private volatile boolean scrollFails;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = StubElasticsearch.start(this::handle);
+        client = server.newClient();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private StubResponse handle(StubRequest request) {
+        if ("DELETE".equals(request.getMethod())) {
+            return scrollFails ? StubResponse.json(404, SCROLL_MISSING) : StubResponse.json(CLEARED);
+        }
+        if (request.getPath().endsWith("/_search/scroll")) {
+            return scrollFails ? StubResponse.json(500, SCROLL_FAILED) : StubResponse.json(EMPTY_PAGE);
+        }
+        searchBodies.add(request.getBodyAsString());
+        return StubResponse.json(FIRST_PAGE);
+    }
+
+    @Test
+    void sliceRequestsKeepTheWholeSourceAndLeaveTheRequestUntouched() throws Exception {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("status", "active"))
+                .postFilter(QueryBuilders.rangeQuery("age").gte(18))
+                .docValueField("created")
+                .storedFields(Arrays.asList("_id", "title"))
+                .fetchSource(new String[]{"name"}, null)
+                .sort("age", SortOrder.DESC)
+                .addRescorer(new QueryRescorerBuilder(QueryBuilders.matchQuery("title", "es")))
+                .size(10);
+        String before = source.toString();
+        SearchRequest request = new SearchRequest("docs").source(source);
+        AtomicInteger rows = new AtomicInteger();
+
+        ExportReport report = new ScrollExporter(client, 2).export(request, (slice, hit) -> rows.incrementAndGet());
+
+        assertThat(rows.get()).isEqualTo(2);
+        assertThat(report).isNotNull();
+        assertThat(source.toString()).isEqualTo(before);
+        assertThat(searchBodies).hasSize(2);
+        for (String body : searchBodies) {
+            assertThat(body).contains("\"post_filter\"", "\"docvalue_fields\"", "\"stored_fields\"",
+                    "\"term\"", "\"name\"", "\"slice\"", "\"_doc\"", "\"size\":1000");
+            assertThat(body).doesNotContain("\"age\":{\"order\"", "\"rescore\"");
+        }
+    }
+
+    /**
+     * scroll不支持collapse,在发送任何请求前拒绝
+     */
+    @Test
+    void collapseIsRejectedBeforeAnyRequest() {
+        SearchRequest request = new SearchRequest("docs").source(new SearchSourceBuilder().collapse(new CollapseBuilder("user")));
+
+        assertThatThrownBy(() -> new ScrollExporter(client, 2).export(request, (slice, hit) -> {
+        })).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("collapse");
+        assertThat(searchBodies).isEmpty();
+    }
+
+    /**
+     * 清理已过期的scroll返回404,不能掩盖拉取失败的原始异常
+     */
+    @Test
+    void failedClearScrollDoesNotReplaceTheSliceFailure() {
+        scrollFails = true;
+
+        Throwable thrown = catchThrowable(() -> new ScrollExporter(client, 1).export(new SearchRequest("docs"), (slice, hit) -> {
+        }));
+
+        assertThat(thrown).isInstanceOf(IOException.class);
+        assertThat(thrown.getCause()).isInstanceOf(ElasticsearchStatusException.class);
+        assertThat(((ElasticsearchStatusException) thrown.getCause()).status()).isEqualTo(RestStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    @Test
+    void queueSinkCloseTimesOutWhenTheConsumerStopped() throws Exception {
+        BlockingQueue<SearchHit> queue = new ArrayBlockingQueue<>(1);
+        QueueSink sink = new QueueSink(queue, 100);
+        sink.accept(0, new SearchHit(1));
+
+        assertThatThrownBy(sink::close).isInstanceOf(TimeoutException.class);
+        queue.clear();
+        sink.close();
+        assertThat(queue.poll()).isSameAs(QueueSink.END);
+    }
+
+    @Test
+    void sinkIsClosedOnlyAfterSliceWorkersStopOnInterrupt() throws Exception {
+        CountDownLatch accepting = new CountDownLatch(1);
+        AtomicBoolean workerRunning = new AtomicBoolean();
+        AtomicBoolean closedWhileRunning = new AtomicBoolean();
+        HitSink sink = new HitSink() {
+            @Override
+            public void accept(int slice, SearchHit hit) {
+                workerRunning.set(true);
+                accepting.countDown();
+                //模拟耗时的写入,忽略中断直到写完
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                while (System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+                workerRunning.set(false);
+            }
+
+            @Override
+            public void close() {
+                closedWhileRunning.set(workerRunning.get());
+            }
+        };
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        Future<ExportReport> export = caller.submit(() -> new ScrollExporter(client, 1)
+                .export(new SearchRequest("docs"), sink));
+        assertThat(accepting.await(10, TimeUnit.SECONDS)).isTrue();
+        caller.shutdownNow();
+
+        assertThatThrownBy(() -> export.get(10, TimeUnit.SECONDS)).hasRootCauseInstanceOf(InterruptedException.class);
+        assertThat(closedWhileRunning.get()).isFalse();
+    }
+}
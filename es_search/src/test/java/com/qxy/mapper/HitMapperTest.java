@@ -0,0 +1,105 @@
+package com.qxy.mapper;
+
+import com.qxy.model.Book;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/10 17:00
+ * @Introduction: HitMapper按字段类型解码_source,不支持的字段类型在创建解码器时报错
+ */
+class HitMapperTest {
+
+    static class Typed {
+        private String name;
+        private int count;
+        private Long total;
+        private boolean enabled;
+        private String[] tags;
+        private List<Object> values;
+        private Map<String, Object> author;
+        private Object any;
+    }
+
+    static class WithDate {
+        private String name;
+        private Date published;
+    }
+
+    static class WithNested {
+        private Book book;
+    }
+
+    static class WithSet {
+        private Set<String> tags;
+    }
+
+    static class Child extends WithDate {
+        //子类的同名字段优先,父类中被遮蔽的Date字段不参与解码
+        private String published;
+    }
+
+    @Test
+    void mapsEverySupportedType() {
+        Typed typed = HitMapper.of(Typed.class).map(new BytesArray("{\"name\":\"java\",\"count\":\"3\",\"total\":10,"
+                + "\"enabled\":true,\"tags\":\"one\",\"values\":[1,\"a\"],\"author\":{\"name\":\"rose\"},\"any\":[1,2],"
+                + "\"unknown\":{\"nested\":[1,2]}}"));
+
+        assertThat(typed.name).isEqualTo("java");
+        assertThat(typed.count).isEqualTo(3);
+        assertThat(typed.total).isEqualTo(10L);
+        assertThat(typed.enabled).isTrue();
+        assertThat(typed.tags).containsExactly("one");
+        assertThat(typed.values).containsExactly(1, "a");
+        assertThat(typed.author).containsEntry("name", "rose");
+        assertThat(typed.any).isEqualTo(Arrays.asList(1, 2));
+    }
+
+    /**
+     * 不支持的类型在of()时抛出,错误信息包含类名、字段名和字段类型
+     */
+    @Test
+    void unsupportedFieldTypesAreRejectedWhenTheMapperIsBuilt() {
+        assertThatThrownBy(() -> HitMapper.of(WithDate.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(WithDate.class.getName() + ".published")
+                .hasMessageContaining("java.util.Date");
+        assertThatThrownBy(() -> HitMapper.of(WithNested.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("book")
+                .hasMessageContaining(Book.class.getName());
+        assertThatThrownBy(() -> HitMapper.of(WithSet.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("java.util.Set");
+    }
+
+    @Test
+    void shadowedSuperclassFieldsAreNotValidated() {
+        Child child = HitMapper.of(Child.class).map(new BytesArray("{\"name\":\"java\",\"published\":\"2023-04-10\"}"));
+
+        assertThat(child.published).isEqualTo("2023-04-10");
+    }
+
+    /**
+     * Map字段对应的值不是对象时报告字段名,而不是赋值时的类型转换错误
+     */
+    @Test
+    void mapFieldRequiresAnObject() {
+        Throwable thrown = catchThrowable(() -> HitMapper.of(Typed.class).map(new BytesArray("{\"author\":\"rose\"}")));
+
+        assertThat(thrown).isInstanceOf(UncheckedIOException.class).hasMessageContaining(Typed.class.getName());
+        assertThat(thrown.getCause()).hasMessageContaining("[author] must be an object");
+    }
+}
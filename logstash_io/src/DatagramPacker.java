@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/4 9:30
+ * @Introduction: 把按字节读入的日志行装进不超过maxDatagram的数据报,一个数据报包含尽可能多的完整行
+ * <p>
+ * 1、数据报缓冲区是一个复用的堆外ByteBuffer,行直接从读缓冲区复制进去,不为每行创建String、byte[]和DatagramPacket
+ * 2、装不下下一行时先发送已有的完整行,未完成的行移到缓冲区开头继续
+ * 3、单行超过maxDatagram时截断为maxDatagram字节(以换行结尾),其余部分丢弃
+ * 4、空行丢弃;每行以\n结尾,logstash的udp输入需要使用line(或json_lines)codec按行拆分事件
+ * 5、最多一次(at-most-once): write成功只表示数据报交给了本机协议栈,网络或接收端丢包不感知;
+ * write失败(如上一个数据报收到ICMP端口不可达)的数据报不重发,其中的行计入dropped而不是sent
+ * <p>
+ * 一个packer只能由一个线程使用,多个packer可以共用一个DatagramChannel
+ */
+public class DatagramPacker implements LineSink {
+    private final DatagramChannel channel;
+    private final ByteBuffer buffer;
+    private final ShipperStats stats;
+    /**
+     * 缓冲区中第一个未完成行的起始位置,之前都是完整的行
+     */
+    private int lineStart;
+    /**
+     * 缓冲区中完整的行数
+     */
+    private int bufferedLines;
+    /**
+     * 正在丢弃超长行的剩余部分
+     */
+    private boolean truncating;
+
+    public DatagramPacker(DatagramChannel channel, int maxDatagram, ShipperStats stats) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(maxDatagram);
+        this.stats = stats;
+    }
+
+    /**
+     * 写入一段读到的字节,可以在任意位置断开
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int newline = indexOf(bytes, (byte) '\n', i, end);
+            int segmentEnd = newline < 0 ? end : newline + 1;
+            append(bytes, i, segmentEnd - i, newline >= 0);
+            i = segmentEnd;
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param endsLine 这一段是否以\n结尾
+     */
+    private void append(byte[] bytes, int offset, int length, boolean endsLine) throws IOException {
+        if (truncating) {
+            truncating = !endsLine;
+            return;
+        }
+        while (length > buffer.remaining()) {
+            if (lineStart > 0) {
+                //先发出完整的行,给当前行腾出空间
+                sendCompleteLines();
+                continue;
+            }
+            //当前行比一个数据报还长: 截断,最后一个字节换成换行
+            buffer.put(bytes, offset, buffer.remaining());
+            buffer.put(buffer.position() - 1, (byte) '\n');
+            completeLine();
+            stats.truncated.increment();
+            truncating = !endsLine;
+            return;
+        }
+        buffer.put(bytes, offset, length);
+        if (endsLine) {
+            if (buffer.position() - lineStart == 1) {
+                //空行
+                buffer.position(lineStart);
+                return;
+            }
+            completeLine();
+        }
+    }
+
+    private void completeLine() throws IOException {
+        lineStart = buffer.position();
+        bufferedLines++;
+        stats.lines.increment();
+        if (!buffer.hasRemaining()) {
+            sendCompleteLines();
+        }
+    }
+
+    /**
+     * 发送缓冲区中的完整行,未完成的行留在缓冲区中;输入暂时没有更多数据时调用,保证日志及时发出
+     */
+    @Override
+    public void flush() throws IOException {
+        sendCompleteLines();
+    }
+
+    /**
+     * 输入结束: 没有换行结尾的最后一行补上换行后发送
+     */
+    @Override
+    public void finish() throws IOException {
+        if (buffer.position() > lineStart && !truncating) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(buffer.position() - 1);
+                stats.truncated.increment();
+            }
+            buffer.put((byte) '\n');
+            completeLine();
+        }
+        truncating = false;
+        sendCompleteLines();
+        buffer.clear();
+        lineStart = 0;
+    }
+
+    private void sendCompleteLines() throws IOException {
+        if (lineStart == 0) {
+            return;
+        }
+        int position = buffer.position();
+        buffer.limit(lineStart);
+        buffer.position(0);
+        try {
+            channel.write(buffer);
+            stats.datagrams.increment();
+            stats.bytes.add(lineStart);
+            stats.sent.add(bufferedLines);
+        } catch (IOException e) {
+            //udp不保证送达,连接的channel在对端端口不可达时会收到ICMP错误,丢弃这个数据报继续发送
+            stats.sendErrors.increment();
+            stats.dropped.add(bufferedLines);
+            if (!channel.isOpen()) {
+                throw e;
+            }
+        }
+        buffer.limit(position);
+        buffer.position(lineStart);
+        buffer.compact();
+        lineStart = 0;
+        bufferedLines = 0;
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/4 9:30
+ * @Introduction: 跟踪一个日志文件(类似tail -F),新写入的行交给LineSink
+ * <p>
+ * 1、默认从文件末尾开始,fromBeginning为true时先发送已有内容
+ * 2、读到末尾时发送已装好的行,然后按pollInterval轮询
+ * 3、文件变小(被截断)时从头读;文件被轮转(fileKey变化或被删除后重建)时读完旧文件剩余内容再打开新文件
+ */
+public class FileTailer implements Runnable {
+    private final Path path;
+    private final LineSink sink;
+    private final boolean fromBeginning;
+    private final long pollIntervalMillis;
+    private volatile boolean running = true;
+
+    public FileTailer(Path path, LineSink sink, boolean fromBeginning, long pollIntervalMillis) {
+        this.path = path;
+        this.sink = sink;
+        this.fromBeginning = fromBeginning;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        boolean first = true;
+        try {
+            while (running) {
+                FileChannel channel = open();
+                if (channel == null) {
+                    Thread.sleep(pollIntervalMillis);
+                    continue;
+                }
+                try {
+                    Object fileKey = fileKey(path);
+                    if (first && !fromBeginning) {
+                        channel.position(channel.size());
+                    }
+                    first = false;
+                    follow(channel, fileKey, buffer);
+                } finally {
+                    channel.close();
+                }
+            }
+            sink.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("failed to tail " + path + ": " + e);
+        }
+    }
+
+    /**
+     * 读取到文件被轮转或停止
+     */
+    private void follow(FileChannel channel, Object fileKey, ByteBuffer buffer) throws IOException, InterruptedException {
+        while (running) {
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n > 0) {
+                sink.write(buffer.array(), 0, n);
+                continue;
+            }
+            sink.flush();
+            if (channel.size() < channel.position()) {
+                //被截断
+                channel.position(0);
+                continue;
+            }
+            if (!Objects.equals(fileKey, fileKey(path))) {
+                //被轮转: 旧文件已读完,没有换行结尾的最后一行也发出
+                sink.finish();
+                return;
+            }
+            Thread.sleep(pollIntervalMillis);
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 文件的唯一标识(Linux上是设备号和inode),文件不存在时为null
+     */
+    private static Object fileKey(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            Object key = attributes.fileKey();
+            //不支持fileKey的平台按创建时间区分
+            return key != null ? key : attributes.creationTime();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+}
@@ -0,0 +1,25 @@
+import java.io.IOException;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/5 9:30
+ * @Introduction: 日志行的接收方,输入(标准输入、跟踪的文件)把读到的字节交给它,由它按行拆分并发送
+ * <p>
+ * 一个sink只能由一个输入线程使用
+ */
+public interface LineSink {
+    /**
+     * 写入一段读到的字节,可以在任意位置断开
+     */
+    void write(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * 输入暂时没有更多数据: 发送已经完整的行,保证日志及时发出
+     */
+    void flush() throws IOException;
+
+    /**
+     * 输入结束: 没有换行结尾的最后一行也发出
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/6 9:30
+ * @Introduction: 按\n拆分输入的LineSink,完整的行交给line(),空行丢弃,超过maxLine的部分截断
+ */
+public abstract class LineSplitter implements LineSink {
+    private final int maxLine;
+    private byte[] line = new byte[256];
+    private int length;
+
+    protected LineSplitter(int maxLine) {
+        this.maxLine = maxLine;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '\n') {
+                endLine();
+            } else if (this.length < maxLine) {
+                if (this.length == line.length) {
+                    line = Arrays.copyOf(line, Math.min(line.length * 2, maxLine));
+                }
+                line[this.length++] = b;
+            }
+        }
+    }
+
+    private void endLine() throws IOException {
+        if (length > 0) {
+            line(line, length);
+        }
+        length = 0;
+    }
+
+    /**
+     * 一行完整的内容(不含\n),bytes只在调用期间有效
+     */
+    protected abstract void line(byte[] bytes, int length) throws IOException;
+
+    @Override
+    public void finish() throws IOException {
+        endLine();
+        flush();
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/5 9:30
+ * @Introduction: 日志发送端,udp和lumberjack两种传输方式
+ */
+public interface LogShipper extends Closeable {
+    int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 为一个输入线程创建sink
+     */
+    LineSink newSink();
+
+    /**
+     * @return 按写入顺序已送达的行数;lumberjack是服务端已确认的行数,udp没有确认,写入socket即算送达
+     */
+    long getDelivered();
+
+    /**
+     * @return 发送失败、没有重发的行数;变化之后getDelivered不再是写入顺序的前缀,调用方需要从自己的确认位置重发
+     */
+    default long getLost() {
+        return 0;
+    }
+
+    /**
+     * 在当前线程读取输入流直到结束
+     */
+    default void ship(InputStream in) throws IOException {
+        LineSink sink = newSink();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            sink.write(buffer, 0, n);
+            if (in.available() == 0) {
+                sink.flush();
+            }
+        }
+        sink.finish();
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/5 9:30
+ * @Introduction: 本机的lumberjack v2接收端,代替logstash的beats输入测试发送端
+ * <p>
+ * 1、支持窗口帧、压缩帧和json帧,窗口内的事件全部交给listener后回复确认
+ * 2、failEveryWindows大于0时每收到这么多个窗口,在回复确认之前断开连接,模拟logstash重启,发送端应当重发
+ */
+public class LumberjackReceiver implements AutoCloseable {
+    private final ServerSocket server;
+    private final Consumer<byte[]> listener;
+    private final int failEveryWindows;
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong windows = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+
+    public LumberjackReceiver(Consumer<byte[]> listener, int failEveryWindows) throws IOException {
+        this(0, listener, failEveryWindows);
+    }
+
+    /**
+     * @param port 监听的端口,0表示由系统分配
+     */
+    public LumberjackReceiver(int port, Consumer<byte[]> listener, int failEveryWindows) throws IOException {
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.listener = listener;
+        this.failEveryWindows = failEveryWindows;
+        Thread acceptor = new Thread(this::accept, "lumberjack-receiver");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public InetSocketAddress address() {
+        return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                connections.incrementAndGet();
+                Thread handler = new Thread(() -> handle(socket), "lumberjack-connection");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            //关闭
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            OutputStream out = s.getOutputStream();
+            Window window = new Window();
+            while (true) {
+                try {
+                    frame(in, window);
+                } catch (EOFException e) {
+                    return;
+                }
+                if (window.size > 0 && window.received == window.size) {
+                    if (failEveryWindows > 0 && windows.incrementAndGet() % failEveryWindows == 0) {
+                        //已处理但没有确认
+                        return;
+                    }
+                    out.write(new byte[]{'2', 'A', (byte) (window.size >>> 24), (byte) (window.size >>> 16),
+                            (byte) (window.size >>> 8), (byte) window.size});
+                    out.flush();
+                    window.size = 0;
+                }
+            }
+        } catch (IOException | DataFormatException e) {
+            if (!server.isClosed()) {
+                System.err.println("lumberjack receiver: " + e);
+            }
+        }
+    }
+
+    /**
+     * 读取一个帧,压缩帧解压后逐个读取其中的帧
+     */
+    private void frame(DataInputStream in, Window window) throws IOException, DataFormatException {
+        byte version = in.readByte();
+        byte type = in.readByte();
+        if (version != '2') {
+            throw new IOException("unsupported protocol version " + (char) version);
+        }
+        switch (type) {
+            case 'W':
+                window.size = in.readInt();
+                window.received = 0;
+                break;
+            case 'C':
+                byte[] compressed = new byte[in.readInt()];
+                in.readFully(compressed);
+                DataInputStream frames = new DataInputStream(new ByteArrayInputStream(inflate(compressed)));
+                while (frames.available() > 0) {
+                    frame(frames, window);
+                }
+                break;
+            case 'J':
+                int seq = in.readInt();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                if (seq != window.received + 1) {
+                    throw new IOException("unexpected sequence " + seq + ", expected " + (window.received + 1));
+                }
+                window.received = seq;
+                events.incrementAndGet();
+                listener.accept(payload);
+                break;
+            default:
+                throw new IOException("unsupported frame type " + (char) type);
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] buffer = new byte[compressed.length * 4 + 64];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("truncated compressed frame");
+                }
+                length += n;
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public long getEvents() {
+        return events.get();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private static class Window {
+        private int size;
+        private int received;
+    }
+}
@@ -0,0 +1,542 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/5 9:30
+ * @Introduction: lumberjack(beats)协议v2的tcp发送端,对应logstash的beats输入,服务端确认之前的日志不会丢失
+ * <p>
+ * 1、日志行编码为{"message":"..."}的json帧('2' 'J' seq len payload),每batchSize行组成一个窗口('2' 'W' count)
+ * 2、窗口内的帧整体zlib压缩为一个压缩帧('2' 'C' len data),compressionLevel为0时不压缩
+ * 3、最多maxInFlight个窗口不等确认连续发送(流水线),服务端按顺序回复确认('2' 'A' seq),seq是窗口内已处理的最后一行
+ * 4、连接断开或超过ackTimeout没有收到确认时重连(退避重试),未确认的窗口从最后确认的位置重发
+ * 5、已发送和待发送的窗口都满时写入阻塞,输入随之变慢,不会丢弃日志
+ * <p>
+ * 确认之前断开的窗口会重发,服务端可能收到重复的行(至少一次)
+ */
+public class LumberjackShipper implements LogShipper {
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    /**
+     * 单行的最大字节数,超过时截断
+     */
+    private static final int MAX_LINE = 1024 * 1024;
+    private static final byte[] MESSAGE_PREFIX = "{\"message\":\"".getBytes();
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final InetSocketAddress target;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int ackTimeoutMillis;
+    private final long drainTimeoutMillis;
+    private final LumberjackStats stats = new LumberjackStats();
+
+    private final Object lock = new Object();
+    /**
+     * 已组成窗口、还没有发送
+     */
+    private final ArrayDeque<Batch> pending = new ArrayDeque<>();
+    /**
+     * 已发送、还没有完全确认,按发送顺序
+     */
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+    private List<byte[]> current;
+    private Connection connection;
+    private boolean closed;
+
+    private final Thread sender;
+    /**
+     * 以下只由发送线程使用
+     */
+    private final Deflater deflater;
+    private final Buffer frames = new Buffer();
+    private final Buffer window = new Buffer();
+    private final byte[] chunk = new byte[64 * 1024];
+
+    /**
+     * @param target             logstash beats输入的地址
+     * @param batchSize          每个窗口的行数
+     * @param maxInFlight        不等确认连续发送的窗口数
+     * @param compressionLevel   zlib压缩级别0-9,0表示不压缩
+     * @param ackTimeoutMillis   有未确认的窗口时,超过这个时间没有收到任何确认就重连
+     * @param drainTimeoutMillis 关闭时等待剩余日志确认的最长时间
+     */
+    public LumberjackShipper(InetSocketAddress target, int batchSize, int maxInFlight, int compressionLevel,
+                             int ackTimeoutMillis, long drainTimeoutMillis) {
+        if (batchSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("batchSize and maxInFlight must be positive");
+        }
+        this.target = target;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.current = new ArrayList<>(batchSize);
+        this.deflater = compressionLevel > 0 ? new Deflater(compressionLevel) : null;
+        this.sender = new Thread(this::send, "lumberjack-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    @Override
+    public LineSink newSink() {
+        return new LineSplitter(MAX_LINE) {
+            @Override
+            protected void line(byte[] bytes, int length) throws IOException {
+                publish(encodeEvent(bytes, length));
+            }
+
+            @Override
+            public void flush() throws IOException {
+                flushBatch();
+            }
+        };
+    }
+
+    @Override
+    public long getDelivered() {
+        return stats.getAcked();
+    }
+
+    public LumberjackStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 加入一行已编码的事件,待发送的窗口满时阻塞
+     */
+    private void publish(byte[] event) throws IOException {
+        synchronized (lock) {
+            while (!closed && pending.size() >= maxInFlight) {
+                await(0);
+            }
+            if (closed) {
+                throw new IOException("shipper closed");
+            }
+            current.add(event);
+            stats.lines.increment();
+            if (current.size() >= batchSize) {
+                seal();
+            }
+        }
+    }
+
+    /**
+     * 不满batchSize的行也组成窗口发送
+     */
+    private void flushBatch() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("shipper closed");
+            }
+            seal();
+        }
+    }
+
+    private void seal() {
+        if (current.isEmpty()) {
+            return;
+        }
+        pending.add(new Batch(current));
+        current = new ArrayList<>(batchSize);
+        lock.notifyAll();
+    }
+
+    private void await(long millis) throws IOException {
+        try {
+            lock.wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+    }
+
+    /**
+     * 发送线程: 维护连接,按顺序发送窗口
+     */
+    private void send() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            Connection conn;
+            Batch batch = null;
+            synchronized (lock) {
+                while (!closed && connection != null && !connection.broken
+                        && (pending.isEmpty() || inFlight.size() >= maxInFlight)) {
+                    waitQuietly(0);
+                }
+                if (closed) {
+                    return;
+                }
+                conn = connection;
+                if (conn != null && !conn.broken) {
+                    batch = pending.poll();
+                    batch.windowStart = 0;
+                    inFlight.add(batch);
+                    //待发送的窗口有了空位
+                    lock.notifyAll();
+                }
+            }
+            if (batch == null) {
+                backoff = reconnect(conn) ? MIN_BACKOFF_MILLIS : sleep(backoff);
+                continue;
+            }
+            try {
+                conn.write(batch);
+            } catch (IOException e) {
+                conn.fail(e);
+            }
+        }
+    }
+
+    /**
+     * 关闭旧连接,建立新连接并重发所有未确认的窗口
+     *
+     * @return 是否连接成功
+     */
+    private boolean reconnect(Connection old) {
+        if (old != null) {
+            old.close();
+        }
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(ackTimeoutMillis);
+            socket.connect(target, CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            System.err.println("failed to connect " + target + ": " + e);
+            return false;
+        }
+        Connection conn;
+        List<Batch> resend;
+        synchronized (lock) {
+            if (closed) {
+                closeQuietly(socket);
+                return true;
+            }
+            try {
+                conn = new Connection(socket);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                return false;
+            }
+            if (old != null) {
+                stats.reconnects.increment();
+            }
+            connection = conn;
+            resend = new ArrayList<>(inFlight);
+            for (Batch batch : resend) {
+                batch.windowStart = batch.acked;
+            }
+        }
+        conn.startReader();
+        try {
+            for (Batch batch : resend) {
+                stats.resent.add(batch.events.size() - batch.windowStart);
+                conn.write(batch);
+            }
+        } catch (IOException e) {
+            conn.fail(e);
+        }
+        return true;
+    }
+
+    /**
+     * @return 下一次的退避时间
+     */
+    private long sleep(long backoff) {
+        synchronized (lock) {
+            if (!closed) {
+                waitQuietly(backoff);
+            }
+        }
+        return Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            lock.wait(millis);
+        } catch (InterruptedException e) {
+            //发送线程只在关闭时结束
+        }
+    }
+
+    /**
+     * 窗口编码: 窗口帧 + (压缩的)json帧,从上次确认的位置开始,seq从1开始
+     */
+    private void encode(Batch batch) {
+        int start = batch.windowStart;
+        frames.reset();
+        for (int i = start; i < batch.events.size(); i++) {
+            byte[] event = batch.events.get(i);
+            frames.write('2');
+            frames.write('J');
+            frames.writeInt(i - start + 1);
+            frames.writeInt(event.length);
+            frames.write(event, 0, event.length);
+        }
+        window.reset();
+        window.write('2');
+        window.write('W');
+        window.writeInt(batch.events.size() - start);
+        if (deflater == null) {
+            window.write(frames.array(), 0, frames.size());
+            return;
+        }
+        window.write('2');
+        window.write('C');
+        int lengthAt = window.size();
+        window.writeInt(0);
+        deflater.reset();
+        deflater.setInput(frames.array(), 0, frames.size());
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            window.write(chunk, 0, n);
+        }
+        window.setInt(lengthAt, window.size() - lengthAt - 4);
+    }
+
+    /**
+     * 组成窗口并等待所有日志确认(最长drainTimeout)后关闭
+     */
+    @Override
+    public void close() throws IOException {
+        long remaining;
+        Connection conn;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            seal();
+            long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+            while (!pending.isEmpty() || !inFlight.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                waitQuietly(wait);
+            }
+            remaining = stats.getLines() - stats.getAcked();
+            closed = true;
+            conn = connection;
+            lock.notifyAll();
+        }
+        if (conn != null) {
+            conn.close();
+        }
+        try {
+            sender.join(CONNECT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (deflater != null) {
+            deflater.end();
+        }
+        if (remaining > 0) {
+            throw new IOException(remaining + " lines not acknowledged by " + target);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //忽略
+        }
+    }
+
+    /**
+     * 一个窗口的事件和确认进度
+     */
+    private static class Batch {
+        private final List<byte[]> events;
+        /**
+         * 服务端已确认的行数
+         */
+        private int acked;
+        /**
+         * 当前连接上发送的窗口从第几行开始,确认的seq相对于它
+         */
+        private int windowStart;
+
+        Batch(List<byte[]> events) {
+            this.events = events;
+        }
+    }
+
+    /**
+     * 一个tcp连接,发送线程写入窗口,读取线程处理确认
+     */
+    private class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        /**
+         * 由lock保护
+         */
+        private boolean broken;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+        }
+
+        void startReader() {
+            Thread reader = new Thread(this::readAcks, "lumberjack-ack");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void write(Batch batch) throws IOException {
+            encode(batch);
+            out.write(window.array(), 0, window.size());
+            out.flush();
+            stats.windows.increment();
+            stats.bytes.add(window.size());
+        }
+
+        private void readAcks() {
+            byte[] ack = new byte[6];
+            try {
+                while (true) {
+                    int n = 0;
+                    while (n < ack.length) {
+                        try {
+                            int read = in.read(ack, n, ack.length - n);
+                            if (read < 0) {
+                                throw new EOFException("connection closed by " + target);
+                            }
+                            n += read;
+                        } catch (SocketTimeoutException e) {
+                            if (n > 0 || !idle()) {
+                                throw e;
+                            }
+                        }
+                    }
+                    if (ack[0] != '2' || ack[1] != 'A') {
+                        throw new IOException("unexpected frame " + (char) ack[0] + (char) ack[1]);
+                    }
+                    ack(((ack[2] & 0xff) << 24) | ((ack[3] & 0xff) << 16) | ((ack[4] & 0xff) << 8) | (ack[5] & 0xff));
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private boolean idle() {
+            synchronized (lock) {
+                return inFlight.isEmpty();
+            }
+        }
+
+        /**
+         * 确认按窗口发送的顺序到达,seq小于窗口大小时是处理进度
+         */
+        private void ack(int seq) {
+            synchronized (lock) {
+                Batch head = inFlight.peek();
+                if (this != connection || head == null) {
+                    return;
+                }
+                int acked = head.windowStart + seq;
+                if (acked > head.acked) {
+                    stats.acked.add(acked - head.acked);
+                    head.acked = acked;
+                }
+                if (head.acked >= head.events.size()) {
+                    inFlight.poll();
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        void fail(IOException e) {
+            synchronized (lock) {
+                if (broken) {
+                    return;
+                }
+                broken = true;
+                if (!closed) {
+                    System.err.println("lumberjack connection to " + target + " failed, reconnecting: " + e);
+                }
+                lock.notifyAll();
+            }
+            close();
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * {"message":"..."},行是UTF-8字节,只转义引号、反斜杠和控制字符
+     */
+    static byte[] encodeEvent(byte[] line, int length) {
+        Buffer json = new Buffer(length + 16);
+        json.write(MESSAGE_PREFIX, 0, MESSAGE_PREFIX.length);
+        for (int i = 0; i < length; i++) {
+            int b = line[i] & 0xff;
+            if (b == '"' || b == '\\') {
+                json.write('\\');
+                json.write(b);
+            } else if (b < 0x20) {
+                json.write('\\');
+                json.write('u');
+                json.write('0');
+                json.write('0');
+                json.write(HEX[b >> 4]);
+                json.write(HEX[b & 0xf]);
+            } else {
+                json.write(b);
+            }
+        }
+        json.write('"');
+        json.write('}');
+        return json.toByteArray();
+    }
+
+    /**
+     * 可以直接访问数组、写入int的ByteArrayOutputStream
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(64 * 1024);
+        }
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void setInt(int index, int value) {
+            buf[index] = (byte) (value >>> 24);
+            buf[index + 1] = (byte) (value >>> 16);
+            buf[index + 2] = (byte) (value >>> 8);
+            buf[index + 3] = (byte) value;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/5 9:30
+ * @Introduction: lumberjack发送统计
+ */
+public class LumberjackStats {
+    final LongAdder lines = new LongAdder();
+    final LongAdder acked = new LongAdder();
+    final LongAdder windows = new LongAdder();
+    final LongAdder resent = new LongAdder();
+    final LongAdder reconnects = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+
+    /**
+     * @return 交给发送端的行数
+     */
+    public long getLines() {
+        return lines.sum();
+    }
+
+    /**
+     * @return 服务端已确认的行数
+     */
+    public long getAcked() {
+        return acked.sum();
+    }
+
+    /**
+     * @return 发送的窗口数(含重发)
+     */
+    public long getWindows() {
+        return windows.sum();
+    }
+
+    /**
+     * @return 重连后重发的行数,服务端可能已经处理过其中一部分
+     */
+    public long getResent() {
+        return resent.sum();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    /**
+     * @return 写入连接的字节数(压缩后)
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "lines=" + getLines() + ", acked=" + getAcked() + ", windows=" + getWindows() + ", bytes=" + getBytes()
+                + ", resent=" + getResent() + ", reconnects=" + getReconnects();
+    }
+}
@@ -1,47 +1,132 @@
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.util.Scanner;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @Author: SayHello
  * @Date: 2023/3/12 10:25
- * @Introduction:
+ * @Introduction: 日志发送端,配合logstash的udp或beats输入使用
+ * <p>
+ * 用法: java Main [--protocol udp|lumberjack] [--host 127.0.0.1] [--port 1234|5044] [--from-beginning] [文件...]
+ * udp参数: [--mtu 1500] [--local-port 0]
+ * lumberjack参数: [--batch 1024] [--in-flight 4] [--compression 3] [--ack-timeout 30000]
+ * spool参数: [--spool 目录] [--spool-segment-mb 64] [--spool-max-mb 1024]
+ * <p>
+ * 1、没有指定文件时从标准输入读取,每行一条日志,标准输入结束后退出
+ * 2、指定文件时逐个跟踪(类似tail -F),直到进程被终止
+ * 3、udp: 多行装进一个数据报,数据报大小为mtu减去IP和UDP头的28字节,丢包不感知
+ * 4、lumberjack: tcp窗口确认,压缩、流水线发送,断线重连后从最后确认的位置重发,logstash不可用时阻塞而不丢日志
+ * 5、指定spool目录时输入先写入磁盘上的spool再发送,接收端慢或不可用时输入不阻塞,重启后继续发送未送达的日志
+ * <p>
+ * logstash端配置: input { udp { port => 1234 codec => line } } 或 input { beats { port => 5044 } }
  */
 public class Main {
-    public static void main(String[] args) throws IOException {
-        // 1.定义服务器的地址、端口号、数据
-        InetAddress address = InetAddress.getByName("127.0.0.1");
-        // 2.定义服务器端口
-        int port = 1234;
-
-        // 3.创建发送端对象：发送端自带默认端口号
-        DatagramSocket socket = new DatagramSocket(2222);
-
-        // 4.客户端启动成功，输出提示信息
-        System.out.println("****客户端启动成功****");
-
-        // 5.向服务端发送信息
-        new Thread(() -> {
-            try {
-                while (true) {
-                    System.out.println("请输入：");
-                    // 5.1 从键盘接受数据
-                    Scanner sc = new Scanner(System.in);
-                    // 5.2 nextLine方式接受字符串
-                    String msg = sc.nextLine();
-                    // 5.3 创建一个数据包对象封装数据
-                    byte[] buffer = msg.getBytes();
-                    DatagramPacket packets = new DatagramPacket(buffer, buffer.length, address, port);
-                    // 5.4 发送数据出去
-                    socket.send(packets);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+    public static void main(String[] args) throws Exception {
+        // 1.解析参数
+        String protocol = "udp";
+        String host = "127.0.0.1";
+        int port = -1;
+        int mtu = 1500;
+        int localPort = 0;
+        int batch = 1024;
+        int inFlight = 4;
+        int compression = 3;
+        int ackTimeout = 30_000;
+        Path spoolDirectory = null;
+        int spoolSegmentMb = 64;
+        int spoolMaxMb = 1024;
+        boolean fromBeginning = false;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--protocol":
+                    protocol = args[++i];
+                    break;
+                case "--host":
+                    host = args[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--mtu":
+                    mtu = Integer.parseInt(args[++i]);
+                    break;
+                case "--local-port":
+                    localPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--batch":
+                    batch = Integer.parseInt(args[++i]);
+                    break;
+                case "--in-flight":
+                    inFlight = Integer.parseInt(args[++i]);
+                    break;
+                case "--compression":
+                    compression = Integer.parseInt(args[++i]);
+                    break;
+                case "--ack-timeout":
+                    ackTimeout = Integer.parseInt(args[++i]);
+                    break;
+                case "--spool":
+                    spoolDirectory = Paths.get(args[++i]);
+                    break;
+                case "--spool-segment-mb":
+                    spoolSegmentMb = Integer.parseInt(args[++i]);
+                    break;
+                case "--spool-max-mb":
+                    spoolMaxMb = Integer.parseInt(args[++i]);
+                    break;
+                case "--from-beginning":
+                    fromBeginning = true;
+                    break;
+                default:
+                    files.add(Paths.get(args[i]));
             }
-        }).start();
+        }
+
+        // 2.创建发送端
+        LogShipper shipper;
+        List<Object> stats = new ArrayList<>();
+        if ("lumberjack".equals(protocol)) {
+            port = port < 0 ? 5044 : port;
+            LumberjackShipper lumberjack = new LumberjackShipper(new InetSocketAddress(host, port), batch, inFlight,
+                    compression, ackTimeout, spoolDirectory == null ? 30_000 : 5_000);
+            shipper = lumberjack;
+            stats.add(lumberjack.getStats());
+        } else if ("udp".equals(protocol)) {
+            // 数据报不超过一个MTU
+            port = port < 0 ? 1234 : port;
+            UdpShipper udp = new UdpShipper(new InetSocketAddress(host, port), localPort, mtu - 28, 4 * 1024 * 1024);
+            shipper = udp;
+            stats.add(udp.getStats());
+        } else {
+            throw new IllegalArgumentException("unknown protocol " + protocol);
+        }
+        if (spoolDirectory != null) {
+            Spool spool = new Spool(spoolDirectory, spoolSegmentMb * 1024 * 1024, spoolMaxMb * 1024L * 1024);
+            shipper = new SpoolingShipper(spool, shipper, 30_000);
+            stats.add(spool);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println("****客户端退出**** " + stats)));
 
+        // 3.客户端启动成功,提示信息输出到标准错误,不和管道输入的日志混在一起
+        System.err.println("****客户端启动成功**** " + protocol + "://" + host + ":" + port + (files.isEmpty() ? " <- 标准输入" : " <- " + files));
 
+        // 4.发送日志
+        if (files.isEmpty()) {
+            shipper.ship(System.in);
+            shipper.close();
+            return;
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (Path file : files) {
+            Thread thread = new Thread(new FileTailer(file, shipper.newSink(), fromBeginning, 200), "tail-" + file.getFileName());
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
     }
 }
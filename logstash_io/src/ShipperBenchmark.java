@@ -0,0 +1,255 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/4 9:30
+ * @Introduction: 发送吞吐对比: 原来的每行一个DatagramPacket、UdpShipper的多行一个数据报、LumberjackShipper的tcp窗口
+ * <p>
+ * 用法: java ShipperBenchmark [行数,默认1000000]
+ * <p>
+ * 1、udp接收端只统计数据报数和换行数;udp没有流控,发送比接收快时接收端会丢包,received/sent即送达率
+ * 2、lumberjack接收端按行里的id统计缺失和重复,faults表示接收端每50个窗口断开一次连接
+ * 3、spool: 接收端不可用时写入spool的速度,然后模拟重启并恢复接收端,统计从spool发送完的速度和缺失
+ */
+public class ShipperBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        byte[] input = generate(lines);
+        System.out.println("lines=" + lines + ", bytes=" + input.length);
+        try (Sink sink = new Sink()) {
+            for (int round = 1; round <= ROUNDS; round++) {
+                System.out.println("round " + round);
+                run("per-line packet", sink, lines, () -> {
+                    perLine(input, sink.address());
+                    return null;
+                });
+                run("batched shipper", sink, lines, () -> batched(input, sink.address()));
+                lumberjack("lumberjack", input, lines, 0);
+                lumberjack("lumberjack+faults", input, lines, 50);
+                spool(input, lines);
+            }
+        }
+    }
+
+    /**
+     * 约120字节一行的模拟应用日志
+     */
+    private static byte[] generate(int lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(lines * 128);
+        String[] levels = {"INFO", "WARN", "DEBUG", "ERROR"};
+        for (int i = 0; i < lines; i++) {
+            String line = "2023-04-04 09:30:" + String.format("%02d.%03d", i / 1000 % 60, i % 1000)
+                    + " [http-nio-8080-exec-" + (i % 16) + "] " + levels[i % levels.length]
+                    + " com.qxy.controller.BookController - 查询图书 id=" + i + " cost=" + (i % 97) + "ms\n";
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 原Main的发送方式: 每行创建String、byte[]和DatagramPacket,一行一次send
+     */
+    private static void perLine(byte[] input, InetSocketAddress target) throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            String[] lines = new String(input, StandardCharsets.UTF_8).split("\n");
+            for (String line : lines) {
+                byte[] buffer = line.getBytes();
+                socket.send(new DatagramPacket(buffer, buffer.length, target.getAddress(), target.getPort()));
+            }
+        }
+    }
+
+    private static ShipperStats batched(byte[] input, InetSocketAddress target) throws IOException {
+        try (UdpShipper shipper = new UdpShipper(target, 0, UdpShipper.DEFAULT_MAX_DATAGRAM, 4 * 1024 * 1024)) {
+            shipper.ship(new ByteArrayInputStream(input));
+            return shipper.getStats();
+        }
+    }
+
+    private static void run(String name, Sink sink, int lines, Task task) throws Exception {
+        sink.reset();
+        long start = System.nanoTime();
+        Object stats = task.run();
+        long elapsed = System.nanoTime() - start;
+        //等接收端读完socket缓冲区
+        sink.awaitIdle();
+        System.out.printf("  %-16s %8.0f lines/s  sent=%d received=%d (%.1f%%) datagrams=%d%s%n",
+                name, lines * 1e9 / elapsed, lines, sink.lines.get(), 100.0 * sink.lines.get() / lines,
+                sink.datagrams.get(), stats == null ? "" : "  [" + stats + "]");
+    }
+
+    private static void lumberjack(String name, byte[] input, int lines, int failEveryWindows) throws Exception {
+        BitSet seen = new BitSet(lines);
+        long[] duplicates = new long[1];
+        try (LumberjackReceiver receiver = new LumberjackReceiver(event -> {
+            int id = parseId(event);
+            synchronized (seen) {
+                if (seen.get(id)) {
+                    duplicates[0]++;
+                }
+                seen.set(id);
+            }
+        }, failEveryWindows)) {
+            long start = System.nanoTime();
+            LumberjackShipper shipper = new LumberjackShipper(receiver.address(), 1024, 4, 3, 10_000, 60_000);
+            //close等待全部确认
+            try {
+                shipper.ship(new ByteArrayInputStream(input));
+            } finally {
+                shipper.close();
+            }
+            long elapsed = System.nanoTime() - start;
+            synchronized (seen) {
+                System.out.printf("  %-16s %8.0f lines/s  sent=%d received=%d missing=%d duplicates=%d  [%s]%n",
+                        name, lines * 1e9 / elapsed, lines, receiver.getEvents(), lines - seen.cardinality(),
+                        duplicates[0], shipper.getStats());
+            }
+        }
+    }
+
+    private static void spool(byte[] input, int lines) throws Exception {
+        Path directory = Files.createTempDirectory("spool");
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        try {
+            //1.接收端不可用,全部写入spool后退出
+            long start = System.nanoTime();
+            SpoolingShipper shipper = new SpoolingShipper(new Spool(directory, 16 * 1024 * 1024, 1L << 30),
+                    new LumberjackShipper(target, 1024, 4, 3, 10_000, 0), 0);
+            shipper.ship(new ByteArrayInputStream(input));
+            long elapsed = System.nanoTime() - start;
+            String backlog = shipper.getSpool().toString();
+            shipper.close();
+            System.out.printf("  %-16s %8.0f lines/s  receiver down  [%s]%n", "spool ingest", lines * 1e9 / elapsed, backlog);
+
+            //2.重启并恢复接收端,从spool发送完
+            BitSet seen = new BitSet(lines);
+            long[] duplicates = new long[1];
+            try (LumberjackReceiver receiver = new LumberjackReceiver(port, event -> {
+                int id = parseId(event);
+                synchronized (seen) {
+                    if (seen.get(id)) {
+                        duplicates[0]++;
+                    }
+                    seen.set(id);
+                }
+            }, 0)) {
+                start = System.nanoTime();
+                Spool spool = new Spool(directory, 16 * 1024 * 1024, 1L << 30);
+                LumberjackShipper lumberjack = new LumberjackShipper(target, 1024, 4, 3, 10_000, 60_000);
+                new SpoolingShipper(spool, lumberjack, 60_000).close();
+                elapsed = System.nanoTime() - start;
+                synchronized (seen) {
+                    System.out.printf("  %-16s %8.0f lines/s  after restart received=%d missing=%d duplicates=%d  [%s] [%s]%n",
+                            "spool drain", lines * 1e9 / elapsed, receiver.getEvents(), lines - seen.cardinality(),
+                            duplicates[0], spool, lumberjack.getStats());
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * 从事件json中取出" id=123 "
+     */
+    private static int parseId(byte[] event) {
+        String json = new String(event, StandardCharsets.UTF_8);
+        int from = json.indexOf(" id=") + 4;
+        return Integer.parseInt(json.substring(from, json.indexOf(' ', from)));
+    }
+
+    private interface Task {
+        Object run() throws Exception;
+    }
+
+    /**
+     * 本机udp接收端,模拟logstash的udp输入
+     */
+    private static class Sink implements AutoCloseable {
+        private final DatagramChannel channel;
+        private final Thread thread;
+        private final AtomicLong datagrams = new AtomicLong();
+        private final AtomicLong lines = new AtomicLong();
+        private volatile long lastReceive;
+
+        Sink() throws IOException {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024 * 1024);
+            channel.bind(new InetSocketAddress("127.0.0.1", 0));
+            thread = new Thread(this::receive, "udp-sink");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress address() throws IOException {
+            return (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        private void receive() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+            try {
+                while (true) {
+                    buffer.clear();
+                    channel.receive(buffer);
+                    int count = 0;
+                    for (int i = 0; i < buffer.position(); i++) {
+                        if (buffer.get(i) == '\n') {
+                            count++;
+                        }
+                    }
+                    //每行一个数据报的方式不带换行
+                    lines.addAndGet(Math.max(count, 1));
+                    datagrams.incrementAndGet();
+                    lastReceive = System.nanoTime();
+                }
+            } catch (AsynchronousCloseException e) {
+                //关闭
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void reset() {
+            datagrams.set(0);
+            lines.set(0);
+        }
+
+        void awaitIdle() throws InterruptedException {
+            do {
+                Thread.sleep(100);
+            } while (System.nanoTime() - lastReceive < 100_000_000L);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/4 9:30
+ * @Introduction: 发送统计,多个输入线程共用
+ */
+public class ShipperStats {
+    final LongAdder lines = new LongAdder();
+    final LongAdder sent = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder datagrams = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder truncated = new LongAdder();
+    final LongAdder sendErrors = new LongAdder();
+
+    public long getLines() {
+        return lines.sum();
+    }
+
+    /**
+     * @return 已写入socket的行数,不含还在缓冲区中的行和发送失败的行
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return 所在数据报发送失败而被丢弃的行数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getDatagrams() {
+        return datagrams.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return 超过一个数据报而被截断的行数
+     */
+    public long getTruncated() {
+        return truncated.sum();
+    }
+
+    /**
+     * @return 发送失败(如对端端口不可达)被丢弃的数据报数
+     */
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    @Override
+    public String toString() {
+        long datagrams = getDatagrams();
+        return "lines=" + getLines() + ", datagrams=" + datagrams + ", bytes=" + getBytes()
+                + ", linesPerDatagram=" + String.format("%.1f", datagrams == 0 ? 0.0 : (double) getLines() / datagrams)
+                + ", truncated=" + getTruncated() + ", sendErrors=" + getSendErrors() + ", dropped=" + getDropped();
+    }
+}
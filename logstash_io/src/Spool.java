@@ -0,0 +1,407 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/6 9:30
+ * @Introduction: 持久化的日志队列: 目录下按顺序编号的定长段文件,内存映射后只追加写入,读取位置单独持久化
+ * <p>
+ * 1、记录格式: int长度 + int CRC32 + 内容;段文件预先分配,未写入的部分是0,长度为0或校验失败即段的末尾
+ * 2、写满一个段后新建下一个段(文件名是20位的段号);写入不等待读取,接收端慢或不可用时输入不受影响
+ * 3、读取位置分为已读取(交给发送端)和已提交(发送端确认送达)两个,只有已提交的位置写入cursor文件,重启后从这里继续
+ * 4、已提交位置之前的段被删除;段的总大小超过maxBytes时删除最旧的段,其中未送达的记录丢弃,计入droppedSegments
+ * <p>
+ * 写入的数据在页缓存中,进程崩溃不会丢失;段写满和关闭时force到磁盘,操作系统崩溃可能丢失当前段中还没有force的记录
+ */
+public class Spool implements Closeable {
+    private static final String SUFFIX = ".seg";
+    private static final String CURSOR = "cursor";
+    /**
+     * 记录头: 长度 + CRC32
+     */
+    private static final int HEADER = 8;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    /**
+     * 段号 -> 段,最后一个是正在写入的段
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final MappedByteBuffer cursor;
+    private final CRC32 crc = new CRC32();
+
+    private Segment readSegment;
+    private int readOffset;
+    private long readRecords;
+    private long commitSegment;
+    private int commitOffset;
+    private long commitRecords;
+    private boolean readerWaiting;
+    private boolean closed;
+
+    private long appended;
+    private long droppedSegments;
+
+    /**
+     * @param directory   段文件和cursor文件所在的目录,不存在时创建
+     * @param segmentSize 段文件大小(字节),也是单条记录大小的上限
+     * @param maxBytes    所有段的总大小上限,至少保留两个段
+     */
+    public Spool(Path directory, int segmentSize, long maxBytes) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be at least " + MIN_SEGMENT_SIZE);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytes / segmentSize));
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.put(id, Segment.open(id, file, 0));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, Segment.open(0, path(0), segmentSize));
+        }
+        //上次关闭或崩溃前正在写入的段: 找到最后一条有效记录之后的位置继续写入,之前的段读到无效记录为止
+        Segment active = segments.lastEntry().getValue();
+        active.writeOffset = 0;
+        for (int length; (length = next(active, active.writeOffset, active.capacity)) >= 0; ) {
+            active.writeOffset += HEADER + length;
+        }
+
+        try (FileChannel channel = FileChannel.open(directory.resolve(CURSOR),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            cursor = channel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+        }
+        long segment = cursor.getLong(0);
+        int offset = cursor.getInt(8);
+        Segment committed = segments.get(segment);
+        if (cursor.getInt(12) != cursorChecksum(segment, offset) || committed == null || offset > committed.writeOffset) {
+            //没有cursor或已失效: 从最旧的段开始,可能重复发送
+            committed = segments.firstEntry().getValue();
+            offset = 0;
+        }
+        commitSegment = committed.id;
+        commitOffset = offset;
+        readSegment = committed;
+        readOffset = offset;
+        deleteBefore(commitSegment);
+    }
+
+    private Path path(long id) {
+        return directory.resolve(String.format("%020d", id) + SUFFIX);
+    }
+
+    /**
+     * @return 单条记录的最大字节数,超过时append截断
+     */
+    public int getMaxRecord() {
+        return segmentSize - HEADER;
+    }
+
+    /**
+     * 追加一条记录
+     */
+    public synchronized void append(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("spool closed");
+        }
+        length = Math.min(length, getMaxRecord());
+        Segment active = segments.lastEntry().getValue();
+        if (active.writeOffset + HEADER + length > active.capacity) {
+            active = roll(active);
+        }
+        int position = active.writeOffset;
+        crc.reset();
+        crc.update(bytes, offset, length);
+        active.map.putInt(position + 4, (int) crc.getValue());
+        ByteBuffer view = active.view(position + HEADER, position + HEADER + length);
+        view.put(bytes, offset, length);
+        //长度最后写入,写入一半的记录长度为0
+        active.map.putInt(position, length);
+        active.writeOffset = position + HEADER + length;
+        appended++;
+        if (readerWaiting) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 新建下一个段,超过maxBytes时删除最旧的段
+     */
+    private Segment roll(Segment active) throws IOException {
+        active.map.force();
+        long id = active.id + 1;
+        Segment next = Segment.open(id, path(id), segmentSize);
+        segments.put(id, next);
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            Segment first = segments.firstEntry().getValue();
+            droppedSegments++;
+            System.err.println("spool exceeds " + (long) maxSegments * segmentSize + " bytes, dropping undelivered segment " + oldest.path);
+            if (commitSegment <= oldest.id) {
+                commitSegment = first.id;
+                commitOffset = 0;
+                writeCursor();
+            }
+            if (readSegment == oldest) {
+                readSegment = first;
+                readOffset = 0;
+            }
+            delete(oldest.path);
+        }
+        return next;
+    }
+
+    /**
+     * 从读取位置开始复制记录到buffer,每条记录后加\n;没有记录时最多等待timeoutMillis
+     *
+     * @param buffer 至少getMaxRecord() + 1字节
+     * @return 复制的字节数,0表示超时或已关闭
+     */
+    public synchronized int read(byte[] buffer, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            int n = copy(buffer);
+            long remaining = deadline - System.currentTimeMillis();
+            if (n > 0 || closed || remaining <= 0) {
+                return n;
+            }
+            readerWaiting = true;
+            try {
+                wait(remaining);
+            } finally {
+                readerWaiting = false;
+            }
+        }
+    }
+
+    private int copy(byte[] buffer) {
+        int n = 0;
+        while (true) {
+            int length = next(readSegment, readOffset, readSegment.writeOffset);
+            if (length < 0) {
+                Map.Entry<Long, Segment> next = segments.higherEntry(readSegment.id);
+                if (next == null) {
+                    return n;
+                }
+                readSegment = next.getValue();
+                readOffset = 0;
+                continue;
+            }
+            if (n + length + 1 > buffer.length) {
+                return n;
+            }
+            readSegment.view(readOffset + HEADER, readOffset + HEADER + length).get(buffer, n, length);
+            buffer[n + length] = '\n';
+            n += length + 1;
+            readOffset += HEADER + length;
+            readRecords++;
+        }
+    }
+
+    /**
+     * @return offset处记录的长度,没有有效记录时返回-1
+     */
+    private int next(Segment segment, int offset, int limit) {
+        if (offset + HEADER > limit) {
+            return -1;
+        }
+        int length = segment.map.getInt(offset);
+        if (length <= 0 || length > limit - offset - HEADER) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(segment.view(offset + HEADER, offset + HEADER + length));
+        return (int) crc.getValue() == segment.map.getInt(offset + 4) ? length : -1;
+    }
+
+    /**
+     * @return 已读取的位置,连同本次启动以来读取的记录数
+     */
+    public synchronized Position readPosition() {
+        return new Position(readSegment.id, readOffset, readRecords);
+    }
+
+    /**
+     * 提交已送达的位置(只会前进),删除之前的段
+     */
+    public synchronized void commit(Position position) throws IOException {
+        if (position.segment < commitSegment
+                || (position.segment == commitSegment && position.offset <= commitOffset)) {
+            return;
+        }
+        commitSegment = position.segment;
+        commitOffset = position.offset;
+        commitRecords = position.records;
+        writeCursor();
+        deleteBefore(commitSegment);
+    }
+
+    /**
+     * 读取位置回到已提交的位置,之后的记录重新读取
+     *
+     * @return 回退后的读取位置
+     */
+    public synchronized Position rewind() {
+        readSegment = segments.get(commitSegment);
+        readOffset = commitOffset;
+        readRecords = commitRecords;
+        return readPosition();
+    }
+
+    private void deleteBefore(long id) {
+        while (segments.firstKey() < id) {
+            delete(segments.pollFirstEntry().getValue().path);
+        }
+    }
+
+    /**
+     * 映射在缓冲区被回收时才释放,不允许删除已映射文件的系统上留到下次启动时删除
+     */
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("failed to delete " + path + ": " + e);
+        }
+    }
+
+    private void writeCursor() {
+        cursor.putLong(0, commitSegment);
+        cursor.putInt(8, commitOffset);
+        cursor.putInt(12, cursorChecksum(commitSegment, commitOffset));
+    }
+
+    private int cursorChecksum(long segment, int offset) {
+        crc.reset();
+        crc.update(ByteBuffer.allocate(12).putLong(segment).putInt(offset).array());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return 所有记录都已提交
+     */
+    public synchronized boolean isDrained() {
+        Segment active = segments.lastEntry().getValue();
+        return commitSegment == active.id && commitOffset == active.writeOffset;
+    }
+
+    /**
+     * @return 还没有提交的字节数(含记录头),启动前写满的段按段大小计算
+     */
+    public synchronized long getBacklogBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.tailMap(commitSegment, true).values()) {
+            bytes += segment == segments.lastEntry().getValue() ? segment.writeOffset : segment.capacity;
+        }
+        return bytes - commitOffset;
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public synchronized long getDroppedSegments() {
+        return droppedSegments;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "segments=" + segments.size() + ", appended=" + appended + ", read=" + readRecords
+                + ", backlogBytes=" + getBacklogBytes() + ", droppedSegments=" + droppedSegments;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.lastEntry().getValue().map.force();
+        cursor.force();
+        notifyAll();
+    }
+
+    /**
+     * 已读取或已提交的位置
+     */
+    public static class Position {
+        private final long segment;
+        private final int offset;
+        private final long records;
+
+        Position(long segment, int offset, long records) {
+            this.segment = segment;
+            this.offset = offset;
+            this.records = records;
+        }
+
+        /**
+         * @return 本次启动以来读取到这个位置的记录数
+         */
+        public long getRecords() {
+            return records;
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer map;
+        private final ByteBuffer view;
+        private final int capacity;
+        /**
+         * 写入位置;启动时已存在的旧段是capacity,读取到无效记录为止
+         */
+        private int writeOffset;
+
+        private Segment(long id, Path path, MappedByteBuffer map) {
+            this.id = id;
+            this.path = path;
+            this.map = map;
+            this.view = map.duplicate();
+            this.capacity = map.capacity();
+            this.writeOffset = capacity;
+        }
+
+        /**
+         * @param size 新建的段预先分配的大小,已存在的段为0
+         */
+        static Segment open(long id, Path path, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long length = Math.max(channel.size(), size);
+                Segment segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+                if (size > 0) {
+                    segment.writeOffset = 0;
+                }
+                return segment;
+            }
+        }
+
+        /**
+         * 段内容[from, to)的视图,复用同一个ByteBuffer,只能在锁内使用
+         */
+        ByteBuffer view(int from, int to) {
+            view.limit(to);
+            view.position(from);
+            return view;
+        }
+    }
+}
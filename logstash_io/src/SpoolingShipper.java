@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/6 9:30
+ * @Introduction: 先写入Spool再由后台线程发送的日志发送端,输入的速度不受接收端影响
+ * <p>
+ * 1、输入按行追加到spool,不等待发送
+ * 2、发送线程从spool读取,交给下游的发送端(udp或lumberjack),下游确认送达后提交spool的读取位置
+ * 3、接收端恢复后从已提交的位置继续发送;进程重启后同样从spool中未提交的位置继续,已发送未确认的行会重复发送
+ * 4、下游报告丢失(udp写入失败,getLost变化)时不再提交,读取位置回到已提交的位置重发;
+ * udp网络上的丢包下游感知不到,这部分仍然是最多一次
+ */
+public class SpoolingShipper implements LogShipper {
+    private static final long POLL_MILLIS = 100;
+
+    private final Spool spool;
+    private final LogShipper downstream;
+    private final long drainTimeoutMillis;
+    private final Thread drainer;
+    private volatile boolean running = true;
+    /**
+     * 已交给下游、还没有确认的位置,只由发送线程使用
+     */
+    private final ArrayDeque<Spool.Position> checkpoints = new ArrayDeque<>();
+    /**
+     * 下游送达行数与spool记录数的差,重发时下游重复计数的部分;只由发送线程使用
+     */
+    private long deliveredOffset;
+    /**
+     * 上次回退时下游的丢失行数
+     */
+    private long lostSeen;
+
+    /**
+     * @param drainTimeoutMillis 关闭时等待spool发送完的最长时间,剩余的行留在spool中
+     */
+    public SpoolingShipper(Spool spool, LogShipper downstream, long drainTimeoutMillis) {
+        this.spool = spool;
+        this.downstream = downstream;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.drainer = new Thread(this::drain, "spool-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    @Override
+    public LineSink newSink() {
+        return new LineSplitter(spool.getMaxRecord()) {
+            @Override
+            protected void line(byte[] bytes, int length) throws IOException {
+                spool.append(bytes, 0, length);
+            }
+
+            @Override
+            public void flush() {
+                //追加的记录对发送线程立即可见
+            }
+        };
+    }
+
+    @Override
+    public long getDelivered() {
+        return downstream.getDelivered();
+    }
+
+    /**
+     * 发送线程: spool -> 下游,按下游的送达行数提交
+     */
+    private void drain() {
+        LineSink sink = downstream.newSink();
+        byte[] buffer = new byte[Math.max(256 * 1024, spool.getMaxRecord() + 1)];
+        try {
+            while (running) {
+                int n = spool.read(buffer, POLL_MILLIS);
+                if (n > 0) {
+                    sink.write(buffer, 0, n);
+                    checkpoints.add(spool.readPosition());
+                } else {
+                    sink.flush();
+                }
+                if (downstream.getLost() != lostSeen) {
+                    rewind(sink);
+                    Thread.sleep(POLL_MILLIS);
+                    continue;
+                }
+                commit();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("spool drainer stopped: " + e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 下游丢失了已交出的行: 发出缓冲中剩余的行,之后的送达计数从已提交的位置重新对应
+     */
+    private void rewind(LineSink sink) throws IOException {
+        sink.flush();
+        lostSeen = downstream.getLost();
+        checkpoints.clear();
+        deliveredOffset = downstream.getDelivered() - spool.rewind().getRecords();
+    }
+
+    /**
+     * 提交下游已送达的最后一个位置;下游有未处理的丢失时送达行数不是前缀,不提交
+     */
+    private void commit() throws IOException {
+        if (downstream.getLost() != lostSeen) {
+            return;
+        }
+        long delivered = downstream.getDelivered() - deliveredOffset;
+        Spool.Position position = null;
+        while (!checkpoints.isEmpty() && checkpoints.peek().getRecords() <= delivered) {
+            position = checkpoints.poll();
+        }
+        if (position != null) {
+            spool.commit(position);
+        }
+    }
+
+    public Spool getSpool() {
+        return spool;
+    }
+
+    /**
+     * 等待spool发送完(最长drainTimeout),关闭下游和spool
+     */
+    @Override
+    public void close() throws IOException {
+        long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        try {
+            while (!spool.isDrained() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        try {
+            //下游关闭后发送线程的写入失败并退出
+            downstream.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + ", they remain in the spool");
+        }
+        try {
+            drainer.join();
+            commit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            spool.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * @Author: SayHello
+ * @Date: 2023/4/4 9:30
+ * @Introduction: udp日志发送端: 从输入流或跟踪的文件读取日志行,装成接近MTU大小的数据报发送给logstash的udp输入
+ * <p>
+ * 1、DatagramChannel在创建时connect到目标地址,之后每次write不再做地址解析和安全检查
+ * 2、每个输入一个线程、一个DatagramPacker(各自复用一个堆外缓冲区),共用同一个channel
+ * 3、输入暂时没有更多数据时立即发送已装好的行,交互输入和低流量时不会积压
+ * 4、JDK没有sendmmsg这类一次系统调用发送多个数据报的接口,批量体现在一个数据报装多行,系统调用次数按每个数据报的行数成倍减少
+ * <p>
+ * channel是阻塞的,本机发送缓冲区满时write阻塞,读取随之变慢;网络和接收端的丢包udp本身不感知。
+ * 投递语义是最多一次: getDelivered只统计写入socket成功的行,写入失败的行计入getLost,
+ * 需要不丢时通过SpoolingShipper发送,它在getLost变化时从spool已提交的位置重发
+ */
+public class UdpShipper implements LogShipper {
+    /**
+     * 1500字节的以太网MTU减去20字节IPv4头和8字节UDP头,不会被分片
+     */
+    public static final int DEFAULT_MAX_DATAGRAM = 1472;
+
+    private final DatagramChannel channel;
+    private final int maxDatagram;
+    private final ShipperStats stats = new ShipperStats();
+
+    /**
+     * @param target      logstash udp输入的地址
+     * @param localPort   本地端口,0表示由系统分配
+     * @param maxDatagram 单个数据报的最大字节数
+     * @param sendBuffer  socket发送缓冲区大小(字节),0表示使用系统默认值
+     */
+    public UdpShipper(InetSocketAddress target, int localPort, int maxDatagram, int sendBuffer) throws IOException {
+        if (maxDatagram < 2 || maxDatagram > 65507) {
+            throw new IllegalArgumentException("maxDatagram must be between 2 and 65507");
+        }
+        this.maxDatagram = maxDatagram;
+        this.channel = DatagramChannel.open();
+        if (sendBuffer > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBuffer);
+        }
+        channel.bind(new InetSocketAddress(localPort));
+        channel.connect(target);
+    }
+
+    @Override
+    public DatagramPacker newSink() {
+        return new DatagramPacker(channel, maxDatagram, stats);
+    }
+
+    @Override
+    public long getDelivered() {
+        return stats.getSent();
+    }
+
+    @Override
+    public long getLost() {
+        return stats.getDropped();
+    }
+
+    public ShipperStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}